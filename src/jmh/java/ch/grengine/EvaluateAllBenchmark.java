@@ -0,0 +1,101 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.source.Source;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for evaluating a rule script over many records,
+ * either in a loop with {@link Grengine#run(Source, Map)}
+ * or with {@link Grengine#evaluateAll(Source, Iterable)}.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateAllBenchmark {
+
+    private static final String TEXT = "amount > limit ? 'review' : (country == 'CH' ? 'domestic' : 'foreign')";
+
+    @Param({ "10000" })
+    public int recordCount;
+
+    private Grengine gren;
+    private Source source;
+    private List<Map<String,Object>> records;
+
+    @Setup
+    public void setup() {
+        gren = new Grengine();
+        source = gren.source(TEXT);
+        records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            final Map<String,Object> record = new HashMap<>();
+            record.put("amount", i % 1000);
+            record.put("limit", 900);
+            record.put("country", (i % 3 == 0) ? "CH" : "DE");
+            records.add(record);
+        }
+        // compile once, benchmarks below measure the cached case
+        gren.load(source);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gren.close();
+    }
+
+    @Benchmark
+    public List<Object> runLoop() {
+        final List<Object> results = new ArrayList<>(records.size());
+        for (Map<String,Object> record : records) {
+            results.add(gren.run(source, record));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<Object> evaluateAll() {
+        return gren.evaluateAll(source, records);
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.source.Source;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for evaluating an expression script with 10 variables,
+ * either with {@link Grengine#run(Source, Map)} (variables in the binding)
+ * or as a script created with {@link Grengine#createFunction(Class, String, String...)}
+ * (variables as arguments of a direct interface call).
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionBenchmark {
+
+    private static final String TEXT = "a + b + c + d + e + f + g + h + i + j";
+    private static final String[] NAMES = { "a", "b", "c", "d", "e", "f", "g", "h", "i", "j" };
+
+    /**
+     * Functional interface with 10 parameters.
+     */
+    public interface Function10 {
+        Object apply(Object a, Object b, Object c, Object d, Object e,
+                Object f, Object g, Object h, Object i, Object j);
+    }
+
+    private Grengine gren;
+    private Source source;
+    private Map<String,Object> bindingMap;
+    private Function10 function;
+
+    @Setup
+    public void setup() {
+        gren = new Grengine();
+        source = gren.source(TEXT);
+        bindingMap = new HashMap<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            bindingMap.put(NAMES[i], i);
+        }
+        // compile once, benchmarks below measure the cached case
+        gren.load(source);
+        function = gren.createFunction(Function10.class, TEXT, NAMES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gren.close();
+    }
+
+    @Benchmark
+    public Object runMap() {
+        return gren.run(source, bindingMap);
+    }
+
+    @Benchmark
+    public Object function() {
+        return function.apply(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    }
+
+}
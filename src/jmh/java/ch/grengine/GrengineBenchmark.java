@@ -0,0 +1,91 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine;
+
+import ch.grengine.source.Source;
+
+import java.util.concurrent.TimeUnit;
+
+import groovy.lang.Binding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for running, loading and creating scripts with {@link Grengine}.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrengineBenchmark {
+
+    private static final String TEXT = "return x + 1";
+
+    private Grengine gren;
+    private Source source;
+    private Binding binding;
+
+    @Setup
+    public void setup() {
+        gren = new Grengine();
+        source = gren.source(TEXT);
+        binding = new Binding();
+        binding.setVariable("x", 1);
+        // compile once, all benchmarks below measure the cached case
+        gren.load(source);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gren.close();
+    }
+
+    @Benchmark
+    public Object runText() {
+        return gren.run(TEXT, binding);
+    }
+
+    @Benchmark
+    public Object runSource() {
+        return gren.run(source, binding);
+    }
+
+    @Benchmark
+    public Class<?> load() {
+        return gren.load(source);
+    }
+
+    @Benchmark
+    public Object create() {
+        return gren.create(source);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.code.Code;
+import ch.grengine.code.Compiler;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.code.groovy.ProcessGroovyCompilerFactory;
+import ch.grengine.source.DefaultSourceFactory;
+import ch.grengine.source.SourceFactory;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for compiling a new script each time, either in-process
+ * with a {@link DefaultGroovyCompiler} or in worker JVMs with a compiler
+ * from a {@link ProcessGroovyCompilerFactory}.
+ * <p>
+ * Run with the GC profiler ("-prof gc") to compare allocation and GC counts
+ * and times in the benchmark JVM.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessCompilerBenchmark {
+
+    private static final String TEXT = "class Util%d { static int twice(int x) { 2 * x } }\n" +
+            "def list = (0..<10).collect { Util%d.twice(it) }\n" +
+            "return list.sum() + x";
+
+    private SourceFactory sourceFactory;
+    private Compiler inProcessCompiler;
+    private ProcessGroovyCompilerFactory processCompilerFactory;
+    private Compiler processCompiler;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        sourceFactory = new DefaultSourceFactory();
+        inProcessCompiler = new DefaultGroovyCompiler();
+        processCompilerFactory = new ProcessGroovyCompilerFactory();
+        processCompiler = processCompilerFactory.newCompiler(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        processCompilerFactory.close();
+    }
+
+    @Benchmark
+    public Code inProcess() {
+        return inProcessCompiler.compile(nextSources());
+    }
+
+    @Benchmark
+    public Code outOfProcess() {
+        return processCompiler.compile(nextSources());
+    }
+
+    private Sources nextSources() {
+        final int n = counter++;
+        return SourcesUtil.sourceToSources(sourceFactory.fromText(String.format(TEXT, n, n)));
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.source.Source;
+
+import java.util.concurrent.TimeUnit;
+
+import groovy.lang.Binding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for running a script with an expensive field initializer
+ * repeatedly with {@link Grengine#run(Source, Binding)}, either creating
+ * a new script instance per run (default) or with script reuse enabled
+ * (see {@link Grengine.Builder#setScriptReuse(boolean)}).
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptReuseBenchmark {
+
+    private static final String TEXT = "@groovy.transform.Field final Map<Integer,String> names = " +
+            "(0..<1000).collectEntries { [it, 'name' + it] }\n" +
+            "return names[x]";
+
+    private Grengine newGren;
+    private Source newSource;
+    private Grengine reuseGren;
+    private Source reuseSource;
+    private Binding binding;
+
+    @Setup
+    public void setup() {
+        newGren = new Grengine();
+        newSource = newGren.source(TEXT);
+        reuseGren = new Grengine.Builder().setScriptReuse(true).build();
+        reuseSource = reuseGren.source(TEXT);
+        binding = new Binding();
+        binding.setVariable("x", 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        newGren.close();
+        reuseGren.close();
+    }
+
+    @Benchmark
+    public Object newInstance() {
+        return newGren.run(newSource, binding);
+    }
+
+    @Benchmark
+    public Object reuseInstance() {
+        return reuseGren.run(reuseSource, binding);
+    }
+
+}
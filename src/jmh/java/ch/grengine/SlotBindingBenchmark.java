@@ -0,0 +1,95 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.concurrent.TimeUnit;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for running a script instance with 10 variables repeatedly,
+ * either with a map-based {@link Binding} or with a {@link SlotBinding}
+ * whose layout was obtained with {@link Grengine#slotLayout(String)},
+ * setting all variables before each run.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlotBindingBenchmark {
+
+    private static final String TEXT = "a + b + c + d + e + f + g + h + i + j";
+    private static final String[] NAMES = { "a", "b", "c", "d", "e", "f", "g", "h", "i", "j" };
+
+    private Grengine gren;
+    private Script mapScript;
+    private Binding mapBinding;
+    private Script slotScript;
+    private SlotBinding slotBinding;
+
+    @Setup
+    public void setup() {
+        gren = new Grengine();
+        mapBinding = new Binding();
+        mapScript = gren.create(TEXT);
+        mapScript.setBinding(mapBinding);
+        slotBinding = gren.slotLayout(TEXT).newBinding();
+        slotScript = gren.create(TEXT);
+        slotScript.setBinding(slotBinding);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gren.close();
+    }
+
+    @Benchmark
+    public Object mapBinding() {
+        for (int i = 0; i < NAMES.length; i++) {
+            mapBinding.setVariable(NAMES[i], i);
+        }
+        return mapScript.run();
+    }
+
+    @Benchmark
+    public Object slotBinding() {
+        final Object[] values = slotBinding.getValues();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        return slotScript.run();
+    }
+
+}
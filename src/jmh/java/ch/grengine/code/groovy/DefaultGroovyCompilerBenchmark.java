@@ -0,0 +1,76 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code.groovy;
+
+import ch.grengine.code.Code;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.sources.FixedSetSources;
+import ch.grengine.sources.Sources;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmark for compiling sources with the {@link DefaultGroovyCompiler}.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DefaultGroovyCompilerBenchmark {
+
+    @Param({ "1", "100", "1000" })
+    public int nSources;
+
+    private Sources sources;
+
+    @Setup
+    public void setup() {
+        final Set<Source> sourceSet = new LinkedHashSet<>();
+        for (int i = 0; i < nSources; i++) {
+            sourceSet.add(new DefaultTextSource("def x = " + i + "\n" +
+                    "def list = (1..x).collect { it * 2 }\n" +
+                    "return list.sum()", "Script" + i));
+        }
+        sources = new FixedSetSources.Builder(sourceSet).build();
+    }
+
+    @Benchmark
+    public Code compile() {
+        return new DefaultGroovyCompiler().compile(sources);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.engine;
+
+import ch.grengine.code.Code;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.sources.FixedSetSources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmarks for loading classes from a {@link LayeredEngine} under contention
+ * and for replacing its code layers.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayeredEngineBenchmark {
+
+    private static final int N_SOURCES = 100;
+
+    private LayeredEngine engine;
+    private List<Source> sources;
+    private List<Code> codeLayersA;
+    private List<Code> codeLayersB;
+    private boolean isA;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+    }
+
+    @Setup
+    public void setup() {
+        sources = new ArrayList<>();
+        for (int i = 0; i < N_SOURCES; i++) {
+            sources.add(new DefaultTextSource("return " + i, "Script" + i));
+        }
+        codeLayersA = compileLayers(sources);
+        codeLayersB = compileLayers(sources);
+        engine = new LayeredEngine.Builder().build();
+        engine.setCodeLayers(codeLayersA);
+        isA = true;
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    private static List<Code> compileLayers(final List<Source> sources) {
+        final Set<Source> sourceSet = new LinkedHashSet<>(sources);
+        final Code code = new DefaultGroovyCompiler().compile(new FixedSetSources.Builder(sourceSet).build());
+        return Collections.singletonList(code);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Class<?> loadMainClassContended(final ThreadState state) {
+        final Source source = sources.get(state.index++ % N_SOURCES);
+        return engine.loadMainClass(engine.getLoader(), source);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Class<?> loadMainClassUncontended(final ThreadState state) {
+        final Source source = sources.get(state.index++ % N_SOURCES);
+        return engine.loadMainClass(engine.getLoader(), source);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Loader setCodeLayersSwap() {
+        isA = !isA;
+        engine.setCodeLayers(isA ? codeLayersA : codeLayersB);
+        return engine.getLoader();
+    }
+
+}
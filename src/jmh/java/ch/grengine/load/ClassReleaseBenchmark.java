@@ -0,0 +1,115 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.code.SingleSourceCode;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmark for the time the calling thread spends releasing the classes
+ * of a closed loader with the {@link DefaultClassReleaser}.
+ * <p>
+ * Releases 20'000 distinct classes per iteration, each with Groovy metadata
+ * (meta class) created before, either one class after the other in the calling
+ * thread or with {@link ClassReleaser#releaseAll(java.util.Collection)}, where
+ * the calling thread only hands over the batch (waiting for the returned future
+ * at the end of the iteration, outside of the measured time).
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClassReleaseBenchmark {
+
+    private static final int CLASS_COUNT = 20_000;
+
+    @Param({ "false", "true" })
+    public boolean async;
+
+    private ClassLoader parent;
+    private Source source;
+    private SingleSourceCode code;
+    private final ClassReleaser releaser = DefaultClassReleaser.getInstance();
+    private final List<Class<?>> classes = new ArrayList<>();
+    private CompletableFuture<Void> future;
+
+    @Setup
+    public void setup() {
+        parent = Thread.currentThread().getContextClassLoader();
+        source = new DefaultTextSource("return Math.max(1, 2)");
+        code = (SingleSourceCode)new DefaultGroovyCompiler().compile(SourcesUtil.sourceToSources(source));
+    }
+
+    @Setup(Level.Iteration)
+    public void defineClasses() {
+        classes.clear();
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            final Class<?> clazz = new BytecodeClassLoader(parent, LoadMode.PARENT_FIRST, code).loadMainClass(source);
+            InvokerHelper.getMetaClass(clazz);
+            classes.add(clazz);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void awaitRelease() {
+        if (future != null) {
+            future.join();
+            future = null;
+        }
+    }
+
+    @Benchmark
+    public void releaseClasses() {
+        if (async) {
+            future = releaser.releaseAll(classes);
+        } else {
+            for (Class<?> clazz : classes) {
+                releaser.release(clazz);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.code.Bytecode;
+import ch.grengine.code.SingleSourceCode;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.sources.SourcesUtil;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmark for the churn of short-lived script classes from the top code cache,
+ * defined either each by its own {@link BytecodeClassLoader} (as without hidden classes)
+ * or as hidden classes by a single {@link HiddenClassDefiner}.
+ * <p>
+ * Defines 1M classes in total (5 iterations of 200'000) from the bytecode of a compiled script,
+ * each class a distinct class that is immediately dropped, and reports the number of classes
+ * unloaded per iteration (after a GC at the end of the iteration) as an auxiliary counter.
+ * Hidden classes require Java 15 or later and Groovy 4 or later, else setup fails for them.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = 200_000)
+@Measurement(iterations = 5, batchSize = 200_000)
+@Fork(1)
+public class HiddenClassChurnBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean hidden;
+
+    private ClassLoader parent;
+    private Source source;
+    private SingleSourceCode code;
+    private Bytecode bytecode;
+    private HiddenClassDefiner definer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Unloading {
+        private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        private long unloadedBefore;
+        public long unloadedClasses;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            unloadedBefore = classLoading.getUnloadedClassCount();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            System.gc();
+            unloadedClasses = classLoading.getUnloadedClassCount() - unloadedBefore;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        if (hidden && !HiddenClassDefiner.isSupported()) {
+            throw new IllegalStateException("Hidden classes not supported (requires Java 15+ and Groovy 4+).");
+        }
+        parent = Thread.currentThread().getContextClassLoader();
+        source = new DefaultTextSource("return Math.max(1, 2)");
+        code = (SingleSourceCode)new DefaultGroovyCompiler().compile(SourcesUtil.sourceToSources(source));
+        bytecode = code.getBytecode(code.getMainClassName());
+        definer = new HiddenClassDefiner(parent);
+    }
+
+    @Benchmark
+    public Class<?> defineClass(final Unloading unloading) {
+        if (hidden) {
+            return definer.defineClass(bytecode);
+        } else {
+            return new BytecodeClassLoader(parent, LoadMode.PARENT_FIRST, code).loadMainClass(source);
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmark for loading scripts from the top code cache of a {@link LayeredClassLoader},
+ * with one class loader per script (bucket size 0) or with top loader buckets,
+ * reporting metaspace used per script as an auxiliary counter.
+ * <p>
+ * Scripts are compiled in setup, so that only defining the script classes is measured.
+ * Note that JMH sums the counter over measurement iterations.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TopLoaderBucketBenchmark {
+
+    private static final int N_SOURCES = 500;
+
+    @Param({ "0", "100", "1000" })
+    public int topLoaderBucketSize;
+
+    private List<Source> sources;
+    private TopCodeCache topCodeCache;
+    private MemoryPoolMXBean metaspace;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Metaspace {
+        public long metaspaceBytesPerScript;
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // new sources per iteration, else classes would already have been compiled
+        final long nanos = System.nanoTime();
+        sources = new ArrayList<>();
+        for (int i = 0; i < N_SOURCES; i++) {
+            sources.add(new DefaultTextSource("return " + i + " + " + nanos));
+        }
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        topCodeCache = new DefaultTopCodeCache.Builder(parent).build();
+        for (Source source : sources) {
+            topCodeCache.getUpToDateCode(source);
+        }
+        metaspace = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> "Metaspace".equals(pool.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No metaspace memory pool."));
+        System.gc();
+    }
+
+    @Benchmark
+    public LayeredClassLoader loadScripts(final Metaspace counters) {
+        final long usedBefore = metaspace.getUsage().getUsed();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setWithTopCodeCache(true, topCodeCache)
+                .setTopLoaderBucketSize(topLoaderBucketSize)
+                .buildFromCodeLayers();
+        for (Source source : sources) {
+            loader.loadMainClass(source);
+        }
+        counters.metaspaceBytesPerScript = (metaspace.getUsage().getUsed() - usedBefore) / N_SOURCES;
+        return loader;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.sources;
+
+import ch.grengine.source.Source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH benchmark for polling {@link DirBasedSources} for modifications,
+ * with latency zero, so that each call scans the directory.
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirBasedSourcesBenchmark {
+
+    @Param({ "10", "1000" })
+    public int nFiles;
+
+    @Param({ "NO_SUBDIRS", "WITH_SUBDIRS_RECURSIVE" })
+    public DirMode dirMode;
+
+    private File dir;
+    private DirBasedSources sources;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("grengine-jmh-").toFile();
+        for (int i = 0; i < nFiles; i++) {
+            final File subDir = new File(dir, "sub" + (i % 10));
+            final File file = new File(dirMode == DirMode.NO_SUBDIRS ? dir : subDir, "Script" + i + ".groovy");
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Could not create dir " + file.getParentFile());
+            }
+            Files.write(file.toPath(), ("return " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        sources = new DirBasedSources.Builder(dir)
+                .setDirMode(dirMode)
+                .setLatencyMs(0)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(final File file) throws IOException {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+
+    @Benchmark
+    public long pollLastModified() {
+        return sources.getLastModified();
+    }
+
+    @Benchmark
+    public Set<Source> pollSourceSet() {
+        return sources.getSourceSet();
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Default executors for running scripts asynchronously,
+ * see {@link BaseGrengine#runAsync(ch.grengine.engine.Loader, ch.grengine.source.Source, groovy.lang.Binding)}.
+ * <p>
+ * The default run executor starts a new virtual thread per task on Java 21 and later
+ * and is the common fork join pool on older Java versions.
+ * <p>
+ * The default compile executor is a bounded pool of daemon threads, one per
+ * available processor, shared by all Grengine instances and created lazily,
+ * so that compiling on a cache miss never blocks script execution threads.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class AsyncExecutors {
+
+    // package scope for unit tests
+    static final String COMPILE_THREAD_NAME_PREFIX = "grengine-compiler-";
+
+    // available in Java 21 and later
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR_METHOD;
+    static {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR_METHOD = method;
+    }
+
+    private static final Object LOCK = new Object();
+    private static volatile Executor runExecutor;
+    private static volatile ExecutorService compileExecutor;
+
+    private AsyncExecutors() {
+    }
+
+    /**
+     * gets the default executor for running scripts, creating it if not yet created.
+     *
+     * @return executor, never null
+     *
+     * @since 3.2
+     */
+    static Executor getDefaultRunExecutor() {
+        if (runExecutor == null) {
+            synchronized (LOCK) {
+                if (runExecutor == null) {
+                    runExecutor = newVirtualThreadPerTaskExecutorOrNull();
+                    if (runExecutor == null) {
+                        runExecutor = ForkJoinPool.commonPool();
+                    }
+                }
+            }
+        }
+        return runExecutor;
+    }
+
+    /**
+     * gets the default executor for compiling (and loading) scripts, creating it if not yet created.
+     *
+     * @return executor, never null
+     *
+     * @since 3.2
+     */
+    static Executor getDefaultCompileExecutor() {
+        if (compileExecutor == null) {
+            synchronized (LOCK) {
+                if (compileExecutor == null) {
+                    final int nThreads = Runtime.getRuntime().availableProcessors();
+                    final AtomicInteger count = new AtomicInteger();
+                    final ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads,
+                            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                                final Thread thread = new Thread(r,
+                                        COMPILE_THREAD_NAME_PREFIX + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    executor.allowCoreThreadTimeOut(true);
+                    compileExecutor = executor;
+                }
+            }
+        }
+        return compileExecutor;
+    }
+
+    // package scope for unit tests
+    static boolean isVirtualThreadPerTaskExecutorAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR_METHOD != null;
+    }
+
+    private static Executor newVirtualThreadPerTaskExecutorOrNull() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR_METHOD == null) {
+            return null;
+        }
+        try {
+            return (Executor)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR_METHOD.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package ch.grengine;
 import ch.grengine.except.CompileException;
 import ch.grengine.except.CreateException;
 import ch.grengine.except.LoadException;
+import ch.grengine.source.DefaultFunctionSource;
 import ch.grengine.source.Source;
 import ch.grengine.engine.Engine;
 import ch.grengine.engine.Loader;
@@ -28,11 +29,17 @@ import java.io.Closeable;
 import java.io.File;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import groovy.lang.Binding;
 import groovy.lang.Script;
 
+import static java.util.Objects.requireNonNull;
+
 
 /**
  * Abstract base {@link Grengine}.
@@ -67,6 +74,31 @@ public abstract class BaseGrengine implements Closeable {
      * @since 1.0
      */
     protected Loader loader;
+
+    /**
+     * the executor for running scripts asynchronously, see {@link #runAsync(Loader, Source, Binding)}.
+     *
+     * @since 3.2
+     */
+    protected Executor runExecutor = AsyncExecutors.getDefaultRunExecutor();
+
+    /**
+     * the executor for compiling and loading scripts before running them asynchronously,
+     * see {@link #runAsync(Loader, Source, Binding)}.
+     *
+     * @since 3.2
+     */
+    protected Executor compileExecutor = AsyncExecutors.getDefaultCompileExecutor();
+
+    /**
+     * whether to reuse script instances per thread when running scripts,
+     * see {@link #run(Loader, Source, Binding)}.
+     *
+     * @since 3.2
+     */
+    protected boolean isScriptReuse;
+
+    private final ScriptReuseCache scriptReuseCache = new ScriptReuseCache(this);
     
     /**
      * constructor.
@@ -89,6 +121,39 @@ public abstract class BaseGrengine implements Closeable {
         return engine;
     }
 
+    /**
+     * gets the executor for running scripts asynchronously.
+     *
+     * @return run executor
+     *
+     * @since 3.2
+     */
+    public Executor getRunExecutor() {
+        return runExecutor;
+    }
+
+    /**
+     * gets the executor for compiling and loading scripts before running them asynchronously.
+     *
+     * @return compile executor
+     *
+     * @since 3.2
+     */
+    public Executor getCompileExecutor() {
+        return compileExecutor;
+    }
+
+    /**
+     * gets whether script instances are reused per thread when running scripts.
+     *
+     * @return whether script instances are reused
+     *
+     * @since 3.2
+     */
+    public boolean isScriptReuse() {
+        return isScriptReuse;
+    }
+
     /**
      * gets the default loader instance, which is implicitly used when no specific loader is indicated.
      *
@@ -249,6 +314,20 @@ public abstract class BaseGrengine implements Closeable {
      */
     public abstract Class<?> loadClass(String name);
 
+    /**
+     * requests to abort all compiles currently running in the engine, i.e. compiles on the fly
+     * of scripts and compiles of code layers from sources (see {@link Engine#cancelCompiles()}).
+     * <p>
+     * Aborted compiles fail with a {@link ch.grengine.except.CompileAbortedException}.
+     *
+     * @return whether cancelling is supported by the engine
+     *
+     * @since 3.2
+     */
+    public boolean cancelCompiles() {
+        return engine.cancelCompiles();
+    }
+
     /**
      * release metadata for all classed ever loaded using this engine.
      * <p>
@@ -264,6 +343,7 @@ public abstract class BaseGrengine implements Closeable {
     @Override
     public void close() {
         engine.close();
+        scriptReuseCache.clear();
     }
 
     /**
@@ -742,6 +822,73 @@ public abstract class BaseGrengine implements Closeable {
     }
 
 
+    /**
+     * creates a script that implements the given functional interface (default loader,
+     * text-based function source), compiling and loading first if necessary.
+     * <p>
+     * The script body becomes the implementation of the single abstract method of the
+     * interface, with the method arguments available in the script under the given
+     * parameter names, so that invoking the script is a direct interface call,
+     * without looking up these variables in a {@link Binding}.
+     * <p>
+     * Variables that are not parameters are still looked up in the binding of the script,
+     * which is initially empty.
+     *
+     * @param <T> type of the functional interface
+     * @param functionInterface functional interface, must be visible to the parent class loader
+     * @param text script text
+     * @param parameterNames names of the parameters of the function method, as used in the script
+     *
+     * @return new instance
+     * @throws IllegalArgumentException if the functional interface is not an interface
+     *     with exactly one abstract method or the number of parameter names does not match
+     * @throws CompileException if compiling failed
+     * @throws LoadException if loading failed
+     * @throws CreateException if could not create the instance or is not a script
+     *
+     * @see DefaultFunctionSource
+     *
+     * @since 3.2
+     */
+    public <T> T createFunction(final Class<T> functionInterface, final String text,
+            final String... parameterNames) {
+        return createFunction(loader, functionInterface, text, parameterNames);
+    }
+
+    /**
+     * creates a script that implements the given functional interface (given loader,
+     * text-based function source), compiling and loading first if necessary.
+     * <p>
+     * See {@link #createFunction(Class, String, String...)} for details.
+     *
+     * @param <T> type of the functional interface
+     * @param loader loader
+     * @param functionInterface functional interface, must be visible to the parent class loader
+     * @param text script text
+     * @param parameterNames names of the parameters of the function method, as used in the script
+     *
+     * @return new instance
+     * @throws IllegalArgumentException if the functional interface is not an interface
+     *     with exactly one abstract method or the number of parameter names does not match
+     * @throws CompileException if compiling failed
+     * @throws LoadException if loading failed
+     * @throws CreateException if could not create the instance or is not a script
+     *
+     * @since 3.2
+     */
+    public <T> T createFunction(final Loader loader, final Class<T> functionInterface, final String text,
+            final String... parameterNames) {
+        final Script script = create(loader, new DefaultFunctionSource(text, functionInterface, parameterNames));
+        try {
+            return functionInterface.cast(script);
+        } catch (ClassCastException e) {
+            throw new CreateException("Script for class '" + script.getClass().getCanonicalName() +
+                    "' does not implement " + functionInterface.getName() +
+                    " (function interface not visible to parent class loader?).", e);
+        }
+    }
+
+
     /**
      * creates an empty binding.
      * <p>
@@ -884,7 +1031,84 @@ public abstract class BaseGrengine implements Closeable {
         }
         return new Binding(map);
     }
-        
+
+
+    /**
+     * gets the slot layout for a {@link SlotBinding} of the given script (default loader,
+     * text-based source), i.e. for the variables that the script accesses in its binding,
+     * compiling first if necessary.
+     *
+     * @param text script text
+     *
+     * @return new slot layout
+     * @throws CompileException if compiling failed
+     * @throws LoadException if the source was not found
+     *
+     * @since 3.2
+     */
+    public SlotLayout slotLayout(final String text) {
+        return slotLayout(loader, sourceFactory.fromText(text));
+    }
+
+    /**
+     * gets the slot layout for a {@link SlotBinding} of the given script (given loader,
+     * text-based source), i.e. for the variables that the script accesses in its binding,
+     * compiling first if necessary.
+     *
+     * @param loader loader
+     * @param text script text
+     *
+     * @return new slot layout
+     * @throws CompileException if compiling failed
+     * @throws LoadException if the source was not found
+     *
+     * @since 3.2
+     */
+    public SlotLayout slotLayout(final Loader loader, final String text) {
+        return slotLayout(loader, sourceFactory.fromText(text));
+    }
+
+    /**
+     * gets the slot layout for a {@link SlotBinding} of the given script (default loader,
+     * given source), i.e. for the variables that the script accesses in its binding,
+     * compiling first if necessary.
+     *
+     * @param source source
+     *
+     * @return new slot layout
+     * @throws CompileException if compiling failed
+     * @throws LoadException if the source was not found
+     *
+     * @since 3.2
+     */
+    public SlotLayout slotLayout(final Source source) {
+        return slotLayout(loader, source);
+    }
+
+    /**
+     * gets the slot layout for a {@link SlotBinding} of the given script (given loader,
+     * given source), i.e. for the variables that the script accesses in its binding,
+     * compiling first if necessary.
+     * <p>
+     * The variable names are determined when compiling the source and are in order of
+     * their first occurrence in the source.
+     * Creating a layout is relatively costly, so callers should keep it for repeated use.
+     *
+     * @param loader loader
+     * @param source source
+     *
+     * @return new slot layout
+     * @throws CompileException if compiling failed
+     * @throws LoadException if the source was not found
+     *
+     * @since 3.2
+     */
+    public SlotLayout slotLayout(final Loader loader, final Source source) {
+        // also updates code layers if needed
+        loadMainClass(loader, source);
+        return new SlotLayout(engine.getVariableNames(loader, source));
+    }
+
     
     /**
      * runs the given script (empty binding).
@@ -1508,6 +1732,13 @@ public abstract class BaseGrengine implements Closeable {
     /**
      * creates and runs a script (given loader, given source, given binding),
      * compiling and loading first if necessary.
+     * <p>
+     * If {@link #isScriptReuse() script reuse} is enabled, a script instance
+     * is cached per thread, loader and source and reused for subsequent runs on
+     * the same thread, with the binding reset to the given binding each time;
+     * the cached instance is replaced when the main class changes, e.g. after
+     * a recompile or a layer update. Scripts run this way must not keep state
+     * in fields between runs.
      *
      * @param loader loader
      * @param source source
@@ -1522,9 +1753,287 @@ public abstract class BaseGrengine implements Closeable {
      * @since 1.0
      */
     public Object run(final Loader loader, final Source source, final Binding binding) {
+        if (isScriptReuse) {
+            return scriptReuseCache.run(loader, source, loadMainClass(loader, source), binding);
+        }
         final Script script = create(loader, source);
         script.setBinding(binding);
         return script.run();
     }
 
+    /**
+     * evaluates a script once for each of the given binding maps, in parallel
+     * (default loader, given source, common fork join pool),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #evaluateAll(Loader, Source, Iterable, ForkJoinPool)} for details.
+     *
+     * @param source source
+     * @param bindingMaps binding maps, one per evaluation
+     *
+     * @return what the script returned, in the order of the binding maps
+     * @throws CompileException if compiling failed
+     * @throws LoadException if loading failed
+     * @throws CreateException if could not create the instance or is not a script
+     * @throws NullPointerException if the binding maps are null
+     * @grengine.scriptthrows {@link Throwable} - anything (checked or unchecked) that {@link Script#run()} may throw
+     *
+     * @since 3.2
+     */
+    public List<Object> evaluateAll(final Source source, final Iterable<Map<String,Object>> bindingMaps) {
+        return evaluateAll(loader, source, bindingMaps, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * evaluates a script once for each of the given binding maps, in parallel
+     * (given loader, given source, common fork join pool),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #evaluateAll(Loader, Source, Iterable, ForkJoinPool)} for details.
+     *
+     * @param loader loader
+     * @param source source
+     * @param bindingMaps binding maps, one per evaluation
+     *
+     * @return what the script returned, in the order of the binding maps
+     * @throws CompileException if compiling failed
+     * @throws LoadException if loading failed
+     * @throws CreateException if could not create the instance or is not a script
+     * @throws NullPointerException if the binding maps are null
+     * @grengine.scriptthrows {@link Throwable} - anything (checked or unchecked) that {@link Script#run()} may throw
+     *
+     * @since 3.2
+     */
+    public List<Object> evaluateAll(final Loader loader, final Source source,
+            final Iterable<Map<String,Object>> bindingMaps) {
+        return evaluateAll(loader, source, bindingMaps, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * evaluates a script once for each of the given binding maps, in parallel
+     * (given loader, given source, given fork join pool),
+     * compiling and loading first if necessary.
+     * <p>
+     * The main class is loaded only once. The binding maps are split into ranges
+     * that are evaluated in the given pool, each with a single script instance
+     * that gets a new binding for each binding map, so note that script fields
+     * (e.g. annotated with <code>@Field</code>) are shared by evaluations in the same range.
+     * <p>
+     * If the script throws for any binding map, evaluation stops as soon as possible
+     * and the first exception thrown is rethrown.
+     *
+     * @param loader loader
+     * @param source source
+     * @param bindingMaps binding maps, one per evaluation
+     * @param pool fork join pool to evaluate in
+     *
+     * @return what the script returned, in the order of the binding maps
+     * @throws CompileException if compiling failed
+     * @throws LoadException if loading failed
+     * @throws CreateException if could not create the instance or is not a script
+     * @throws NullPointerException if the binding maps or the pool are null
+     * @grengine.scriptthrows {@link Throwable} - anything (checked or unchecked) that {@link Script#run()} may throw
+     *
+     * @since 3.2
+     */
+    public List<Object> evaluateAll(final Loader loader, final Source source,
+            final Iterable<Map<String,Object>> bindingMaps, final ForkJoinPool pool) {
+        requireNonNull(bindingMaps, "Binding maps are null.");
+        requireNonNull(pool, "Pool is null.");
+        return BulkEvaluator.evaluate(this, loadMainClass(loader, source), bindingMaps, pool);
+    }
+
+    /**
+     * creates and runs a script asynchronously (default loader, script text, empty binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param text script text
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final String text) {
+        return runAsync(loader, sourceFactory.fromText(text), new Binding());
+    }
+
+    /**
+     * creates and runs a script asynchronously (default loader, script text, given binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param text script text
+     * @param bindingMap binding map
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final String text, final Map<String,Object> bindingMap) {
+        return runAsync(loader, sourceFactory.fromText(text), new Binding(bindingMap));
+    }
+
+    /**
+     * creates and runs a script asynchronously (default loader, script text, given binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param text script text
+     * @param binding binding
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final String text, final Binding binding) {
+        return runAsync(loader, sourceFactory.fromText(text), binding);
+    }
+
+    /**
+     * creates and runs a script asynchronously (default loader, given source, empty binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param source source
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final Source source) {
+        return runAsync(loader, source, new Binding());
+    }
+
+    /**
+     * creates and runs a script asynchronously (default loader, given source, given binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param source source
+     * @param bindingMap binding map
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final Source source, final Map<String,Object> bindingMap) {
+        return runAsync(loader, source, new Binding(bindingMap));
+    }
+
+    /**
+     * creates and runs a script asynchronously (default loader, given source, given binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param source source
+     * @param binding binding
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final Source source, final Binding binding) {
+        return runAsync(loader, source, binding);
+    }
+
+    /**
+     * creates and runs a script asynchronously (given loader, given source, empty binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param loader loader
+     * @param source source
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final Loader loader, final Source source) {
+        return runAsync(loader, source, new Binding());
+    }
+
+    /**
+     * creates and runs a script asynchronously (given loader, given source, given binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * See {@link #runAsync(Loader, Source, Binding)} for details.
+     *
+     * @param loader loader
+     * @param source source
+     * @param bindingMap binding map
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final Loader loader, final Source source, final Map<String,Object> bindingMap) {
+        return runAsync(loader, source, new Binding(bindingMap));
+    }
+
+    /**
+     * creates and runs a script asynchronously (given loader, given source, given binding),
+     * compiling and loading first if necessary.
+     * <p>
+     * If compiling is needed (see {@link #isCompileNeeded(Loader, Source)}), compiling
+     * and loading is done with the {@link #getCompileExecutor() compile executor},
+     * so that threads of the {@link #getRunExecutor() run executor} do not block
+     * on compiling a script; everything else, including checking whether compiling
+     * is needed and creating and running the script, is done with the run executor.
+     * <p>
+     * If the source is modified between checking and loading, it is compiled
+     * with the run executor.
+     * <p>
+     * Exceptions are not thrown but complete the returned future exceptionally,
+     * e.g. with a {@link CompileException} if compiling failed or with
+     * whatever {@link Script#run()} threw.
+     *
+     * @param loader loader
+     * @param source source
+     * @param binding binding
+     *
+     * @return future with what the script returned
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Object> runAsync(final Loader loader, final Source source, final Binding binding) {
+        return CompletableFuture.supplyAsync(() -> isCompileNeeded(loader, source), runExecutor)
+                .thenCompose(isCompileNeeded -> {
+                    if (!isCompileNeeded) {
+                        return CompletableFuture.completedFuture(run(create(loadMainClass(loader, source)), binding));
+                    }
+                    return CompletableFuture.supplyAsync(() -> loadMainClass(loader, source), compileExecutor)
+                            .thenApplyAsync(clazz -> run(create(clazz), binding), runExecutor);
+                });
+    }
+
+    /**
+     * gets whether loading the main class of the given source with the given loader
+     * would have to compile first.
+     * <p>
+     * The default implementation asks the engine, see {@link Engine#isCompileNeeded(Loader, Source)}.
+     *
+     * @param loader loader
+     * @param source source
+     *
+     * @return whether compiling would be needed
+     *
+     * @since 3.2
+     */
+    protected boolean isCompileNeeded(final Loader loader, final Source source) {
+        return engine.isCompileNeeded(loader, source);
+    }
+
+    // package scope for unit tests
+    ScriptReuseCache getScriptReuseCache() {
+        return scriptReuseCache;
+    }
+
 }
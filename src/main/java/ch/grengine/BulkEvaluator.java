@@ -0,0 +1,141 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+
+
+/**
+ * Evaluates the script of a loaded class over many bindings in parallel,
+ * see {@link BaseGrengine#evaluateAll(ch.grengine.engine.Loader, ch.grengine.source.Source, Iterable, ForkJoinPool)}.
+ * <p>
+ * The input is split into ranges, about four per worker of the pool; each range is
+ * evaluated with a single script instance that gets a new binding for each input,
+ * and results are stored at the index of their input.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class BulkEvaluator {
+
+    // ranges per worker, to balance ranges that take longer than others
+    private static final int RANGES_PER_WORKER = 4;
+
+    private final BaseGrengine gren;
+    private final Class<?> clazz;
+    private final List<Map<String,Object>> bindingMaps;
+    private final Object[] results;
+    private final int rangeSize;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private BulkEvaluator(final BaseGrengine gren, final Class<?> clazz,
+            final List<Map<String,Object>> bindingMaps, final int parallelism) {
+        this.gren = gren;
+        this.clazz = clazz;
+        this.bindingMaps = bindingMaps;
+        results = new Object[bindingMaps.size()];
+        rangeSize = Math.max(1, bindingMaps.size() / (Math.max(1, parallelism) * RANGES_PER_WORKER));
+    }
+
+    /**
+     * evaluates the script of the given class once for each of the given binding maps.
+     *
+     * @param gren Grengine to create script instances with
+     * @param clazz script class
+     * @param bindingMaps binding maps, one per evaluation
+     * @param pool fork join pool to evaluate in
+     *
+     * @return what the script returned, in the order of the binding maps
+     * @grengine.scriptthrows {@link Throwable} - anything (checked or unchecked) that {@link Script#run()} may throw
+     *
+     * @since 3.2
+     */
+    static List<Object> evaluate(final BaseGrengine gren, final Class<?> clazz,
+            final Iterable<Map<String,Object>> bindingMaps, final ForkJoinPool pool) {
+        final BulkEvaluator evaluator = new BulkEvaluator(gren, clazz, toRandomAccessList(bindingMaps),
+                pool.getParallelism());
+        if (!evaluator.bindingMaps.isEmpty()) {
+            pool.invoke(evaluator.new RangeAction(0, evaluator.bindingMaps.size()));
+        }
+        final Throwable t = evaluator.failure.get();
+        if (t != null) {
+            BulkEvaluator.<RuntimeException>throwUnchecked(t);
+        }
+        return Arrays.asList(evaluator.results);
+    }
+
+    private static List<Map<String,Object>> toRandomAccessList(final Iterable<Map<String,Object>> bindingMaps) {
+        if (bindingMaps instanceof List && bindingMaps instanceof RandomAccess) {
+            return (List<Map<String,Object>>)bindingMaps;
+        }
+        final List<Map<String,Object>> list = (bindingMaps instanceof Collection) ?
+                new ArrayList<>(((Collection<?>)bindingMaps).size()) : new ArrayList<>();
+        bindingMaps.forEach(list::add);
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void throwUnchecked(final Throwable t) throws T {
+        throw (T)t;
+    }
+
+    private class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        RangeAction(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > rangeSize) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new RangeAction(from, mid), new RangeAction(mid, to));
+                return;
+            }
+            try {
+                final Script script = gren.create(clazz);
+                for (int i = from; i < to && failure.get() == null; i++) {
+                    script.setBinding(new Binding(bindingMaps.get(i)));
+                    results[i] = script.run();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+
+    }
+
+}
@@ -43,6 +43,8 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.IntStream;
 
 import groovy.lang.Binding;
@@ -117,6 +119,7 @@ public class Grengine extends BaseGrengine {
     private volatile long lastChecked;
     private volatile GrengineException lastUpdateException;
     private final UpdateExceptionNotifier updateExceptionNotifier;
+    private final ReentrantLock updateLock = new ReentrantLock();
 
     /**
      * constructor from builder.
@@ -134,6 +137,9 @@ public class Grengine extends BaseGrengine {
         sourceFactory = builder.getSourceFactory();
         sourcesLayers = builder.getSourcesLayers();
         latencyMs = builder.getLatencyMs();
+        runExecutor = builder.getRunExecutor();
+        compileExecutor = builder.getCompileExecutor();
+        isScriptReuse = builder.isScriptReuse();
 
         // initialize such that sources layers will be loaded at first update
         // further below, even if sources are immutable or latency is infinite
@@ -649,7 +655,8 @@ public class Grengine extends BaseGrengine {
         
         // layers have changed, update engine...
         
-        synchronized(this) {
+        updateLock.lock();
+        try {
             
             // prevent multiple updates
             diff = System.currentTimeMillis() - lastChecked;
@@ -660,6 +667,8 @@ public class Grengine extends BaseGrengine {
             lastModifiedList = lastModifiedListNew;
             try {
                 engine.setCodeLayersBySource(sourcesLayers);
+                // cached script instances keep classes of replaced code layers reachable
+                getScriptReuseCache().clear();
                 lastUpdateException = null;
             } catch (CompileException e) {
                 lastUpdateException = e;
@@ -670,9 +679,32 @@ public class Grengine extends BaseGrengine {
             if (updateExceptionNotifier != null) {
                 updateExceptionNotifier.notify(lastUpdateException);
             }
+        } finally {
+            updateLock.unlock();
         }
     }
 
+    /**
+     * gets whether loading the main class of the given source with the given loader
+     * would have to compile first, including if it is time to check sources layers
+     * for changes (which may recompile code layers).
+     *
+     * @param loader loader
+     * @param source source
+     *
+     * @return whether compiling would be needed
+     *
+     * @since 3.2
+     */
+    @Override
+    protected boolean isCompileNeeded(final Loader loader, final Source source) {
+        final long diff = System.currentTimeMillis() - lastChecked;
+        if (lastChecked == 0 || diff < 0 || diff >= latencyMs) {
+            return true;
+        }
+        return super.isCompileNeeded(loader, source);
+    }
+
     @Override
     public Class<?> loadMainClass(final Loader loader, final Source source) {
         updateEngineIfSourcesLayersModified();
@@ -734,6 +766,9 @@ public class Grengine extends BaseGrengine {
         private List<Sources> sourcesLayers;
         private UpdateExceptionNotifier updateExceptionNotifier;
         private long latencyMs = -1;
+        private Executor runExecutor;
+        private Executor compileExecutor;
+        private boolean isScriptReuse;
         
         /**
          * constructor.
@@ -841,6 +876,64 @@ public class Grengine extends BaseGrengine {
             return this;
         }
 
+        /**
+         * sets the executor for running scripts asynchronously, default is an executor
+         * that starts a new virtual thread per task on Java 21 and later and
+         * the common fork join pool on older Java versions.
+         *
+         * @param runExecutor run executor
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setRunExecutor(final Executor runExecutor) {
+            check();
+            this.runExecutor = runExecutor;
+            return this;
+        }
+
+        /**
+         * sets the executor for compiling and loading scripts before running them
+         * asynchronously, default is a bounded pool of daemon threads, one per
+         * available processor, which is shared by all Grengine instances.
+         *
+         * @param compileExecutor compile executor
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setCompileExecutor(final Executor compileExecutor) {
+            check();
+            this.compileExecutor = compileExecutor;
+            return this;
+        }
+
+        /**
+         * sets whether to reuse script instances per thread when running scripts,
+         * default is false.
+         * <p>
+         * Reusing instances avoids creating a new script instance per run, which
+         * can dominate runtime for scripts with expensive field initializers,
+         * but requires that scripts keep no state in fields between runs,
+         * see {@link BaseGrengine#run(Loader, Source, Binding)}.
+         *
+         * @param isScriptReuse whether to reuse script instances
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setScriptReuse(final boolean isScriptReuse) {
+            check();
+            this.isScriptReuse = isScriptReuse;
+            return this;
+        }
+
         /**
          * gets the engine.
          *
@@ -895,6 +988,39 @@ public class Grengine extends BaseGrengine {
         public long getLatencyMs() {
             return latencyMs;
         }
+
+        /**
+         * gets the executor for running scripts asynchronously.
+         *
+         * @return run executor
+         *
+         * @since 3.2
+         */
+        public Executor getRunExecutor() {
+            return runExecutor;
+        }
+
+        /**
+         * gets the executor for compiling and loading scripts before running them asynchronously.
+         *
+         * @return compile executor
+         *
+         * @since 3.2
+         */
+        public Executor getCompileExecutor() {
+            return compileExecutor;
+        }
+
+        /**
+         * gets whether to reuse script instances per thread when running scripts.
+         *
+         * @return whether to reuse script instances
+         *
+         * @since 3.2
+         */
+        public boolean isScriptReuse() {
+            return isScriptReuse;
+        }
         
         private Builder commit() {
             if (!isCommitted) {
@@ -910,6 +1036,12 @@ public class Grengine extends BaseGrengine {
                 if (latencyMs < 0) {
                     latencyMs = DEFAULT_LATENCY_MS;
                 }
+                if (runExecutor == null) {
+                    runExecutor = AsyncExecutors.getDefaultRunExecutor();
+                }
+                if (compileExecutor == null) {
+                    compileExecutor = AsyncExecutors.getDefaultCompileExecutor();
+                }
                 isCommitted = true;
             }
             return this;
@@ -0,0 +1,631 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.engine.Loader;
+import ch.grengine.except.GrengineException;
+import ch.grengine.source.Source;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Pipeline that pushes a stream of records through a sequence of scripts (stages),
+ * e.g. filter, enrich and route.
+ * <p>
+ * Each stage runs the script of its source once per record, with the record in the
+ * binding (variable name "record" by default); what the script returns is passed on
+ * to the next stage, except if it is null, which drops the record.
+ * <p>
+ * Records are passed between stages in micro-batches through bounded queues, so that
+ * a slow stage (or a slow consumer of the output) makes earlier stages wait (backpressure).
+ * Each stage has one or more worker threads; each worker reuses a single script instance
+ * and, before each batch, loads the main class of its source again, so that a recompiled
+ * version of the script is picked up between batches without stopping the stream.
+ * <p>
+ * With more than one worker in any stage, records are generally not output in input order.
+ * <p>
+ * Based on iterators and blocking queues, which also work with Java 8.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class ScriptPipeline {
+
+    // poll/offer timeout for checking whether the pipeline has been stopped
+    private static final long WAIT_MS = 50;
+
+    // marks the end of the stream in a queue (compared by identity)
+    private static final List<Object> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Builder builder;
+    private final BaseGrengine gren;
+    private final Loader loader;
+    private final List<Stage> stages;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final String recordVariableName;
+
+    /**
+     * constructor from builder.
+     *
+     * @param builder builder
+     *
+     * @since 3.2
+     */
+    protected ScriptPipeline(final Builder builder) {
+        this.builder = builder.commit();
+        gren = builder.getGrengine();
+        loader = builder.getLoader();
+        stages = new ArrayList<>(builder.stages);
+        queueCapacity = builder.getQueueCapacity();
+        batchSize = builder.getBatchSize();
+        recordVariableName = builder.getRecordVariableName();
+    }
+
+    /**
+     * gets the builder.
+     *
+     * @return builder
+     *
+     * @since 3.2
+     */
+    public Builder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * starts pushing the given records through the pipeline.
+     * <p>
+     * Records are read from the given iterator by a separate thread,
+     * so that the returned output can be consumed concurrently.
+     *
+     * @param records records
+     *
+     * @return output of the last stage, close it if not consuming all of it
+     * @throws NullPointerException if the records are null
+     *
+     * @since 3.2
+     */
+    public Output start(final Iterator<?> records) {
+        requireNonNull(records, "Records are null.");
+        return new Output(records);
+    }
+
+    /**
+     * gets a string suitable for logging.
+     *
+     * @return a string suitable for logging
+     *
+     * @since 3.2
+     */
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[stages=" + stages.size() +
+                ", queueCapacity=" + queueCapacity + ", batchSize=" + batchSize + "]";
+    }
+
+
+    /**
+     * Output of a started pipeline, an iterator over the records returned by the last stage.
+     * <p>
+     * {@link #hasNext()} blocks until the next record is available or the stream has ended;
+     * if any stage (or reading the input) failed, it throws a {@link GrengineException}
+     * with the failure as cause and stops the pipeline.
+     *
+     * @since 3.2
+     *
+     * @author Alain Stalder
+     * @author Made in Switzerland.
+     */
+    public class Output implements Iterator<Object>, Closeable {
+
+        private final List<BlockingQueue<List<Object>>> queues = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicReference<GrengineException> failure = new AtomicReference<>();
+        private volatile boolean isStopped;
+        private List<Object> batch = Collections.emptyList();
+        private int index;
+        private boolean isEnded;
+
+        private Output(final Iterator<?> records) {
+            for (int i = 0; i <= stages.size(); i++) {
+                queues.add(new ArrayBlockingQueue<>(queueCapacity));
+            }
+            threads.add(newThread("grengine-pipeline-input", () -> feed(records)));
+            for (int i = 0; i < stages.size(); i++) {
+                final int stageIndex = i;
+                final Stage stage = stages.get(i);
+                final AtomicInteger remainingWorkers = new AtomicInteger(stage.workerCount);
+                for (int w = 0; w < stage.workerCount; w++) {
+                    threads.add(newThread("grengine-pipeline-stage-" + i + "-" + w,
+                            () -> work(stageIndex, remainingWorkers)));
+                }
+            }
+            threads.forEach(Thread::start);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (isStopped) {
+                checkFailure();
+                return false;
+            }
+            while (index >= batch.size()) {
+                if (isEnded) {
+                    return false;
+                }
+                final List<Object> next = take(queues.get(stages.size()));
+                checkFailure();
+                if (next == null || next == END) {
+                    isEnded = true;
+                    return false;
+                }
+                batch = next;
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more records.");
+            }
+            return batch.get(index++);
+        }
+
+        /**
+         * stops the pipeline, i.e. all of its threads, without waiting for them to end.
+         *
+         * @since 3.2
+         */
+        @Override
+        public void close() {
+            isStopped = true;
+            threads.forEach(Thread::interrupt);
+        }
+
+        private void checkFailure() {
+            final GrengineException e = failure.get();
+            if (e != null) {
+                close();
+                throw e;
+            }
+        }
+
+        private void fail(final GrengineException e) {
+            failure.compareAndSet(null, e);
+            isStopped = true;
+        }
+
+        private void feed(final Iterator<?> records) {
+            final BlockingQueue<List<Object>> out = queues.get(0);
+            try {
+                List<Object> next = new ArrayList<>(batchSize);
+                while (!isStopped && records.hasNext()) {
+                    next.add(records.next());
+                    if (next.size() >= batchSize) {
+                        if (!put(out, next)) {
+                            return;
+                        }
+                        next = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!next.isEmpty() && !put(out, next)) {
+                    return;
+                }
+                for (int i = 0; i < stages.get(0).workerCount; i++) {
+                    if (!put(out, END)) {
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                fail(new GrengineException("Script pipeline failed reading records.", t));
+            }
+        }
+
+        private void work(final int stageIndex, final AtomicInteger remainingWorkers) {
+            final Stage stage = stages.get(stageIndex);
+            final BlockingQueue<List<Object>> in = queues.get(stageIndex);
+            final BlockingQueue<List<Object>> out = queues.get(stageIndex + 1);
+            try {
+                Script script = null;
+                List<Object> next;
+                while ((next = take(in)) != null && next != END) {
+                    // picks up recompiled versions between batches
+                    final Class<?> clazz = gren.loadMainClass(loader, stage.source);
+                    if (script == null || script.getClass() != clazz) {
+                        script = gren.create(clazz);
+                    }
+                    final List<Object> results = new ArrayList<>(next.size());
+                    for (Object record : next) {
+                        final Binding binding = new Binding();
+                        binding.setVariable(recordVariableName, record);
+                        script.setBinding(binding);
+                        final Object result = script.run();
+                        if (result != null) {
+                            results.add(result);
+                        }
+                    }
+                    if (!results.isEmpty() && !put(out, results)) {
+                        return;
+                    }
+                }
+                if (next == END && remainingWorkers.decrementAndGet() == 0) {
+                    final int nextWorkerCount = (stageIndex + 1 < stages.size()) ?
+                            stages.get(stageIndex + 1).workerCount : 1;
+                    for (int i = 0; i < nextWorkerCount; i++) {
+                        if (!put(out, END)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                fail(new GrengineException("Script pipeline failed in stage " + stageIndex +
+                        " for source " + stage.source + ".", t));
+            }
+        }
+
+        // returns false if stopped
+        private boolean put(final BlockingQueue<List<Object>> queue, final List<Object> batch) {
+            try {
+                while (!isStopped) {
+                    if (queue.offer(batch, WAIT_MS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        // returns null if stopped (or failed)
+        private List<Object> take(final BlockingQueue<List<Object>> queue) {
+            try {
+                while (!isStopped) {
+                    final List<Object> batch = queue.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        return batch;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+    }
+
+    private static Thread newThread(final String name, final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static class Stage {
+        private final Source source;
+        private final int workerCount;
+        private Stage(final Source source, final int workerCount) {
+            this.source = source;
+            this.workerCount = workerCount;
+        }
+    }
+
+
+    /**
+     * Builder for instances of {@link ScriptPipeline}.
+     *
+     * @since 3.2
+     *
+     * @author Alain Stalder
+     * @author Made in Switzerland.
+     */
+    public static class Builder {
+
+        /**
+         * the default capacity of the queues between stages, in batches (16).
+         *
+         * @since 3.2
+         */
+        public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+        /**
+         * the default maximal number of records per batch (100).
+         *
+         * @since 3.2
+         */
+        public static final int DEFAULT_BATCH_SIZE = 100;
+
+        /**
+         * the default name of the variable in the binding that holds the record ("record").
+         *
+         * @since 3.2
+         */
+        public static final String DEFAULT_RECORD_VARIABLE_NAME = "record";
+
+        private boolean isCommitted;
+
+        private final BaseGrengine gren;
+        private final List<Stage> stages = new ArrayList<>();
+        private Loader loader;
+        private int queueCapacity = -1;
+        private int batchSize = -1;
+        private String recordVariableName;
+
+        /**
+         * constructor from Grengine.
+         *
+         * @param gren Grengine for loading and creating the scripts of the stages
+         *
+         * @throws NullPointerException if the Grengine is null
+         *
+         * @since 3.2
+         */
+        public Builder(final BaseGrengine gren) {
+            this.gren = requireNonNull(gren, "Grengine is null.");
+            isCommitted = false;
+        }
+
+        /**
+         * adds a stage with a single worker.
+         *
+         * @param source source of the script of the stage
+         *
+         * @return this, for chaining calls
+         * @throws NullPointerException if the source is null
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder addStage(final Source source) {
+            return addStage(source, 1);
+        }
+
+        /**
+         * adds a stage.
+         *
+         * @param source source of the script of the stage
+         * @param workerCount number of worker threads of the stage
+         *
+         * @return this, for chaining calls
+         * @throws NullPointerException if the source is null
+         * @throws IllegalArgumentException if the worker count is less than one
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder addStage(final Source source, final int workerCount) {
+            check();
+            requireNonNull(source, "Source is null.");
+            if (workerCount < 1) {
+                throw new IllegalArgumentException("Worker count is less than one.");
+            }
+            stages.add(new Stage(source, workerCount));
+            return this;
+        }
+
+        /**
+         * sets the loader for loading the scripts of the stages, default is the
+         * default loader of the Grengine.
+         *
+         * @param loader loader
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setLoader(final Loader loader) {
+            check();
+            this.loader = loader;
+            return this;
+        }
+
+        /**
+         * sets the capacity of the queues between stages, in batches,
+         * default is {@link #DEFAULT_QUEUE_CAPACITY}.
+         *
+         * @param queueCapacity queue capacity
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setQueueCapacity(final int queueCapacity) {
+            check();
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * sets the maximal number of records per batch, default is {@link #DEFAULT_BATCH_SIZE}.
+         *
+         * @param batchSize batch size
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setBatchSize(final int batchSize) {
+            check();
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * sets the name of the variable in the binding that holds the record,
+         * default is {@link #DEFAULT_RECORD_VARIABLE_NAME}.
+         *
+         * @param recordVariableName record variable name
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setRecordVariableName(final String recordVariableName) {
+            check();
+            this.recordVariableName = recordVariableName;
+            return this;
+        }
+
+        /**
+         * gets the Grengine.
+         *
+         * @return Grengine
+         *
+         * @since 3.2
+         */
+        public BaseGrengine getGrengine() {
+            return gren;
+        }
+
+        /**
+         * gets the sources of the stages, in order of the stages.
+         *
+         * @return sources
+         *
+         * @since 3.2
+         */
+        public List<Source> getStageSources() {
+            final List<Source> sources = new ArrayList<>();
+            stages.forEach(stage -> sources.add(stage.source));
+            return sources;
+        }
+
+        /**
+         * gets the worker counts of the stages, in order of the stages.
+         *
+         * @return worker counts
+         *
+         * @since 3.2
+         */
+        public List<Integer> getStageWorkerCounts() {
+            final List<Integer> workerCounts = new ArrayList<>();
+            stages.forEach(stage -> workerCounts.add(stage.workerCount));
+            return workerCounts;
+        }
+
+        /**
+         * gets the loader.
+         *
+         * @return loader
+         *
+         * @since 3.2
+         */
+        public Loader getLoader() {
+            return loader;
+        }
+
+        /**
+         * gets the capacity of the queues between stages, in batches.
+         *
+         * @return queue capacity
+         *
+         * @since 3.2
+         */
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        /**
+         * gets the maximal number of records per batch.
+         *
+         * @return batch size
+         *
+         * @since 3.2
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * gets the name of the variable in the binding that holds the record.
+         *
+         * @return record variable name
+         *
+         * @since 3.2
+         */
+        public String getRecordVariableName() {
+            return recordVariableName;
+        }
+
+        private Builder commit() {
+            if (!isCommitted) {
+                if (stages.isEmpty()) {
+                    throw new IllegalStateException("No stages.");
+                }
+                if (loader == null) {
+                    loader = gren.getLoader();
+                }
+                if (queueCapacity < 1) {
+                    queueCapacity = DEFAULT_QUEUE_CAPACITY;
+                }
+                if (batchSize < 1) {
+                    batchSize = DEFAULT_BATCH_SIZE;
+                }
+                if (recordVariableName == null) {
+                    recordVariableName = DEFAULT_RECORD_VARIABLE_NAME;
+                }
+                isCommitted = true;
+            }
+            return this;
+        }
+
+        /**
+         * builds a new instance of {@link ScriptPipeline}.
+         *
+         * @return new instance
+         * @throws IllegalStateException if no stages have been added
+         *
+         * @since 3.2
+         */
+        public ScriptPipeline build() {
+            commit();
+            return new ScriptPipeline(this);
+        }
+
+        private void check() {
+            if (isCommitted) {
+                throw new IllegalStateException("Builder already used.");
+            }
+        }
+
+    }
+
+}
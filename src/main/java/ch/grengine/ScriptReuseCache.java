@@ -0,0 +1,231 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.engine.Loader;
+import ch.grengine.source.Source;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+
+
+/**
+ * Per-thread cache of script instances for reusing them when running
+ * the same script repeatedly, see {@link Grengine.Builder#setScriptReuse(boolean)}.
+ * <p>
+ * Instances are keyed by loader and source; an instance is evicted and replaced
+ * when the main class loaded for it is no longer the class of the cached instance,
+ * i.e. after a recompile or a layer update. At most {@link #MAX_SCRIPTS_PER_THREAD}
+ * instances are kept per thread, the least recently run are evicted first.
+ * <p>
+ * Since cached instances keep their classes (and class loaders) reachable,
+ * the instances of all threads are removed with {@link #clear()}, which is called
+ * when code layers have been updated and when closing.
+ * <p>
+ * While running, an instance is taken out of the cache, so that running
+ * the same script again from within it (on the same thread) uses a new instance.
+ * After running, the binding of the instance is reset to a new empty binding,
+ * so that cached instances do not keep references to bindings of previous runs.
+ * <p>
+ * Note that with a new (virtual) thread per task, instances are never reused.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class ScriptReuseCache {
+
+    // package scope for unit tests
+    static final int MAX_SCRIPTS_PER_THREAD = 64;
+
+    private final BaseGrengine gren;
+    // scripts of all threads, so that they can be cleared (weak, removed once a thread has ended)
+    private final Set<ThreadScripts> allThreadScripts = Collections.newSetFromMap(new WeakHashMap<>());
+    private final ReentrantLock allThreadScriptsLock = new ReentrantLock();
+    private final ThreadLocal<ThreadScripts> threadScripts = ThreadLocal.withInitial(this::newThreadScripts);
+    private volatile long generation;
+
+    /**
+     * constructor.
+     *
+     * @param gren Grengine for creating script instances
+     *
+     * @since 3.2
+     */
+    ScriptReuseCache(final BaseGrengine gren) {
+        this.gren = gren;
+    }
+
+    private ThreadScripts newThreadScripts() {
+        final ThreadScripts scripts = new ThreadScripts();
+        allThreadScriptsLock.lock();
+        try {
+            allThreadScripts.add(scripts);
+        } finally {
+            allThreadScriptsLock.unlock();
+        }
+        return scripts;
+    }
+
+    /**
+     * runs a script of the given class with the given binding,
+     * reusing an instance cached for the current thread if possible.
+     *
+     * @param loader loader the class was loaded with
+     * @param source source the class is the main class of
+     * @param clazz main class of the script
+     * @param binding binding
+     *
+     * @return what the script returned
+     *
+     * @since 3.2
+     */
+    Object run(final Loader loader, final Source source, final Class<?> clazz, final Binding binding) {
+        final ThreadScripts scripts = threadScripts.get();
+        final Key key = new Key(loader, source);
+        final long generationBefore = generation;
+        Script script = scripts.remove(key);
+        if (script == null || script.getClass() != clazz) {
+            script = gren.create(clazz);
+        }
+        script.setBinding(binding);
+        try {
+            return script.run();
+        } finally {
+            script.setBinding(new Binding());
+            // not if cleared in the meantime
+            if (generation == generationBefore) {
+                scripts.put(key, script);
+            }
+        }
+    }
+
+    /**
+     * removes the cached instances of all threads.
+     *
+     * @since 3.2
+     */
+    void clear() {
+        allThreadScriptsLock.lock();
+        try {
+            generation++;
+            allThreadScripts.forEach(ThreadScripts::clear);
+        } finally {
+            allThreadScriptsLock.unlock();
+        }
+    }
+
+    // package scope for unit tests
+    Script getScript(final Loader loader, final Source source) {
+        return threadScripts.get().get(new Key(loader, source));
+    }
+
+    // package scope for unit tests
+    int size() {
+        return threadScripts.get().size();
+    }
+
+    // scripts of a single thread, only locked concurrently when cleared
+    private static class ThreadScripts {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Key,Script> map = new LinkedHashMap<Key,Script>() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key,Script> eldest) {
+                return size() > MAX_SCRIPTS_PER_THREAD;
+            }
+        };
+
+        private Script remove(final Key key) {
+            lock.lock();
+            try {
+                return map.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(final Key key, final Script script) {
+            lock.lock();
+            try {
+                map.put(key, script);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Script get(final Key key) {
+            lock.lock();
+            try {
+                return map.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int size() {
+            lock.lock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void clear() {
+            lock.lock();
+            try {
+                map.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+    private static class Key {
+        private final Loader loader;
+        private final Source source;
+        private Key(final Loader loader, final Source source) {
+            this.loader = loader;
+            this.source = source;
+        }
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)obj;
+            return loader.equals(key.loader) && source.equals(key.source);
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hash(loader, source);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import groovy.lang.Binding;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Binding backed by an array of variable values with a fixed {@link SlotLayout},
+ * for running a script many times with the same set of variables.
+ * <p>
+ * Variables with a slot in the layout are read and written as array elements,
+ * they always exist (initially with value null) and cannot be removed
+ * (removing sets the value to null). Other variables are kept in the
+ * map of the {@link Binding} superclass, which is created only when needed.
+ * <p>
+ * Callers may fill the array returned by {@link #getValues()} directly,
+ * or replace it with {@link #setValues(Object[])}, so that running a script
+ * repeatedly with new variable values allocates nothing beyond the array:
+ * <pre><code>
+ * SlotLayout layout = gren.slotLayout(source);
+ * SlotBinding binding = layout.newBinding();
+ * Script script = gren.create(source);
+ * script.setBinding(binding);
+ * for (...) {
+ *     Object[] values = binding.getValues();
+ *     values[0] = ...;
+ *     script.run();
+ * }
+ * </code></pre>
+ * <p>
+ * Not thread-safe, like {@link Binding}.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class SlotBinding extends Binding {
+
+    private final SlotLayout layout;
+    private Object[] values;
+
+    /**
+     * constructor from slot layout, with all slot values null.
+     *
+     * @param layout slot layout
+     *
+     * @throws NullPointerException if the layout is null
+     *
+     * @since 3.2
+     */
+    public SlotBinding(final SlotLayout layout) {
+        this.layout = requireNonNull(layout, "Slot layout is null.");
+        values = new Object[layout.size()];
+    }
+
+    /**
+     * constructor from slot layout and slot values.
+     * <p>
+     * The given array is used directly, not copied.
+     *
+     * @param layout slot layout
+     * @param values slot values, one per slot of the layout
+     *
+     * @throws NullPointerException if any of the arguments is null
+     * @throws IllegalArgumentException if the number of values does not match the layout
+     *
+     * @since 3.2
+     */
+    public SlotBinding(final SlotLayout layout, final Object[] values) {
+        this.layout = requireNonNull(layout, "Slot layout is null.");
+        setValues(values);
+    }
+
+    /**
+     * gets the slot layout.
+     *
+     * @return slot layout
+     *
+     * @since 3.2
+     */
+    public SlotLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * gets the slot values, the array itself, not a copy.
+     *
+     * @return slot values
+     *
+     * @since 3.2
+     */
+    public Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * sets the slot values; the given array is used directly, not copied.
+     *
+     * @param values slot values, one per slot of the layout
+     *
+     * @throws NullPointerException if the values are null
+     * @throws IllegalArgumentException if the number of values does not match the layout
+     *
+     * @since 3.2
+     */
+    public void setValues(final Object[] values) {
+        requireNonNull(values, "Values are null.");
+        if (values.length != layout.size()) {
+            throw new IllegalArgumentException("Got " + values.length + " values for " +
+                    layout.size() + " slots.");
+        }
+        this.values = values;
+    }
+
+    /**
+     * gets the value of the slot with the given index.
+     *
+     * @param index slot index
+     *
+     * @return value
+     * @throws ArrayIndexOutOfBoundsException if the index is out of bounds
+     *
+     * @since 3.2
+     */
+    public Object get(final int index) {
+        return values[index];
+    }
+
+    /**
+     * sets the value of the slot with the given index.
+     *
+     * @param index slot index
+     * @param value value
+     *
+     * @throws ArrayIndexOutOfBoundsException if the index is out of bounds
+     *
+     * @since 3.2
+     */
+    public void set(final int index, final Object value) {
+        values[index] = value;
+    }
+
+    @Override
+    public Object getVariable(final String name) {
+        final int index = layout.indexOf(name);
+        if (index >= 0) {
+            return values[index];
+        }
+        return super.getVariable(name);
+    }
+
+    @Override
+    public void setVariable(final String name, final Object value) {
+        final int index = layout.indexOf(name);
+        if (index >= 0) {
+            values[index] = value;
+        } else {
+            super.setVariable(name, value);
+        }
+    }
+
+    @Override
+    public void removeVariable(final String name) {
+        final int index = layout.indexOf(name);
+        if (index >= 0) {
+            values[index] = null;
+        } else {
+            super.removeVariable(name);
+        }
+    }
+
+    @Override
+    public boolean hasVariable(final String name) {
+        return layout.indexOf(name) >= 0 || super.hasVariable(name);
+    }
+
+    /**
+     * gets a snapshot of all variables, i.e. unlike for {@link Binding},
+     * changes to the returned map are not reflected in this binding.
+     *
+     * @return new map with all variables, slot variables first
+     *
+     * @since 3.2
+     */
+    @Override
+    public Map<String,Object> getVariables() {
+        final Map<String,Object> variables = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            variables.put(layout.getNames().get(i), values[i]);
+        }
+        for (Object entryObject : super.getVariables().entrySet()) {
+            final Map.Entry<?,?> entry = (Map.Entry<?,?>)entryObject;
+            variables.putIfAbsent(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return variables;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Fixed layout of variable slots for a {@link SlotBinding}, i.e. a mapping
+ * of variable names to indexes in an array of variable values.
+ * <p>
+ * Typically created from the names of the variables that a script accesses
+ * in its binding, as determined when compiling the script, see
+ * {@link BaseGrengine#slotLayout(ch.grengine.source.Source)}.
+ * <p>
+ * Variable names are interned, so that looking up the index of a variable name
+ * that is a string constant in a compiled script class is typically an identity
+ * comparison over a few array elements, without hashing the name.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class SlotLayout {
+
+    private final String[] names;
+    private final Map<String,Integer> indexByName;
+    private final List<String> nameList;
+
+    /**
+     * constructor from variable names.
+     *
+     * @param names variable names, the index of a name is the index of its slot
+     *
+     * @throws NullPointerException if the names or any name is null
+     * @throws IllegalArgumentException if a name occurs more than once
+     *
+     * @since 3.2
+     */
+    public SlotLayout(final List<String> names) {
+        requireNonNull(names, "Variable names are null.");
+        this.names = new String[names.size()];
+        indexByName = new HashMap<>();
+        for (int i = 0; i < this.names.length; i++) {
+            final String name = requireNonNull(names.get(i), "Variable name is null.").intern();
+            if (indexByName.put(name, i) != null) {
+                throw new IllegalArgumentException("Duplicate variable name: " + name);
+            }
+            this.names[i] = name;
+        }
+        nameList = Collections.unmodifiableList(Arrays.asList(this.names));
+    }
+
+    /**
+     * gets the index of the slot of the variable with the given name.
+     *
+     * @param name variable name
+     *
+     * @return index or -1 if the variable has no slot
+     *
+     * @since 3.2
+     */
+    public int indexOf(final String name) {
+        final String[] names = this.names;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        final Integer index = indexByName.get(name);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * gets the number of slots.
+     *
+     * @return number of slots
+     *
+     * @since 3.2
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * gets the variable names, in order of their slots.
+     *
+     * @return variable names (unmodifiable)
+     *
+     * @since 3.2
+     */
+    public List<String> getNames() {
+        return nameList;
+    }
+
+    /**
+     * creates a new binding with this layout and all slot values null.
+     *
+     * @return new binding
+     *
+     * @since 3.2
+     */
+    public SlotBinding newBinding() {
+        return new SlotBinding(this);
+    }
+
+    /**
+     * returns a string suitable for logging.
+     *
+     * @return a string suitable for logging
+     *
+     * @since 3.2
+     */
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[names=" + nameList + "]";
+    }
+
+}
@@ -76,15 +76,63 @@ public class ClassNameConflictAnalyzer {
      */
     public static Map<String,List<Code>> getSameClassNamesInMultipleCodeLayersMap(final List<Code> codeLayers) {
         requireNonNull(codeLayers, "Code layers are null.");
-        final Map<String,List<Code>> origins = getAllClassNamesMap(codeLayers);
+        return filterSameClassNamesInMultipleCodeLayers(getAllClassNamesMap(codeLayers));
+    }
+    
+    /**
+     * gets a map of class name to a list of all {@link Code} layers
+     * that contain a class with that name, but only if the class name
+     * occurs more than once, based on the given map of all class names
+     * (see {@link #getAllClassNamesMap(List)}).
+     *
+     * @param allClassNamesMap map of all class names to list of code layers
+     *
+     * @return map of class name to list of code layers
+     * @throws NullPointerException if the map of all class names is null
+     *
+     * @since 3.2
+     */
+    public static Map<String,List<Code>> filterSameClassNamesInMultipleCodeLayers(
+            final Map<String,List<Code>> allClassNamesMap) {
+        requireNonNull(allClassNamesMap, "All class names map is null.");
         final Map<String,List<Code>> originsWithDuplicates = new HashMap<>();
-        origins.forEach((name, codeList) -> {
+        allClassNamesMap.forEach((name, codeList) -> {
             if (codeList.size() > 1) {
                 originsWithDuplicates.put(name, codeList);
             }
         });
         return originsWithDuplicates;
     }
+
+    /**
+     * gets a map of class name to a list of all {@link Code} layers
+     * that contain a class with that name, but only if the class name
+     * occurs also in the class loader of the given class name index,
+     * based on the given map of all class names (see {@link #getAllClassNamesMap(List)}).
+     * <p>
+     * Unlike {@link #getSameClassNamesInParentAndCodeLayersMap(ClassLoader, List)},
+     * this typically does not load any classes from the parent class loader.
+     *
+     * @param parentIndex class name index of the parent class loader
+     * @param allClassNamesMap map of all class names to list of code layers
+     *
+     * @return map of class name to list of code layers
+     * @throws NullPointerException if the class name index or the map of all class names is null
+     *
+     * @since 3.2
+     */
+    public static Map<String,List<Code>> filterSameClassNamesInParent(
+            final ClassNameIndex parentIndex, final Map<String,List<Code>> allClassNamesMap) {
+        requireNonNull(parentIndex, "Class name index is null.");
+        requireNonNull(allClassNamesMap, "All class names map is null.");
+        final Map<String,List<Code>> originsWithDuplicateInParent = new HashMap<>();
+        allClassNamesMap.forEach((name, codeList) -> {
+            if (parentIndex.containsClass(name)) {
+                originsWithDuplicateInParent.put(name, codeList);
+            }
+        });
+        return originsWithDuplicateInParent;
+    }
     
     /**
      * gets a map of class name to a list of all {@link Code} layers
@@ -92,7 +140,8 @@ public class ClassNameConflictAnalyzer {
      * occurs also in the given parent class loader.
      * <p>
      * Note that this method tries to load all of these classes by name
-     * from the parent class loader.
+     * from the parent class loader, see {@link ClassNameIndex} for an
+     * alternative that typically does not load classes.
      * 
      * @param parent parent class loader
      * @param codeLayers code layers
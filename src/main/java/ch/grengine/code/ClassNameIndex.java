@@ -0,0 +1,238 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Index of the names of classes available from a class loader,
+ * without loading any classes.
+ * <p>
+ * When first needed, the index is built from the jar and directory entries
+ * of the class path of all {@link URLClassLoader} instances in the class loader
+ * hierarchy (plus the system class path). Class names not in the index are looked
+ * up as class file resources ({@link ClassLoader#getResource(String)}) and the result
+ * is cached. Only if the class loader hierarchy contains class loaders that
+ * may define classes without class file resources (like Groovy or Grengine
+ * class loaders), such class names are looked up by trying to load the class.
+ * <p>
+ * Note that the index is not updated if the class path changes later on.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class ClassNameIndex {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final ClassLoader classLoader;
+    private final boolean isResourceLookupSufficient;
+    private volatile Set<String> indexedClassNames;
+    private final Map<String,Boolean> lookedUpClassNames = new ConcurrentHashMap<>();
+
+    /**
+     * constructor from class loader.
+     *
+     * @param classLoader class loader
+     *
+     * @throws NullPointerException if the class loader is null
+     *
+     * @since 3.2
+     */
+    public ClassNameIndex(final ClassLoader classLoader) {
+        requireNonNull(classLoader, "Class loader is null.");
+        this.classLoader = classLoader;
+        isResourceLookupSufficient = isResourceLookupSufficient(classLoader);
+    }
+
+    /**
+     * checks whether a class with the given name is available from the class loader.
+     *
+     * @param className class name
+     *
+     * @return whether a class with the given name is available from the class loader
+     * @throws NullPointerException if the class name is null
+     *
+     * @since 3.2
+     */
+    public boolean containsClass(final String className) {
+        requireNonNull(className, "Class name is null.");
+        if (getIndexedClassNames().contains(className)) {
+            return true;
+        }
+        return lookedUpClassNames.computeIfAbsent(className, this::lookUpClass);
+    }
+
+    /**
+     * gets the number of class names in the index, i.e. class names found in the class path,
+     * not counting class names that were looked up individually.
+     *
+     * @return number of class names in the index
+     *
+     * @since 3.2
+     */
+    public int getIndexedClassCount() {
+        return getIndexedClassNames().size();
+    }
+
+    /**
+     * gets the class loader.
+     *
+     * @return class loader
+     *
+     * @since 3.2
+     */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[classLoader=" + classLoader + "]";
+    }
+
+    private boolean lookUpClass(final String className) {
+        if (classLoader.getResource(className.replace('.', '/') + CLASS_SUFFIX) != null) {
+            return true;
+        }
+        if (isResourceLookupSufficient) {
+            return false;
+        }
+        try {
+            classLoader.loadClass(className);
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private Set<String> getIndexedClassNames() {
+        Set<String> classNames = indexedClassNames;
+        if (classNames == null) {
+            synchronized (this) {
+                classNames = indexedClassNames;
+                if (classNames == null) {
+                    classNames = buildIndex(classLoader);
+                    indexedClassNames = classNames;
+                }
+            }
+        }
+        return classNames;
+    }
+
+    // whether all class loaders in the hierarchy only define classes from class file resources
+    private static boolean isResourceLookupSufficient(final ClassLoader classLoader) {
+        final Set<ClassLoader> systemLoaders = getSystemLoaders();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            if (loader.getClass() != URLClassLoader.class && !systemLoaders.contains(loader)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<ClassLoader> getSystemLoaders() {
+        final Set<ClassLoader> systemLoaders = new HashSet<>();
+        for (ClassLoader loader = ClassLoader.getSystemClassLoader(); loader != null; loader = loader.getParent()) {
+            systemLoaders.add(loader);
+        }
+        return systemLoaders;
+    }
+
+    // package scope for unit tests
+    static Set<String> buildIndex(final ClassLoader classLoader) {
+        final Set<File> classPathEntries = new HashSet<>();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader)loader).getURLs()) {
+                    if ("file".equals(url.getProtocol())) {
+                        try {
+                            classPathEntries.add(new File(url.toURI()));
+                        } catch (URISyntaxException | IllegalArgumentException ignore) {
+                        }
+                    }
+                }
+            } else if (loader == ClassLoader.getSystemClassLoader()) {
+                for (String path : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                    if (!path.isEmpty()) {
+                        classPathEntries.add(new File(path));
+                    }
+                }
+            }
+        }
+        final Set<String> classNames = ConcurrentHashMap.newKeySet();
+        for (File entry : classPathEntries) {
+            if (entry.isDirectory()) {
+                addClassNamesFromDir(entry.toPath(), classNames);
+            } else if (entry.isFile()) {
+                addClassNamesFromJar(entry, classNames);
+            }
+        }
+        return classNames;
+    }
+
+    private static void addClassNamesFromDir(final Path dir, final Set<String> classNames) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(path -> path.toString().endsWith(CLASS_SUFFIX))
+                    .forEach(path -> addClassName(dir.relativize(path).toString()
+                            .replace(File.separatorChar, '/'), classNames));
+        } catch (IOException | RuntimeException ignore) {
+            // not indexed, classes are then looked up individually
+        }
+    }
+
+    private static void addClassNamesFromJar(final File jar, final Set<String> classNames) {
+        try (JarFile jarFile = new JarFile(jar)) {
+            final Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                addClassName(entries.nextElement().getName(), classNames);
+            }
+        } catch (IOException | RuntimeException ignore) {
+            // not indexed, classes are then looked up individually
+        }
+    }
+
+    private static void addClassName(final String path, final Set<String> classNames) {
+        // skips also classes in "META-INF/versions/" of multi-release jars
+        if (path.endsWith(CLASS_SUFFIX) && !path.startsWith("META-INF/")) {
+            final String className = path.substring(0, path.length() - CLASS_SUFFIX.length()).replace('/', '.');
+            if (!className.endsWith("module-info") && !className.endsWith("package-info")) {
+                classNames.add(className);
+            }
+        }
+    }
+
+}
@@ -19,6 +19,8 @@ package ch.grengine.code;
 import ch.grengine.source.Source;
 import ch.grengine.sources.Sources;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 
@@ -98,6 +100,24 @@ public interface Code {
      */
     long getLastModifiedAtCompileTime(Source source);
 
+    /**
+     * gets the names of the variables that the main class of the given source
+     * accesses in its binding, in order of first occurrence in the source.
+     * <p>
+     * The default implementation returns an empty list, i.e. variable names unknown.
+     *
+     * @param source source
+     *
+     * @return variable names, empty if unknown
+     * @throws NullPointerException if the given source is null
+     * @throws IllegalArgumentException if the given source is not for this code
+     *
+     * @since 3.2
+     */
+    default List<String> getVariableNames(Source source) {
+        return Collections.emptyList();
+    }
+
     /**
      * gets the set of all sources which had been compiled to this code.
      * <p>
@@ -0,0 +1,179 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code;
+
+import ch.grengine.source.Source;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Helper class for writing {@link Code} to a code archive,
+ * a binary file format that can be read back with {@link MappedCode}.
+ * <p>
+ * Allows to compile sources once (for example during a build) and to
+ * later use the resulting code without compiling, like this:
+ * <pre><code>
+ * Code code = new DefaultGroovyCompiler().compile(sources);
+ * CodeArchive.write(code, new File("scripts.grc"));
+ * ...
+ * engine.setCodeLayers(Collections.singletonList(new MappedCode(new File("scripts.grc"))));
+ * </code></pre>
+ * <p>
+ * Format (big-endian, strings as in {@link java.io.DataOutput#writeUTF(String)}):
+ * <ul>
+ * <li>header: magic number {@link #MAGIC}, format version {@link #VERSION}, length of the index in bytes (int)
+ * <li>index: sources name, number of sources (int), per source: source ID, main class name,
+ *     last modified at compile time (long), number of class names (int) and the class names,
+ *     number of variable names (int) and the variable names (see {@link Code#getVariableNames(Source)}),
+ *     then number of classes (int), per class: class name, offset in the data (int), length (int)
+ * <li>data: bytecode bytes of all classes, in the order of the index
+ * </ul>
+ * <p>
+ * Note that the source ID of a source in the archive must be the same as the source ID of the source
+ * in the environment where the archive is used, e.g. for file-based sources the same (canonical) file paths.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class CodeArchive {
+
+    /**
+     * magic number at the start of a code archive, "GRNC" in ASCII.
+     *
+     * @since 3.2
+     */
+    public static final int MAGIC = 0x47524E43;
+
+    /**
+     * current version of the code archive format.
+     *
+     * @since 3.2
+     */
+    public static final int VERSION = 2;
+
+    // magic, version, index length
+    static final int HEADER_LENGTH = 12;
+
+    /**
+     * writes the given code to the given file in code archive format.
+     *
+     * @param code code
+     * @param file file
+     *
+     * @throws NullPointerException if code or file is null
+     * @throws IOException if could not write
+     *
+     * @since 3.2
+     */
+    public static void write(final Code code, final File file) throws IOException {
+        requireNonNull(code, "Code is null.");
+        requireNonNull(file, "File is null.");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(code, out);
+        }
+    }
+
+    /**
+     * writes the given code to the given output stream in code archive format,
+     * without closing the stream.
+     *
+     * @param code code
+     * @param out output stream
+     *
+     * @throws NullPointerException if code or output stream is null
+     * @throws IOException if could not write
+     *
+     * @since 3.2
+     */
+    public static void write(final Code code, final OutputStream out) throws IOException {
+        requireNonNull(code, "Code is null.");
+        requireNonNull(out, "Output stream is null.");
+
+        // sorted, so that the same code always results in the same archive
+        final List<Source> sources = code.getSourceSet().stream()
+                .sorted(Comparator.comparing(Source::getId))
+                .collect(Collectors.toList());
+        final Set<String> classNames = new TreeSet<>(code.getClassNameSet());
+
+        final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        final DataOutputStream index = new DataOutputStream(indexBytes);
+        index.writeUTF(code.getSourcesName());
+        index.writeInt(sources.size());
+        for (Source source : sources) {
+            index.writeUTF(source.getId());
+            index.writeUTF(code.getMainClassName(source));
+            index.writeLong(code.getLastModifiedAtCompileTime(source));
+            final Set<String> sourceClassNames = new TreeSet<>(code.getClassNames(source));
+            index.writeInt(sourceClassNames.size());
+            for (String className : sourceClassNames) {
+                index.writeUTF(className);
+            }
+            final List<String> variableNames = code.getVariableNames(source);
+            index.writeInt(variableNames.size());
+            for (String variableName : variableNames) {
+                index.writeUTF(variableName);
+            }
+        }
+        index.writeInt(classNames.size());
+        long offset = 0;
+        for (String className : classNames) {
+            final int length = getBytes(code, className).length;
+            if (offset + length > Integer.MAX_VALUE) {
+                throw new IOException("Code too large for code archive: " + code);
+            }
+            index.writeUTF(className);
+            index.writeInt((int)offset);
+            index.writeInt(length);
+            offset += length;
+        }
+        index.flush();
+
+        final DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(indexBytes.size());
+        indexBytes.writeTo(dataOut);
+        for (String className : classNames) {
+            dataOut.write(getBytes(code, className));
+        }
+        dataOut.flush();
+    }
+
+    private static byte[] getBytes(final Code code, final String className) throws IOException {
+        final Bytecode bytecode = code.getBytecode(className);
+        if (bytecode == null) {
+            throw new IOException("No bytecode for class " + className + " in code " + code + ".");
+        }
+        return bytecode.getBytes();
+    }
+
+}
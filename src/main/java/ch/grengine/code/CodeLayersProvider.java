@@ -0,0 +1,46 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import java.util.List;
+
+
+/**
+ * Interface for class loaders that load classes from the bytecode of code layers.
+ * <p>
+ * Allows compilers that do not compile in the current JVM, like
+ * {@link ch.grengine.code.groovy.ProcessGroovyCompiler}, to make classes
+ * in code layers of a parent class loader visible to compiled sources.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public interface CodeLayersProvider {
+
+    /**
+     * gets the code layers whose classes this class loader loads,
+     * not including code layers of its parent class loader.
+     *
+     * @return code layers, from bottom to top
+     *
+     * @since 3.2
+     */
+    List<Code> getCodeLayers();
+
+}
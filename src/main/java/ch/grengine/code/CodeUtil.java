@@ -0,0 +1,197 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import ch.grengine.source.Source;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Static utility methods around {@link Code}.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class CodeUtil {
+
+    /**
+     * checks whether the given code instances have the same content, i.e. the same
+     * sources name, the same sources with the same last modified at compile time,
+     * the same class names per source and the same bytecode for all classes.
+     * <p>
+     * Returns immediately if both are the same instance.
+     *
+     * @param code1 code
+     * @param code2 other code
+     *
+     * @return whether both have the same content
+     * @throws NullPointerException if any argument is null
+     *
+     * @since 3.2
+     */
+    public static boolean isSameContent(final Code code1, final Code code2) {
+        requireNonNull(code1, "Code 1 is null.");
+        requireNonNull(code2, "Code 2 is null.");
+        if (code1 == code2) {
+            return true;
+        }
+        if (!code1.getSourcesName().equals(code2.getSourcesName()) ||
+                !code1.getSourceSet().equals(code2.getSourceSet()) ||
+                !code1.getClassNameSet().equals(code2.getClassNameSet())) {
+            return false;
+        }
+        for (Source source : code1.getSourceSet()) {
+            if (code1.getLastModifiedAtCompileTime(source) != code2.getLastModifiedAtCompileTime(source) ||
+                    !Objects.equals(code1.getMainClassName(source), code2.getMainClassName(source)) ||
+                    !code1.getClassNames(source).equals(code2.getClassNames(source))) {
+                return false;
+            }
+        }
+        for (String className : code1.getClassNameSet()) {
+            final Bytecode bytecode1 = code1.getBytecode(className);
+            final Bytecode bytecode2 = code2.getBytecode(className);
+            if (bytecode1 == null || bytecode2 == null) {
+                if (bytecode1 != bytecode2) {
+                    return false;
+                }
+            } else if (!Arrays.equals(bytecode1.getBytes(), bytecode2.getBytes())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * gets the names of the classes referenced in the constant pool of the given
+     * class file, as class entries or within descriptors and signatures.
+     * <p>
+     * Stops at the first unexpected content, returning the names found so far.
+     *
+     * @param classBytes bytes of the class file
+     *
+     * @return names of referenced classes, including the class itself
+     * @throws NullPointerException if the bytes are null
+     *
+     * @since 3.2
+     */
+    public static Set<String> getReferencedClassNames(final byte[] classBytes) {
+        requireNonNull(classBytes, "Bytes are null.");
+        final Set<String> classNames = new HashSet<>();
+        if (classBytes.length == 0) {
+            return classNames;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+            in.skipBytes(8);
+            final int count = in.readUnsignedShort();
+            final String[] utf8s = new String[count];
+            final List<Integer> classIndexes = new LinkedList<>();
+            for (int i = 1; i < count; i++) {
+                final int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1:
+                        utf8s[i] = in.readUTF();
+                        addClassNamesInDescriptor(utf8s[i], classNames);
+                        break;
+                    case 7:
+                        classIndexes.add(in.readUnsignedShort());
+                        break;
+                    case 5:
+                    case 6:
+                        in.skipBytes(8);
+                        i++;
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                    case 17:
+                    case 18:
+                        in.skipBytes(4);
+                        break;
+                    case 15:
+                        in.skipBytes(3);
+                        break;
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        in.skipBytes(2);
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag + ".");
+                }
+            }
+            for (int classIndex : classIndexes) {
+                final String name = classIndex < count ? utf8s[classIndex] : null;
+                if (name != null && isInternalClassName(name, 0, name.length())) {
+                    classNames.add(name.replace('/', '.'));
+                }
+            }
+        } catch (IOException e) {
+            // unexpected format, keep what was found so far
+        }
+        return classNames;
+    }
+
+    // class names within descriptors and signatures ("Lpkg/Name;", "Lpkg/Name<")
+    private static void addClassNamesInDescriptor(final String utf8, final Set<String> classNames) {
+        if (utf8.isEmpty() || "(L[<".indexOf(utf8.charAt(0)) < 0) {
+            return;
+        }
+        int start = utf8.indexOf('L');
+        while (start >= 0) {
+            int end = start + 1;
+            while (end < utf8.length() && utf8.charAt(end) != ';' && utf8.charAt(end) != '<') {
+                end++;
+            }
+            if (end < utf8.length() && isInternalClassName(utf8, start + 1, end)) {
+                classNames.add(utf8.substring(start + 1, end).replace('/', '.'));
+            }
+            start = utf8.indexOf('L', start + 1);
+        }
+    }
+
+    private static boolean isInternalClassName(final String s, final int start, final int end) {
+        if (start >= end || !Character.isJavaIdentifierStart(s.charAt(start))) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c != '/' && !Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,425 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import ch.grengine.except.CompileException;
+import ch.grengine.sources.Sources;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Admission control for compiling, limits the number of concurrent compiles
+ * and queues further compiles by priority.
+ * <p>
+ * A compile is admitted when fewer than the maximum number of compiles are running
+ * and it is first in the queue of its priority; {@link Priority#BACKGROUND} compiles
+ * are only admitted while no {@link Priority#INTERACTIVE} compiles are waiting.
+ * Compiles run on the calling thread, there are no threads of the scheduler.
+ * <p>
+ * Optionally, compiles fail fast with a {@link CompileException} if not admitted
+ * within a maximum queue wait time. The scheduler keeps metrics about queue depth
+ * and wait times.
+ * <p>
+ * One instance can be shared by several top code caches and layered class loaders,
+ * see {@link ch.grengine.load.DefaultTopCodeCache.Builder#setCompileScheduler(CompileScheduler)},
+ * {@link ch.grengine.load.LayeredClassLoader.Builder#setCompileScheduler(CompileScheduler)}
+ * and {@link ch.grengine.engine.LayeredEngine.Builder#setCompileScheduler(CompileScheduler)}.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class CompileScheduler {
+
+    /**
+     * Compile priority.
+     *
+     * @since 3.2
+     */
+    public enum Priority {
+        /**
+         * compiles a caller is waiting for, like top code cache misses.
+         *
+         * @since 3.2
+         */
+        INTERACTIVE,
+        /**
+         * compiles that can wait, like recompiling code layers.
+         *
+         * @since 3.2
+         */
+        BACKGROUND
+    }
+
+    private final Builder builder;
+    private final int maxConcurrentCompiles;
+    private final long maxQueueWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition admissionChanged = lock.newCondition();
+    private final Deque<Object> interactiveQueue = new ArrayDeque<>();
+    private final Deque<Object> backgroundQueue = new ArrayDeque<>();
+    private int activeCount;
+    private long admittedCount;
+    private long rejectedCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    /**
+     * constructor from builder.
+     *
+     * @param builder builder
+     *
+     * @since 3.2
+     */
+    protected CompileScheduler(final Builder builder) {
+        this.builder = builder.commit();
+        maxConcurrentCompiles = builder.getMaxConcurrentCompiles();
+        final long maxQueueWaitMs = builder.getMaxQueueWaitMs();
+        maxQueueWaitNanos = maxQueueWaitMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs);
+    }
+
+    /**
+     * constructor with default settings.
+     *
+     * @since 3.2
+     */
+    public CompileScheduler() {
+        this(new Builder());
+    }
+
+    /**
+     * compiles the given sources with the given compiler once admitted.
+     *
+     * @param compiler compiler
+     * @param sources sources
+     * @param priority priority
+     *
+     * @return code
+     * @throws CompileException if compilation failed, including if not admitted within
+     *                          the maximum queue wait time or if interrupted while waiting
+     * @throws NullPointerException if any of the arguments is null
+     *
+     * @since 3.2
+     */
+    public Code compile(final Compiler compiler, final Sources sources, final Priority priority) {
+        requireNonNull(compiler, "Compiler is null.");
+        requireNonNull(sources, "Sources are null.");
+        requireNonNull(priority, "Priority is null.");
+        admit(sources, priority);
+        try {
+            return compiler.compile(sources);
+        } finally {
+            leave();
+        }
+    }
+
+    private void admit(final Sources sources, final Priority priority) {
+        final Deque<Object> queue = (priority == Priority.INTERACTIVE) ? interactiveQueue : backgroundQueue;
+        final Object ticket = new Object();
+        final long startNanos = System.nanoTime();
+        lock.lock();
+        try {
+            queue.addLast(ticket);
+            try {
+                long remainingNanos = maxQueueWaitNanos;
+                while (!isAdmissible(queue, ticket)) {
+                    if (maxQueueWaitNanos < 0) {
+                        admissionChanged.await();
+                    } else if (remainingNanos > 0) {
+                        remainingNanos = admissionChanged.awaitNanos(remainingNanos);
+                    } else {
+                        rejectedCount++;
+                        throw new CompileException("Compile of sources " + sources + " not admitted within " +
+                                builder.getMaxQueueWaitMs() + " ms.", sources);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectedCount++;
+                throw new CompileException("Compile of sources " + sources +
+                        " interrupted while waiting for admission.", e, sources);
+            } finally {
+                queue.remove(ticket);
+                // others may now be first in queue
+                admissionChanged.signalAll();
+            }
+            activeCount++;
+            admittedCount++;
+            final long waitNanos = System.nanoTime() - startNanos;
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isAdmissible(final Deque<Object> queue, final Object ticket) {
+        return activeCount < maxConcurrentCompiles && queue.peekFirst() == ticket &&
+                (queue == interactiveQueue || interactiveQueue.isEmpty());
+    }
+
+    private void leave() {
+        lock.lock();
+        try {
+            activeCount--;
+            admissionChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the builder.
+     *
+     * @return builder
+     *
+     * @since 3.2
+     */
+    public Builder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * gets the number of compiles currently running.
+     *
+     * @return number of running compiles
+     *
+     * @since 3.2
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return activeCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the number of compiles with the given priority currently waiting for admission.
+     *
+     * @param priority priority
+     *
+     * @return queue depth
+     * @throws NullPointerException if the priority is null
+     *
+     * @since 3.2
+     */
+    public int getQueueDepth(final Priority priority) {
+        requireNonNull(priority, "Priority is null.");
+        lock.lock();
+        try {
+            return (priority == Priority.INTERACTIVE) ? interactiveQueue.size() : backgroundQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the number of compiles admitted so far.
+     *
+     * @return number of admitted compiles
+     *
+     * @since 3.2
+     */
+    public long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admittedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the number of compiles rejected so far, because not admitted within
+     * the maximum queue wait time or because interrupted while waiting.
+     *
+     * @return number of rejected compiles
+     *
+     * @since 3.2
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejectedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the total time admitted compiles have waited for admission.
+     *
+     * @return total wait time in nanoseconds
+     *
+     * @since 3.2
+     */
+    public long getTotalWaitNanos() {
+        lock.lock();
+        try {
+            return totalWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the longest time an admitted compile has waited for admission.
+     *
+     * @return maximum wait time in nanoseconds
+     *
+     * @since 3.2
+     */
+    public long getMaxWaitNanos() {
+        lock.lock();
+        try {
+            return maxWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Builder for instances of {@link CompileScheduler}.
+     *
+     * @since 3.2
+     *
+     * @author Alain Stalder
+     * @author Made in Switzerland.
+     */
+    public static class Builder {
+
+        private boolean isCommitted;
+
+        private int maxConcurrentCompiles = -1;
+        private long maxQueueWaitMs = -1;
+
+        /**
+         * constructor.
+         *
+         * @since 3.2
+         */
+        public Builder() {
+            isCommitted = false;
+        }
+
+        /**
+         * sets the maximum number of concurrent compiles,
+         * default is the number of available processors.
+         *
+         * @param maxConcurrentCompiles maximum number of concurrent compiles
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the maximum number is less than one
+         *
+         * @since 3.2
+         */
+        public Builder setMaxConcurrentCompiles(final int maxConcurrentCompiles) {
+            check();
+            if (maxConcurrentCompiles < 1) {
+                throw new IllegalArgumentException("Max concurrent compiles is less than one.");
+            }
+            this.maxConcurrentCompiles = maxConcurrentCompiles;
+            return this;
+        }
+
+        /**
+         * sets the maximum time a compile waits for admission before failing,
+         * default is to wait without limit.
+         *
+         * @param maxQueueWaitMs maximum queue wait time in milliseconds
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the time is negative
+         *
+         * @since 3.2
+         */
+        public Builder setMaxQueueWaitMs(final long maxQueueWaitMs) {
+            check();
+            if (maxQueueWaitMs < 0) {
+                throw new IllegalArgumentException("Max queue wait ms is negative.");
+            }
+            this.maxQueueWaitMs = maxQueueWaitMs;
+            return this;
+        }
+
+        /**
+         * gets the maximum number of concurrent compiles.
+         *
+         * @return maximum number of concurrent compiles
+         *
+         * @since 3.2
+         */
+        public int getMaxConcurrentCompiles() {
+            return maxConcurrentCompiles;
+        }
+
+        /**
+         * gets the maximum time a compile waits for admission before failing.
+         *
+         * @return maximum queue wait time in milliseconds, -1 if without limit
+         *
+         * @since 3.2
+         */
+        public long getMaxQueueWaitMs() {
+            return maxQueueWaitMs;
+        }
+
+        private Builder commit() {
+            if (!isCommitted) {
+                if (maxConcurrentCompiles < 0) {
+                    maxConcurrentCompiles = Runtime.getRuntime().availableProcessors();
+                }
+                isCommitted = true;
+            }
+            return this;
+        }
+
+        /**
+         * builds a new instance of {@link CompileScheduler}.
+         *
+         * @return new instance
+         *
+         * @since 3.2
+         */
+        public CompileScheduler build() {
+            commit();
+            return new CompileScheduler(this);
+        }
+
+        private void check() {
+            if (isCommitted) {
+                throw new IllegalStateException("Builder already used.");
+            }
+        }
+
+    }
+
+}
@@ -18,7 +18,9 @@ package ch.grengine.code;
 
 import ch.grengine.source.Source;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import static java.util.Objects.requireNonNull;
@@ -27,8 +29,9 @@ import static java.util.Objects.requireNonNull;
 /**
  * Information about compiled source.
  * <p>
- * Contains the originating {@link Source} instance, the main class name
- * and the last modified at compile time.
+ * Contains the originating {@link Source} instance, the main class name,
+ * the last modified at compile time and the names of the variables
+ * that the script accesses in its binding.
  * 
  * @since 1.0
  * 
@@ -41,9 +44,10 @@ public class CompiledSourceInfo {
     private final String mainClassName;
     private final Set<String> classNames;
     private final long lastModifiedAtCompileTime;
+    private final List<String> variableNames;
     
     /**
-     * constructor.
+     * constructor, without variable names.
      * 
      * @param source the originating {@link Source} instance
      * @param mainClassName the main class name
@@ -56,13 +60,34 @@ public class CompiledSourceInfo {
      */
     public CompiledSourceInfo(final Source source, final String mainClassName, 
             final Set<String> classNames, final long lastModifiedAtCompileTime) {
+        this(source, mainClassName, classNames, lastModifiedAtCompileTime, Collections.emptyList());
+    }
+
+    /**
+     * constructor.
+     *
+     * @param source the originating {@link Source} instance
+     * @param mainClassName the main class name
+     * @param classNames all class names
+     * @param lastModifiedAtCompileTime the last modified at compile time
+     * @param variableNames the names of the variables that the main class accesses
+     *                      in its binding, in order of first occurrence
+     *
+     * @throws NullPointerException if any argument is null
+     *
+     * @since 3.2
+     */
+    public CompiledSourceInfo(final Source source, final String mainClassName,
+            final Set<String> classNames, final long lastModifiedAtCompileTime, final List<String> variableNames) {
         requireNonNull(source, "Source is null.");
         requireNonNull(mainClassName, "Main class name is null.");
         requireNonNull(classNames, "Class names are null.");
+        requireNonNull(variableNames, "Variable names are null.");
         this.source = source;
         this.mainClassName = mainClassName;
         this.classNames = classNames;
         this.lastModifiedAtCompileTime = lastModifiedAtCompileTime;
+        this.variableNames = variableNames;
     }
 
     /**
@@ -109,6 +134,19 @@ public class CompiledSourceInfo {
         return lastModifiedAtCompileTime;
     }
 
+    /**
+     * gets the names of the variables that the main class accesses in its binding,
+     * i.e. variables that are neither declared nor parameters, in order of first
+     * occurrence, first in the script body, then in the other methods.
+     *
+     * @return variable names, empty if unknown
+     *
+     * @since 3.2
+     */
+    public List<String> getVariableNames() {
+        return variableNames;
+    }
+
     /**
      * returns a string suitable for logging.
      *
@@ -120,7 +158,7 @@ public class CompiledSourceInfo {
     public String toString() {
         return this.getClass().getSimpleName() + "[source=" + source + ", mainClassName=" + mainClassName +
                 ", classNames=" + classNames + ", lastModifiedAtCompileTime=" +
-                new Date(lastModifiedAtCompileTime) + "]";
+                new Date(lastModifiedAtCompileTime) + ", variableNames=" + variableNames + "]";
     }
 
 }
@@ -16,6 +16,7 @@
 
 package ch.grengine.code;
 
+import ch.grengine.except.CompileAbortedException;
 import ch.grengine.except.CompileException;
 import ch.grengine.sources.Sources;
 
@@ -42,4 +43,18 @@ public interface Compiler {
      */
     Code compile(Sources sources);
 
+    /**
+     * requests to abort all compiles currently running with this compiler.
+     * <p>
+     * Compiles that support it stop as soon as possible and throw a
+     * {@link CompileAbortedException}; the default implementation does nothing.
+     *
+     * @return whether cancelling is supported by this compiler
+     *
+     * @since 3.2
+     */
+    default boolean cancel() {
+        return false;
+    }
+
 }
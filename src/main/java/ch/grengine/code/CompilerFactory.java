@@ -38,4 +38,18 @@ public interface CompilerFactory {
      */
     Compiler newCompiler(ClassLoader parent);
 
+    /**
+     * requests to abort all compiles currently running with compilers created by this factory,
+     * see {@link Compiler#cancel()}.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @return whether cancelling is supported by this factory
+     *
+     * @since 3.2
+     */
+    default boolean cancelAll() {
+        return false;
+    }
+
 }
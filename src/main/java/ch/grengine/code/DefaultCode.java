@@ -19,6 +19,7 @@ package ch.grengine.code;
 import ch.grengine.source.Source;
 import ch.grengine.sources.Sources;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -97,6 +98,15 @@ public class DefaultCode implements Code {
        return info.getLastModifiedAtCompileTime();
     }
 
+    @Override
+    public List<String> getVariableNames(final Source source) {
+        final CompiledSourceInfo info = compiledSourceInfoMap.get(source);
+        if (info == null) {
+            throw new IllegalArgumentException("Source is not for this code. Source: " + source);
+        }
+        return info.getVariableNames();
+    }
+
     @Override
     public Set<Source> getSourceSet() {
         return compiledSourceInfoMap.keySet();
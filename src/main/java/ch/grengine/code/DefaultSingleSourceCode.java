@@ -19,6 +19,7 @@ package ch.grengine.code;
 import ch.grengine.source.Source;
 import ch.grengine.sources.Sources;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -41,6 +42,7 @@ public class DefaultSingleSourceCode implements SingleSourceCode {
     private final String mainClassName;
     private final Set<String> classNames;
     private final long lastModifiedAtCompileTime;
+    private final List<String> variableNames;
     private final Set<String> classNameSet;
     private final Map<String,Bytecode> bytecodeMap;
     
@@ -71,6 +73,7 @@ public class DefaultSingleSourceCode implements SingleSourceCode {
         mainClassName = info.getMainClassName();
         classNames =  info.getClassNames();
         lastModifiedAtCompileTime = info.getLastModifiedAtCompileTime();
+        variableNames = info.getVariableNames();
         this.bytecodeMap = bytecodeMap;
         classNameSet = bytecodeMap.keySet();
     }
@@ -124,6 +127,14 @@ public class DefaultSingleSourceCode implements SingleSourceCode {
         return lastModifiedAtCompileTime;
     }
 
+    @Override
+    public List<String> getVariableNames(final Source source) {
+        if (!isForSource(source)) {
+            throw new IllegalArgumentException("Source is not for this code. Source: " + source);
+        }
+        return variableNames;
+    }
+
     @Override
     public Set<Source> getSourceSet() {
         return sourceSet;
@@ -0,0 +1,307 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code;
+
+import ch.grengine.source.Source;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Implementation of {@link Code} that keeps bytecode bytes only as long as needed
+ * and then spills them to a compressed (deflated) in-memory store.
+ * <p>
+ * Class loaders that define classes from this code (like the
+ * {@code ch.grengine.load.BytecodeClassLoader}) register themselves with
+ * {@link #registerLoader(ClassLoader)} and report each class definition with
+ * {@link #classDefined(String)}. Once a class has been defined as many times
+ * as there are registered class loaders that are still reachable, its bytes
+ * are compressed and the uncompressed bytes are dropped. If another class
+ * loader needs the class later on, the bytes are decompressed on demand
+ * in {@link #getBytecode(String)}, without keeping the decompressed bytes.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class LeanCode implements Code {
+
+    private final String sourcesName;
+    private final Map<Source,CompiledSourceInfo> compiledSourceInfoMap;
+    private final Map<String,Entry> entryMap;
+
+    private final ReferenceQueue<ClassLoader> loaderQueue = new ReferenceQueue<>();
+    private final Set<Reference<ClassLoader>> loaderRefs = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger spilledClassCount = new AtomicInteger();
+
+    /**
+     * constructor from the given code, copying all information from it,
+     * so that the given code is not referenced by this code.
+     *
+     * @param code code
+     *
+     * @throws NullPointerException if code is null
+     * @throws IllegalArgumentException if the code has no bytecode for one of its class names
+     *
+     * @since 3.2
+     */
+    public LeanCode(final Code code) {
+        requireNonNull(code, "Code is null.");
+        sourcesName = code.getSourcesName();
+        final Map<Source,CompiledSourceInfo> infoMap = new HashMap<>();
+        for (Source source : code.getSourceSet()) {
+            infoMap.put(source, new CompiledSourceInfo(source, code.getMainClassName(source),
+                    code.getClassNames(source), code.getLastModifiedAtCompileTime(source),
+                    code.getVariableNames(source)));
+        }
+        compiledSourceInfoMap = Collections.unmodifiableMap(infoMap);
+        final Map<String,Entry> entries = new LinkedHashMap<>();
+        for (String className : code.getClassNameSet()) {
+            final Bytecode bytecode = code.getBytecode(className);
+            if (bytecode == null) {
+                throw new IllegalArgumentException("No bytecode for class " + className + " in code " + code + ".");
+            }
+            entries.put(className, new Entry(bytecode.getBytes()));
+        }
+        entryMap = Collections.unmodifiableMap(entries);
+    }
+
+    @Override
+    public String getSourcesName() {
+        return sourcesName;
+    }
+
+    @Override
+    public boolean isForSource(final Source source) {
+        return compiledSourceInfoMap.containsKey(source);
+    }
+
+    @Override
+    public String getMainClassName(final Source source) {
+        return getCompiledSourceInfo(source).getMainClassName();
+    }
+
+    @Override
+    public Set<String> getClassNames(final Source source) {
+        return getCompiledSourceInfo(source).getClassNames();
+    }
+
+    @Override
+    public long getLastModifiedAtCompileTime(final Source source) {
+        return getCompiledSourceInfo(source).getLastModifiedAtCompileTime();
+    }
+
+    @Override
+    public List<String> getVariableNames(final Source source) {
+        return getCompiledSourceInfo(source).getVariableNames();
+    }
+
+    private CompiledSourceInfo getCompiledSourceInfo(final Source source) {
+        final CompiledSourceInfo info = compiledSourceInfoMap.get(source);
+        if (info == null) {
+            throw new IllegalArgumentException("Source is not for this code. Source: " + source);
+        }
+        return info;
+    }
+
+    @Override
+    public Set<Source> getSourceSet() {
+        return compiledSourceInfoMap.keySet();
+    }
+
+    /**
+     * gets the bytecode for the given class name,
+     * decompressing it if it has already been spilled.
+     *
+     * @param className class name
+     *
+     * @return bytecode or null if not found
+     *
+     * @since 3.2
+     */
+    @Override
+    public Bytecode getBytecode(final String className) {
+        final Entry entry = entryMap.get(className);
+        if (entry == null) {
+            return null;
+        }
+        return new Bytecode(className, entry.getBytes());
+    }
+
+    @Override
+    public Set<String> getClassNameSet() {
+        return entryMap.keySet();
+    }
+
+    /**
+     * registers a class loader that defines classes from this code.
+     * <p>
+     * The class loader is only weakly referenced.
+     *
+     * @param loader class loader
+     *
+     * @throws NullPointerException if the class loader is null
+     *
+     * @since 3.2
+     */
+    public void registerLoader(final ClassLoader loader) {
+        requireNonNull(loader, "Class loader is null.");
+        loaderRefs.add(new WeakReference<>(loader, loaderQueue));
+    }
+
+    /**
+     * notifies that a registered class loader has defined the class with the given name,
+     * which spills the bytes of the class if all registered class loaders
+     * that are still reachable have now defined the class.
+     *
+     * @param className class name
+     *
+     * @since 3.2
+     */
+    public void classDefined(final String className) {
+        final Entry entry = entryMap.get(className);
+        if (entry == null) {
+            return;
+        }
+        if (entry.definedCount.incrementAndGet() >= getLoaderCount() && entry.spill()) {
+            spilledClassCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * gets the number of registered class loaders that are still reachable.
+     *
+     * @return number of registered class loaders
+     *
+     * @since 3.2
+     */
+    public int getLoaderCount() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = loaderQueue.poll()) != null) {
+            loaderRefs.remove(ref);
+        }
+        return loaderRefs.size();
+    }
+
+    /**
+     * gets the number of classes whose bytes have been spilled.
+     *
+     * @return number of spilled classes
+     *
+     * @since 3.2
+     */
+    public int getSpilledClassCount() {
+        return spilledClassCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[sourcesName='" + sourcesName + "', sources:" +
+                compiledSourceInfoMap.size() + ", classes:" + entryMap.size() +
+                ", spilled:" + spilledClassCount.get() + "]";
+    }
+
+    private static class Entry {
+
+        private final AtomicInteger definedCount = new AtomicInteger();
+        private final int length;
+        private volatile byte[] bytes;
+        private volatile byte[] deflatedBytes;
+
+        private Entry(final byte[] bytes) {
+            this.bytes = bytes;
+            length = bytes.length;
+        }
+
+        private byte[] getBytes() {
+            final byte[] b = bytes;
+            if (b != null) {
+                return b;
+            }
+            return inflate(deflatedBytes, length);
+        }
+
+        private synchronized boolean spill() {
+            final byte[] b = bytes;
+            if (b == null) {
+                return false;
+            }
+            // set deflated bytes before clearing bytes, so that getBytes() always finds one of them
+            deflatedBytes = deflate(b);
+            bytes = null;
+            return true;
+        }
+
+    }
+
+    // package scope for unit tests
+    static byte[] deflate(final byte[] bytes) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            final byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // package scope for unit tests
+    static byte[] inflate(final byte[] deflatedBytes, final int length) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflatedBytes);
+            final byte[] bytes = new byte[length];
+            int off = 0;
+            while (off < length && !inflater.finished()) {
+                final int n = inflater.inflate(bytes, off, length - off);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated deflated bytes.");
+                }
+                off += n;
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            // cannot happen, deflated by this class
+            throw new IllegalStateException("Could not inflate bytecode.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
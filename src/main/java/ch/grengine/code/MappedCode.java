@@ -0,0 +1,263 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code;
+
+import ch.grengine.source.BaseSource;
+import ch.grengine.source.Source;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Implementation of {@link Code} that memory-maps a code archive file
+ * written with {@link CodeArchive}.
+ * <p>
+ * Only the index of the archive is read into memory when constructing,
+ * bytecode bytes are copied from the mapped file each time {@link #getBytecode(String)}
+ * is called, so that they are not kept in the heap after the class has been defined.
+ * <p>
+ * Sources in the source set of this code are placeholders that only carry
+ * the source ID and return the last modified at compile time as last modified.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class MappedCode implements Code {
+
+    private final File file;
+    private final String sourcesName;
+    private final Map<Source,CompiledSourceInfo> compiledSourceInfoMap;
+    private final Map<String,Entry> entryMap;
+    private final ByteBuffer data;
+
+    /**
+     * constructor from code archive file.
+     *
+     * @param file code archive file
+     *
+     * @throws NullPointerException if file is null
+     * @throws IOException if could not read or map the file or if it is not a valid code archive
+     *
+     * @since 3.2
+     */
+    public MappedCode(final File file) throws IOException {
+        requireNonNull(file, "File is null.");
+        this.file = file;
+
+        final MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // mapping remains valid after closing the channel
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.limit() < CodeArchive.HEADER_LENGTH || buf.getInt(0) != CodeArchive.MAGIC) {
+            throw new IOException("Not a code archive: " + file);
+        }
+        final int version = buf.getInt(4);
+        if (version != CodeArchive.VERSION) {
+            throw new IOException("Unsupported code archive version " + version + ": " + file);
+        }
+        final int indexLength = buf.getInt(8);
+        if (indexLength < 0 || CodeArchive.HEADER_LENGTH + indexLength > buf.limit()) {
+            throw new IOException("Corrupt code archive: " + file);
+        }
+
+        final byte[] indexBytes = new byte[indexLength];
+        final ByteBuffer indexBuf = buf.duplicate();
+        indexBuf.position(CodeArchive.HEADER_LENGTH);
+        indexBuf.get(indexBytes);
+        final ByteBuffer dataBuf = buf.duplicate();
+        dataBuf.position(CodeArchive.HEADER_LENGTH + indexLength);
+        data = dataBuf.slice();
+
+        final Map<Source,CompiledSourceInfo> infoMap = new HashMap<>();
+        final Map<String,Entry> entries = new LinkedHashMap<>();
+        try (DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes))) {
+            sourcesName = index.readUTF();
+            final int nSources = index.readInt();
+            for (int i = 0; i < nSources; i++) {
+                final String id = index.readUTF();
+                final String mainClassName = index.readUTF();
+                final long lastModifiedAtCompileTime = index.readLong();
+                final int nClassNames = index.readInt();
+                final Set<String> classNames = new LinkedHashSet<>();
+                for (int j = 0; j < nClassNames; j++) {
+                    classNames.add(index.readUTF());
+                }
+                final int nVariableNames = index.readInt();
+                final List<String> variableNames = new ArrayList<>();
+                for (int j = 0; j < nVariableNames; j++) {
+                    variableNames.add(index.readUTF());
+                }
+                final Source source = new ArchivedSource(id, lastModifiedAtCompileTime);
+                infoMap.put(source, new CompiledSourceInfo(source, mainClassName,
+                        Collections.unmodifiableSet(classNames), lastModifiedAtCompileTime,
+                        Collections.unmodifiableList(variableNames)));
+            }
+            final int nClasses = index.readInt();
+            for (int i = 0; i < nClasses; i++) {
+                final String className = index.readUTF();
+                final int offset = index.readInt();
+                final int length = index.readInt();
+                if (offset < 0 || length < 0 || (long)offset + length > data.limit()) {
+                    throw new IOException("Corrupt code archive: " + file);
+                }
+                entries.put(className, new Entry(offset, length));
+            }
+        }
+        compiledSourceInfoMap = Collections.unmodifiableMap(infoMap);
+        entryMap = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * gets the code archive file.
+     *
+     * @return code archive file
+     *
+     * @since 3.2
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String getSourcesName() {
+        return sourcesName;
+    }
+
+    @Override
+    public boolean isForSource(final Source source) {
+        return compiledSourceInfoMap.containsKey(source);
+    }
+
+    @Override
+    public String getMainClassName(final Source source) {
+        return getCompiledSourceInfo(source).getMainClassName();
+    }
+
+    @Override
+    public Set<String> getClassNames(final Source source) {
+        return getCompiledSourceInfo(source).getClassNames();
+    }
+
+    @Override
+    public long getLastModifiedAtCompileTime(final Source source) {
+        return getCompiledSourceInfo(source).getLastModifiedAtCompileTime();
+    }
+
+    @Override
+    public List<String> getVariableNames(final Source source) {
+        return getCompiledSourceInfo(source).getVariableNames();
+    }
+
+    private CompiledSourceInfo getCompiledSourceInfo(final Source source) {
+        final CompiledSourceInfo info = compiledSourceInfoMap.get(source);
+        if (info == null) {
+            throw new IllegalArgumentException("Source is not for this code. Source: " + source);
+        }
+        return info;
+    }
+
+    @Override
+    public Set<Source> getSourceSet() {
+        return compiledSourceInfoMap.keySet();
+    }
+
+    @Override
+    public Bytecode getBytecode(final String className) {
+        final Entry entry = entryMap.get(className);
+        if (entry == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[entry.length];
+        // duplicate, so that concurrent calls do not share the buffer position
+        final ByteBuffer buf = data.duplicate();
+        buf.position(entry.offset);
+        buf.get(bytes);
+        return new Bytecode(className, bytes);
+    }
+
+    @Override
+    public Set<String> getClassNameSet() {
+        return entryMap.keySet();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[file=" + file + ", sourcesName='" + sourcesName +
+                "', sources:" + compiledSourceInfoMap.size() + ", classes:" + entryMap.size() + "]";
+    }
+
+    private static class Entry {
+        private final int offset;
+        private final int length;
+        private Entry(final int offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Source read from a code archive, with only the source ID and the last modified at compile time.
+     *
+     * @since 3.2
+     */
+    public static class ArchivedSource extends BaseSource {
+
+        private final long lastModified;
+
+        /**
+         * constructor.
+         *
+         * @param id source ID
+         * @param lastModified last modified
+         *
+         * @throws NullPointerException if the source ID is null
+         *
+         * @since 3.2
+         */
+        public ArchivedSource(final String id, final long lastModified) {
+            requireNonNull(id, "ID is null.");
+            this.id = id;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+
+/**
+ * Budget per compile for {@link DefaultGroovyCompiler}, i.e. limits for compile time,
+ * source size and number of generated classes.
+ * <p>
+ * Compile time and number of classes are checked between the phases of the Groovy
+ * compilation unit, so a single phase that takes long is not interrupted, but the
+ * compile is aborted after it; the size of text and file sources is checked before
+ * compiling. If a limit is exceeded, compiling throws a
+ * {@link ch.grengine.except.CompileAbortedException}.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class CompileBudget {
+
+    /**
+     * budget without any limits.
+     *
+     * @since 3.2
+     */
+    public static final CompileBudget UNLIMITED = new Builder().build();
+
+    private final Builder builder;
+    private final long maxTimeMs;
+    private final long maxSourceSize;
+    private final int maxClassCount;
+
+    /**
+     * constructor from builder.
+     *
+     * @param builder builder
+     *
+     * @since 3.2
+     */
+    protected CompileBudget(final Builder builder) {
+        this.builder = builder.commit();
+        maxTimeMs = builder.getMaxTimeMs();
+        maxSourceSize = builder.getMaxSourceSize();
+        maxClassCount = builder.getMaxClassCount();
+    }
+
+    /**
+     * gets the builder.
+     *
+     * @return builder
+     *
+     * @since 3.2
+     */
+    public Builder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * gets the maximum compile time.
+     *
+     * @return maximum compile time in milliseconds, -1 if without limit
+     *
+     * @since 3.2
+     */
+    public long getMaxTimeMs() {
+        return maxTimeMs;
+    }
+
+    /**
+     * gets the maximum size of a source.
+     *
+     * @return maximum source size, -1 if without limit
+     *
+     * @since 3.2
+     */
+    public long getMaxSourceSize() {
+        return maxSourceSize;
+    }
+
+    /**
+     * gets the maximum number of classes per compile.
+     *
+     * @return maximum number of classes, -1 if without limit
+     *
+     * @since 3.2
+     */
+    public int getMaxClassCount() {
+        return maxClassCount;
+    }
+
+    /**
+     * gets whether the budget has no limits.
+     *
+     * @return whether unlimited
+     *
+     * @since 3.2
+     */
+    public boolean isUnlimited() {
+        return maxTimeMs < 0 && maxSourceSize < 0 && maxClassCount < 0;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[maxTimeMs=" + maxTimeMs +
+                ", maxSourceSize=" + maxSourceSize + ", maxClassCount=" + maxClassCount + "]";
+    }
+
+
+    /**
+     * Builder for instances of {@link CompileBudget}.
+     *
+     * @since 3.2
+     *
+     * @author Alain Stalder
+     * @author Made in Switzerland.
+     */
+    public static class Builder {
+
+        private boolean isCommitted;
+
+        private long maxTimeMs = -1;
+        private long maxSourceSize = -1;
+        private int maxClassCount = -1;
+
+        /**
+         * constructor.
+         *
+         * @since 3.2
+         */
+        public Builder() {
+            isCommitted = false;
+        }
+
+        /**
+         * sets the maximum compile time (wall time), default is without limit.
+         *
+         * @param maxTimeMs maximum compile time in milliseconds
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the time is negative
+         *
+         * @since 3.2
+         */
+        public Builder setMaxTimeMs(final long maxTimeMs) {
+            check();
+            if (maxTimeMs < 0) {
+                throw new IllegalArgumentException("Max time ms is negative.");
+            }
+            this.maxTimeMs = maxTimeMs;
+            return this;
+        }
+
+        /**
+         * sets the maximum size of a single source, in characters for text sources
+         * and in bytes for file sources (not checked for URL sources), default is without limit.
+         *
+         * @param maxSourceSize maximum source size
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the size is negative
+         *
+         * @since 3.2
+         */
+        public Builder setMaxSourceSize(final long maxSourceSize) {
+            check();
+            if (maxSourceSize < 0) {
+                throw new IllegalArgumentException("Max source size is negative.");
+            }
+            this.maxSourceSize = maxSourceSize;
+            return this;
+        }
+
+        /**
+         * sets the maximum number of classes per compile, including inner classes
+         * and closure classes, default is without limit.
+         *
+         * @param maxClassCount maximum number of classes
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the number is negative
+         *
+         * @since 3.2
+         */
+        public Builder setMaxClassCount(final int maxClassCount) {
+            check();
+            if (maxClassCount < 0) {
+                throw new IllegalArgumentException("Max class count is negative.");
+            }
+            this.maxClassCount = maxClassCount;
+            return this;
+        }
+
+        /**
+         * gets the maximum compile time.
+         *
+         * @return maximum compile time in milliseconds, -1 if without limit
+         *
+         * @since 3.2
+         */
+        public long getMaxTimeMs() {
+            return maxTimeMs;
+        }
+
+        /**
+         * gets the maximum size of a source.
+         *
+         * @return maximum source size, -1 if without limit
+         *
+         * @since 3.2
+         */
+        public long getMaxSourceSize() {
+            return maxSourceSize;
+        }
+
+        /**
+         * gets the maximum number of classes per compile.
+         *
+         * @return maximum number of classes, -1 if without limit
+         *
+         * @since 3.2
+         */
+        public int getMaxClassCount() {
+            return maxClassCount;
+        }
+
+        private Builder commit() {
+            isCommitted = true;
+            return this;
+        }
+
+        /**
+         * builds a new instance of {@link CompileBudget}.
+         *
+         * @return new instance
+         *
+         * @since 3.2
+         */
+        public CompileBudget build() {
+            commit();
+            return new CompileBudget(this);
+        }
+
+        private void check() {
+            if (isCommitted) {
+                throw new IllegalStateException("Builder already used.");
+            }
+        }
+
+    }
+
+}
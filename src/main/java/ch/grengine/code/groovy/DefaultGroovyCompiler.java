@@ -23,18 +23,36 @@ import ch.grengine.code.Code;
 import ch.grengine.code.CompiledSourceInfo;
 import ch.grengine.code.Compiler;
 import ch.grengine.code.DefaultSingleSourceCode;
+import ch.grengine.except.CompileAbortedException;
 import ch.grengine.except.CompileException;
 import ch.grengine.source.FileSource;
+import ch.grengine.source.FunctionSource;
 import ch.grengine.source.TextSource;
 import ch.grengine.source.UrlSource;
 import ch.grengine.sources.Sources;
 
+import java.io.File;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import groovy.grape.Grape;
@@ -68,6 +86,8 @@ public class DefaultGroovyCompiler implements Compiler {
     private final ClassLoader parent;
     private final CompilerConfiguration config;
     private final GroovyClassLoader groovyClassLoader;
+    private final CompileBudget compileBudget;
+    private final Set<CompileRun> runs = ConcurrentHashMap.newKeySet();
 
     /**
      * constructor from builder.
@@ -82,6 +102,7 @@ public class DefaultGroovyCompiler implements Compiler {
         config = builder.getCompilerConfiguration();
         final GroovyClassLoader loader = GrapeCompilationCustomizer.getLoaderIfConfigured(parent, config);
         groovyClassLoader = (loader == null) ? new GroovyClassLoader(parent, config) : loader;
+        compileBudget = builder.getCompileBudget();
     }
     
     /**
@@ -152,6 +173,10 @@ public class DefaultGroovyCompiler implements Compiler {
     /**
      * enable Grape support with the {@link Grape} class as lock.
      * <p>
+     * With virtual threads, consider {@link #enableGrapeSupport(Object)} with
+     * a {@link ReentrantLock} instead, which does not pin virtual threads to
+     * their carrier threads while grabbing.
+     * <p>
      * Currently wraps the {@link GrapeEngine} in the {@link Grape} class with
      * a wrapper that fixes an open Groovy issue (GROOVY-7407) using the lock
      * and provides a mechanism needed for Grape with Grengine. See user manual
@@ -176,6 +201,15 @@ public class DefaultGroovyCompiler implements Compiler {
      * <p>
      * Call once before using this compiler class in combination with Grengine
      * (equivalent to calling <code>Grengine.Grape.activate(lock)</code>).
+     * <p>
+     * If the lock is a {@link Lock}, e.g. a {@link ReentrantLock}, it is locked
+     * and unlocked explicitly, which does not pin virtual threads to their carrier
+     * threads while grabbing; else its monitor is used (<code>synchronized</code>).
+     * <p>
+     * Grabs while compiling with Grengine are cached per dependency coordinates
+     * and target class loader, so that grabbing the same dependencies again,
+     * e.g. when compiling many scripts with the same <code>@Grab</code> annotations,
+     * does not call Ivy again and does not need the lock.
      *
      * @param lock the lock to use
      *
@@ -208,11 +242,18 @@ public class DefaultGroovyCompiler implements Compiler {
      * <p>
      * If {@link CompilerConfiguration#getTargetDirectory()} is not null,
      * class files are also written to the target directory.
+     * <p>
+     * The main class of a {@link FunctionSource} implements the function interface
+     * of the source, with the script body as implementation of its function method.
+     * <p>
+     * Compiling is aborted with a {@link CompileAbortedException} if the compile budget
+     * is exceeded or if {@link #cancel()} is called, checked between compilation phases.
      *
      * @param sources sources
      *
      * @return code
      * @throws CompileException if compilation failed
+     * @throws CompileAbortedException if compilation was aborted
      * @throws NullPointerException if sources are null
      * 
      * @since 1.0
@@ -220,21 +261,36 @@ public class DefaultGroovyCompiler implements Compiler {
     @Override
     public Code compile(final Sources sources) {
         requireNonNull(sources, "Sources are null.");
+        final CompileRun run = new CompileRun(sources);
+        runs.add(run);
         try {
+            run.checkSourceSizes();
             final CompilationUnit cu = new CompilationUnit(config, null, groovyClassLoader);
             final Map<Source,SourceUnit> sourceUnitMap = sources.getSourceSet().stream()
                     .collect(Collectors.toMap(source -> source, source -> addToCompilationUnit(cu, source, sources)));
 
+            // function sources: implement function interface before variable scopes are determined
+            if (sourceUnitMap.keySet().stream().anyMatch(source -> source instanceof FunctionSource)) {
+                run.compile(cu, Phases.CONVERSION);
+                sourceUnitMap.forEach((source, su) -> {
+                    if (source instanceof FunctionSource) {
+                        FunctionSourceTransformer.transform(su, (FunctionSource)source, sources);
+                    }
+                });
+            }
+
             final int phase = (config.getTargetDirectory() == null) ? Phases.CLASS_GENERATION : Phases.OUTPUT;
-            cu.compile(phase);
+            run.compile(cu, phase);
 
             final Map<Source,CompiledSourceInfo> compiledSourceInfoMap = new HashMap<>();
             sourceUnitMap.forEach((source, su) -> {
                 final Set<String> classNames = su.getAST().getClasses().stream()
                         .map(ClassNode::getName)
                         .collect(Collectors.toSet());
+                final String mainClassName = su.getAST().getMainClassName();
                 final CompiledSourceInfo compiledSourceInfo = new CompiledSourceInfo(source,
-                        su.getAST().getMainClassName(), classNames, source.getLastModified());
+                        mainClassName, classNames, source.getLastModified(),
+                        VariableNameCollector.collect(su.getAST(), mainClassName));
                 //System.out.println("SU MainClassName: " + su.getAST().getMainClassName());
                 compiledSourceInfoMap.put(source, compiledSourceInfo);
             });
@@ -258,8 +314,24 @@ public class DefaultGroovyCompiler implements Compiler {
             throw e;
         } catch (Throwable t) {
             throw new CompileException("Compile failed for sources " + sources + ".", t, sources);
+        } finally {
+            runs.remove(run);
         }
     }
+
+    /**
+     * requests to abort all compiles currently running with this compiler,
+     * which throw a {@link CompileAbortedException} after the current compilation phase.
+     *
+     * @return true
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean cancel() {
+        runs.forEach(CompileRun::cancel);
+        return true;
+    }
     
     /**
      * adds the given source to the given compilation unit and returns the resulting source unit.
@@ -321,6 +393,92 @@ public class DefaultGroovyCompiler implements Compiler {
     public CompilerConfiguration getCompilerConfiguration() {
         return config;
     }
+
+    /**
+     * gets the compile budget.
+     *
+     * @return compile budget
+     *
+     * @since 3.2
+     */
+    public CompileBudget getCompileBudget() {
+        return compileBudget;
+    }
+
+
+    // a single compile, checks budget and cancellation between compilation phases
+    private class CompileRun {
+
+        private final Sources sources;
+        private final long startNanos = System.nanoTime();
+        private volatile boolean isCancelled;
+
+        CompileRun(final Sources sources) {
+            this.sources = sources;
+        }
+
+        void cancel() {
+            isCancelled = true;
+        }
+
+        void checkSourceSizes() {
+            final long maxSourceSize = compileBudget.getMaxSourceSize();
+            if (maxSourceSize < 0) {
+                return;
+            }
+            for (Source source : sources.getSourceSet()) {
+                final long size;
+                if (source instanceof TextSource) {
+                    size = ((TextSource)source).getText().length();
+                } else if (source instanceof FileSource) {
+                    size = ((FileSource)source).getFile().length();
+                } else {
+                    continue;
+                }
+                if (size > maxSourceSize) {
+                    throw new CompileAbortedException("Compile aborted for sources " + sources +
+                            ". Size of source " + source + " is " + size + ", max is " + maxSourceSize + ".",
+                            CompileAbortedException.Reason.SOURCE_SIZE, sources);
+                }
+            }
+        }
+
+        // compiles phase by phase through the given phase
+        void compile(final CompilationUnit cu, final int throughPhase) {
+            while (cu.getPhase() <= throughPhase) {
+                cu.compile(cu.getPhase());
+                check(cu);
+            }
+        }
+
+        private void check(final CompilationUnit cu) {
+            if (isCancelled) {
+                throw new CompileAbortedException("Compile aborted for sources " + sources + ". Cancelled.",
+                        CompileAbortedException.Reason.CANCELLED, sources);
+            }
+            final long maxTimeMs = compileBudget.getMaxTimeMs();
+            if (maxTimeMs >= 0) {
+                final long timeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                if (timeMs > maxTimeMs) {
+                    throw new CompileAbortedException("Compile aborted for sources " + sources +
+                            ". Compile time exceeded " + maxTimeMs + " ms.",
+                            CompileAbortedException.Reason.TIME, sources);
+                }
+            }
+            final int maxClassCount = compileBudget.getMaxClassCount();
+            if (maxClassCount >= 0) {
+                // extra object to prevent compiler warning (raw List in Groovy 2, List<GroovyClass> in Groovy 3)
+                final Object cuClassesObject = cu.getClasses();
+                final int classCount = Math.max(cu.getAST().getClasses().size(), ((List<?>)cuClassesObject).size());
+                if (classCount > maxClassCount) {
+                    throw new CompileAbortedException("Compile aborted for sources " + sources +
+                            ". Number of classes is " + classCount + ", max is " + maxClassCount + ".",
+                            CompileAbortedException.Reason.CLASS_COUNT, sources);
+                }
+            }
+        }
+
+    }
     
     
     /**
@@ -337,6 +495,7 @@ public class DefaultGroovyCompiler implements Compiler {
         
         private ClassLoader parent;
         private CompilerConfiguration compilerConfiguration;
+        private CompileBudget compileBudget;
 
         /**
          * constructor.
@@ -379,6 +538,21 @@ public class DefaultGroovyCompiler implements Compiler {
             return this;
         }
 
+        /**
+         * sets the compile budget, default is {@link CompileBudget#UNLIMITED}.
+         *
+         * @param compileBudget compile budget
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setCompileBudget(final CompileBudget compileBudget) {
+            check();
+            this.compileBudget = compileBudget;
+            return this;
+        }
+
         /**
          * gets the parent class loader.
          *
@@ -401,6 +575,17 @@ public class DefaultGroovyCompiler implements Compiler {
             return compilerConfiguration;
         }
 
+        /**
+         * gets the compile budget.
+         *
+         * @return compile budget
+         *
+         * @since 3.2
+         */
+        public CompileBudget getCompileBudget() {
+            return compileBudget;
+        }
+
         private Builder commit() {
             if (!isCommitted) {
                 if (parent == null) {
@@ -409,6 +594,9 @@ public class DefaultGroovyCompiler implements Compiler {
                 if (compilerConfiguration == null) {
                     compilerConfiguration = new CompilerConfiguration();
                 }
+                if (compileBudget == null) {
+                    compileBudget = CompileBudget.UNLIMITED;
+                }
                 isCommitted = true;
             }
             return this;
@@ -489,10 +677,14 @@ public class DefaultGroovyCompiler implements Compiler {
         // arg keys
         private static final String CALLEE_DEPTH_KEY = "calleeDepth";
         private static final String CLASS_LOADER_KEY = "classLoader";
+        private static final String REF_OBJECT_KEY = "refObject";
 
         // the lock for calls to GrapeEngine methods
         static volatile Object lock;
 
+        // the lock for wrapping and unwrapping
+        private static final ReentrantLock WRAP_LOCK = new ReentrantLock();
+
         // default callee depth of (unwrapped) GrapeEngine instance;
         // value has been 3 up to at least Groovy 4; since Groovy 3
         // publicly declared as GrapeEngine.DEFAULT_CALLEE_DEPTH
@@ -501,14 +693,43 @@ public class DefaultGroovyCompiler implements Compiler {
         // the wrapped engine
         final GrapeEngine innerEngine;
 
+        // methods of the wrapped engine (GrapeIvy) that process a grabbed jar for a class loader,
+        // i.e. register extension modules and other META-INF services, null if not available
+        private final Method processCategoryMethods;
+        private final Method processOtherServices;
+
+        // results of grabs by target loader and grab key (see grabKey()) and resolved URIs
+        // by grab key, as futures, so that concurrent grabs of the same dependencies wait
+        // for a single call to the wrapped engine and repeated grabs do not call it at all;
+        // not for changing dependencies, cleared when a new resolver is added
+        // (package scope for unit tests)
+        final Map<ClassLoader,ConcurrentMap<String,CompletableFuture<Object>>> grabbed =
+                Collections.synchronizedMap(new WeakHashMap<>());
+        final ConcurrentMap<String,CompletableFuture<URI[]>> resolved = new ConcurrentHashMap<>();
+        // args of resolvers added so far (e.g. with @GrabResolver at every compile)
+        private final Set<String> resolverKeys = ConcurrentHashMap.newKeySet();
+
         // constructor from engine to wrap
         GrengineGrapeEngine(GrapeEngine innerEngine) {
             this.innerEngine = innerEngine;
+            processCategoryMethods = getProcessMethod(innerEngine, "processCategoryMethods");
+            processOtherServices = getProcessMethod(innerEngine, "processOtherServices");
+        }
+
+        private static Method getProcessMethod(final GrapeEngine engine, final String name) {
+            try {
+                final Method method = engine.getClass().getDeclaredMethod(name, ClassLoader.class, File.class);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return null;
+            }
         }
 
         // sets the engine instance in the Grape class (only once, idempotent)
         static void wrap(final Object newLock) {
-            synchronized (GrengineGrapeEngine.class) {
+            WRAP_LOCK.lock();
+            try {
 
                 // already wrapped?
                 if (lock != null) {
@@ -541,126 +762,346 @@ public class DefaultGroovyCompiler implements Compiler {
 
                 // wrap
                 lock = newLock;
-                synchronized (newLock) {
+                withLock(newLock, () -> {
                     // set GrapeEngine instance in Grape class
                     new Grape() {
                         void wrap() {
                             Grape.instance = new GrengineGrapeEngine(Grape.getInstance());
                         }
                     }.wrap();
-                }
+                    return null;
+                });
+            } finally {
+                WRAP_LOCK.unlock();
             }
         }
 
         // sets the engine instance in the Grape class back to the GrapeIvy instance
         static void unwrap() {
-            synchronized (GrengineGrapeEngine.class) {
+            WRAP_LOCK.lock();
+            try {
                 // not wrapped?
                 if (lock == null) {
                     return;
                 }
                 // unwrap
-                synchronized (lock) {
+                withLock(lock, () -> {
                     // set GrapeEngine instance in Grape class
                     new Grape() {
                         void unwrap() {
                             Grape.instance = ((GrengineGrapeEngine)Grape.getInstance()).innerEngine;
                         }
                     }.unwrap();
-                }
+                    return null;
+                });
                 lock = null;
                 grapeInstanceDefaultCalleeDepth = 0;
+            } finally {
+                WRAP_LOCK.unlock();
+            }
+        }
+
+        // calls the action with the given lock held, explicitly if it is a Lock, else with its monitor
+        static <T> T withLock(final Object lock, final Supplier<T> action) {
+            if (lock instanceof Lock) {
+                final Lock explicitLock = (Lock)lock;
+                explicitLock.lock();
+                try {
+                    return action.get();
+                } finally {
+                    explicitLock.unlock();
+                }
+            }
+            synchronized (lock) {
+                return action.get();
             }
         }
 
         @Override
         public Object grab(final String endorsedModule) {
-            synchronized(lock) {
-                return innerEngine.grab(endorsedModule);
-            }
+            return withLock(lock, () -> innerEngine.grab(endorsedModule));
         }
 
+        // methods that pass a callee depth to the wrapped engine call it from a separate
+        // method instead of via withLock(), so that the number of additional stack frames
+        // is fixed (see adjustCalleeDepth())
+
         @Override
-        @SuppressWarnings({ "rawtypes", "unchecked" })
+        @SuppressWarnings("rawtypes")
         public Object grab(final Map args) {
-            synchronized(lock) {
-                adjustCalleeDepth(args);
-                // apply grab also to runtime loader, if present
-                final Object obj = args.get(CLASS_LOADER_KEY);
-                if (obj instanceof CompileTimeGroovyClassLoader) {
-                    final GroovyClassLoader runtimeLoader = ((CompileTimeGroovyClassLoader)obj).runtimeLoader;
-                    if (runtimeLoader != null) {
-                        final Map args2 = new HashMap(args);
-                        args2.put(CLASS_LOADER_KEY, runtimeLoader);
-                        innerEngine.grab(args2);
-                    }
+            final Object obj = args.get(CLASS_LOADER_KEY);
+            if (obj instanceof CompileTimeGroovyClassLoader) {
+                return grabCached((CompileTimeGroovyClassLoader)obj, args, args);
+            }
+            final Object lockNow = lock;
+            if (lockNow instanceof Lock) {
+                ((Lock)lockNow).lock();
+                try {
+                    return grabLocked(args);
+                } finally {
+                    ((Lock)lockNow).unlock();
                 }
-                return innerEngine.grab(args);
+            }
+            synchronized (lockNow) {
+                return grabLocked(args);
             }
         }
 
-        @Override
         @SuppressWarnings({ "rawtypes", "unchecked" })
+        private Object grabLocked(final Map args) {
+            adjustCalleeDepth(args);
+            return innerEngine.grab(args);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
         public Object grab(final Map args, final Map... dependencies) {
-            synchronized(lock) {
-                adjustCalleeDepth(args);
-                // apply grab also to runtime loader, if present
-                final Object obj = args.get(CLASS_LOADER_KEY);
-                if (obj instanceof CompileTimeGroovyClassLoader) {
-                    final GroovyClassLoader runtimeLoader = ((CompileTimeGroovyClassLoader)obj).runtimeLoader;
-                    if (runtimeLoader != null) {
-                        final Map args2 = new HashMap(args);
-                        args2.put(CLASS_LOADER_KEY, runtimeLoader);
-                        innerEngine.grab(args2, dependencies);
+            final Object obj = args.get(CLASS_LOADER_KEY);
+            if (obj instanceof CompileTimeGroovyClassLoader) {
+                return grabCached((CompileTimeGroovyClassLoader)obj, args, dependencies);
+            }
+            final Object lockNow = lock;
+            if (lockNow instanceof Lock) {
+                ((Lock)lockNow).lock();
+                try {
+                    return grabLocked(args, dependencies);
+                } finally {
+                    ((Lock)lockNow).unlock();
+                }
+            }
+            synchronized (lockNow) {
+                return grabLocked(args, dependencies);
+            }
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private Object grabLocked(final Map args, final Map... dependencies) {
+            adjustCalleeDepth(args);
+            return innerEngine.grab(args, dependencies);
+        }
+
+        // grabs for the runtime loader (once per runtime loader and grab key) and adds
+        // the resolved URIs (resolved once per grab key) to the compile time loader,
+        // which is a new instance per compilation; the wrapped engine is only called
+        // on a cache miss and only then with the lock held (callee depth is irrelevant
+        // here because the class loader is always given); changing dependencies are
+        // grabbed and resolved each time
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private Object grabCached(final CompileTimeGroovyClassLoader loader, final Map args,
+                final Map... dependencies) {
+            final String key = grabKey(args, dependencies);
+            final boolean isCached = !isChanging(dependencies);
+            if (loader.runtimeLoader != null) {
+                final Supplier<Object> grab = () -> {
+                    final Map args2 = new HashMap(args);
+                    args2.put(CLASS_LOADER_KEY, loader.runtimeLoader);
+                    return withLock(lock, () -> innerEngine.grab(args2, dependencies));
+                };
+                final Object result;
+                if (isCached) {
+                    result = once(grabbed.computeIfAbsent(loader.runtimeLoader, l -> new ConcurrentHashMap<>()),
+                            key, grab);
+                } else {
+                    result = grab.get();
+                }
+                if (result != null) {
+                    // exception returned instead of thrown (arg "noExceptions")
+                    return result;
+                }
+            }
+            final Supplier<URI[]> resolve = () -> withLock(lock, () -> innerEngine.resolve(new HashMap(args), dependencies));
+            final URI[] uris = isCached ? once(resolved, key, resolve) : resolve.get();
+            if (uris != null) {
+                addToLoader(loader, uris);
+            }
+            return null;
+        }
+
+        // like the wrapped engine (GrapeIvy) when grabbing for a class loader, adds the URIs
+        // and then processes each jar (outside of the lock, does not use state of the engine)
+        private void addToLoader(final GroovyClassLoader loader, final URI[] uris) {
+            for (URI uri : uris) {
+                try {
+                    loader.addURL(uri.toURL());
+                } catch (MalformedURLException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            for (URI uri : uris) {
+                if ("file".equals(uri.getScheme())) {
+                    final File file = new File(uri);
+                    processJar(processCategoryMethods, loader, file);
+                    processJar(processOtherServices, loader, file);
+                }
+            }
+        }
+
+        private void processJar(final Method method, final ClassLoader loader, final File file) {
+            if (method == null) {
+                return;
+            }
+            try {
+                method.invoke(innerEngine, loader, file);
+            } catch (InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IllegalStateException(cause);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // whether any of the dependencies may resolve differently over time, i.e. is marked
+        // as changing or has a dynamic version (e.g. "*", "latest.release", "1.+", "[1.0,2.0)")
+        // or a snapshot version
+        @SuppressWarnings("rawtypes")
+        static boolean isChanging(final Map... dependencies) {
+            for (Map dependency : dependencies) {
+                if (Boolean.parseBoolean(String.valueOf(dependency.get("changing")))) {
+                    return true;
+                }
+                Object versionObj = dependency.get("version");
+                if (versionObj == null) {
+                    versionObj = dependency.get("revision");
+                }
+                if (versionObj == null) {
+                    return true;
+                }
+                final String version = versionObj.toString().trim();
+                if (version.isEmpty() || version.equals("*") || version.startsWith("latest.") ||
+                        version.endsWith("+") || version.contains("SNAPSHOT") ||
+                        version.startsWith("[") || version.startsWith("]") || version.startsWith("(") ||
+                        version.contains(",")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // gets the value for the given key, calling the given action only if there is no value
+        // yet and no other thread is already calling it for the same key; a value that is
+        // an exception (returned instead of thrown) and thrown exceptions are not kept
+        static <T> T once(final ConcurrentMap<String,CompletableFuture<T>> futures, final String key,
+                final Supplier<T> action) {
+            while (true) {
+                final CompletableFuture<T> future = new CompletableFuture<>();
+                final CompletableFuture<T> existingFuture = futures.putIfAbsent(key, future);
+                if (existingFuture != null) {
+                    try {
+                        return existingFuture.join();
+                    } catch (CompletionException e) {
+                        // failed in other thread, try again
+                        continue;
                     }
                 }
-                return innerEngine.grab(args, dependencies);
+                try {
+                    final T value = action.get();
+                    if (value instanceof Throwable) {
+                        futures.remove(key, future);
+                    }
+                    future.complete(value);
+                    return value;
+                } catch (RuntimeException | Error e) {
+                    futures.remove(key, future);
+                    future.completeExceptionally(e);
+                    throw e;
+                }
             }
         }
 
-        @Override
-        public Map<String, Map<String, List<String>>> enumerateGrapes() {
-            synchronized(lock) {
-                return innerEngine.enumerateGrapes();
+        // key for grab args and dependencies, without class loader and other args
+        // that only serve to determine the target class loader, with map entries
+        // sorted by key, e.g. "{}[{group=com.google.guava, module=guava, version=18.0}]"
+        @SuppressWarnings("rawtypes")
+        static String grabKey(final Map args, final Map... dependencies) {
+            final StringBuilder key = new StringBuilder();
+            key.append(sortedWithoutLoaderArgs(args));
+            key.append('[');
+            for (int i = 0; i < dependencies.length; i++) {
+                if (i > 0) {
+                    key.append(", ");
+                }
+                key.append(sortedWithoutLoaderArgs(dependencies[i]));
             }
+            key.append(']');
+            return key.toString();
+        }
+
+        @SuppressWarnings("rawtypes")
+        private static Map<String,String> sortedWithoutLoaderArgs(final Map map) {
+            final Map<String,String> sorted = new TreeMap<>();
+            for (Object entryObj : map.entrySet()) {
+                final Map.Entry entry = (Map.Entry)entryObj;
+                final String name = String.valueOf(entry.getKey());
+                if (!name.equals(CALLEE_DEPTH_KEY) && !name.equals(CLASS_LOADER_KEY) && !name.equals(REF_OBJECT_KEY)) {
+                    sorted.put(name, String.valueOf(entry.getValue()));
+                }
+            }
+            return sorted;
         }
 
         @Override
-        @SuppressWarnings({ "rawtypes", "unchecked" })
+        @SuppressWarnings("rawtypes")
         public URI[] resolve(final Map args, final Map... dependencies) {
-            synchronized(lock) {
-                adjustCalleeDepth(args);
-                return innerEngine.resolve(args, dependencies);
+            final Object lockNow = lock;
+            if (lockNow instanceof Lock) {
+                ((Lock)lockNow).lock();
+                try {
+                    return resolveLocked(args, dependencies);
+                } finally {
+                    ((Lock)lockNow).unlock();
+                }
+            }
+            synchronized (lockNow) {
+                return resolveLocked(args, dependencies);
             }
         }
 
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private URI[] resolveLocked(final Map args, final Map... dependencies) {
+            adjustCalleeDepth(args);
+            return innerEngine.resolve(args, dependencies);
+        }
+
+        @Override
+        public Map<String, Map<String, List<String>>> enumerateGrapes() {
+            return withLock(lock, () -> innerEngine.enumerateGrapes());
+        }
+
         @Override
         @SuppressWarnings("rawtypes")
         public URI[] resolve(final Map args, final List dependenciesInfo, final Map... dependencies) {
-            synchronized(lock) {
-                return innerEngine.resolve(args, dependenciesInfo, dependencies);
-            }
+            return withLock(lock, () -> innerEngine.resolve(args, dependenciesInfo, dependencies));
         }
 
         @Override
         @SuppressWarnings("rawtypes")
         public Map[] listDependencies(final ClassLoader classLoader) {
-            synchronized(lock) {
-                return innerEngine.listDependencies(classLoader);
-            }
+            return withLock(lock, () -> innerEngine.listDependencies(classLoader));
         }
 
         @Override
         public void addResolver(final Map<String, Object> args) {
-            synchronized(lock) {
+            withLock(lock, () -> {
                 innerEngine.addResolver(args);
-            }
+                // dependencies may resolve differently with a new resolver
+                if (resolverKeys.add(sortedWithoutLoaderArgs(args).toString())) {
+                    grabbed.clear();
+                    resolved.clear();
+                }
+                return null;
+            });
         }
 
+        // adds the stack frames of the wrapper (public method plus ...Locked() method)
         private static void adjustCalleeDepth(Map<String, Object> args) {
             Object calleeDepthObj = args.get(CALLEE_DEPTH_KEY);
             int calleeDepth = (calleeDepthObj == null) ? grapeInstanceDefaultCalleeDepth : (int)calleeDepthObj;
-            args.put(CALLEE_DEPTH_KEY, calleeDepth + 1);
+            args.put(CALLEE_DEPTH_KEY, calleeDepth + 2);
         }
 
     }
@@ -19,7 +19,11 @@ package ch.grengine.code.groovy;
 import ch.grengine.code.Compiler;
 import ch.grengine.code.CompilerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.codehaus.groovy.control.CompilerConfiguration;
 
@@ -46,6 +50,9 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
     
     private final Builder builder;
     private final CompilerConfiguration compilerConfiguration;
+    private final CompileBudget compileBudget;
+    // created compilers, weakly, for cancelling their running compiles
+    private final Set<Compiler> compilers = Collections.newSetFromMap(new WeakHashMap<>());
     
     /**
      * constructor from builder.
@@ -57,6 +64,7 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
     protected DefaultGroovyCompilerFactory(final Builder builder) {
         this.builder = builder.commit();
         compilerConfiguration = builder.getCompilerConfiguration();
+        compileBudget = builder.getCompileBudget();
     }
 
     /**
@@ -85,10 +93,34 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
     
     @Override
     public Compiler newCompiler(final ClassLoader parent) {
-        return new DefaultGroovyCompiler.Builder()
+        final Compiler compiler = new DefaultGroovyCompiler.Builder()
                 .setParent(parent)
                 .setCompilerConfiguration(compilerConfiguration)
+                .setCompileBudget(compileBudget)
                 .build();
+        synchronized (compilers) {
+            compilers.add(compiler);
+        }
+        return compiler;
+    }
+
+    /**
+     * requests to abort all compiles currently running with compilers created by this factory,
+     * which throw a {@link ch.grengine.except.CompileAbortedException} after the current
+     * compilation phase (see {@link DefaultGroovyCompiler#cancel()}).
+     *
+     * @return true
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean cancelAll() {
+        final List<Compiler> compilersNow;
+        synchronized (compilers) {
+            compilersNow = new ArrayList<>(compilers);
+        }
+        compilersNow.forEach(Compiler::cancel);
+        return true;
     }
 
     /**
@@ -112,6 +144,17 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
     public CompilerConfiguration getCompilerConfiguration() {
         return compilerConfiguration;
     }
+
+    /**
+     * gets the compile budget of created compilers.
+     *
+     * @return compile budget
+     *
+     * @since 3.2
+     */
+    public CompileBudget getCompileBudget() {
+        return compileBudget;
+    }
     
     
     /**
@@ -127,6 +170,7 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
         private boolean isCommitted;
         
         private CompilerConfiguration compilerConfiguration;
+        private CompileBudget compileBudget;
         
         /**
          * constructor.
@@ -152,6 +196,23 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
             this.compilerConfiguration = compilerConfiguration;
             return this;
         }
+
+        /**
+         * sets the compile budget of created compilers, default is {@link CompileBudget#UNLIMITED}.
+         * <p>
+         * See {@link DefaultGroovyCompiler.Builder#setCompileBudget(CompileBudget)}.
+         *
+         * @param compileBudget compile budget
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setCompileBudget(final CompileBudget compileBudget) {
+            check();
+            this.compileBudget = compileBudget;
+            return this;
+        }
         
         /**
          * gets the compiler configuration.
@@ -163,12 +224,26 @@ public class DefaultGroovyCompilerFactory implements CompilerFactory {
         public CompilerConfiguration getCompilerConfiguration() {
             return compilerConfiguration;
         }
+
+        /**
+         * gets the compile budget of created compilers.
+         *
+         * @return compile budget
+         *
+         * @since 3.2
+         */
+        public CompileBudget getCompileBudget() {
+            return compileBudget;
+        }
         
         private Builder commit() {
             if (!isCommitted) {
                 if (compilerConfiguration == null) {
                     compilerConfiguration = new CompilerConfiguration();
                 }
+                if (compileBudget == null) {
+                    compileBudget = CompileBudget.UNLIMITED;
+                }
                 isCommitted = true;
             }
             return this;
@@ -0,0 +1,102 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.except.CompileException;
+import ch.grengine.source.FunctionSource;
+import ch.grengine.sources.Sources;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.stmt.ReturnStatement;
+import org.codehaus.groovy.control.SourceUnit;
+
+
+/**
+ * Transforms the script class of a {@link FunctionSource} after the conversion phase,
+ * so that it implements the functional interface of the source.
+ * <p>
+ * The script body is moved from the {@code run()} method to a new method that implements
+ * the single abstract method of the interface, with parameters named as given by the source,
+ * so that in the script body the parameters shadow variables of the same names in the binding.
+ * The {@code run()} method remains and simply returns null.
+ * <p>
+ * Must be called after the conversion phase and before the semantic analysis phase,
+ * i.e. before variable scopes are determined.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class FunctionSourceTransformer {
+
+    private FunctionSourceTransformer() {
+    }
+
+    /**
+     * transforms the script class of the given source unit.
+     *
+     * @param su source unit, after the conversion phase
+     * @param source function source from which the source unit was created
+     * @param sources all sources, for the {@link CompileException} if there is no script class
+     *
+     * @throws CompileException if the source has no script class, i.e. only declares classes
+     *
+     * @since 3.2
+     */
+    static void transform(final SourceUnit su, final FunctionSource source, final Sources sources) {
+        final ClassNode scriptClass = su.getAST().getClasses().stream()
+                .filter(ClassNode::isScript)
+                .findFirst()
+                .orElseThrow(() -> new CompileException("No script body to implement function interface " +
+                        source.getFunctionInterface().getName() + " for source " + source + ".", sources));
+        final MethodNode runMethod = scriptClass.getMethod("run", Parameter.EMPTY_ARRAY);
+
+        final Method method = source.getFunctionMethod();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final List<String> parameterNames = source.getParameterNames();
+        final Parameter[] parameters = new Parameter[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameters[i] = new Parameter(makePlain(parameterTypes[i]), parameterNames.get(i));
+        }
+        final ClassNode[] exceptions = Arrays.stream(method.getExceptionTypes())
+                .map(FunctionSourceTransformer::makePlain)
+                .toArray(ClassNode[]::new);
+
+        scriptClass.addInterface(makePlain(source.getFunctionInterface()));
+        scriptClass.addMethod(method.getName(), Modifier.PUBLIC, makePlain(method.getReturnType()),
+                parameters, exceptions, runMethod.getCode());
+        runMethod.setCode(new ReturnStatement(ConstantExpression.NULL));
+    }
+
+    // class node without generics, as required for class nodes used in transforms
+    // (primitive types must remain the cached class nodes)
+    private static ClassNode makePlain(final Class<?> clazz) {
+        final ClassNode classNode = ClassHelper.make(clazz);
+        return clazz.isPrimitive() ? classNode : classNode.getPlainNodeReference();
+    }
+
+}
@@ -0,0 +1,511 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.code.Bytecode;
+import ch.grengine.code.Code;
+import ch.grengine.code.CompiledSourceInfo;
+import ch.grengine.code.DefaultCode;
+import ch.grengine.code.DefaultSingleSourceCode;
+import ch.grengine.except.CompileException;
+import ch.grengine.source.BaseSource;
+import ch.grengine.source.FileSource;
+import ch.grengine.source.FunctionSource;
+import ch.grengine.source.Source;
+import ch.grengine.source.TextSource;
+import ch.grengine.source.UrlSource;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+
+/**
+ * Wire protocol between {@link ProcessGroovyCompiler} and {@link ProcessGroovyCompilerWorker},
+ * over the standard input and output of the worker process.
+ * <p>
+ * Format (big-endian, strings as int length plus UTF-8 bytes):
+ * <ul>
+ * <li>worker at startup: magic number {@link #MAGIC}
+ * <li>request: {@link #COMPILE}, compiler configuration (see {@link #writeConfiguration
+ *     writeConfiguration()}), number of code layers of the parent class loader (int), per code layer
+ *     from bottom to top: code layer ID (long), whether followed by bytecode (boolean), if so number
+ *     of classes (int), per class: class name, length (int) and bytecode bytes; then sources name,
+ *     number of sources (int), per source: kind (byte), source ID, last modified (long), then text
+ *     (text source), file path (file source), URL (URL source) or text, function interface name,
+ *     function method name, number of parameters (int), per parameter: type name and parameter
+ *     name (function source)
+ * <li>response: {@link #OK}, number of sources (int), per source: source ID, main class name,
+ *     number of class names (int) and the class names, number of variable names (int) and
+ *     the variable names, then number of classes (int), per class: class name, length (int)
+ *     and bytecode bytes, then number of classes in code layers that were loaded while
+ *     compiling (int) and their names; or {@link #FAILED} and a description of the failure
+ * </ul>
+ * <p>
+ * The bytecode of a code layer is only sent the first time the code layer is used with a worker;
+ * the worker keeps it for later requests.
+ * <p>
+ * On the worker side, sources are placeholders with the same source IDs as the original sources,
+ * so that class names are the same as when compiling in-process; on the compiler side, the
+ * resulting code refers to the original sources.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class ProcessCompilerProtocol {
+
+    // "GRNW" in ASCII
+    static final int MAGIC = 0x47524E57;
+
+    static final int COMPILE = 1;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    private static final byte TEXT = 0;
+    private static final byte FILE = 1;
+    private static final byte URL = 2;
+    private static final byte FUNCTION = 3;
+
+    // compiler side
+
+    static void writeRequest(final DataOutputStream out, final Sources sources, final Map<Source,Long> lastModifiedMap,
+            final CompilerConfiguration config, final Map<Long,Code> codeLayers, final Set<Long> sentCodeLayerIds)
+            throws IOException {
+        out.writeInt(COMPILE);
+        writeConfiguration(out, config);
+        out.writeInt(codeLayers.size());
+        for (Map.Entry<Long,Code> entry : codeLayers.entrySet()) {
+            out.writeLong(entry.getKey());
+            final boolean isSent = sentCodeLayerIds.contains(entry.getKey());
+            out.writeBoolean(!isSent);
+            if (!isSent) {
+                final Code code = entry.getValue();
+                final List<Bytecode> bytecodes = code.getClassNameSet().stream()
+                        .map(code::getBytecode)
+                        .filter(bytecode -> bytecode != null)
+                        .collect(Collectors.toList());
+                out.writeInt(bytecodes.size());
+                for (Bytecode bytecode : bytecodes) {
+                    writeString(out, bytecode.getClassName());
+                    final byte[] bytes = bytecode.getBytes();
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+        writeString(out, sources.getName());
+        out.writeInt(lastModifiedMap.size());
+        for (Map.Entry<Source,Long> entry : lastModifiedMap.entrySet()) {
+            final Source source = entry.getKey();
+            final byte kind = getKind(source);
+            out.writeByte(kind);
+            writeString(out, source.getId());
+            out.writeLong(entry.getValue());
+            switch (kind) {
+                case TEXT:
+                    writeString(out, ((TextSource)source).getText());
+                    break;
+                case FILE:
+                    writeString(out, ((FileSource)source).getFile().getPath());
+                    break;
+                case URL:
+                    writeString(out, ((UrlSource)source).getUrl().toString());
+                    break;
+                case FUNCTION:
+                    final FunctionSource functionSource = (FunctionSource)source;
+                    writeString(out, functionSource.getText());
+                    writeString(out, functionSource.getFunctionInterface().getName());
+                    final Method method = functionSource.getFunctionMethod();
+                    writeString(out, method.getName());
+                    final Class<?>[] parameterTypes = method.getParameterTypes();
+                    final List<String> parameterNames = functionSource.getParameterNames();
+                    out.writeInt(parameterTypes.length);
+                    for (int i = 0; i < parameterTypes.length; i++) {
+                        writeString(out, parameterTypes[i].getName());
+                        writeString(out, parameterNames.get(i));
+                    }
+                    break;
+                default:
+                    throw new IOException("Don't know how to compile source " + source + ".");
+            }
+        }
+        out.flush();
+    }
+
+    static Code readResponse(final DataInputStream in, final Sources sources, final Map<Source,Long> lastModifiedMap,
+            final Collection<String> loadedCodeLayerClassNames) throws IOException {
+        final byte status = in.readByte();
+        if (status != OK) {
+            throw new CompileException("Compile failed for sources " + sources + ". Cause: " +
+                    readString(in), sources);
+        }
+        final Map<String,Source> sourceMap = lastModifiedMap.keySet().stream()
+                .collect(Collectors.toMap(Source::getId, source -> source));
+        final Map<Source,CompiledSourceInfo> compiledSourceInfoMap = new HashMap<>();
+        final int nSources = in.readInt();
+        for (int i = 0; i < nSources; i++) {
+            final Source source = sourceMap.get(readString(in));
+            if (source == null) {
+                throw new IOException("Unknown source ID in response from compiler worker.");
+            }
+            final String mainClassName = readString(in);
+            final Set<String> classNames = new HashSet<>(readStrings(in));
+            final List<String> variableNames = readStrings(in);
+            compiledSourceInfoMap.put(source, new CompiledSourceInfo(source, mainClassName, classNames,
+                    lastModifiedMap.get(source), variableNames));
+        }
+        final Map<String,Bytecode> bytecodeMap = new HashMap<>();
+        final int nClasses = in.readInt();
+        for (int i = 0; i < nClasses; i++) {
+            final String className = readString(in);
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            bytecodeMap.put(className, new Bytecode(className, bytes));
+        }
+        loadedCodeLayerClassNames.addAll(readStrings(in));
+        if (sourceMap.size() == 1) {
+            return new DefaultSingleSourceCode(sources.getName(), compiledSourceInfoMap, bytecodeMap);
+        } else {
+            return new DefaultCode(sources.getName(), compiledSourceInfoMap, bytecodeMap);
+        }
+    }
+
+    // kind of source, TEXT for text sources that are not function sources
+    static byte getKind(final Source source) {
+        if (source instanceof FunctionSource) {
+            return FUNCTION;
+        } else if (source instanceof TextSource) {
+            return TEXT;
+        } else if (source instanceof FileSource) {
+            return FILE;
+        } else if (source instanceof UrlSource) {
+            return URL;
+        } else {
+            return -1;
+        }
+    }
+
+    // compiler configuration, only settings that can be transferred, no compilation customizers
+    static void writeConfiguration(final DataOutputStream out, final CompilerConfiguration config)
+            throws IOException {
+        out.writeInt(config.getWarningLevel());
+        writeString(out, config.getSourceEncoding());
+        writeString(out, config.getTargetBytecode());
+        writeNullableString(out, config.getScriptBaseClass());
+        out.writeBoolean(config.getParameters());
+        out.writeBoolean(config.getDebug());
+        out.writeInt(config.getTolerance());
+        writeStrings(out, config.getClasspath());
+        final Map<String,Boolean> optimizationOptions = config.getOptimizationOptions();
+        out.writeInt(optimizationOptions.size());
+        for (Map.Entry<String,Boolean> entry : optimizationOptions.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeBoolean(Boolean.TRUE.equals(entry.getValue()));
+        }
+        final Set<String> disabledTransformations = config.getDisabledGlobalASTTransformations();
+        out.writeBoolean(disabledTransformations != null);
+        if (disabledTransformations != null) {
+            writeStrings(out, new ArrayList<>(disabledTransformations));
+        }
+    }
+
+    static CompilerConfiguration readConfiguration(final DataInputStream in) throws IOException {
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.setWarningLevel(in.readInt());
+        config.setSourceEncoding(readString(in));
+        config.setTargetBytecode(readString(in));
+        config.setScriptBaseClass(readNullableString(in));
+        config.setParameters(in.readBoolean());
+        config.setDebug(in.readBoolean());
+        config.setTolerance(in.readInt());
+        config.setClasspathList(readStrings(in));
+        final int nOptions = in.readInt();
+        final Map<String,Boolean> optimizationOptions = new HashMap<>();
+        for (int i = 0; i < nOptions; i++) {
+            optimizationOptions.put(readString(in), in.readBoolean());
+        }
+        config.setOptimizationOptions(optimizationOptions);
+        if (in.readBoolean()) {
+            config.setDisabledGlobalASTTransformations(new HashSet<>(readStrings(in)));
+        }
+        return config;
+    }
+
+    // worker side
+
+    static Request readRequest(final DataInputStream in) throws IOException {
+        final int requestType = in.readInt();
+        if (requestType != COMPILE) {
+            throw new IOException("Unknown request " + requestType + ".");
+        }
+        final Request request = new Request();
+        request.config = readConfiguration(in);
+        final int nCodeLayers = in.readInt();
+        for (int i = 0; i < nCodeLayers; i++) {
+            final long id = in.readLong();
+            request.codeLayerIds.add(id);
+            if (in.readBoolean()) {
+                final Map<String,byte[]> bytecodeMap = new HashMap<>();
+                final int nClasses = in.readInt();
+                for (int j = 0; j < nClasses; j++) {
+                    final String className = readString(in);
+                    final byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    bytecodeMap.put(className, bytes);
+                }
+                request.newCodeLayers.put(id, bytecodeMap);
+            }
+        }
+        final String sourcesName = readString(in);
+        final int nSources = in.readInt();
+        final Set<Source> sourceSet = new HashSet<>();
+        // reported only after the whole request has been read
+        ReflectiveOperationException failure = null;
+        for (int i = 0; i < nSources; i++) {
+            final byte kind = in.readByte();
+            final String id = readString(in);
+            final long lastModified = in.readLong();
+            switch (kind) {
+                case TEXT:
+                    sourceSet.add(new WorkerTextSource(id, lastModified, readString(in)));
+                    break;
+                case FILE:
+                    sourceSet.add(new WorkerFileSource(id, lastModified, new File(readString(in))));
+                    break;
+                case URL:
+                    sourceSet.add(new WorkerUrlSource(id, lastModified, new URL(readString(in))));
+                    break;
+                case FUNCTION:
+                    final String text = readString(in);
+                    final String functionInterfaceName = readString(in);
+                    final String methodName = readString(in);
+                    final int nParameters = in.readInt();
+                    final List<String> parameterTypeNames = new ArrayList<>();
+                    final List<String> parameterNames = new ArrayList<>();
+                    for (int j = 0; j < nParameters; j++) {
+                        parameterTypeNames.add(readString(in));
+                        parameterNames.add(readString(in));
+                    }
+                    try {
+                        final Class<?> functionInterface = Class.forName(functionInterfaceName, false,
+                                Thread.currentThread().getContextClassLoader());
+                        final Method method = getMethod(functionInterface, methodName, parameterTypeNames);
+                        sourceSet.add(new WorkerFunctionSource(id, lastModified, text, functionInterface, method,
+                                parameterNames));
+                    } catch (ReflectiveOperationException e) {
+                        failure = (failure == null) ? e : failure;
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown kind of source " + kind + ".");
+            }
+        }
+        request.failure = failure;
+        request.sources = SourcesUtil.sourceSetToSources(sourceSet, sourcesName);
+        return request;
+    }
+
+    // a request read by the worker
+    static class Request {
+        CompilerConfiguration config;
+        // IDs of code layers of the parent class loader, from bottom to top
+        final List<Long> codeLayerIds = new ArrayList<>();
+        // bytecode by class name by code layer ID, for code layers sent for the first time
+        final Map<Long,Map<String,byte[]>> newCodeLayers = new LinkedHashMap<>();
+        Sources sources;
+        // if a function source could not be created
+        ReflectiveOperationException failure;
+    }
+
+    private static Method getMethod(final Class<?> functionInterface, final String methodName,
+            final List<String> parameterTypeNames) throws NoSuchMethodException {
+        for (Method method : functionInterface.getMethods()) {
+            if (method.getName().equals(methodName) && Arrays.stream(method.getParameterTypes())
+                    .map(Class::getName).collect(Collectors.toList()).equals(parameterTypeNames)) {
+                return method;
+            }
+        }
+        throw new NoSuchMethodException(functionInterface.getName() + "." + methodName + parameterTypeNames);
+    }
+
+    static void writeCode(final DataOutputStream out, final Code code,
+            final Collection<String> loadedCodeLayerClassNames) throws IOException {
+        out.writeByte(OK);
+        out.writeInt(code.getSourceSet().size());
+        for (Source source : code.getSourceSet()) {
+            writeString(out, source.getId());
+            writeString(out, code.getMainClassName(source));
+            writeStrings(out, new ArrayList<>(code.getClassNames(source)));
+            writeStrings(out, code.getVariableNames(source));
+        }
+        out.writeInt(code.getClassNameSet().size());
+        for (String className : code.getClassNameSet()) {
+            final byte[] bytes = code.getBytecode(className).getBytes();
+            writeString(out, className);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        writeStrings(out, new ArrayList<>(loadedCodeLayerClassNames));
+        out.flush();
+    }
+
+    static void writeFailure(final DataOutputStream out, final Throwable t) throws IOException {
+        out.writeByte(FAILED);
+        final Throwable cause = (t instanceof CompileException && t.getCause() != null) ? t.getCause() : t;
+        writeString(out, cause.toString());
+        out.flush();
+    }
+
+    // strings
+
+    static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(final DataOutputStream out, final String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readNullableString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    private static void writeStrings(final DataOutputStream out, final List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static List<String> readStrings(final DataInputStream in) throws IOException {
+        final int n = in.readInt();
+        final List<String> strings = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    // placeholder sources on the worker side
+
+    private static class WorkerSource extends BaseSource {
+        private final long lastModified;
+        WorkerSource(final String id, final long lastModified) {
+            this.id = id;
+            this.lastModified = lastModified;
+        }
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static class WorkerTextSource extends WorkerSource implements TextSource {
+        private final String text;
+        WorkerTextSource(final String id, final long lastModified, final String text) {
+            super(id, lastModified);
+            this.text = text;
+        }
+        @Override
+        public String getText() {
+            return text;
+        }
+    }
+
+    private static class WorkerFileSource extends WorkerSource implements FileSource {
+        private final File file;
+        WorkerFileSource(final String id, final long lastModified, final File file) {
+            super(id, lastModified);
+            this.file = file;
+        }
+        @Override
+        public File getFile() {
+            return file;
+        }
+    }
+
+    private static class WorkerUrlSource extends WorkerSource implements UrlSource {
+        private final URL url;
+        WorkerUrlSource(final String id, final long lastModified, final URL url) {
+            super(id, lastModified);
+            this.url = url;
+        }
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+    }
+
+    private static class WorkerFunctionSource extends WorkerTextSource implements FunctionSource {
+        private final Class<?> functionInterface;
+        private final Method functionMethod;
+        private final List<String> parameterNames;
+        WorkerFunctionSource(final String id, final long lastModified, final String text,
+                final Class<?> functionInterface, final Method functionMethod, final List<String> parameterNames) {
+            super(id, lastModified, text);
+            this.functionInterface = functionInterface;
+            this.functionMethod = functionMethod;
+            this.parameterNames = Collections.unmodifiableList(parameterNames);
+        }
+        @Override
+        public Class<?> getFunctionInterface() {
+            return functionInterface;
+        }
+        @Override
+        public Method getFunctionMethod() {
+            return functionMethod;
+        }
+        @Override
+        public List<String> getParameterNames() {
+            return parameterNames;
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.code.Code;
+import ch.grengine.code.CodeLayersProvider;
+import ch.grengine.code.Compiler;
+import ch.grengine.except.CompileAbortedException;
+import ch.grengine.except.CompileException;
+import ch.grengine.source.Source;
+import ch.grengine.sources.Sources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Groovy compiler that compiles in a separate worker JVM,
+ * see {@link ProcessGroovyCompilerFactory}.
+ * <p>
+ * Sources are sent to an idle worker of the pool of the factory, which compiles them
+ * with a {@link DefaultGroovyCompiler} and sends back bytecode and compiled source info;
+ * the resulting code refers to the given sources, like code compiled in-process.
+ * If the worker fails (not the compilation), e.g. because the worker process died,
+ * compiling is retried once with a new worker, except if the compile timed out.
+ * Cancelling kills the busy worker, see {@link #cancel()}.
+ * <p>
+ * Classes in code layers of the parent class loader that the worker loaded while compiling
+ * are afterwards also loaded with the parent class loader, so that class loaders that
+ * record dependencies of compiled code (like those of a top code cache) see them.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class ProcessGroovyCompiler implements Compiler {
+
+    private final ProcessGroovyCompilerFactory factory;
+    private final ClassLoader parent;
+    private final List<Code> parentCodeLayers;
+    private final Set<ProcessGroovyCompilerFactory.Worker> busyWorkers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * constructor from factory, without parent class loader.
+     *
+     * @param factory factory with the pool of workers
+     *
+     * @throws NullPointerException if the factory is null
+     *
+     * @since 3.2
+     */
+    protected ProcessGroovyCompiler(final ProcessGroovyCompilerFactory factory) {
+        this(factory, null);
+    }
+
+    /**
+     * constructor from factory and parent class loader.
+     *
+     * @param factory factory with the pool of workers
+     * @param parent parent class loader, may be null
+     *
+     * @throws NullPointerException if the factory is null
+     *
+     * @since 3.2
+     */
+    protected ProcessGroovyCompiler(final ProcessGroovyCompilerFactory factory, final ClassLoader parent) {
+        requireNonNull(factory, "Factory is null.");
+        this.factory = factory;
+        this.parent = parent;
+        parentCodeLayers = getCodeLayers(parent);
+    }
+
+    // code layers of all class loaders up the parent chain, from bottom to top
+    static List<Code> getCodeLayers(final ClassLoader parent) {
+        final LinkedList<Code> codeLayers = new LinkedList<>();
+        for (ClassLoader loader = parent; loader != null; loader = loader.getParent()) {
+            if (loader instanceof CodeLayersProvider) {
+                codeLayers.addAll(0, ((CodeLayersProvider)loader).getCodeLayers());
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(codeLayers));
+    }
+
+    /**
+     * compiles the given Groovy script sources in a worker JVM to an instance of {@link Code} in memory.
+     *
+     * @param sources sources
+     *
+     * @return code
+     * @throws CompileException if compilation failed, including if no worker could be started
+     * @throws IllegalStateException if the factory has been closed
+     * @throws NullPointerException if sources are null
+     *
+     * @since 3.2
+     */
+    @Override
+    public Code compile(final Sources sources) {
+        requireNonNull(sources, "Sources are null.");
+
+        // last modified at compile time, as for in-process compiling
+        final Map<Source,Long> lastModifiedMap = new LinkedHashMap<>();
+        for (Source source : sources.getSourceSet()) {
+            if (ProcessCompilerProtocol.getKind(source) < 0) {
+                throw new CompileException("Don't know how to compile source " + source + ".", sources);
+            }
+            lastModifiedMap.put(source, source.getLastModified());
+        }
+        final Map<Long,Code> codeLayers = new LinkedHashMap<>();
+        for (Code codeLayer : parentCodeLayers) {
+            codeLayers.put(factory.getCodeLayerId(codeLayer), codeLayer);
+        }
+
+        IOException lastException = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final ProcessGroovyCompilerFactory.Worker worker;
+            try {
+                worker = factory.acquireWorker();
+            } catch (IOException e) {
+                lastException = e;
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompileException("Compile failed for sources " + sources + ". Interrupted.", e, sources);
+            }
+            final List<String> loadedCodeLayerClassNames = new ArrayList<>();
+            busyWorkers.add(worker);
+            try {
+                final Code code = worker.compile(sources, lastModifiedMap,
+                        factory.getBuilder().getCompilerConfiguration(), codeLayers, loadedCodeLayerClassNames);
+                factory.releaseWorker(worker);
+                loadCodeLayerClasses(loadedCodeLayerClassNames);
+                return code;
+            } catch (CompileException e) {
+                factory.releaseWorker(worker);
+                throw e;
+            } catch (IOException e) {
+                factory.discardWorker(worker);
+                if (worker.isCancelled()) {
+                    throw new CompileAbortedException("Compile aborted for sources " + sources + ". Cancelled.",
+                            CompileAbortedException.Reason.CANCELLED, sources);
+                }
+                if (worker.isTimedOut()) {
+                    throw new CompileException("Compile failed for sources " + sources + ". Timed out after " +
+                            factory.getBuilder().getCompileTimeoutMs() + " ms in compiler worker.", e, sources);
+                }
+                lastException = e;
+            } catch (RuntimeException | Error e) {
+                factory.discardWorker(worker);
+                throw e;
+            } finally {
+                busyWorkers.remove(worker);
+            }
+        }
+        throw new CompileException("Compile failed for sources " + sources + " in compiler worker.",
+                lastException, sources);
+    }
+
+    private void loadCodeLayerClasses(final List<String> classNames) {
+        if (parent == null) {
+            return;
+        }
+        for (String className : classNames) {
+            try {
+                parent.loadClass(className);
+            } catch (ClassNotFoundException | LinkageError ignore) {
+                // not needed for compiling, only for recording dependencies
+            }
+        }
+    }
+
+    /**
+     * requests to abort all compiles currently running with this compiler,
+     * which kills their workers and makes them throw a {@link CompileAbortedException}.
+     *
+     * @return true
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean cancel() {
+        busyWorkers.forEach(ProcessGroovyCompilerFactory.Worker::cancel);
+        return true;
+    }
+
+    /**
+     * gets the parent class loader.
+     *
+     * @return parent class loader, may be null
+     *
+     * @since 3.2
+     */
+    public ClassLoader getParent() {
+        return parent;
+    }
+
+    /**
+     * gets the factory with the pool of workers.
+     *
+     * @return factory
+     *
+     * @since 3.2
+     */
+    public ProcessGroovyCompilerFactory getFactory() {
+        return factory;
+    }
+
+}
@@ -0,0 +1,683 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.code.Code;
+import ch.grengine.code.CodeLayersProvider;
+import ch.grengine.code.Compiler;
+import ch.grengine.code.CompilerFactory;
+import ch.grengine.source.Source;
+import ch.grengine.sources.Sources;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+
+/**
+ * Factory for instances of {@link ProcessGroovyCompiler}, which compile in a pool
+ * of local worker JVMs instead of in the current JVM.
+ * <p>
+ * Compiling Groovy allocates a lot and creates class loaders and classes that are
+ * garbage right after compiling, which can cause longer GC pauses and metaspace churn
+ * in a JVM that serves requests; with this factory, only the resulting bytecode
+ * is transferred back into the current JVM.
+ * <p>
+ * Workers run {@link ProcessGroovyCompilerWorker} and are started lazily, up to the
+ * worker count, and shared by all compilers created by the factory; each worker is
+ * replaced after a maximum number of compiles, which bounds any leaks in the worker.
+ * A worker that does not respond within the compile timeout is killed and replaced.
+ * Call {@link #close()} to stop all workers when done.
+ * <p>
+ * Workers compile with the settings of the configured compiler configuration that can be
+ * transferred to another JVM; compilation customizers are not supported. Classes visible
+ * to compiled scripts are those on the worker class path (by default the class path of the
+ * current JVM) plus classes in code layers of the parent class loader given to
+ * {@link #newCompiler(ClassLoader)}, i.e. of Grengine class loaders that implement
+ * {@link CodeLayersProvider}, whose bytecode is sent to workers. Classes of other parent
+ * class loaders must be on the worker class path.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class ProcessGroovyCompilerFactory implements CompilerFactory, Closeable {
+
+    private final Builder builder;
+    private final List<String> command;
+    private final int maxCompilesPerWorker;
+    private final long compileTimeoutMs;
+    private final Semaphore permits;
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final Set<Worker> busyWorkers = ConcurrentHashMap.newKeySet();
+    private final ScheduledThreadPoolExecutor timeoutExecutor;
+    // IDs of code layers sent to workers, weakly by code
+    private final Map<Code,Long> codeLayerIds = new WeakHashMap<>();
+    private final AtomicLong nextCodeLayerId = new AtomicLong();
+    private volatile boolean isClosed;
+
+    // package scope for unit tests
+    final AtomicInteger startedWorkerCount = new AtomicInteger();
+
+    /**
+     * constructor from builder.
+     *
+     * @param builder builder
+     *
+     * @since 3.2
+     */
+    protected ProcessGroovyCompilerFactory(final Builder builder) {
+        this.builder = builder.commit();
+        final List<String> command = new ArrayList<>();
+        command.add(builder.getJavaCommand());
+        command.addAll(builder.getJvmArgs());
+        command.add("-cp");
+        command.add(builder.getClassPath());
+        command.add(ProcessGroovyCompilerWorker.class.getName());
+        this.command = Collections.unmodifiableList(command);
+        maxCompilesPerWorker = builder.getMaxCompilesPerWorker();
+        compileTimeoutMs = builder.getCompileTimeoutMs();
+        permits = new Semaphore(builder.getWorkerCount());
+        timeoutExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "grengine-compiler-worker-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeoutExecutor.setRemoveOnCancelPolicy(true);
+        timeoutExecutor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        timeoutExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * constructor with default settings.
+     *
+     * @since 3.2
+     */
+    public ProcessGroovyCompilerFactory() {
+        this(new Builder());
+    }
+
+    /**
+     * creates a new compiler that compiles with the workers of this factory.
+     *
+     * @param parent parent class loader, classes in its code layers are visible
+     *               to compiled scripts (see class description), may be null
+     *
+     * @return new compiler instance
+     *
+     * @since 3.2
+     */
+    @Override
+    public Compiler newCompiler(final ClassLoader parent) {
+        return new ProcessGroovyCompiler(this, parent);
+    }
+
+    /**
+     * stops all workers; idle workers are stopped immediately, busy workers
+     * when done with their current compile.
+     *
+     * @since 3.2
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        closeIdleWorkers();
+    }
+
+    /**
+     * requests to abort all compiles currently running with compilers created by this factory,
+     * which kills their workers (see {@link ProcessGroovyCompiler#cancel()}).
+     *
+     * @return true
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean cancelAll() {
+        busyWorkers.forEach(Worker::cancel);
+        return true;
+    }
+
+    /**
+     * gets the builder.
+     *
+     * @return builder
+     *
+     * @since 3.2
+     */
+    public Builder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * gets the command used to start a worker.
+     *
+     * @return command
+     *
+     * @since 3.2
+     */
+    public List<String> getCommand() {
+        return command;
+    }
+
+    // package scope for compilers, waits for a permit and returns an idle or a new worker
+    Worker acquireWorker() throws IOException, InterruptedException {
+        if (isClosed) {
+            throw new IllegalStateException("Compiler factory is closed.");
+        }
+        permits.acquire();
+        try {
+            Worker worker = idleWorkers.poll();
+            if (worker == null) {
+                startedWorkerCount.incrementAndGet();
+                worker = new Worker(command, timeoutExecutor, compileTimeoutMs);
+            }
+            busyWorkers.add(worker);
+            return worker;
+        } catch (IOException | RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // package scope for compilers, keeps the worker unless it has reached the maximum number of compiles
+    void releaseWorker(final Worker worker) {
+        busyWorkers.remove(worker);
+        try {
+            if (worker.isTimedOut() || worker.isCancelled()) {
+                worker.destroy();
+            } else if (isClosed || worker.getCompileCount() >= maxCompilesPerWorker) {
+                worker.close();
+            } else {
+                idleWorkers.add(worker);
+                if (isClosed) {
+                    closeIdleWorkers();
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // package scope for compilers, stops the worker after it failed
+    void discardWorker(final Worker worker) {
+        busyWorkers.remove(worker);
+        try {
+            worker.destroy();
+        } finally {
+            permits.release();
+        }
+    }
+
+    // package scope for compilers, gets a unique ID for the given code layer
+    long getCodeLayerId(final Code codeLayer) {
+        synchronized (codeLayerIds) {
+            return codeLayerIds.computeIfAbsent(codeLayer, code -> nextCodeLayerId.incrementAndGet());
+        }
+    }
+
+    private void closeIdleWorkers() {
+        Worker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.close();
+        }
+    }
+
+
+    // a worker process, used by one compiler at a time
+    static class Worker {
+
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final ScheduledThreadPoolExecutor timeoutExecutor;
+        private final long compileTimeoutMs;
+        private final Set<Long> sentCodeLayerIds = new HashSet<>();
+        private int compileCount;
+        private volatile boolean isTimedOut;
+        private volatile boolean isCancelled;
+
+        Worker(final List<String> command, final ScheduledThreadPoolExecutor timeoutExecutor,
+                final long compileTimeoutMs) throws IOException {
+            this.timeoutExecutor = timeoutExecutor;
+            this.compileTimeoutMs = compileTimeoutMs;
+            process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            // kills the worker if it does not start within the compile timeout
+            final ScheduledFuture<?> timeout = (compileTimeoutMs == 0) ? null :
+                    timeoutExecutor.schedule(this::timeOut, compileTimeoutMs, TimeUnit.MILLISECONDS);
+            try {
+                if (in.readInt() != ProcessCompilerProtocol.MAGIC) {
+                    throw new IOException("Compiler worker did not start properly.");
+                }
+            } catch (IOException e) {
+                destroy();
+                if (isTimedOut) {
+                    throw new IOException("Compiler worker did not start within " + compileTimeoutMs + " ms.", e);
+                }
+                throw e;
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+        }
+
+        // kills the worker if it does not respond within the compile timeout
+        Code compile(final Sources sources, final Map<Source,Long> lastModifiedMap,
+                final CompilerConfiguration config, final Map<Long,Code> codeLayers,
+                final Collection<String> loadedCodeLayerClassNames) throws IOException {
+            compileCount++;
+            final ScheduledFuture<?> timeout = (compileTimeoutMs == 0) ? null :
+                    timeoutExecutor.schedule(this::timeOut, compileTimeoutMs, TimeUnit.MILLISECONDS);
+            try {
+                ProcessCompilerProtocol.writeRequest(out, sources, lastModifiedMap, config, codeLayers,
+                        sentCodeLayerIds);
+                sentCodeLayerIds.addAll(codeLayers.keySet());
+                return ProcessCompilerProtocol.readResponse(in, sources, lastModifiedMap, loadedCodeLayerClassNames);
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+        }
+
+        private void timeOut() {
+            isTimedOut = true;
+            process.destroyForcibly();
+        }
+
+        // kills the worker, e.g. while compiling
+        void cancel() {
+            isCancelled = true;
+            process.destroyForcibly();
+        }
+
+        int getCompileCount() {
+            return compileCount;
+        }
+
+        boolean isTimedOut() {
+            return isTimedOut;
+        }
+
+        boolean isCancelled() {
+            return isCancelled;
+        }
+
+        // package scope for unit tests
+        Process getProcess() {
+            return process;
+        }
+
+        // closes standard input of the worker, which makes it exit
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                destroy();
+            }
+        }
+
+        void destroy() {
+            process.destroy();
+        }
+
+    }
+
+
+    /**
+     * Builder for instances of {@link ProcessGroovyCompilerFactory}.
+     *
+     * @since 3.2
+     *
+     * @author Alain Stalder
+     * @author Made in Switzerland.
+     */
+    public static class Builder {
+
+        /**
+         * the default number of workers (2).
+         *
+         * @since 3.2
+         */
+        public static final int DEFAULT_WORKER_COUNT = 2;
+
+        /**
+         * the default number of compiles after which a worker is replaced (100).
+         *
+         * @since 3.2
+         */
+        public static final int DEFAULT_MAX_COMPILES_PER_WORKER = 100;
+
+        /**
+         * the default compile timeout (300000ms = five minutes).
+         *
+         * @since 3.2
+         */
+        public static final long DEFAULT_COMPILE_TIMEOUT_MS = 300000;
+
+        private boolean isCommitted;
+
+        private String javaCommand;
+        private String classPath;
+        private List<String> jvmArgs;
+        private int workerCount = -1;
+        private int maxCompilesPerWorker = -1;
+        private CompilerConfiguration compilerConfiguration;
+        private long compileTimeoutMs = -1;
+
+        /**
+         * constructor.
+         *
+         * @since 3.2
+         */
+        public Builder() {
+            isCommitted = false;
+        }
+
+        /**
+         * sets the command for starting a JVM, default is the java executable
+         * of the current JVM.
+         *
+         * @param javaCommand java command
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setJavaCommand(final String javaCommand) {
+            check();
+            this.javaCommand = javaCommand;
+            return this;
+        }
+
+        /**
+         * sets the class path of workers, which must contain Grengine and Groovy
+         * plus any classes scripts refer to, default is the class path of the current JVM.
+         *
+         * @param classPath class path
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setClassPath(final String classPath) {
+            check();
+            this.classPath = classPath;
+            return this;
+        }
+
+        /**
+         * sets additional arguments for worker JVMs, e.g. heap size settings, default is none.
+         *
+         * @param jvmArgs JVM arguments
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setJvmArgs(final List<String> jvmArgs) {
+            check();
+            this.jvmArgs = jvmArgs;
+            return this;
+        }
+
+        /**
+         * sets the maximum number of workers, i.e. of concurrent compiles,
+         * default is {@link #DEFAULT_WORKER_COUNT}.
+         *
+         * @param workerCount worker count
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the worker count is less than one
+         *
+         * @since 3.2
+         */
+        public Builder setWorkerCount(final int workerCount) {
+            check();
+            if (workerCount < 1) {
+                throw new IllegalArgumentException("Worker count is less than one.");
+            }
+            this.workerCount = workerCount;
+            return this;
+        }
+
+        /**
+         * sets the number of compiles after which a worker is replaced with a new one,
+         * default is {@link #DEFAULT_MAX_COMPILES_PER_WORKER}.
+         *
+         * @param maxCompilesPerWorker maximum number of compiles per worker
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the maximum number of compiles is less than one
+         *
+         * @since 3.2
+         */
+        public Builder setMaxCompilesPerWorker(final int maxCompilesPerWorker) {
+            check();
+            if (maxCompilesPerWorker < 1) {
+                throw new IllegalArgumentException("Max compiles per worker is less than one.");
+            }
+            this.maxCompilesPerWorker = maxCompilesPerWorker;
+            return this;
+        }
+
+        /**
+         * sets the compiler configuration for compiling in workers,
+         * default is a new instance of {@link CompilerConfiguration} with default settings.
+         * <p>
+         * Only settings that can be transferred to workers are used, i.e. warning level,
+         * source encoding, target bytecode, script base class, parameters, debug, tolerance,
+         * class path, optimization options and disabled global AST transformations.
+         *
+         * @param compilerConfiguration compiler configuration
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the compiler configuration has compilation customizers
+         *
+         * @since 3.2
+         */
+        public Builder setCompilerConfiguration(final CompilerConfiguration compilerConfiguration) {
+            check();
+            if (compilerConfiguration != null && !compilerConfiguration.getCompilationCustomizers().isEmpty()) {
+                throw new IllegalArgumentException("Compilation customizers are not supported.");
+            }
+            this.compilerConfiguration = compilerConfiguration;
+            return this;
+        }
+
+        /**
+         * sets the maximum time a worker may take for a compile before it is killed and replaced,
+         * default is {@link #DEFAULT_COMPILE_TIMEOUT_MS}.
+         *
+         * @param compileTimeoutMs compile timeout in milliseconds, zero for no timeout
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         * @throws IllegalArgumentException if the compile timeout is negative
+         *
+         * @since 3.2
+         */
+        public Builder setCompileTimeoutMs(final long compileTimeoutMs) {
+            check();
+            if (compileTimeoutMs < 0) {
+                throw new IllegalArgumentException("Compile timeout is negative.");
+            }
+            this.compileTimeoutMs = compileTimeoutMs;
+            return this;
+        }
+
+        /**
+         * gets the command for starting a JVM.
+         *
+         * @return java command
+         *
+         * @since 3.2
+         */
+        public String getJavaCommand() {
+            return javaCommand;
+        }
+
+        /**
+         * gets the class path of workers.
+         *
+         * @return class path
+         *
+         * @since 3.2
+         */
+        public String getClassPath() {
+            return classPath;
+        }
+
+        /**
+         * gets the additional arguments for worker JVMs.
+         *
+         * @return JVM arguments
+         *
+         * @since 3.2
+         */
+        public List<String> getJvmArgs() {
+            return jvmArgs;
+        }
+
+        /**
+         * gets the maximum number of workers.
+         *
+         * @return worker count
+         *
+         * @since 3.2
+         */
+        public int getWorkerCount() {
+            return workerCount;
+        }
+
+        /**
+         * gets the number of compiles after which a worker is replaced.
+         *
+         * @return maximum number of compiles per worker
+         *
+         * @since 3.2
+         */
+        public int getMaxCompilesPerWorker() {
+            return maxCompilesPerWorker;
+        }
+
+        /**
+         * gets the compiler configuration for compiling in workers.
+         *
+         * @return compiler configuration
+         *
+         * @since 3.2
+         */
+        public CompilerConfiguration getCompilerConfiguration() {
+            return compilerConfiguration;
+        }
+
+        /**
+         * gets the compile timeout.
+         *
+         * @return compile timeout in milliseconds, zero for no timeout
+         *
+         * @since 3.2
+         */
+        public long getCompileTimeoutMs() {
+            return compileTimeoutMs;
+        }
+
+        private Builder commit() {
+            if (!isCommitted) {
+                if (javaCommand == null) {
+                    javaCommand = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+                }
+                if (classPath == null) {
+                    classPath = System.getProperty("java.class.path");
+                }
+                if (jvmArgs == null) {
+                    jvmArgs = Collections.emptyList();
+                }
+                if (workerCount < 0) {
+                    workerCount = DEFAULT_WORKER_COUNT;
+                }
+                if (maxCompilesPerWorker < 0) {
+                    maxCompilesPerWorker = DEFAULT_MAX_COMPILES_PER_WORKER;
+                }
+                if (compilerConfiguration == null) {
+                    compilerConfiguration = new CompilerConfiguration();
+                }
+                if (compileTimeoutMs < 0) {
+                    compileTimeoutMs = DEFAULT_COMPILE_TIMEOUT_MS;
+                }
+                isCommitted = true;
+            }
+            return this;
+        }
+
+        /**
+         * builds a new instance of {@link ProcessGroovyCompilerFactory}.
+         *
+         * @return new instance
+         *
+         * @since 3.2
+         */
+        public ProcessGroovyCompilerFactory build() {
+            commit();
+            return new ProcessGroovyCompilerFactory(this);
+        }
+
+        private void check() {
+            if (isCommitted) {
+                throw new IllegalStateException("Builder already used.");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.code.Code;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Main class of compiler worker processes started by {@link ProcessGroovyCompilerFactory}.
+ * <p>
+ * Reads compile requests from standard input, compiles them with a {@link DefaultGroovyCompiler}
+ * with the compiler configuration of the request and writes the resulting code (or a description
+ * of the failure) to standard output, see {@link ProcessCompilerProtocol}. Exits when standard
+ * input is closed.
+ * <p>
+ * Classes in code layers of the parent class loader of the compiler are loaded from bytecode
+ * sent with requests, by class loaders on top of the class path of the worker, which are
+ * kept for later requests with the same code layers.
+ * <p>
+ * Anything else written to standard output while compiling, e.g. by AST transformations,
+ * goes to standard error instead.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class ProcessGroovyCompilerWorker {
+
+    private ProcessGroovyCompilerWorker() {
+    }
+
+    /**
+     * runs the worker.
+     *
+     * @param args ignored
+     *
+     * @throws IOException if could not read from standard input or write to standard output
+     *
+     * @since 3.2
+     */
+    public static void main(final String[] args) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+
+        out.writeInt(ProcessCompilerProtocol.MAGIC);
+        out.flush();
+
+        final Map<Long,Map<String,byte[]>> codeLayers = new HashMap<>();
+        final Map<List<Long>,CodeLayerClassLoader> codeLayerLoaders = new HashMap<>();
+        final Set<String> loadedCodeLayerClassNames = ConcurrentHashMap.newKeySet();
+        final ClassLoader classPathLoader = Thread.currentThread().getContextClassLoader();
+        while (true) {
+            final ProcessCompilerProtocol.Request request;
+            try {
+                request = ProcessCompilerProtocol.readRequest(in);
+            } catch (EOFException e) {
+                return;
+            }
+            codeLayers.putAll(request.newCodeLayers);
+            if (request.failure != null) {
+                ProcessCompilerProtocol.writeFailure(out, request.failure);
+                continue;
+            }
+            final Code code;
+            try {
+                // class loaders of code layers, reused if the same lower code layers
+                ClassLoader parent = classPathLoader;
+                final List<Long> ids = new ArrayList<>();
+                for (long id : request.codeLayerIds) {
+                    ids.add(id);
+                    final ClassLoader layerParent = parent;
+                    if (!codeLayers.containsKey(id)) {
+                        throw new IllegalStateException("Unknown code layer " + id + ".");
+                    }
+                    parent = codeLayerLoaders.computeIfAbsent(new ArrayList<>(ids),
+                            key -> new CodeLayerClassLoader(layerParent, codeLayers.get(id),
+                                    loadedCodeLayerClassNames));
+                }
+                loadedCodeLayerClassNames.clear();
+                code = new DefaultGroovyCompiler(parent, request.config).compile(request.sources);
+            } catch (Throwable t) {
+                ProcessCompilerProtocol.writeFailure(out, t);
+                continue;
+            }
+            ProcessCompilerProtocol.writeCode(out, code, loadedCodeLayerClassNames);
+        }
+    }
+
+    // loads classes of a code layer, current first, and notes which ones were loaded
+    private static class CodeLayerClassLoader extends ClassLoader {
+
+        private final Map<String,byte[]> bytecodeMap;
+        private final Set<String> loadedClassNames;
+
+        CodeLayerClassLoader(final ClassLoader parent, final Map<String,byte[]> bytecodeMap,
+                final Set<String> loadedClassNames) {
+            super(parent);
+            this.bytecodeMap = bytecodeMap;
+            this.loadedClassNames = loadedClassNames;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            final byte[] bytes = bytecodeMap.get(name);
+            if (bytes == null) {
+                return super.loadClass(name, resolve);
+            }
+            loadedClassNames.add(name);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    clazz = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+    }
+
+}
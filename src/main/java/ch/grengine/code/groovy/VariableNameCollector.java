@@ -0,0 +1,88 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.CodeVisitorSupport;
+import org.codehaus.groovy.ast.DynamicVariable;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+
+
+/**
+ * Collects the names of the variables that the script class of a module accesses
+ * in its binding, i.e. variables that are neither declared locally nor parameters
+ * nor fields (dynamic variables), including in closures.
+ * <p>
+ * Must be called after the semantic analysis phase, i.e. after variable scopes
+ * have been determined.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class VariableNameCollector extends CodeVisitorSupport {
+
+    private final Set<String> names = new LinkedHashSet<>();
+
+    private VariableNameCollector() {
+    }
+
+    /**
+     * collects the variable names of the script class with the given name in the given module.
+     *
+     * @param module module, after the semantic analysis phase
+     * @param mainClassName main class name
+     *
+     * @return variable names in order of first occurrence (script body first), empty if the main class is not a script
+     *
+     * @since 3.2
+     */
+    static List<String> collect(final ModuleNode module, final String mainClassName) {
+        final ClassNode scriptClass = module.getClasses().stream()
+                .filter(c -> c.isScript() && c.getName().equals(mainClassName))
+                .findFirst()
+                .orElse(null);
+        if (scriptClass == null) {
+            return Collections.emptyList();
+        }
+        final VariableNameCollector collector = new VariableNameCollector();
+        for (MethodNode method : scriptClass.getMethods()) {
+            if (method.getCode() != null) {
+                method.getCode().visit(collector);
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(collector.names));
+    }
+
+    @Override
+    public void visitVariableExpression(final VariableExpression expression) {
+        if (expression.getAccessedVariable() instanceof DynamicVariable) {
+            names.add(expression.getName());
+        }
+        super.visitVariableExpression(expression);
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.engine;
+
+import ch.grengine.load.ClassReleaser;
+import ch.grengine.load.LayeredClassLoader;
+import ch.grengine.load.SourceClassLoader;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Releases classes of source class loaders automatically on a background thread,
+ * after a delay, once the source class loader has been replaced in a {@link Loader}
+ * or once the {@link Loader} has become unreachable (tracked with phantom references).
+ * <p>
+ * Classes of {@link LayeredClassLoader} instances are released with
+ * {@link LayeredClassLoader#releaseUnsharedClasses(ClassReleaser)}, so that classes
+ * of code layers whose class loaders are shared with other layered class loaders
+ * that may still be in use are not released.
+ * <p>
+ * A single daemon thread is shared by all instances.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class ClassReleaseScheduler {
+
+    // package scope for unit tests
+    static final long POLL_INTERVAL_MS = 100;
+
+    private static final ReferenceQueue<Loader> QUEUE = new ReferenceQueue<>();
+    // keeps phantom references reachable until enqueued
+    private static final Set<LoaderReference> REFERENCES = ConcurrentHashMap.newKeySet();
+    private static final Object EXECUTOR_LOCK = new Object();
+    private static volatile ScheduledThreadPoolExecutor executor;
+
+    private final ClassReleaser classReleaser;
+    private final long delayMs;
+    private final Map<Loader,LoaderReference> referencesByLoader = new WeakHashMap<>();
+    private final AtomicInteger pendingReleaseCount = new AtomicInteger();
+    private final AtomicLong releaseCount = new AtomicLong();
+
+    /**
+     * constructor.
+     *
+     * @param classReleaser class releaser
+     * @param delayMs delay in milliseconds before releasing classes
+     *
+     * @throws NullPointerException if the class releaser is null
+     *
+     * @since 3.2
+     */
+    ClassReleaseScheduler(final ClassReleaser classReleaser, final long delayMs) {
+        requireNonNull(classReleaser, "Class releaser is null.");
+        this.classReleaser = classReleaser;
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * registers the given loader, so that classes of its current source class loader
+     * are released once the loader has become unreachable.
+     *
+     * @param loader loader
+     * @param sourceClassLoader current source class loader of the loader
+     *
+     * @since 3.2
+     */
+    void register(final Loader loader, final SourceClassLoader sourceClassLoader) {
+        final LoaderReference ref = new LoaderReference(loader, sourceClassLoader, this);
+        REFERENCES.add(ref);
+        synchronized (referencesByLoader) {
+            referencesByLoader.put(loader, ref);
+        }
+        getExecutor();
+    }
+
+    /**
+     * schedules the release of classes of the given previous source class loader of the given loader,
+     * after it has been replaced with the given new source class loader.
+     *
+     * @param loader loader
+     * @param previousSourceClassLoader previous source class loader
+     * @param sourceClassLoader new source class loader
+     *
+     * @since 3.2
+     */
+    void replaced(final Loader loader, final SourceClassLoader previousSourceClassLoader,
+            final SourceClassLoader sourceClassLoader) {
+        if (previousSourceClassLoader == sourceClassLoader) {
+            return;
+        }
+        synchronized (referencesByLoader) {
+            final LoaderReference ref = referencesByLoader.get(loader);
+            if (ref != null) {
+                ref.sourceClassLoader = sourceClassLoader;
+            }
+        }
+        scheduleRelease(previousSourceClassLoader);
+    }
+
+    /**
+     * gets the number of source class loaders whose classes are waiting to be released.
+     *
+     * @return number of source class loaders whose classes are waiting to be released
+     *
+     * @since 3.2
+     */
+    int getPendingReleaseCount() {
+        return pendingReleaseCount.get();
+    }
+
+    /**
+     * gets the number of source class loaders whose classes have been released so far.
+     *
+     * @return number of source class loaders whose classes have been released
+     *
+     * @since 3.2
+     */
+    long getReleaseCount() {
+        return releaseCount.get();
+    }
+
+    private void scheduleRelease(final SourceClassLoader sourceClassLoader) {
+        pendingReleaseCount.incrementAndGet();
+        getExecutor().schedule(() -> release(sourceClassLoader), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void release(final SourceClassLoader sourceClassLoader) {
+        try {
+            if (sourceClassLoader instanceof LayeredClassLoader) {
+                ((LayeredClassLoader)sourceClassLoader).releaseUnsharedClasses(classReleaser);
+            } else {
+                sourceClassLoader.releaseClasses(classReleaser);
+            }
+        } catch (RuntimeException ignore) {
+            // nothing else to do, possibly not all classes released
+        } finally {
+            pendingReleaseCount.decrementAndGet();
+            releaseCount.incrementAndGet();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor getExecutor() {
+        ScheduledThreadPoolExecutor ex = executor;
+        if (ex == null) {
+            synchronized (EXECUTOR_LOCK) {
+                ex = executor;
+                if (ex == null) {
+                    ex = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        final Thread thread = new Thread(runnable, "grengine-class-release");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    ex.scheduleWithFixedDelay(ClassReleaseScheduler::pollUnreachableLoaders,
+                            POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    executor = ex;
+                }
+            }
+        }
+        return ex;
+    }
+
+    private static void pollUnreachableLoaders() {
+        Reference<? extends Loader> ref;
+        while ((ref = QUEUE.poll()) != null) {
+            final LoaderReference loaderRef = (LoaderReference)ref;
+            REFERENCES.remove(loaderRef);
+            loaderRef.scheduler.scheduleRelease(loaderRef.sourceClassLoader);
+        }
+    }
+
+    // references the source class loader and scheduler, but not the loader itself
+    private static class LoaderReference extends PhantomReference<Loader> {
+
+        private volatile SourceClassLoader sourceClassLoader;
+        private final ClassReleaseScheduler scheduler;
+
+        LoaderReference(final Loader loader, final SourceClassLoader sourceClassLoader,
+                final ClassReleaseScheduler scheduler) {
+            super(loader, QUEUE);
+            this.sourceClassLoader = sourceClassLoader;
+            this.scheduler = scheduler;
+        }
+
+    }
+
+}
@@ -25,6 +25,7 @@ import ch.grengine.sources.Sources;
 import ch.grengine.code.Code;
 
 import java.io.Closeable;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -130,6 +131,58 @@ public interface Engine extends Closeable {
      * @since 1.0
      */
     Class<?> loadClass(Loader loader, String name);
+
+    /**
+     * gets the names of the variables that the main class of the given source
+     * accesses in its binding, as determined when compiling the source,
+     * for the code that the main class is loaded from with the given loader.
+     * <p>
+     * The default implementation returns an empty list, i.e. variable names unknown.
+     *
+     * @param loader loader
+     * @param source source
+     *
+     * @return variable names in order of first occurrence in the source, empty if unknown
+     * @throws CompileException if compilation was necessary and failed
+     * @throws LoadException if the source was not found
+     *
+     * @since 3.2
+     */
+    default List<String> getVariableNames(Loader loader, Source source) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * gets whether loading the main class of the given source with the given loader
+     * would have to compile the source first.
+     * <p>
+     * The default implementation returns true, i.e. assumes compiling is needed.
+     *
+     * @param loader loader
+     * @param source source
+     *
+     * @return whether compiling would be needed
+     *
+     * @since 3.2
+     */
+    default boolean isCompileNeeded(Loader loader, Source source) {
+        return true;
+    }
+
+    /**
+     * requests to abort all compiles currently running in this engine,
+     * i.e. compiles on the fly of scripts and compiles of code layers from sources.
+     * <p>
+     * Compiles that support it stop as soon as possible and throw a
+     * {@link ch.grengine.except.CompileAbortedException}; the default implementation does nothing.
+     *
+     * @return whether cancelling is supported by this engine
+     *
+     * @since 3.2
+     */
+    default boolean cancelCompiles() {
+        return false;
+    }
     
     /**
      * sets (replaces) code layers of the engine, based on already compiled code layers.
@@ -22,24 +22,45 @@ import ch.grengine.load.DefaultClassReleaser;
 import ch.grengine.load.DefaultTopCodeCacheFactory;
 import ch.grengine.source.Source;
 import ch.grengine.code.ClassNameConflictAnalyzer;
+import ch.grengine.code.ClassNameIndex;
 import ch.grengine.code.Code;
+import ch.grengine.code.CodeLayersProvider;
+import ch.grengine.code.CodeUtil;
+import ch.grengine.code.CompileScheduler;
+import ch.grengine.code.CompilerFactory;
+import ch.grengine.code.LeanCode;
+import ch.grengine.code.MappedCode;
 import ch.grengine.load.ClassReleaser;
 import ch.grengine.load.LayeredClassLoader;
 import ch.grengine.load.LoadMode;
+import ch.grengine.load.SharedCodeRegistry;
 import ch.grengine.load.SourceClassLoader;
 import ch.grengine.load.TopCodeCache;
 import ch.grengine.load.TopCodeCacheFactory;
 import ch.grengine.sources.Sources;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.util.Objects.requireNonNull;
@@ -61,6 +82,9 @@ public class LayeredEngine implements Engine {
     
     private final boolean isWithTopCodeCache;
     private final TopCodeCache topCodeCache;
+
+    // index of class names in the parent class loader, null if not checking for conflicts with parent
+    private final ClassNameIndex parentClassNameIndex;
     
     // default loader (number 0)
     private final Loader loader;
@@ -78,6 +102,26 @@ public class LayeredEngine implements Engine {
     
     private final Lock read;
     private final Lock write;
+
+    // thread pool for warming up new loaders, null if no warm-up
+    private final ThreadPoolExecutor warmUpExecutor;
+    // serializes setting code layers while warming up outside the write lock
+    private final Lock warmUpLock;
+    private volatile long lastWarmUpDurationMs = -1;
+    private volatile boolean isLastWarmUpTimedOut;
+    private final AtomicInteger warmUpCount = new AtomicInteger();
+
+    // releases classes of replaced or unreachable loaders, null if not automatically releasing classes
+    private final ClassReleaseScheduler classReleaseScheduler;
+
+    // lean code layers by the code layers they had been created from (last set code layers only)
+    private volatile Map<Code,LeanCode> leanCodeLayersByCode = new IdentityHashMap<>();
+    // last compiled sources layers (only if reusing unchanged code layers)
+    private volatile List<CompiledSourcesLayer> compiledSourcesLayers = new LinkedList<>();
+    // code layers that hold references in the shared code registry (last set code layers only)
+    private final AtomicReference<List<Code>> registeredCodeLayers = new AtomicReference<>(new LinkedList<>());
+    // sources layers currently being compiled, for cancelling their compiles
+    private final Queue<List<Sources>> compilingSourcesLayers = new ConcurrentLinkedQueue<>();
     
     /**
      * constructor from builder.
@@ -95,37 +139,78 @@ public class LayeredEngine implements Engine {
         } else {
             topCodeCache = null;
         }
+        parentClassNameIndex = builder.isAllowSameClassNamesInParentAndCodeLayers() ?
+                null : new ClassNameIndex(builder.getParent());
         final LayeredClassLoader layeredClassLoader = newLayeredClassLoaderFromCodeLayers(new LinkedList<>());
         if (isWithTopCodeCache) {
             topCodeCache.setParent(layeredClassLoader);
         }
         
+        classReleaseScheduler = builder.isAutoReleaseClasses() ?
+                new ClassReleaseScheduler(builder.getClassReleaser(), builder.getAutoReleaseDelayMs()) : null;
+
         nextLoaderNumber = 0;
         loader = new Loader(engineId, nextLoaderNumber++, true, builder.getClassReleaser(), layeredClassLoader);
         attachedLoaders.put(loader, engineId);
+        registerForAutoRelease(loader);
 
         final ReadWriteLock lock = new ReentrantReadWriteLock();
         read = lock.readLock();
         write = lock.writeLock();
+
+        final int warmUpThreads = builder.getWarmUpThreads();
+        if (warmUpThreads > 0) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            warmUpExecutor = new ThreadPoolExecutor(warmUpThreads, warmUpThreads, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        final Thread thread = new Thread(runnable,
+                                "grengine-warm-up-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            warmUpExecutor.allowCoreThreadTimeOut(true);
+            warmUpLock = new ReentrantLock();
+        } else {
+            warmUpExecutor = null;
+            warmUpLock = null;
+        }
     }
     
-    private LayeredClassLoader newLayeredClassLoaderFromCodeLayers(final List<Code> codeLayers) {
+    // builder with all settings of this engine except the layers
+    private LayeredClassLoader.Builder newLayeredClassLoaderBuilder() {
         return new LayeredClassLoader.Builder()
                 .setParent(builder.getParent())
                 .setLoadMode(builder.getLoadMode())
-                .setCodeLayers(codeLayers)
                 .setWithTopCodeCache(isWithTopCodeCache, topCodeCache)
                 .setTopLoadMode(builder.getTopLoadMode())
+                .setNegativeLookupCacheSize(builder.getNegativeLookupCacheSize())
+                .setTopLoaderBucketSize(builder.getTopLoaderBucketSize())
+                .setTopLoaderBucketMaxStaleRatio(builder.getTopLoaderBucketMaxStaleRatio())
+                .setTopLoaderHiddenClasses(builder.isTopLoaderHiddenClasses())
+                .setCompileScheduler(builder.getCompileScheduler())
+                .setSharedCodeRegistry(builder.getSharedCodeRegistry());
+    }
+
+    private LayeredClassLoader newLayeredClassLoaderFromCodeLayers(final List<Code> codeLayers) {
+        return newLayeredClassLoaderBuilder()
+                .setCodeLayers(codeLayers)
                 .buildFromCodeLayers();
     }
+
+    // reuses class loaders of unchanged code layers of the previous class loader if configured
+    private LayeredClassLoader newLayeredClassLoaderFromCodeLayers(final List<Code> codeLayers,
+            final SourceClassLoader previousClassLoader) {
+        if (!builder.isReuseUnchangedCodeLayers() || !(previousClassLoader instanceof LayeredClassLoader)) {
+            return newLayeredClassLoaderFromCodeLayers(codeLayers);
+        }
+        return newLayeredClassLoaderBuilder()
+                .setCodeLayers(codeLayers)
+                .buildFromCodeLayersReusing((LayeredClassLoader)previousClassLoader);
+    }
     
     private LayeredClassLoader newLayeredClassLoaderFromSourceSetLayers(final List<Sources> sourcesLayers) {
-        return new LayeredClassLoader.Builder()
-                .setParent(builder.getParent())
-                .setLoadMode(builder.getLoadMode())
+        return newLayeredClassLoaderBuilder()
                 .setSourcesLayers(sourcesLayers)
-                .setWithTopCodeCache(isWithTopCodeCache, topCodeCache)
-                .setTopLoadMode(builder.getTopLoadMode())
                 .buildFromSourcesLayers();
     }
 
@@ -146,9 +231,12 @@ public class LayeredEngine implements Engine {
     public Loader newAttachedLoader() {
         write.lock();
         try {
-            final Loader newLoader = new Loader(engineId, nextLoaderNumber++, true,
-                    builder.getClassReleaser(), loader.getSourceClassLoader(engineId).clone());
+            final LayeredClassLoader layeredClassLoader = ((LayeredClassLoader)loader.getSourceClassLoader(engineId));
+            final Loader newLoader = new Loader(engineId, nextLoaderNumber++, true, builder.getClassReleaser(),
+                    isSharedCodeLayerLoaders() ? layeredClassLoader.cloneWithSharedCodeLayerLoaders() :
+                            layeredClassLoader.clone());
             attachedLoaders.put(newLoader, engineId);
+            registerForAutoRelease(newLoader);
             return newLoader;
         } finally {
             write.unlock();
@@ -174,15 +262,37 @@ public class LayeredEngine implements Engine {
         write.lock();
         try {
             final LayeredClassLoader layeredClassLoader = ((LayeredClassLoader)loader.getSourceClassLoader(engineId));
-            final Loader newLoader = new Loader(engineId, nextLoaderNumber++, false,
-                    builder.getClassReleaser(), layeredClassLoader.cloneWithSeparateTopCodeCache());
+            final Loader newLoader = new Loader(engineId, nextLoaderNumber++, false, builder.getClassReleaser(),
+                    isSharedCodeLayerLoaders() ?
+                            layeredClassLoader.cloneWithSharedCodeLayerLoadersAndSeparateTopCodeCache() :
+                            layeredClassLoader.cloneWithSeparateTopCodeCache());
             detachedLoaders.put(newLoader, engineId);
+            registerForAutoRelease(newLoader);
             return newLoader;
         } finally {
             write.unlock();
         }
     }
     
+    private void registerForAutoRelease(final Loader newLoader) {
+        if (classReleaseScheduler != null) {
+            classReleaseScheduler.register(newLoader, newLoader.getSourceClassLoader(engineId));
+        }
+    }
+
+    // sets the source class loader of an attached loader, releasing the previous one later if configured
+    private void setSourceClassLoader(final Loader attachedLoader, final SourceClassLoader sourceClassLoader) {
+        final SourceClassLoader previousSourceClassLoader = attachedLoader.getSourceClassLoader(engineId);
+        attachedLoader.setSourceClassLoader(engineId, sourceClassLoader);
+        if (classReleaseScheduler != null) {
+            classReleaseScheduler.replaced(attachedLoader, previousSourceClassLoader, sourceClassLoader);
+        }
+    }
+
+    private boolean isSharedCodeLayerLoaders() {
+        return builder.getLoaderIsolation() == LoaderIsolation.TOP_CODE_CACHE_ONLY;
+    }
+
     private SourceClassLoader getSourceClassLoader(final Loader loader) {
         read.lock();
         try {
@@ -198,11 +308,21 @@ public class LayeredEngine implements Engine {
         return getSourceClassLoader(loader).loadMainClass(source);
     }
     
+    @Override
+    public boolean isCompileNeeded(final Loader loader, final Source source) {
+        return getSourceClassLoader(loader).isCompileNeeded(source);
+    }
+    
     @Override
     public Class<?> loadClass(final Loader loader, final Source source, final String name) {
         return getSourceClassLoader(loader).loadClass(source, name);
     }
     
+    @Override
+    public List<String> getVariableNames(final Loader loader, final Source source) {
+        return getSourceClassLoader(loader).getVariableNames(source);
+    }
+
     @Override
     public Class<?> loadClass(final Loader loader, final String name) {
         try {
@@ -214,19 +334,30 @@ public class LayeredEngine implements Engine {
             
     @Override
     public void setCodeLayers(final List<Code> codeLayers) {
+        setCodeLayers(codeLayers, new LinkedList<>());
+    }
+
+    // sets code layers, of which the given registered code layers hold references in the shared code registry
+    private void setCodeLayers(final List<Code> codeLayers, final List<Code> newRegisteredCodeLayers) {
         requireNonNull(codeLayers, "Code layers are null.");
 
         int nConflicts = 0;
+        Map<String,List<Code>> allClassNamesMap = null;
+        if (!builder.isAllowSameClassNamesInMultipleCodeLayers() ||
+                !builder.isAllowSameClassNamesInParentAndCodeLayers()) {
+            // single pass over all classes in all code layers
+            allClassNamesMap = ClassNameConflictAnalyzer.getAllClassNamesMap(codeLayers);
+        }
         Map<String,List<Code>> sameClassNamesInMultipleCodeLayersMap = null;
         if (!builder.isAllowSameClassNamesInMultipleCodeLayers()) {
             sameClassNamesInMultipleCodeLayersMap =
-                    ClassNameConflictAnalyzer.getSameClassNamesInMultipleCodeLayersMap(codeLayers);
+                    ClassNameConflictAnalyzer.filterSameClassNamesInMultipleCodeLayers(allClassNamesMap);
             nConflicts += sameClassNamesInMultipleCodeLayersMap.size();
         }
         Map<String,List<Code>> sameClassNamesInParentAndCodeLayersMap = null;
         if (!builder.isAllowSameClassNamesInParentAndCodeLayers()) {
             sameClassNamesInParentAndCodeLayersMap =
-                    ClassNameConflictAnalyzer.getSameClassNamesInParentAndCodeLayersMap(builder.getParent(), codeLayers);
+                    ClassNameConflictAnalyzer.filterSameClassNamesInParent(parentClassNameIndex, allClassNamesMap);
             nConflicts += sameClassNamesInParentAndCodeLayersMap.size();
         }
         if (nConflicts > 0) {
@@ -234,37 +365,350 @@ public class LayeredEngine implements Engine {
                     sameClassNamesInMultipleCodeLayersMap, sameClassNamesInParentAndCodeLayersMap);
         }
         
+        final List<Code> layers = builder.isMemoryLean() ? toLeanCodeLayers(codeLayers) : codeLayers;
+
+        if (warmUpExecutor != null) {
+            setCodeLayersWithWarmUp(layers);
+            releaseCodeLayers(registeredCodeLayers.getAndSet(newRegisteredCodeLayers));
+            return;
+        }
+
         write.lock();
         try {
             final Map<Loader,EngineId> attachedLoadersNonWeak = new HashMap<>(attachedLoaders);
-            attachedLoadersNonWeak.keySet().forEach(loader ->
-                    loader.setSourceClassLoader(engineId, newLayeredClassLoaderFromCodeLayers(codeLayers)
-            ));
+            final LayeredClassLoader layeredClassLoader =
+                    newLayeredClassLoaderFromCodeLayers(layers, loader.getSourceClassLoader(engineId));
+            attachedLoadersNonWeak.keySet().forEach(attachedLoader -> {
+                if (attachedLoader == loader) {
+                    setSourceClassLoader(attachedLoader, layeredClassLoader);
+                } else if (isSharedCodeLayerLoaders()) {
+                    setSourceClassLoader(attachedLoader, layeredClassLoader.cloneWithSharedCodeLayerLoaders());
+                } else {
+                    setSourceClassLoader(attachedLoader,
+                            newLayeredClassLoaderFromCodeLayers(layers, attachedLoader.getSourceClassLoader(engineId)));
+                }
+            });
             if (isWithTopCodeCache) {
                 topCodeCache.setParent(loader.getSourceClassLoader(engineId));
             }
         } finally {
             write.unlock();
         }
+        releaseCodeLayers(registeredCodeLayers.getAndSet(newRegisteredCodeLayers));
+    }
+
+    // sets code layers that each hold a reference in the shared code registry, released if failed
+    private void setRegisteredCodeLayers(final List<Code> codeLayers) {
+        if (builder.getSharedCodeRegistry() == null) {
+            setCodeLayers(codeLayers);
+            return;
+        }
+        try {
+            setCodeLayers(codeLayers, codeLayers);
+        } catch (RuntimeException e) {
+            releaseCodeLayers(codeLayers);
+            throw e;
+        }
+    }
+
+    private void releaseCodeLayers(final List<Code> codeLayers) {
+        final SharedCodeRegistry sharedCodeRegistry = builder.getSharedCodeRegistry();
+        if (sharedCodeRegistry != null) {
+            codeLayers.forEach(sharedCodeRegistry::release);
+        }
     }
     
+    // prepares new class loaders for all attached loaders outside the write lock,
+    // warms them up and only then publishes them under the write lock
+    private void setCodeLayersWithWarmUp(final List<Code> layers) {
+        warmUpLock.lock();
+        try {
+            final Map<Loader,SourceClassLoader> previousClassLoaders = new HashMap<>();
+            write.lock();
+            try {
+                attachedLoaders.keySet().forEach(attachedLoader ->
+                        previousClassLoaders.put(attachedLoader, attachedLoader.getSourceClassLoader(engineId)));
+            } finally {
+                write.unlock();
+            }
+
+            final LayeredClassLoader layeredClassLoader =
+                    newLayeredClassLoaderFromCodeLayers(layers, previousClassLoaders.get(loader));
+            final Map<Loader,LayeredClassLoader> newClassLoaders = new HashMap<>();
+            final List<LayeredClassLoader> classLoadersToWarmUp = new LinkedList<>();
+            classLoadersToWarmUp.add(layeredClassLoader);
+            previousClassLoaders.forEach((attachedLoader, previousClassLoader) -> {
+                if (attachedLoader == loader) {
+                    newClassLoaders.put(attachedLoader, layeredClassLoader);
+                } else if (isSharedCodeLayerLoaders()) {
+                    newClassLoaders.put(attachedLoader, layeredClassLoader.cloneWithSharedCodeLayerLoaders());
+                } else {
+                    final LayeredClassLoader newClassLoader =
+                            newLayeredClassLoaderFromCodeLayers(layers, previousClassLoader);
+                    newClassLoaders.put(attachedLoader, newClassLoader);
+                    classLoadersToWarmUp.add(newClassLoader);
+                }
+            });
+
+            warmUp(classLoadersToWarmUp);
+
+            write.lock();
+            try {
+                // attached loaders created in the meantime get cold class loaders
+                new HashMap<>(attachedLoaders).keySet().forEach(attachedLoader -> {
+                    LayeredClassLoader newClassLoader = newClassLoaders.get(attachedLoader);
+                    if (newClassLoader == null) {
+                        newClassLoader = isSharedCodeLayerLoaders() ?
+                                layeredClassLoader.cloneWithSharedCodeLayerLoaders() :
+                                newLayeredClassLoaderFromCodeLayers(layers,
+                                        attachedLoader.getSourceClassLoader(engineId));
+                    }
+                    setSourceClassLoader(attachedLoader, newClassLoader);
+                });
+                if (isWithTopCodeCache) {
+                    topCodeCache.setParent(loader.getSourceClassLoader(engineId));
+                }
+            } finally {
+                write.unlock();
+            }
+        } finally {
+            warmUpLock.unlock();
+        }
+    }
+
+    private void warmUp(final List<LayeredClassLoader> classLoaders) {
+        final long startTime = System.nanoTime();
+        final CompletableFuture<?>[] futures = classLoaders.stream()
+                .map(classLoader -> classLoader.warmUp(warmUpExecutor, builder.isWarmUpMetaClasses()))
+                .toArray(CompletableFuture<?>[]::new);
+        boolean isTimedOut = false;
+        try {
+            CompletableFuture.allOf(futures).get(builder.getWarmUpTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // publish anyway, remaining classes are defined when needed
+            isTimedOut = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            isTimedOut = true;
+        } catch (ExecutionException ignore) {
+            // cannot happen, warm-up ignores failures of individual classes
+        }
+        lastWarmUpDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        isLastWarmUpTimedOut = isTimedOut;
+        warmUpCount.incrementAndGet();
+    }
+
+    /**
+     * gets the duration of the last warm-up of code layers in milliseconds.
+     *
+     * @return duration of the last warm-up, -1 if there has not been any warm-up
+     *
+     * @since 3.2
+     */
+    public long getLastWarmUpDurationMs() {
+        return lastWarmUpDurationMs;
+    }
+
+    /**
+     * gets whether the last warm-up of code layers timed out,
+     * in which case the code layers had been set before all classes were defined.
+     *
+     * @return whether the last warm-up of code layers timed out
+     *
+     * @since 3.2
+     */
+    public boolean isLastWarmUpTimedOut() {
+        return isLastWarmUpTimedOut;
+    }
+
+    /**
+     * gets the number of warm-ups of code layers so far.
+     *
+     * @return number of warm-ups of code layers
+     *
+     * @since 3.2
+     */
+    public int getWarmUpCount() {
+        return warmUpCount.get();
+    }
+
+    /**
+     * gets the number of class loaders whose classes are waiting to be released automatically,
+     * i.e. class loaders that have been replaced when code layers were set or whose loaders
+     * have become unreachable, and whose release delay has not yet passed.
+     *
+     * @return number of class loaders whose classes are waiting to be released,
+     *         0 if not automatically releasing classes
+     *
+     * @since 3.2
+     */
+    public int getPendingClassReleaseCount() {
+        return classReleaseScheduler == null ? 0 : classReleaseScheduler.getPendingReleaseCount();
+    }
+
+    /**
+     * gets the number of class loaders whose classes have been released automatically so far.
+     *
+     * @return number of class loaders whose classes have been released automatically,
+     *         0 if not automatically releasing classes
+     *
+     * @since 3.2
+     */
+    public long getClassReleaseCount() {
+        return classReleaseScheduler == null ? 0 : classReleaseScheduler.getReleaseCount();
+    }
+
+    private List<Code> toLeanCodeLayers(final List<Code> codeLayers) {
+        final Map<Code,LeanCode> previousLeanCodeLayersByCode = leanCodeLayersByCode;
+        final Map<Code,LeanCode> newLeanCodeLayersByCode = new IdentityHashMap<>();
+        final List<Code> leanCodeLayers = new LinkedList<>();
+        for (Code code : codeLayers) {
+            // mapped code does not keep bytecode in the heap anyway
+            if (code instanceof LeanCode || code instanceof MappedCode) {
+                leanCodeLayers.add(code);
+            } else {
+                // same lean code for the same code, so that class loaders of unchanged layers can be reused
+                LeanCode leanCode = builder.isReuseUnchangedCodeLayers() ? previousLeanCodeLayersByCode.get(code) : null;
+                if (leanCode == null) {
+                    leanCode = new LeanCode(code);
+                }
+                leanCodeLayers.add(leanCode);
+                newLeanCodeLayersByCode.put(code, leanCode);
+            }
+        }
+        if (builder.isReuseUnchangedCodeLayers()) {
+            leanCodeLayersByCode = newLeanCodeLayersByCode;
+        }
+        return leanCodeLayers;
+    }
+
     @Override
     public void setCodeLayersBySource(final List<Sources> sourcesLayers) {
         requireNonNull(sourcesLayers, "Sources layers are null.");
-        setCodeLayers(newLayeredClassLoaderFromSourceSetLayers(sourcesLayers).getCodeLayers());
+        compilingSourcesLayers.add(sourcesLayers);
+        try {
+            setCodeLayersBySourceCompiling(sourcesLayers);
+        } finally {
+            compilingSourcesLayers.remove(sourcesLayers);
+        }
+    }
+
+    /**
+     * requests to abort all compiles currently running in this engine, compiles
+     * with the compiler factory of the top code cache (if any) and compiles of
+     * sources layers currently being set (see {@link CompilerFactory#cancelAll()}).
+     *
+     * @return whether cancelling is supported by any of the compiler factories
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean cancelCompiles() {
+        boolean isSupported = isWithTopCodeCache && topCodeCache.cancelCompiles();
+        final Set<CompilerFactory> compilerFactories = Collections.newSetFromMap(new IdentityHashMap<>());
+        compilingSourcesLayers.forEach(sourcesLayers ->
+                sourcesLayers.forEach(sources -> compilerFactories.add(sources.getCompilerFactory())));
+        for (CompilerFactory compilerFactory : compilerFactories) {
+            isSupported |= compilerFactory.cancelAll();
+        }
+        return isSupported;
+    }
+
+    private void setCodeLayersBySourceCompiling(final List<Sources> sourcesLayers) {
+        if (!builder.isReuseUnchangedCodeLayers()) {
+            setRegisteredCodeLayers(newLayeredClassLoaderFromSourceSetLayers(sourcesLayers).getCodeLayers());
+            return;
+        }
+
+        // only compile sources layers above the longest prefix of unchanged sources layers
+        final List<CompiledSourcesLayer> previousCompiledLayers = compiledSourcesLayers;
+        final List<CompiledSourcesLayer> compiledLayers = new LinkedList<>();
+        final List<Code> unchangedCodeLayers = new LinkedList<>();
+        for (Sources sources : sourcesLayers) {
+            final int i = compiledLayers.size();
+            if (i >= previousCompiledLayers.size()) {
+                break;
+            }
+            final CompiledSourcesLayer previousCompiledLayer = previousCompiledLayers.get(i);
+            if (previousCompiledLayer.sources != sources ||
+                    previousCompiledLayer.lastModified != sources.getLastModified()) {
+                break;
+            }
+            compiledLayers.add(previousCompiledLayer);
+            unchangedCodeLayers.add(previousCompiledLayer.code);
+        }
+
+        final List<Sources> changedSourcesLayers = sourcesLayers.subList(compiledLayers.size(), sourcesLayers.size());
+        final List<Code> codeLayers = new LinkedList<>(unchangedCodeLayers);
+        if (!changedSourcesLayers.isEmpty()) {
+            final List<Long> lastModifiedList = new LinkedList<>();
+            changedSourcesLayers.forEach(sources -> lastModifiedList.add(sources.getLastModified()));
+            // lean code layers as set, so that class loaders are reused by identity
+            final Map<Code,LeanCode> leanCodes = leanCodeLayersByCode;
+            final List<Code> unchangedLayers = new LinkedList<>();
+            unchangedCodeLayers.forEach(code -> unchangedLayers.add(
+                    builder.isMemoryLean() && leanCodes.containsKey(code) ? leanCodes.get(code) : code));
+            final ClassLoader unchangedLayersClassLoader = new LayeredClassLoader.Builder()
+                    .setParent(builder.getParent())
+                    .setLoadMode(builder.getLoadMode())
+                    .setCodeLayers(unchangedLayers)
+                    .buildFromCodeLayersReusing((LayeredClassLoader)getSourceClassLoader(loader));
+            final List<Code> changedCodeLayers = new LayeredClassLoader.Builder()
+                    .setParent(unchangedLayersClassLoader)
+                    .setLoadMode(builder.getLoadMode())
+                    .setSourcesLayers(changedSourcesLayers)
+                    .setCompileScheduler(builder.getCompileScheduler())
+                    .setSharedCodeRegistry(builder.getSharedCodeRegistry())
+                    .buildFromSourcesLayers()
+                    .getCodeLayers();
+            for (int i = 0; i < changedCodeLayers.size(); i++) {
+                compiledLayers.add(new CompiledSourcesLayer(changedSourcesLayers.get(i), lastModifiedList.get(i),
+                        changedCodeLayers.get(i)));
+            }
+            codeLayers.addAll(changedCodeLayers);
+        }
+
+        // unchanged code layers are referenced by both the previous and the new code layers
+        final SharedCodeRegistry sharedCodeRegistry = builder.getSharedCodeRegistry();
+        if (sharedCodeRegistry != null) {
+            unchangedCodeLayers.forEach(sharedCodeRegistry::retain);
+        }
+        setRegisteredCodeLayers(codeLayers);
+        compiledSourcesLayers = compiledLayers;
+    }
+
+    // sources layer with its last modified before compiling and the resulting code
+    private static class CompiledSourcesLayer {
+        private final Sources sources;
+        private final long lastModified;
+        private final Code code;
+        private CompiledSourcesLayer(final Sources sources, final long lastModified, final Code code) {
+            this.sources = sources;
+            this.lastModified = lastModified;
+            this.code = code;
+        }
     }
 
     @Override
     public void close() {
+        final CompletableFuture<?>[] futures;
         write.lock();
         try {
             final Set<Loader> loaders = new HashSet<>();
             loaders.addAll(attachedLoaders.keySet());
             loaders.addAll(detachedLoaders.keySet());
-            loaders.forEach(Loader::close);
+            futures = loaders.stream().map(Loader::closeAsync).toArray(CompletableFuture<?>[]::new);
         } finally {
             write.unlock();
         }
+        // classes of all loaders are released in the background, wait outside of the lock
+        CompletableFuture.allOf(futures).join();
+        if (builder.getSharedCodeRegistry() != null) {
+            releaseCodeLayers(registeredCodeLayers.getAndSet(new LinkedList<>()));
+            if (isWithTopCodeCache) {
+                topCodeCache.clear();
+            }
+        }
     }
 
     @Override
@@ -273,7 +717,7 @@ public class LayeredEngine implements Engine {
     }
     
     // class loader based on a loader of this engine
-    private class LoaderBasedClassLoader extends ClassLoader {
+    private class LoaderBasedClassLoader extends ClassLoader implements CodeLayersProvider {
 
         private final Loader loader;
 
@@ -295,6 +739,11 @@ public class LayeredEngine implements Engine {
             return loader.getSourceClassLoader(engineId).loadClass(name);
         }
 
+        @Override
+        public List<Code> getCodeLayers() {
+            return ((LayeredClassLoader)loader.getSourceClassLoader(engineId)).getCodeLayers();
+        }
+
     }
 
     /**
@@ -317,6 +766,20 @@ public class LayeredEngine implements Engine {
      * @author Made in Switzerland.
      */
     public static class Builder {
+
+        /**
+         * default timeout for warming up code layers in milliseconds (60 seconds).
+         *
+         * @since 3.2
+         */
+        public static final long DEFAULT_WARM_UP_TIMEOUT_MS = 60_000;
+
+        /**
+         * default delay before classes are released automatically in milliseconds (60 seconds).
+         *
+         * @since 3.2
+         */
+        public static final long DEFAULT_AUTO_RELEASE_DELAY_MS = 60_000;
         
         private boolean isCommitted;
         
@@ -331,6 +794,24 @@ public class LayeredEngine implements Engine {
         
         private boolean allowSameClassNamesInMultipleCodeLayers = true;
         private boolean allowSameClassNamesInParentAndCodeLayers = true;
+
+        private boolean isMemoryLean;
+        private LoaderIsolation loaderIsolation;
+
+        private boolean isReuseUnchangedCodeLayers;
+        private int negativeLookupCacheSize;
+        private int topLoaderBucketSize;
+        private double topLoaderBucketMaxStaleRatio = -1;
+        private boolean isTopLoaderHiddenClasses;
+        private CompileScheduler compileScheduler;
+        private SharedCodeRegistry sharedCodeRegistry;
+
+        private boolean isAutoReleaseClasses;
+        private long autoReleaseDelayMs = -1;
+
+        private int warmUpThreads;
+        private long warmUpTimeoutMs = -1;
+        private boolean isWarmUpMetaClasses = true;
         
         /**
          * constructor.
@@ -473,6 +954,306 @@ public class LayeredEngine implements Engine {
             return this;
         }
 
+        /**
+         * sets whether to keep code layers memory-lean, default is false.
+         * <p>
+         * If true, code layers are wrapped in {@link LeanCode} when set,
+         * which spills the bytes of each class to a compressed store once
+         * all class loaders of this engine that share the code have defined
+         * the class, and decompresses them on demand if a further class
+         * loader needs them (e.g. a new attached or detached loader).
+         * Code layers that are already {@link LeanCode} or {@link MappedCode}
+         * are used as they are.
+         *
+         * @param isMemoryLean whether to keep code layers memory-lean
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setMemoryLean(final boolean isMemoryLean) {
+            check();
+            this.isMemoryLean = isMemoryLean;
+            return this;
+        }
+
+        /**
+         * sets the isolation level of new attached and detached loaders,
+         * default is {@link LoaderIsolation#CODE_LAYERS_AND_TOP_CODE_CACHE}.
+         * <p>
+         * With {@link LoaderIsolation#TOP_CODE_CACHE_ONLY}, all loaders share
+         * the class loaders for code layers with the default loader of the engine,
+         * so that classes in code layers are defined only once per engine (resp.
+         * once per set of code layers) and new loaders are cheap to create.
+         * Static state of classes in code layers is then shared between loaders, too.
+         *
+         * @param loaderIsolation loader isolation
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setLoaderIsolation(final LoaderIsolation loaderIsolation) {
+            check();
+            this.loaderIsolation = loaderIsolation;
+            return this;
+        }
+
+        /**
+         * sets whether to reuse the class loaders of unchanged code layers when setting
+         * code layers, default is false.
+         * <p>
+         * If true, only the class loaders for code layers above the longest prefix
+         * of unchanged code layers (same {@link Code} instance or same content,
+         * see {@link CodeUtil#isSameContent(Code, Code)}) are created anew,
+         * so that classes in lower code layers are not defined again and keep
+         * their static state. Similarly, when setting code layers by source,
+         * only sources layers above the longest prefix of unchanged sources layers
+         * (same {@link Sources} instance with same last modified) are compiled.
+         *
+         * @param isReuseUnchangedCodeLayers whether to reuse class loaders of unchanged code layers
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setReuseUnchangedCodeLayers(final boolean isReuseUnchangedCodeLayers) {
+            check();
+            this.isReuseUnchangedCodeLayers = isReuseUnchangedCodeLayers;
+            return this;
+        }
+
+        /**
+         * sets the maximum number of names of classes not found when loading classes by name
+         * to cache per layered class loader, default is 0 (no caching).
+         * <p>
+         * See {@link LayeredClassLoader.Builder#setNegativeLookupCacheSize(int)}.
+         *
+         * @param negativeLookupCacheSize maximum number of names of classes not found to cache
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setNegativeLookupCacheSize(final int negativeLookupCacheSize) {
+            check();
+            this.negativeLookupCacheSize = negativeLookupCacheSize;
+            return this;
+        }
+
+        /**
+         * sets the maximum number of classes per top loader bucket,
+         * default is 0 (no buckets, one class loader per source in the top code cache).
+         * <p>
+         * See {@link LayeredClassLoader.Builder#setTopLoaderBucketSize(int)}.
+         *
+         * @param topLoaderBucketSize maximum number of classes per top loader bucket
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setTopLoaderBucketSize(final int topLoaderBucketSize) {
+            check();
+            this.topLoaderBucketSize = topLoaderBucketSize;
+            return this;
+        }
+
+        /**
+         * sets the maximum ratio of stale classes in a top loader bucket before the bucket is retired,
+         * default is {@link LayeredClassLoader.Builder#DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO}.
+         * <p>
+         * See {@link LayeredClassLoader.Builder#setTopLoaderBucketMaxStaleRatio(double)}.
+         *
+         * @param topLoaderBucketMaxStaleRatio maximum ratio of stale classes in a top loader bucket
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setTopLoaderBucketMaxStaleRatio(final double topLoaderBucketMaxStaleRatio) {
+            check();
+            this.topLoaderBucketMaxStaleRatio = topLoaderBucketMaxStaleRatio;
+            return this;
+        }
+
+        /**
+         * sets whether to define classes of sources from the top code cache as hidden classes
+         * where possible, default is false.
+         * <p>
+         * See {@link LayeredClassLoader.Builder#setTopLoaderHiddenClasses(boolean)}.
+         *
+         * @param isTopLoaderHiddenClasses whether to define classes from the top code cache as hidden classes
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setTopLoaderHiddenClasses(final boolean isTopLoaderHiddenClasses) {
+            check();
+            this.isTopLoaderHiddenClasses = isTopLoaderHiddenClasses;
+            return this;
+        }
+
+        /**
+         * sets the compile scheduler, default is none (compile without admission control).
+         * <p>
+         * Changed code layers are compiled with priority {@link CompileScheduler.Priority#BACKGROUND}.
+         * If no top code cache factory is set, the default one uses the same scheduler, so that
+         * top code cache misses are compiled with priority {@link CompileScheduler.Priority#INTERACTIVE}
+         * (else see {@link DefaultTopCodeCacheFactory.Builder#setCompileScheduler(CompileScheduler)}).
+         *
+         * @param compileScheduler compile scheduler
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setCompileScheduler(final CompileScheduler compileScheduler) {
+            check();
+            this.compileScheduler = compileScheduler;
+            return this;
+        }
+
+        /**
+         * sets the shared code registry, default is none (compile independently of other engines).
+         * <p>
+         * If set, code layers set by source are obtained from the registry, compiling only if
+         * not already registered, and released in the registry when replaced or when the engine
+         * is closed. If no top code cache factory is set, the default one uses the same registry
+         * (else see {@link DefaultTopCodeCacheFactory.Builder#setSharedCodeRegistry(SharedCodeRegistry)}),
+         * and cached top code is also released in the registry when the engine is closed.
+         * <p>
+         * Only compiled code is shared, each engine still defines its own classes.
+         * With memory lean code layers, top code and code layers compiled on top of
+         * reused unchanged code layers are compiled against the lean code layers of
+         * this engine and hence not shared with other engines.
+         *
+         * @param sharedCodeRegistry shared code registry
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setSharedCodeRegistry(final SharedCodeRegistry sharedCodeRegistry) {
+            check();
+            this.sharedCodeRegistry = sharedCodeRegistry;
+            return this;
+        }
+
+        /**
+         * sets whether to release classes automatically, default is false.
+         * <p>
+         * If true, classes are released with the class releaser on a background thread,
+         * after the auto release delay, for class loaders replaced when code layers are set
+         * and for class loaders of loaders that have become unreachable (without having
+         * been closed). Classes of code layers whose class loaders are shared with other
+         * class loaders are not released automatically
+         * (see {@link LayeredClassLoader#releaseUnsharedClasses(ClassReleaser)}).
+         * <p>
+         * Only use if classes of replaced or unreachable loaders are no longer used
+         * after the auto release delay, see also {@link Loader#close()}.
+         *
+         * @param isAutoReleaseClasses whether to release classes automatically
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setAutoReleaseClasses(final boolean isAutoReleaseClasses) {
+            check();
+            this.isAutoReleaseClasses = isAutoReleaseClasses;
+            return this;
+        }
+
+        /**
+         * sets the delay in milliseconds before classes are released automatically,
+         * default is {@link #DEFAULT_AUTO_RELEASE_DELAY_MS}.
+         * <p>
+         * Only relevant if releasing classes automatically, see {@link #setAutoReleaseClasses(boolean)}.
+         *
+         * @param autoReleaseDelayMs delay in milliseconds before classes are released automatically
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setAutoReleaseDelayMs(final long autoReleaseDelayMs) {
+            check();
+            this.autoReleaseDelayMs = autoReleaseDelayMs;
+            return this;
+        }
+
+        /**
+         * sets the number of threads for warming up code layers, default is 0 (no warm-up).
+         * <p>
+         * If greater than 0, all classes in new code layers are defined in parallel
+         * in the class loaders of all attached loaders before the code layers are set,
+         * so that the first calls after setting code layers do not have to define
+         * classes serially. Loading classes keeps using the previous code layers
+         * during warm-up.
+         *
+         * @param warmUpThreads number of threads for warming up code layers
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setWarmUpThreads(final int warmUpThreads) {
+            check();
+            this.warmUpThreads = warmUpThreads;
+            return this;
+        }
+
+        /**
+         * sets the timeout for warming up code layers in milliseconds,
+         * default is {@link #DEFAULT_WARM_UP_TIMEOUT_MS}.
+         * <p>
+         * If warm-up takes longer, code layers are set anyway and the
+         * remaining classes are defined when needed.
+         *
+         * @param warmUpTimeoutMs timeout for warming up code layers in milliseconds
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setWarmUpTimeoutMs(final long warmUpTimeoutMs) {
+            check();
+            this.warmUpTimeoutMs = warmUpTimeoutMs;
+            return this;
+        }
+
+        /**
+         * sets whether to also create Groovy MetaClasses of script classes
+         * when warming up code layers, default is true.
+         *
+         * @param isWarmUpMetaClasses whether to also create Groovy MetaClasses when warming up
+         *
+         * @return this, for chaining calls
+         * @throws IllegalStateException if the builder had already been used to build an instance
+         *
+         * @since 3.2
+         */
+        public Builder setWarmUpMetaClasses(final boolean isWarmUpMetaClasses) {
+            check();
+            this.isWarmUpMetaClasses = isWarmUpMetaClasses;
+            return this;
+        }
+
         /**
          * gets the parent class loader.
          *
@@ -560,6 +1341,160 @@ public class LayeredEngine implements Engine {
         public boolean isAllowSameClassNamesInParentAndCodeLayers() {
             return allowSameClassNamesInParentAndCodeLayers;
         }
+
+        /**
+         * gets whether to keep code layers memory-lean.
+         *
+         * @return whether to keep code layers memory-lean
+         *
+         * @since 3.2
+         */
+        public boolean isMemoryLean() {
+            return isMemoryLean;
+        }
+
+        /**
+         * gets the isolation level of new attached and detached loaders.
+         *
+         * @return loader isolation
+         *
+         * @since 3.2
+         */
+        public LoaderIsolation getLoaderIsolation() {
+            return loaderIsolation;
+        }
+        
+        /**
+         * gets whether to reuse the class loaders of unchanged code layers when setting code layers.
+         *
+         * @return whether to reuse class loaders of unchanged code layers
+         *
+         * @since 3.2
+         */
+        public boolean isReuseUnchangedCodeLayers() {
+            return isReuseUnchangedCodeLayers;
+        }
+
+        /**
+         * gets the maximum number of names of classes not found to cache per layered class loader.
+         *
+         * @return maximum number of names of classes not found to cache
+         *
+         * @since 3.2
+         */
+        public int getNegativeLookupCacheSize() {
+            return negativeLookupCacheSize;
+        }
+
+        /**
+         * gets the maximum number of classes per top loader bucket.
+         *
+         * @return maximum number of classes per top loader bucket
+         *
+         * @since 3.2
+         */
+        public int getTopLoaderBucketSize() {
+            return topLoaderBucketSize;
+        }
+
+        /**
+         * gets the maximum ratio of stale classes in a top loader bucket.
+         *
+         * @return maximum ratio of stale classes in a top loader bucket
+         *
+         * @since 3.2
+         */
+        public double getTopLoaderBucketMaxStaleRatio() {
+            return topLoaderBucketMaxStaleRatio;
+        }
+
+        /**
+         * gets whether to define classes of sources from the top code cache as hidden classes where possible.
+         *
+         * @return whether to define classes from the top code cache as hidden classes
+         *
+         * @since 3.2
+         */
+        public boolean isTopLoaderHiddenClasses() {
+            return isTopLoaderHiddenClasses;
+        }
+
+        /**
+         * gets the compile scheduler.
+         *
+         * @return compile scheduler, null if none
+         *
+         * @since 3.2
+         */
+        public CompileScheduler getCompileScheduler() {
+            return compileScheduler;
+        }
+
+        /**
+         * gets the shared code registry.
+         *
+         * @return shared code registry, null if none
+         *
+         * @since 3.2
+         */
+        public SharedCodeRegistry getSharedCodeRegistry() {
+            return sharedCodeRegistry;
+        }
+
+        /**
+         * gets whether to release classes automatically.
+         *
+         * @return whether to release classes automatically
+         *
+         * @since 3.2
+         */
+        public boolean isAutoReleaseClasses() {
+            return isAutoReleaseClasses;
+        }
+
+        /**
+         * gets the delay in milliseconds before classes are released automatically.
+         *
+         * @return delay in milliseconds before classes are released automatically
+         *
+         * @since 3.2
+         */
+        public long getAutoReleaseDelayMs() {
+            return autoReleaseDelayMs;
+        }
+
+        /**
+         * gets the number of threads for warming up code layers.
+         *
+         * @return number of threads for warming up code layers
+         *
+         * @since 3.2
+         */
+        public int getWarmUpThreads() {
+            return warmUpThreads;
+        }
+
+        /**
+         * gets the timeout for warming up code layers in milliseconds.
+         *
+         * @return timeout for warming up code layers in milliseconds
+         *
+         * @since 3.2
+         */
+        public long getWarmUpTimeoutMs() {
+            return warmUpTimeoutMs;
+        }
+
+        /**
+         * gets whether to also create Groovy MetaClasses of script classes when warming up code layers.
+         *
+         * @return whether to also create Groovy MetaClasses when warming up
+         *
+         * @since 3.2
+         */
+        public boolean isWarmUpMetaClasses() {
+            return isWarmUpMetaClasses;
+        }
         
         private Builder commit() {
             if (!isCommitted) {
@@ -573,11 +1508,26 @@ public class LayeredEngine implements Engine {
                     topLoadMode = LoadMode.PARENT_FIRST;
                 }
                 if (topCodeCacheFactory == null) {
-                    topCodeCacheFactory = new DefaultTopCodeCacheFactory.Builder().build();
+                    topCodeCacheFactory = new DefaultTopCodeCacheFactory.Builder()
+                            .setCompileScheduler(compileScheduler)
+                            .setSharedCodeRegistry(sharedCodeRegistry)
+                            .build();
                 }
                 if (classReleaser == null) {
                     classReleaser = DefaultClassReleaser.getInstance();
                 }
+                if (loaderIsolation == null) {
+                    loaderIsolation = LoaderIsolation.CODE_LAYERS_AND_TOP_CODE_CACHE;
+                }
+                if (warmUpTimeoutMs < 0) {
+                    warmUpTimeoutMs = DEFAULT_WARM_UP_TIMEOUT_MS;
+                }
+                if (autoReleaseDelayMs < 0) {
+                    autoReleaseDelayMs = DEFAULT_AUTO_RELEASE_DELAY_MS;
+                }
+                if (topLoaderBucketMaxStaleRatio < 0) {
+                    topLoaderBucketMaxStaleRatio = LayeredClassLoader.Builder.DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO;
+                }
                 isCommitted = true;
             }
             return this;
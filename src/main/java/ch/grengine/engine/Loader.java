@@ -21,6 +21,7 @@ import ch.grengine.load.ClassReleaser;
 import ch.grengine.load.SourceClassLoader;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
 
 import static java.util.Objects.requireNonNull;
 
@@ -181,12 +182,30 @@ public class Loader implements Closeable {
      * Generally call only when really done using this loader and
      * all loaded classes; subsequently trying to use this loader
      * or its classes results generally in undefined behavior.
+     * <p>
+     * Returns immediately, classes are released asynchronously
+     * on a dedicated thread, see {@link #closeAsync()}.
      *
      * @since 1.1
      */
     @Override
     public void close() {
-        sourceClassLoader.releaseClasses(classReleaser);
+        closeAsync();
+    }
+
+    /**
+     * release metadata for all classed ever loaded using this loader asynchronously,
+     * like {@link #close()}, but returning a future for observing completion.
+     * <p>
+     * Classes are collected in the calling thread and released in a single batch
+     * on a dedicated thread with {@link ClassReleaser#releaseAll(java.util.Collection)}.
+     *
+     * @return future that completes once all classes have been released
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Void> closeAsync() {
+        return sourceClassLoader.releaseClassesAsync(classReleaser);
     }
     
 }
@@ -0,0 +1,51 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.engine;
+
+
+/**
+ * Isolation level of loaders created by an engine.
+ * <p>
+ * Determines which classes loaded via a new loader are loaded by separate
+ * class loaders, i.e. have their own static state and are defined again,
+ * as opposed to shared with other loaders of the same engine.
+ * 
+ * @since 3.2
+ * 
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public enum LoaderIsolation {
+
+    /**
+     * classes from code layers and from the top code cache
+     * are loaded by separate class loaders for each loader.
+     * 
+     * @since 3.2
+     */
+    CODE_LAYERS_AND_TOP_CODE_CACHE,
+
+    /**
+     * only classes from the top code cache are loaded by separate class loaders
+     * for each loader, classes from code layers are loaded by class loaders shared
+     * with all other loaders of the engine (for the same code layers),
+     * which makes creating new loaders cheap.
+     * 
+     * @since 3.2
+     */
+    TOP_CODE_CACHE_ONLY
+
+}
@@ -0,0 +1,98 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.except;
+
+import ch.grengine.sources.Sources;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Exception thrown when (Groovy script) compilation was aborted,
+ * because cancelled or because a compile budget was exceeded.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class CompileAbortedException extends CompileException {
+
+    private static final long serialVersionUID = -7064452473268097551L;
+
+    /**
+     * Reason why compilation was aborted.
+     *
+     * @since 3.2
+     */
+    public enum Reason {
+        /**
+         * cancelled, see {@link ch.grengine.code.Compiler#cancel()}.
+         *
+         * @since 3.2
+         */
+        CANCELLED,
+        /**
+         * maximum compile time exceeded.
+         *
+         * @since 3.2
+         */
+        TIME,
+        /**
+         * maximum source size exceeded.
+         *
+         * @since 3.2
+         */
+        SOURCE_SIZE,
+        /**
+         * maximum number of classes exceeded.
+         *
+         * @since 3.2
+         */
+        CLASS_COUNT
+    }
+
+    private final Reason reason;
+
+    /**
+     * constructor from exception message, reason and sources for which compilation was aborted.
+     *
+     * @param message message
+     * @param reason reason
+     * @param sources sources for which compilation was aborted
+     *
+     * @throws NullPointerException if the reason is null
+     *
+     * @since 3.2
+     */
+    public CompileAbortedException(final String message, final Reason reason, final Sources sources) {
+        super(message, sources);
+        this.reason = requireNonNull(reason, "Reason is null.");
+    }
+
+    /**
+     * gets the reason why compilation was aborted.
+     *
+     * @return reason
+     *
+     * @since 3.2
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.code.Bytecode;
+import ch.grengine.code.Code;
+import ch.grengine.code.SingleSourceCode;
+import ch.grengine.source.Source;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Code of a bucket of the top code cache of a {@link LayeredClassLoader},
+ * i.e. code of several sources that is loaded by a single shared
+ * {@link BytecodeClassLoader}.
+ * <p>
+ * Code for sources can be added, replacing code for the same source,
+ * as long as there are no class name conflicts and the bucket is not full.
+ * Bytecode of replaced code remains available, because its classes may
+ * already have been defined, and is counted as stale.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class BucketCode implements Code {
+
+    private final String sourcesName;
+    private final int maxClassCount;
+    private final Map<Source,SingleSourceCode> codeBySource = new ConcurrentHashMap<>();
+    private final Map<String,Bytecode> bytecodeMap = new ConcurrentHashMap<>();
+    private final Set<Source> staleSources = new HashSet<>();
+    private int staleClassCount;
+    private boolean isRetired;
+
+    /**
+     * constructor.
+     *
+     * @param sourcesName sources name
+     * @param maxClassCount maximum number of classes (live or stale) in the bucket
+     *
+     * @since 3.2
+     */
+    BucketCode(final String sourcesName, final int maxClassCount) {
+        this.sourcesName = sourcesName;
+        this.maxClassCount = maxClassCount;
+    }
+
+    /**
+     * checks whether the given code can be added to this bucket, i.e. whether
+     * the bucket has not been retired, has still room for the classes of the code
+     * and none of the classes of the code has the same name as a class in the bucket.
+     * <p>
+     * An empty bucket accepts any code that has no conflicts, even if it has more classes
+     * than the maximum number of classes.
+     *
+     * @param code code
+     *
+     * @return whether the code can be added
+     *
+     * @since 3.2
+     */
+    synchronized boolean canAdd(final SingleSourceCode code) {
+        if (isRetired) {
+            return false;
+        }
+        final Set<String> classNames = code.getClassNameSet();
+        if (!bytecodeMap.isEmpty() && bytecodeMap.size() + classNames.size() > maxClassCount) {
+            return false;
+        }
+        for (String className : classNames) {
+            if (bytecodeMap.containsKey(className)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * adds the given code, replacing code for the same source, if any,
+     * which then becomes stale.
+     *
+     * @param code code
+     *
+     * @since 3.2
+     */
+    synchronized void add(final SingleSourceCode code) {
+        for (String className : code.getClassNameSet()) {
+            bytecodeMap.put(className, code.getBytecode(className));
+        }
+        final SingleSourceCode replacedCode = codeBySource.put(code.getSource(), code);
+        if (replacedCode != null && !staleSources.remove(code.getSource())) {
+            staleClassCount += replacedCode.getClassNameSet().size();
+        }
+    }
+
+    /**
+     * marks the code for the given source as stale, typically because
+     * the source has been added to another bucket.
+     * <p>
+     * The code for the source remains available, because the bucket
+     * may still be in use for the source concurrently.
+     *
+     * @param source source
+     *
+     * @since 3.2
+     */
+    synchronized void markStale(final Source source) {
+        final SingleSourceCode code = codeBySource.get(source);
+        if (code != null && staleSources.add(source)) {
+            staleClassCount += code.getClassNameSet().size();
+        }
+    }
+
+    /**
+     * gets whether the ratio of stale classes has reached the given ratio.
+     *
+     * @param maxStaleRatio maximum ratio of stale classes
+     *
+     * @return whether the ratio of stale classes has reached the given ratio
+     *
+     * @since 3.2
+     */
+    synchronized boolean isStaleRatioReached(final double maxStaleRatio) {
+        final int classCount = bytecodeMap.size();
+        return classCount > 0 && staleClassCount >= maxStaleRatio * classCount;
+    }
+
+    /**
+     * retires the bucket, i.e. no code can be added anymore.
+     *
+     * @since 3.2
+     */
+    synchronized void retire() {
+        isRetired = true;
+    }
+
+    /**
+     * gets whether the bucket has been retired.
+     *
+     * @return whether the bucket has been retired
+     *
+     * @since 3.2
+     */
+    synchronized boolean isRetired() {
+        return isRetired;
+    }
+
+    /**
+     * gets the number of stale classes.
+     *
+     * @return number of stale classes
+     *
+     * @since 3.2
+     */
+    synchronized int getStaleClassCount() {
+        return staleClassCount;
+    }
+
+    /**
+     * gets the number of classes, live or stale.
+     *
+     * @return number of classes
+     *
+     * @since 3.2
+     */
+    int getClassCount() {
+        return bytecodeMap.size();
+    }
+
+    @Override
+    public String getSourcesName() {
+        return sourcesName;
+    }
+
+    @Override
+    public boolean isForSource(final Source source) {
+        return codeBySource.containsKey(source);
+    }
+
+    @Override
+    public String getMainClassName(final Source source) {
+        return getCode(source).getMainClassName();
+    }
+
+    @Override
+    public Set<String> getClassNames(final Source source) {
+        return getCode(source).getClassNames();
+    }
+
+    @Override
+    public long getLastModifiedAtCompileTime(final Source source) {
+        return getCode(source).getLastModifiedAtCompileTime();
+    }
+
+    @Override
+    public List<String> getVariableNames(final Source source) {
+        return getCode(source).getVariableNames(source);
+    }
+
+    @Override
+    public Set<Source> getSourceSet() {
+        return Collections.unmodifiableSet(codeBySource.keySet());
+    }
+
+    @Override
+    public Bytecode getBytecode(final String className) {
+        return bytecodeMap.get(className);
+    }
+
+    @Override
+    public Set<String> getClassNameSet() {
+        return Collections.unmodifiableSet(bytecodeMap.keySet());
+    }
+
+    private SingleSourceCode getCode(final Source source) {
+        final SingleSourceCode code = codeBySource.get(source);
+        if (code == null) {
+            throw new IllegalArgumentException("Source is not for this code. Source: " + source);
+        }
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[sourcesName='" + sourcesName + "', sources:" + codeBySource.size() +
+                ", classes:" + bytecodeMap.size() + ", staleClasses:" + getStaleClassCount() + "]";
+    }
+
+}
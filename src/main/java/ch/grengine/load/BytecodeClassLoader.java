@@ -19,15 +19,23 @@ package ch.grengine.load;
 import ch.grengine.source.Source;
 import ch.grengine.code.Bytecode;
 import ch.grengine.code.Code;
+import ch.grengine.code.CodeLayersProvider;
+import ch.grengine.code.LeanCode;
 import ch.grengine.except.LoadException;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Objects.requireNonNull;
 
@@ -45,7 +53,7 @@ import static java.util.Objects.requireNonNull;
  * @author Alain Stalder
  * @author Made in Switzerland.
  */
-public class BytecodeClassLoader extends SourceClassLoader {
+public class BytecodeClassLoader extends SourceClassLoader implements CodeLayersProvider {
 
     // available in Java 9 and later
     private static final Method GET_DEFINED_PACKAGE_METHOD;
@@ -57,12 +65,16 @@ public class BytecodeClassLoader extends SourceClassLoader {
             method = null;
         }
         GET_DEFINED_PACKAGE_METHOD = method;
+        // classes are defined with locks per class name, see loadClassFromBytecode()
+        registerAsParallelCapable();
     }
     
     private final LoadMode loadMode;
     private final Code code;
     private final Map<String,Object> locks = new HashMap<>();
     private final Queue<WeakReference<Class<?>>> classQueue = new ConcurrentLinkedQueue<>();
+    // number of layered class loaders using this as a code layer loader
+    private final AtomicInteger referenceCount = new AtomicInteger();
     
     /**
      * constructor.
@@ -81,6 +93,9 @@ public class BytecodeClassLoader extends SourceClassLoader {
         requireNonNull(code, "Code is null.");
         this.loadMode = loadMode;
         this.code = code;
+        if (code instanceof LeanCode) {
+            ((LeanCode)code).registerLoader(this);
+        }
     }
     
     /*
@@ -98,7 +113,8 @@ public class BytecodeClassLoader extends SourceClassLoader {
      *   from bytecode, then tries the other two options.
      */
 
-    private Class<?> loadClassFromBytecode(final String name) {
+    // package scope for warming up
+    Class<?> loadClassFromBytecode(final String name) {
         final Bytecode bc = code.getBytecode(name);
         if (bc == null) {
             return null;
@@ -132,6 +148,9 @@ public class BytecodeClassLoader extends SourceClassLoader {
             if ((clazz = findLoadedClass(name)) == null) {
                 clazz = defineClass(name, bc.getBytes());
                 classQueue.add(new WeakReference<>(clazz));
+                if (code instanceof LeanCode) {
+                    ((LeanCode)code).classDefined(name);
+                }
             }
         }
 
@@ -177,8 +196,8 @@ public class BytecodeClassLoader extends SourceClassLoader {
             return clazz;
         }
         
-        // not found
-        throw new ClassNotFoundException(name);
+        // not found (typically caught by the class loader of the next layer)
+        throw new StacklessClassNotFoundException(name);
     }
 
     
@@ -319,6 +338,39 @@ public class BytecodeClassLoader extends SourceClassLoader {
         } while (ref != null);
     }
 
+    @Override
+    public CompletableFuture<Void> releaseClassesAsync(final ClassReleaser releaser) {
+        final List<Class<?>> classes = new ArrayList<>();
+        drainClasses(classes);
+        return releaser.releaseAll(classes);
+    }
+
+    // package scope for layered class loaders
+    void drainClasses(final Collection<Class<?>> classes) {
+        WeakReference<Class<?>> ref;
+        while ((ref = classQueue.poll()) != null) {
+            final Class<?> clazz = ref.get();
+            if (clazz != null) {
+                classes.add(clazz);
+            }
+        }
+    }
+
+    // package scope for layered class loaders
+    void acquire() {
+        referenceCount.incrementAndGet();
+    }
+
+    // package scope for layered class loaders, returns true if no longer used by any layered class loader
+    boolean release() {
+        return referenceCount.updateAndGet(count -> count > 0 ? count - 1 : 0) == 0;
+    }
+
+    // package scope for unit tests
+    int getReferenceCount() {
+        return referenceCount.get();
+    }
+
     /**
      * gets the code.
      *
@@ -330,6 +382,18 @@ public class BytecodeClassLoader extends SourceClassLoader {
         return code;
     }
 
+    /**
+     * gets the code as the only code layer.
+     *
+     * @return list with the code
+     *
+     * @since 3.2
+     */
+    @Override
+    public List<Code> getCodeLayers() {
+        return Collections.singletonList(code);
+    }
+
     // uses getDefinedPackage() for Java 9 and later, with fallback to getPackage()
     @SuppressWarnings("deprecation")
     private Package getDefinedPackageOrPackage(String name) {
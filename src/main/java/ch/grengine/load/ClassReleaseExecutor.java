@@ -0,0 +1,68 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Dedicated executor for releasing class metadata asynchronously,
+ * see {@link ClassReleaser#releaseAll(java.util.Collection)}.
+ * <p>
+ * A single daemon thread is shared by all class releasers and created lazily,
+ * so that batches are released one after the other in submission order.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class ClassReleaseExecutor {
+
+    // package scope for unit tests
+    static final String THREAD_NAME = "grengine-class-releaser";
+
+    private static final Object LOCK = new Object();
+    private static volatile ExecutorService executor;
+
+    private ClassReleaseExecutor() {
+    }
+
+    /**
+     * gets the shared executor, creating it if not yet created.
+     *
+     * @return executor, never null
+     *
+     * @since 3.2
+     */
+    static ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (LOCK) {
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(r -> {
+                        final Thread thread = new Thread(r, THREAD_NAME);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+}
@@ -16,6 +16,13 @@
 
 package ch.grengine.load;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Objects.requireNonNull;
+
 /**
  * Interface for releasing class metadata when done using it.
  * <p>
@@ -41,4 +48,33 @@ public interface ClassReleaser {
      */
     void release(Class<?> clazz);
 
+    /**
+     * release class metadata of all given classes asynchronously, in a single batch
+     * on a dedicated daemon thread shared by all class releasers.
+     * <p>
+     * The given collection is copied before returning, exceptions thrown when releasing
+     * individual classes are ignored.
+     *
+     * @param classes the classes to release
+     *
+     * @return future that completes once all classes have been released
+     * @throws NullPointerException if the classes are null
+     *
+     * @since 3.2
+     */
+    default CompletableFuture<Void> releaseAll(final Collection<Class<?>> classes) {
+        final List<Class<?>> classesToRelease = new ArrayList<>(requireNonNull(classes, "Classes are null."));
+        if (classesToRelease.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            for (Class<?> clazz : classesToRelease) {
+                try {
+                    release(clazz);
+                } catch (Exception ignore) {
+                }
+            }
+        }, ClassReleaseExecutor.getExecutor());
+    }
+
 }
@@ -16,6 +16,9 @@
 
 package ch.grengine.load;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
@@ -36,10 +39,11 @@ import org.codehaus.groovy.runtime.InvokerHelper;
  */
 public class DefaultClassReleaser implements ClassReleaser {
 
-    private Object globalClassSet;
-    private Method globalClassSetRemoveMethod;
-    private Object globalClassValue;
-    private Method globalClassValueRemoveMethod;
+    // ClassInfo#globalClassSet has been in Groovy since at least 1.7.5,
+    // but only contains a remove(Object clazz) method before 2.4.0
+    private static final MethodHandle GLOBAL_CLASS_SET_REMOVE = getRemoveHandle("globalClassSet", Object.class);
+    // ClassInfo#globalClassValue has been added to Groovy in 2.4.0
+    private static final MethodHandle GLOBAL_CLASS_VALUE_REMOVE = getRemoveHandle("globalClassValue", Class.class);
 
     private static ClassReleaser releaser;
     private static final Object LOCK = new Object();
@@ -61,28 +65,22 @@ public class DefaultClassReleaser implements ClassReleaser {
     }
 
     private DefaultClassReleaser() {
+    }
 
-        // ClassInfo#globalClassSet has been in Groovy since at least 1.7.5,
-        // but only contains a remove(Object clazz) method before 2.4.0
-        try {
-            final Field globalClassSetField = ClassInfo.class.getDeclaredField("globalClassSet");
-            globalClassSetField.setAccessible(true);
-            globalClassSet = globalClassSetField.get(ClassInfo.class);
-            globalClassSetRemoveMethod = globalClassSet.getClass().getMethod("remove", Object.class);
-            globalClassSetRemoveMethod.setAccessible(true);
-        } catch (Exception ignore) {
-            globalClassSetRemoveMethod = null;
-        }
-
-        // ClassInfo#globalClassValue has been added to Groovy in 2.4.0
+    // gets a method handle of type (Class)void for the remove method of the object
+    // in the given static field of ClassInfo, bound to that object, or null if not available
+    private static MethodHandle getRemoveHandle(final String fieldName, final Class<?> parameterType) {
         try {
-            final Field globalClassValueField = ClassInfo.class.getDeclaredField("globalClassValue");
-            globalClassValueField.setAccessible(true);
-            globalClassValue = globalClassValueField.get(ClassInfo.class);
-            globalClassValueRemoveMethod = globalClassValue.getClass().getMethod("remove", Class.class);
-            globalClassValueRemoveMethod.setAccessible(true);
+            final Field field = ClassInfo.class.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            final Object target = field.get(ClassInfo.class);
+            final Method removeMethod = target.getClass().getMethod("remove", parameterType);
+            removeMethod.setAccessible(true);
+            return MethodHandles.lookup().unreflect(removeMethod)
+                    .bindTo(target)
+                    .asType(MethodType.methodType(void.class, Class.class));
         } catch (Exception ignore) {
-            globalClassValueRemoveMethod = null;
+            return null;
         }
     }
 
@@ -93,20 +91,25 @@ public class DefaultClassReleaser implements ClassReleaser {
         InvokerHelper.removeClass(clazz);
 
         // globalClassSet.remove(clazz);
-        if (globalClassSetRemoveMethod != null) {
+        if (GLOBAL_CLASS_SET_REMOVE != null) {
             try {
-                globalClassSetRemoveMethod.invoke(globalClassSet, clazz);
-            } catch (Exception ignore) {
+                GLOBAL_CLASS_SET_REMOVE.invokeExact(clazz);
+            } catch (Throwable ignore) {
             }
         }
 
         // globalClassValue.remove(clazz);
-        if (globalClassValueRemoveMethod != null) {
+        if (GLOBAL_CLASS_VALUE_REMOVE != null) {
             try {
-                globalClassValueRemoveMethod.invoke(globalClassValue, clazz);
-            } catch (Exception ignore) {
+                GLOBAL_CLASS_VALUE_REMOVE.invokeExact(clazz);
+            } catch (Throwable ignore) {
             }
         }
     }
 
+    // package scope for unit tests
+    static boolean isGlobalClassValueRemoveAvailable() {
+        return GLOBAL_CLASS_VALUE_REMOVE != null;
+    }
+
 }
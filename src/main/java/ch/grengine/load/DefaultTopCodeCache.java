@@ -16,6 +16,10 @@
 
 package ch.grengine.load;
 
+import ch.grengine.code.Bytecode;
+import ch.grengine.code.Code;
+import ch.grengine.code.CodeUtil;
+import ch.grengine.code.CompileScheduler;
 import ch.grengine.code.Compiler;
 import ch.grengine.code.CompilerFactory;
 import ch.grengine.code.SingleSourceCode;
@@ -23,10 +27,23 @@ import ch.grengine.code.groovy.DefaultGroovyCompiler;
 import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
 import ch.grengine.source.Source;
 import ch.grengine.source.SourceFactory;
+import ch.grengine.sources.Sources;
 import ch.grengine.sources.SourcesUtil;
 
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.util.Objects.requireNonNull;
 
@@ -35,6 +52,13 @@ import static java.util.Objects.requireNonNull;
  * Default implementation of the {@link SourceFactory} interface.
  * <p>
  * No automatic eviction of cached code.
+ * <p>
+ * Optionally, when the parent class loader changes, cached code is kept if all
+ * classes it had resolved against when compiled are unchanged in the code layers
+ * of the new parent (see {@link Builder#setKeepUnaffectedCodeOnParentChange(boolean)}).
+ * <p>
+ * Optionally, compiled code is obtained from a registry shared with other top code caches
+ * (see {@link Builder#setSharedCodeRegistry(SharedCodeRegistry)}).
  * 
  * @since 1.0
  * 
@@ -46,6 +70,11 @@ public class DefaultTopCodeCache implements TopCodeCache {
     private final Builder builder;
     private volatile State state;
     private final CompilerFactory compilerFactory;
+    private final boolean isKeepUnaffectedCodeOnParentChange;
+    private final CompileScheduler compileScheduler;
+    private final SharedCodeRegistry sharedCodeRegistry;
+    private final Map<Source,CompletableFuture<Void>> compilations = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
         
     /**
      * constructor from builder.
@@ -58,6 +87,9 @@ public class DefaultTopCodeCache implements TopCodeCache {
         this.builder = builder.commit();
         state = new State(builder.getParent());
         compilerFactory = builder.getCompilerFactory();
+        isKeepUnaffectedCodeOnParentChange = builder.isKeepUnaffectedCodeOnParentChange();
+        compileScheduler = builder.getCompileScheduler();
+        sharedCodeRegistry = builder.getSharedCodeRegistry();
     }
     
     @Override
@@ -70,23 +102,208 @@ public class DefaultTopCodeCache implements TopCodeCache {
             return code;
         }
         
-        synchronized(this) {
-            // prevent multiple compilations
-            code = stateNow.cache.get(source);
-            if (code != null && code.getLastModifiedAtCompileTime() == source.getLastModified()) {
+        // prevent multiple compilations of the same source, without holding a monitor
+        // while compiling, and allow compiling different sources concurrently
+        while (true) {
+            final CompletableFuture<Void> compilation = new CompletableFuture<>();
+            final CompletableFuture<Void> otherCompilation = compilations.putIfAbsent(source, compilation);
+            if (otherCompilation != null) {
+                otherCompilation.join();
+                code = stateNow.cache.get(source);
+                if (code != null && code.getLastModifiedAtCompileTime() == source.getLastModified()) {
+                    return code;
+                }
+                continue;
+            }
+            try {
+                code = stateNow.cache.get(source);
+                if (code != null && code.getLastModifiedAtCompileTime() == source.getLastModified()) {
+                    return code;
+                }
+                if (isKeepUnaffectedCodeOnParentChange && stateNow.parent != null) {
+                    final DependencyRecordingClassLoader recordingParent =
+                            new DependencyRecordingClassLoader(stateNow.parent);
+                    final Compiler compiler = compilerFactory.newCompiler(recordingParent);
+                    final AtomicBoolean isCompiled = new AtomicBoolean();
+                    code = compile(compiler, source, stateNow.parent, isCompiled);
+                    if (isCompiled.get()) {
+                        stateNow.dependencies.put(source,
+                                withReferencedClassNames(recordingParent.getClassNames(), stateNow.parent));
+                    } else {
+                        // obtained from the shared code registry, dependencies unknown, never kept
+                        stateNow.dependencies.remove(source);
+                    }
+                } else {
+                    final Compiler compiler = compilerFactory.newCompiler(stateNow.parent);
+                    code = compile(compiler, source, stateNow.parent, new AtomicBoolean());
+                }
+                putCode(stateNow, source, code);
                 return code;
+            } finally {
+                compilations.remove(source, compilation);
+                compilation.complete(null);
             }
-            final Compiler compiler = compilerFactory.newCompiler(stateNow.parent);
-            code = (SingleSourceCode)compiler.compile(SourcesUtil.sourceToSources(source, compilerFactory));
-            stateNow.cache.put(source, code);
-            return code;
         }
     }
     
+    @Override
+    public boolean isCompileNeeded(final Source source) {
+        requireNonNull(source, "Source is null.");
+        final SingleSourceCode code = state.cache.get(source);
+        return code == null || code.getLastModifiedAtCompileTime() != source.getLastModified();
+    }
+
+    /**
+     * requests to abort all compiles currently running in this cache, and in other
+     * caches with the same compiler factory, see {@link CompilerFactory#cancelAll()}.
+     *
+     * @return whether cancelling is supported by the compiler factory
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean cancelCompiles() {
+        return compilerFactory.cancelAll();
+    }
+
+    // sets isCompiled to true unless the code was obtained from the shared code registry without compiling
+    private SingleSourceCode compile(final Compiler compiler, final Source source, final ClassLoader parent,
+            final AtomicBoolean isCompiled) {
+        final Sources sources = SourcesUtil.sourceToSources(source, compilerFactory);
+        if (sharedCodeRegistry == null || parent == null) {
+            isCompiled.set(true);
+            return compile(compiler, sources);
+        }
+        return (SingleSourceCode)sharedCodeRegistry.acquire(sources, parent, () -> {
+            isCompiled.set(true);
+            return compile(compiler, sources);
+        });
+    }
+
+    private SingleSourceCode compile(final Compiler compiler, final Sources sources) {
+        if (compileScheduler == null) {
+            return (SingleSourceCode)compiler.compile(sources);
+        }
+        return (SingleSourceCode)compileScheduler.compile(compiler, sources, CompileScheduler.Priority.INTERACTIVE);
+    }
+
+    // with a shared code registry, each cached code holds one reference, released when the code
+    // is replaced or removed from the cache, or when the state is replaced (unless kept)
+    private void putCode(final State stateNow, final Source source, final SingleSourceCode code) {
+        if (sharedCodeRegistry == null) {
+            stateNow.cache.put(source, code);
+            return;
+        }
+        lock.lock();
+        try {
+            final SingleSourceCode previousCode = stateNow.cache.put(source, code);
+            if (stateNow != state) {
+                // state had already been replaced, its references have already been released
+                sharedCodeRegistry.release(code);
+            } else if (previousCode != null && previousCode != code) {
+                sharedCodeRegistry.release(previousCode);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseCodesNotIn(final State stateBefore, final State stateAfter) {
+        if (sharedCodeRegistry != null) {
+            stateBefore.cache.forEach((source, code) -> {
+                if (stateAfter == null || stateAfter.cache.get(source) != code) {
+                    sharedCodeRegistry.release(code);
+                }
+            });
+        }
+    }
+
     @Override
     public void setParent(final ClassLoader parent) {
         requireNonNull(parent, "Parent class loader is null.");
-        state = new State(parent);
+        if (!isKeepUnaffectedCodeOnParentChange && sharedCodeRegistry == null) {
+            state = new State(parent);
+            return;
+        }
+        lock.lock();
+        try {
+            final State stateBefore = state;
+            final State stateAfter = new State(parent);
+            if (isKeepUnaffectedCodeOnParentChange && isSameBaseParent(stateBefore.parent, parent)) {
+                final Map<String,Boolean> isUnchangedByClassName = new HashMap<>();
+                stateBefore.dependencies.forEach((source, classNames) -> {
+                    final SingleSourceCode code = stateBefore.cache.get(source);
+                    if (code != null && classNames.stream().allMatch(name -> isUnchangedByClassName.computeIfAbsent(
+                            name, n -> isUnchanged(n, stateBefore.parent, parent)))) {
+                        stateAfter.cache.put(source, code);
+                        stateAfter.dependencies.put(source, classNames);
+                    }
+                });
+            }
+            state = stateAfter;
+            releaseCodesNotIn(stateBefore, stateAfter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // whether both are layered class loaders with the same parent and load mode
+    private static boolean isSameBaseParent(final ClassLoader parentBefore, final ClassLoader parentAfter) {
+        if (!(parentBefore instanceof LayeredClassLoader) || !(parentAfter instanceof LayeredClassLoader)) {
+            return false;
+        }
+        final LayeredClassLoader layeredBefore = (LayeredClassLoader)parentBefore;
+        final LayeredClassLoader layeredAfter = (LayeredClassLoader)parentAfter;
+        return layeredBefore.getBuilder().getParent() == layeredAfter.getBuilder().getParent() &&
+                layeredBefore.getLoadMode() == layeredAfter.getLoadMode();
+    }
+
+    // whether the class name resolves to the same bytecode in the code layers before and after
+    private static boolean isUnchanged(final String className,
+            final ClassLoader parentBefore, final ClassLoader parentAfter) {
+        final List<byte[]> bytesBefore = getBytesInCodeLayers(className, (LayeredClassLoader)parentBefore);
+        final List<byte[]> bytesAfter = getBytesInCodeLayers(className, (LayeredClassLoader)parentAfter);
+        if (bytesBefore.size() != bytesAfter.size()) {
+            return false;
+        }
+        for (int i = 0; i < bytesBefore.size(); i++) {
+            if (!Arrays.equals(bytesBefore.get(i), bytesAfter.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // adds classes in code layers that are transitively referenced by recorded classes in code layers,
+    // because these are resolved via the defining class loader of the referencing class, not recorded
+    private static Set<String> withReferencedClassNames(final Set<String> classNames, final ClassLoader parent) {
+        if (!(parent instanceof LayeredClassLoader)) {
+            return classNames;
+        }
+        final LayeredClassLoader loader = (LayeredClassLoader)parent;
+        final Set<String> allClassNames = new HashSet<>(classNames);
+        final Deque<String> classNamesToVisit = new ArrayDeque<>(classNames);
+        while (!classNamesToVisit.isEmpty()) {
+            for (byte[] bytes : getBytesInCodeLayers(classNamesToVisit.pop(), loader)) {
+                for (String referencedClassName : CodeUtil.getReferencedClassNames(bytes)) {
+                    if (allClassNames.add(referencedClassName)) {
+                        classNamesToVisit.push(referencedClassName);
+                    }
+                }
+            }
+        }
+        return allClassNames;
+    }
+
+    private static List<byte[]> getBytesInCodeLayers(final String className, final LayeredClassLoader loader) {
+        final List<byte[]> bytesList = new LinkedList<>();
+        for (Code code : loader.getCodeLayers()) {
+            if (code.getClassNameSet().contains(className)) {
+                final Bytecode bytecode = code.getBytecode(className);
+                bytesList.add(bytecode == null ? new byte[0] : bytecode.getBytes());
+            }
+        }
+        return bytesList;
     }
     
     @Override
@@ -96,15 +313,34 @@ public class DefaultTopCodeCache implements TopCodeCache {
 
     @Override
     public void clear() {
-        state.cache.clear();
+        if (sharedCodeRegistry == null) {
+            state.cache.clear();
+            state.dependencies.clear();
+            return;
+        }
+        lock.lock();
+        try {
+            final State stateNow = state;
+            releaseCodesNotIn(stateNow, null);
+            stateNow.cache.clear();
+            stateNow.dependencies.clear();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public DefaultTopCodeCache clone() {
+        // no shared code registry, clones (like top code caches of detached loaders)
+        // are typically just dropped, so they would never release their references
         final State stateNow = state;
-        final DefaultTopCodeCache topCodeCache =
-                new DefaultTopCodeCache.Builder(stateNow.parent).setCompilerFactory(compilerFactory).build();
+        final DefaultTopCodeCache topCodeCache = new DefaultTopCodeCache.Builder(stateNow.parent)
+                .setCompilerFactory(compilerFactory)
+                .setKeepUnaffectedCodeOnParentChange(isKeepUnaffectedCodeOnParentChange)
+                .setCompileScheduler(compileScheduler)
+                .build();
         topCodeCache.state.cache.putAll(stateNow.cache);
+        topCodeCache.state.dependencies.putAll(stateNow.dependencies);
         return topCodeCache;
     }
 
@@ -131,13 +367,96 @@ public class DefaultTopCodeCache implements TopCodeCache {
     }
     
     
+    /**
+     * gets whether to keep cached code that is unaffected by a change of parent class loader.
+     *
+     * @return whether to keep unaffected cached code on parent change
+     *
+     * @since 3.2
+     */
+    public boolean isKeepUnaffectedCodeOnParentChange() {
+        return isKeepUnaffectedCodeOnParentChange;
+    }
+
+    /**
+     * gets the compile scheduler.
+     *
+     * @return compile scheduler, null if compiling without admission control
+     *
+     * @since 3.2
+     */
+    public CompileScheduler getCompileScheduler() {
+        return compileScheduler;
+    }
+
+    /**
+     * gets the shared code registry.
+     *
+     * @return shared code registry, null if not sharing code
+     *
+     * @since 3.2
+     */
+    public SharedCodeRegistry getSharedCodeRegistry() {
+        return sharedCodeRegistry;
+    }
+    
+    
     private static class State {
         private final ClassLoader parent;
         private final Map<Source,SingleSourceCode> cache;
+        // names of classes each cached code had resolved against when compiled
+        private final Map<Source,Set<String>> dependencies;
         private State(ClassLoader parent) {
             this.parent = parent;
             cache = new ConcurrentHashMap<>();
+            dependencies = new ConcurrentHashMap<>();
+        }
+    }
+
+    // records names of all classes that are loaded (or attempted to be loaded) during compilation,
+    // including superclasses and interfaces of loaded classes
+    static class DependencyRecordingClassLoader extends ClassLoader {
+
+        private final ClassLoader target;
+        private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+
+        DependencyRecordingClassLoader(final ClassLoader target) {
+            super(target);
+            this.target = target;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            classNames.add(name);
+            final Class<?> clazz = target.loadClass(name);
+            addHierarchy(clazz);
+            return clazz;
+        }
+
+        @Override
+        public URL getResource(final String name) {
+            if (name.endsWith(".class")) {
+                classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+            }
+            return target.getResource(name);
+        }
+
+        private void addHierarchy(final Class<?> clazz) {
+            final Class<?> superclass = clazz.getSuperclass();
+            if (superclass != null && classNames.add(superclass.getName())) {
+                addHierarchy(superclass);
+            }
+            for (Class<?> interfaceClass : clazz.getInterfaces()) {
+                if (classNames.add(interfaceClass.getName())) {
+                    addHierarchy(interfaceClass);
+                }
+            }
         }
+
+        Set<String> getClassNames() {
+            return classNames;
+        }
+
     }
     
     
@@ -155,6 +474,9 @@ public class DefaultTopCodeCache implements TopCodeCache {
         
         private final ClassLoader parent;
         private CompilerFactory compilerFactory;
+        private boolean isKeepUnaffectedCodeOnParentChange;
+        private CompileScheduler compileScheduler;
+        private SharedCodeRegistry sharedCodeRegistry;
         
         /**
          * constructor from parent class loader.
@@ -184,6 +506,65 @@ public class DefaultTopCodeCache implements TopCodeCache {
             return this;
         }
         
+        /**
+         * sets whether to keep cached code that is unaffected by a change of parent class loader,
+         * default is false.
+         * <p>
+         * If true, the names of all classes that a script resolves against when compiled are
+         * recorded, and when the parent class loader is set, cached code is kept if the old and
+         * new parent are both instances of {@link LayeredClassLoader} with the same parent and
+         * load mode, and if all recorded classes have the same bytecode in the code layers of both
+         * (resp. are in neither). All other cached code is recompiled when next needed.
+         *
+         * @param isKeepUnaffectedCodeOnParentChange whether to keep unaffected cached code on parent change
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setKeepUnaffectedCodeOnParentChange(final boolean isKeepUnaffectedCodeOnParentChange) {
+            check();
+            this.isKeepUnaffectedCodeOnParentChange = isKeepUnaffectedCodeOnParentChange;
+            return this;
+        }
+
+        /**
+         * sets the compile scheduler, default is none (compile without admission control).
+         * <p>
+         * Cache misses are compiled with priority {@link CompileScheduler.Priority#INTERACTIVE}.
+         *
+         * @param compileScheduler compile scheduler
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setCompileScheduler(final CompileScheduler compileScheduler) {
+            check();
+            this.compileScheduler = compileScheduler;
+            return this;
+        }
+
+        /**
+         * sets the shared code registry, default is none (compile independently of other caches).
+         * <p>
+         * If set, code for cache misses is obtained from the registry, compiling only if
+         * not already registered, and released in the registry when it is replaced or removed
+         * from this cache, including when the parent class loader is set or the cache is cleared.
+         * Clones of the cache do not use the registry.
+         *
+         * @param sharedCodeRegistry shared code registry
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setSharedCodeRegistry(final SharedCodeRegistry sharedCodeRegistry) {
+            check();
+            this.sharedCodeRegistry = sharedCodeRegistry;
+            return this;
+        }
+        
         /**
          * gets the parent class loader.
          *
@@ -205,6 +586,39 @@ public class DefaultTopCodeCache implements TopCodeCache {
         public CompilerFactory getCompilerFactory() {
             return compilerFactory;
         }
+
+        /**
+         * gets whether to keep cached code that is unaffected by a change of parent class loader.
+         *
+         * @return whether to keep unaffected cached code on parent change
+         *
+         * @since 3.2
+         */
+        public boolean isKeepUnaffectedCodeOnParentChange() {
+            return isKeepUnaffectedCodeOnParentChange;
+        }
+
+        /**
+         * gets the compile scheduler.
+         *
+         * @return compile scheduler, null if none
+         *
+         * @since 3.2
+         */
+        public CompileScheduler getCompileScheduler() {
+            return compileScheduler;
+        }
+
+        /**
+         * gets the shared code registry.
+         *
+         * @return shared code registry, null if none
+         *
+         * @since 3.2
+         */
+        public SharedCodeRegistry getSharedCodeRegistry() {
+            return sharedCodeRegistry;
+        }
         
         private Builder commit() {
             if (!isCommitted) {
@@ -16,6 +16,7 @@
 
 package ch.grengine.load;
 
+import ch.grengine.code.CompileScheduler;
 import ch.grengine.code.CompilerFactory;
 import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
 
@@ -34,6 +35,9 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
     
     private final Builder builder;
     private final CompilerFactory compilerFactory;
+    private final boolean isKeepUnaffectedCodeOnParentChange;
+    private final CompileScheduler compileScheduler;
+    private final SharedCodeRegistry sharedCodeRegistry;
     
     /**
      * constructor from builder.
@@ -45,6 +49,9 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
     protected DefaultTopCodeCacheFactory(final Builder builder) {
         this.builder = builder.commit();
         compilerFactory = builder.getCompilerFactory();
+        isKeepUnaffectedCodeOnParentChange = builder.isKeepUnaffectedCodeOnParentChange();
+        compileScheduler = builder.getCompileScheduler();
+        sharedCodeRegistry = builder.getSharedCodeRegistry();
     }
     
     /**
@@ -74,6 +81,9 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
     public TopCodeCache newTopCodeCache(final ClassLoader parent) {
         return new DefaultTopCodeCache.Builder(parent)
                 .setCompilerFactory(compilerFactory)
+                .setKeepUnaffectedCodeOnParentChange(isKeepUnaffectedCodeOnParentChange)
+                .setCompileScheduler(compileScheduler)
+                .setSharedCodeRegistry(sharedCodeRegistry)
                 .build();
     }
 
@@ -98,6 +108,39 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
     public CompilerFactory getCompilerFactory() {
         return compilerFactory;
     }
+
+    /**
+     * gets whether top code caches keep cached code that is unaffected by a change of parent class loader.
+     *
+     * @return whether to keep unaffected cached code on parent change
+     *
+     * @since 3.2
+     */
+    public boolean isKeepUnaffectedCodeOnParentChange() {
+        return isKeepUnaffectedCodeOnParentChange;
+    }
+
+    /**
+     * gets the compile scheduler of top code caches.
+     *
+     * @return compile scheduler, null if none
+     *
+     * @since 3.2
+     */
+    public CompileScheduler getCompileScheduler() {
+        return compileScheduler;
+    }
+
+    /**
+     * gets the shared code registry of top code caches.
+     *
+     * @return shared code registry, null if none
+     *
+     * @since 3.2
+     */
+    public SharedCodeRegistry getSharedCodeRegistry() {
+        return sharedCodeRegistry;
+    }
     
     
     /**
@@ -113,6 +156,9 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
         private boolean isCommitted;
         
         private CompilerFactory compilerFactory;
+        private boolean isKeepUnaffectedCodeOnParentChange;
+        private CompileScheduler compileScheduler;
+        private SharedCodeRegistry sharedCodeRegistry;
         
         /**
          * constructor.
@@ -139,6 +185,60 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
             return this;
         }
         
+        /**
+         * sets whether top code caches keep cached code that is unaffected by a change
+         * of parent class loader, default is false.
+         * <p>
+         * See {@link DefaultTopCodeCache.Builder#setKeepUnaffectedCodeOnParentChange(boolean)}.
+         *
+         * @param isKeepUnaffectedCodeOnParentChange whether to keep unaffected cached code on parent change
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setKeepUnaffectedCodeOnParentChange(final boolean isKeepUnaffectedCodeOnParentChange) {
+            check();
+            this.isKeepUnaffectedCodeOnParentChange = isKeepUnaffectedCodeOnParentChange;
+            return this;
+        }
+
+        /**
+         * sets the compile scheduler shared by all created top code caches,
+         * default is none (compile without admission control).
+         * <p>
+         * See {@link DefaultTopCodeCache.Builder#setCompileScheduler(CompileScheduler)}.
+         *
+         * @param compileScheduler compile scheduler
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setCompileScheduler(final CompileScheduler compileScheduler) {
+            check();
+            this.compileScheduler = compileScheduler;
+            return this;
+        }
+
+        /**
+         * sets the shared code registry used by all created top code caches,
+         * default is none (compile independently of other caches).
+         * <p>
+         * See {@link DefaultTopCodeCache.Builder#setSharedCodeRegistry(SharedCodeRegistry)}.
+         *
+         * @param sharedCodeRegistry shared code registry
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setSharedCodeRegistry(final SharedCodeRegistry sharedCodeRegistry) {
+            check();
+            this.sharedCodeRegistry = sharedCodeRegistry;
+            return this;
+        }
+        
         /**
          * gets the compiler factory.
          *
@@ -149,6 +249,39 @@ public class DefaultTopCodeCacheFactory implements TopCodeCacheFactory {
         public CompilerFactory getCompilerFactory() {
             return compilerFactory;
         }
+
+        /**
+         * gets whether top code caches keep cached code that is unaffected by a change of parent class loader.
+         *
+         * @return whether to keep unaffected cached code on parent change
+         *
+         * @since 3.2
+         */
+        public boolean isKeepUnaffectedCodeOnParentChange() {
+            return isKeepUnaffectedCodeOnParentChange;
+        }
+
+        /**
+         * gets the compile scheduler shared by all created top code caches.
+         *
+         * @return compile scheduler, null if none
+         *
+         * @since 3.2
+         */
+        public CompileScheduler getCompileScheduler() {
+            return compileScheduler;
+        }
+
+        /**
+         * gets the shared code registry used by all created top code caches.
+         *
+         * @return shared code registry, null if none
+         *
+         * @since 3.2
+         */
+        public SharedCodeRegistry getSharedCodeRegistry() {
+            return sharedCodeRegistry;
+        }
         
         private Builder commit() {
             if (!isCommitted) {
@@ -0,0 +1,245 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.code.Bytecode;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import groovy.lang.GroovySystem;
+import groovyjarjarasm.asm.ClassWriter;
+import groovyjarjarasm.asm.MethodVisitor;
+import groovyjarjarasm.asm.Opcodes;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Defines classes as hidden classes ({@code MethodHandles.Lookup#defineHiddenClass},
+ * Java 15 and later), which can be unloaded individually once unreachable,
+ * even while the class loader that defined them is still reachable.
+ * <p>
+ * Accessed via reflection, so that Grengine still runs on Java 8.
+ * Hidden classes are only used with Groovy 4 and later, where all dynamic calls
+ * are compiled to invokedynamic; earlier Groovy versions generate call site classes
+ * at runtime that refer to the class by name, which is not possible for hidden classes.
+ * Classes that refer to their own type in method or field descriptors (e.g. scripts
+ * with dynamic calls on {@code this}) cannot be defined as hidden classes either,
+ * in that case {@link #defineClass(Bytecode)} returns null and the caller has to
+ * fall back to a regular class loader.
+ * <p>
+ * Hidden classes are defined via a full-privilege lookup of a small generated host class
+ * in the same package, defined by a class loader with the given parent class loader.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class HiddenClassDefiner {
+
+    private static final String HOST_CLASS_SIMPLE_NAME = "$GrengineHiddenClassHost";
+    private static final String LOOKUP_DESCRIPTOR = "()Ljava/lang/invoke/MethodHandles$Lookup;";
+
+    // available in Java 15 and later
+    private static final Method DEFINE_HIDDEN_CLASS_METHOD;
+    private static final Object NO_CLASS_OPTIONS;
+    static {
+        Method method;
+        Object noClassOptions;
+        try {
+            final Class<?> classOptionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            noClassOptions = Array.newInstance(classOptionClass, 0);
+            method = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, noClassOptions.getClass());
+        } catch (ReflectiveOperationException e) {
+            method = null;
+            noClassOptions = null;
+        }
+        DEFINE_HIDDEN_CLASS_METHOD = method;
+        NO_CLASS_OPTIONS = noClassOptions;
+    }
+    private static final boolean IS_SUPPORTED = DEFINE_HIDDEN_CLASS_METHOD != null && getGroovyMajorVersion() >= 4;
+
+    private final HostClassLoader hostLoader;
+    private final Map<String,MethodHandles.Lookup> lookups = new ConcurrentHashMap<>();
+    private final Queue<WeakReference<Class<?>>> classQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * constructor.
+     *
+     * @param parent parent class loader of hidden classes
+     *
+     * @throws NullPointerException if the parent class loader is null
+     *
+     * @since 3.2
+     */
+    HiddenClassDefiner(final ClassLoader parent) {
+        requireNonNull(parent, "Parent class loader is null.");
+        hostLoader = new HostClassLoader(parent);
+    }
+
+    /**
+     * checks whether hidden classes are supported, i.e. Java 15 or later and Groovy 4 or later.
+     *
+     * @return whether hidden classes are supported
+     *
+     * @since 3.2
+     */
+    static boolean isSupported() {
+        return IS_SUPPORTED;
+    }
+
+    /**
+     * defines the class with the given bytecode as a hidden class.
+     * <p>
+     * The class is not initialized, like classes defined by a regular class loader.
+     *
+     * @param bytecode bytecode
+     *
+     * @return hidden class, null if hidden classes are not supported
+     *         or if the class could not be defined as a hidden class
+     *
+     * @since 3.2
+     */
+    Class<?> defineClass(final Bytecode bytecode) {
+        if (!IS_SUPPORTED) {
+            return null;
+        }
+        try {
+            final MethodHandles.Lookup hiddenLookup = (MethodHandles.Lookup)DEFINE_HIDDEN_CLASS_METHOD.invoke(
+                    getLookup(getPackageName(bytecode.getClassName())), bytecode.getBytes(), false, NO_CLASS_OPTIONS);
+            final Class<?> clazz = hiddenLookup.lookupClass();
+            classQueue.add(new WeakReference<>(clazz));
+            return clazz;
+        } catch (InvocationTargetException | IllegalAccessException | RuntimeException | LinkageError e) {
+            // typically if the class refers to its own type by name
+            return null;
+        }
+    }
+
+    /**
+     * releases all hidden classes defined so far that are still reachable.
+     *
+     * @param releaser class releaser
+     *
+     * @since 3.2
+     */
+    void releaseClasses(final ClassReleaser releaser) {
+        WeakReference<Class<?>> ref;
+        do {
+            ref = classQueue.poll();
+            if (ref != null) {
+                final Class<?> clazz = ref.get();
+                if (clazz != null) {
+                    try {
+                        releaser.release(clazz);
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        } while (ref != null);
+    }
+
+    /**
+     * removes all hidden classes defined so far from the queue of classes to release
+     * and adds those that are still reachable to the given collection.
+     *
+     * @param classes collection to add classes to
+     *
+     * @since 3.2
+     */
+    void drainClasses(final Collection<Class<?>> classes) {
+        WeakReference<Class<?>> ref;
+        while ((ref = classQueue.poll()) != null) {
+            final Class<?> clazz = ref.get();
+            if (clazz != null) {
+                classes.add(clazz);
+            }
+        }
+    }
+
+    private MethodHandles.Lookup getLookup(final String packageName) {
+        return lookups.computeIfAbsent(packageName, name -> {
+            final String hostClassName = name.isEmpty() ? HOST_CLASS_SIMPLE_NAME : name + "." + HOST_CLASS_SIMPLE_NAME;
+            try {
+                final Class<?> hostClass = hostLoader.defineHostClass(hostClassName);
+                return (MethodHandles.Lookup)hostClass.getMethod("lookup").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not get lookup for package '" + name + "'.", e);
+            }
+        });
+    }
+
+    private static String getPackageName(final String className) {
+        final int i = className.lastIndexOf('.');
+        return (i >= 0) ? className.substring(0, i) : "";
+    }
+
+    private static int getGroovyMajorVersion() {
+        try {
+            return Integer.parseInt(GroovySystem.getVersion().split("\\.")[0]);
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    // package scope for unit tests
+    static byte[] createHostClassBytes(final String hostClassName) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+                hostClassName.replace('.', '/'), null, "java/lang/Object", null);
+        final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                "lookup", LOOKUP_DESCRIPTOR, null, null);
+        method.visitCode();
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                LOOKUP_DESCRIPTOR, false);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(1, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // defines host classes, hidden classes are then defined by the same class loader
+    private static class HostClassLoader extends ClassLoader {
+
+        HostClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        synchronized Class<?> defineHostClass(final String hostClassName) {
+            final Class<?> clazz = findLoadedClass(hostClassName);
+            if (clazz != null) {
+                return clazz;
+            }
+            final byte[] bytes = createHostClassBytes(hostClassName);
+            return defineClass(hostClassName, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
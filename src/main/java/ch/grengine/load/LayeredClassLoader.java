@@ -22,17 +22,31 @@ import ch.grengine.except.LoadException;
 import ch.grengine.source.Source;
 import ch.grengine.sources.Sources;
 import ch.grengine.code.Code;
-import ch.grengine.code.CompilerFactory;
+import ch.grengine.code.CodeLayersProvider;
+import ch.grengine.code.CodeUtil;
+import ch.grengine.code.CompileScheduler;
+import ch.grengine.code.Compiler;
 import ch.grengine.code.SingleSourceCode;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import groovy.lang.GroovyObject;
+import groovy.lang.GroovySystem;
+
+import static java.util.Objects.requireNonNull;
 
 
 /**
@@ -48,21 +62,34 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * @author Alain Stalder
  * @author Made in Switzerland.
  */
-public class LayeredClassLoader extends SourceClassLoader {
+public class LayeredClassLoader extends SourceClassLoader implements CodeLayersProvider {
     
     private final Builder builder;
     
     private List<Code> codeLayers;
     // the class loader on top, without top code cache
     private ClassLoader staticTopLoader;
+    // number of code layers (from the bottom) with reused class loaders
+    private int reusedCodeLayerCount;
 
     private boolean isWithTopCodeCache;
     private LoadMode topLoadMode;
     private TopCodeCache topCodeCache;
     private Map<Source,BytecodeClassLoader> topLoaders;
+    // bucket loader that new top code is added to, if top loader buckets are on
+    private BytecodeClassLoader openBucketLoader;
+    // hidden classes (or null if not possible) by source, if top hidden classes are on
+    private Map<Source,TopHiddenClass> topHiddenClasses;
+    private ReferenceQueue<Class<?>> topHiddenClassQueue;
+    private HiddenClassDefiner hiddenClassDefiner;
 
     private final Queue<WeakReference<BytecodeClassLoader>> classLoaderQueue =
             new ConcurrentLinkedQueue<>();
+    // code layer loaders shared from the layered class loader this is a clone of
+    private final Queue<BytecodeClassLoader> sharedCodeLayerLoaderQueue = new ConcurrentLinkedQueue<>();
+
+    // names of classes not found in code layers and parent, if configured
+    private final Set<String> negativeLookupCache = ConcurrentHashMap.newKeySet();
 
     /**
      * constructor from builder, based on already compiled code layers.
@@ -99,6 +126,34 @@ public class LayeredClassLoader extends SourceClassLoader {
         }
     }
     
+    // based on already compiled code layers, reuses the class loaders of the given
+    // layered class loader for the longest prefix of unchanged code layers
+    private LayeredClassLoader(final Builder builder, final LayeredClassLoader reusedFrom) {
+        super(builder.getParent());
+        this.builder = builder.commit();
+        createLoadersFromCodeLayersReusing(reusedFrom);
+        initTopCodeCache();
+    }
+
+    // shares the class loaders of the code layers of the given layered class loader
+    private LayeredClassLoader(final LayeredClassLoader sharedFrom, final boolean isWithSeparateTopCodeCache) {
+        super(sharedFrom.getParent());
+        builder = sharedFrom.builder;
+        codeLayers = sharedFrom.codeLayers;
+        staticTopLoader = sharedFrom.staticTopLoader;
+        reusedCodeLayerCount = codeLayers.size();
+        sharedFrom.getCodeLayerLoaders().forEach(layerLoader -> {
+            layerLoader.acquire();
+            sharedCodeLayerLoaderQueue.add(layerLoader);
+        });
+        initTopCodeCache();
+        if (isWithTopCodeCache && isWithSeparateTopCodeCache) {
+            topCodeCache = sharedFrom.topCodeCache.clone();
+        } else {
+            topCodeCache = sharedFrom.topCodeCache;
+        }
+    }
+
     private void fromCodeLayers() {
         createLoadersFromCodeLayers();
         initTopCodeCache();
@@ -114,32 +169,86 @@ public class LayeredClassLoader extends SourceClassLoader {
         codeLayers = builder.getCodeLayers();
         codeLayers.forEach(code -> {
             staticTopLoader = new BytecodeClassLoader(staticTopLoader, builder.getLoadMode(), code);
-            classLoaderQueue.add(new WeakReference<>((BytecodeClassLoader) staticTopLoader));
+            addCodeLayerLoader((BytecodeClassLoader)staticTopLoader);
         });
     }
+
+    // code layer loaders may be shared with other layered class loaders, see releaseUnsharedClasses()
+    private void addCodeLayerLoader(final BytecodeClassLoader loader) {
+        loader.acquire();
+        classLoaderQueue.add(new WeakReference<>(loader));
+    }
     
+    private void createLoadersFromCodeLayersReusing(final LayeredClassLoader reusedFrom) {
+        staticTopLoader = builder.getParent();
+        codeLayers = builder.getCodeLayers();
+        reusedCodeLayerCount = 0;
+        final List<BytecodeClassLoader> reusableLoaders = reusedFrom.getCodeLayerLoaders();
+        boolean isReusable = reusedFrom.builder.getParent() == builder.getParent() &&
+                reusedFrom.builder.getLoadMode() == builder.getLoadMode() &&
+                reusableLoaders.size() == reusedFrom.codeLayers.size();
+        int i = 0;
+        for (Code code : codeLayers) {
+            isReusable = isReusable && i < reusableLoaders.size() &&
+                    CodeUtil.isSameContent(reusableLoaders.get(i).getCode(), code);
+            if (isReusable) {
+                staticTopLoader = reusableLoaders.get(i);
+                reusedCodeLayerCount++;
+            } else {
+                staticTopLoader = new BytecodeClassLoader(staticTopLoader, builder.getLoadMode(), code);
+            }
+            addCodeLayerLoader((BytecodeClassLoader)staticTopLoader);
+            i++;
+        }
+    }
+
+    // class loaders of code layers, from bottom to top
+    private List<BytecodeClassLoader> getCodeLayerLoaders() {
+        final LinkedList<BytecodeClassLoader> loaders = new LinkedList<>();
+        ClassLoader layerLoader = staticTopLoader;
+        while (layerLoader instanceof BytecodeClassLoader && layerLoader != builder.getParent()) {
+            loaders.addFirst((BytecodeClassLoader)layerLoader);
+            layerLoader = layerLoader.getParent();
+        }
+        return loaders;
+    }
+
     private void createLoadersFromSourcesLayers() {
         staticTopLoader = builder.getParent();
         final List<Sources> sourcesLayers = builder.getSourcesLayers();
         codeLayers = new LinkedList<>();
         sourcesLayers.forEach(sources ->  {
-            final CompilerFactory compilerFactory = sources.getCompilerFactory();
-            final Code code = compilerFactory.newCompiler(staticTopLoader).compile(sources);
+            final ClassLoader parent = staticTopLoader;
+            final SharedCodeRegistry sharedCodeRegistry = builder.getSharedCodeRegistry();
+            final Code code = (sharedCodeRegistry == null) ? compile(sources, parent) :
+                    sharedCodeRegistry.acquire(sources, parent, () -> compile(sources, parent));
             codeLayers.add(code);
             staticTopLoader = new BytecodeClassLoader(staticTopLoader, builder.getLoadMode(), code);
-            classLoaderQueue.add(new WeakReference<>((BytecodeClassLoader) staticTopLoader));
+            addCodeLayerLoader((BytecodeClassLoader)staticTopLoader);
         });
         // set code layers in builder so that the builder
         // can be reused without recompiling (e.g. for clone())
         builder.setCodeLayersAfterCreating(codeLayers);
     }
     
+    private Code compile(final Sources sources, final ClassLoader parent) {
+        final Compiler compiler = sources.getCompilerFactory().newCompiler(parent);
+        final CompileScheduler compileScheduler = builder.getCompileScheduler();
+        return (compileScheduler == null) ? compiler.compile(sources) :
+                compileScheduler.compile(compiler, sources, CompileScheduler.Priority.BACKGROUND);
+    }
+    
     private void initTopCodeCache() {
         isWithTopCodeCache = builder.isWithTopCodeCache();
         if (isWithTopCodeCache) {
             topLoadMode = builder.getTopLoadMode();
             topCodeCache = builder.getTopCodeCache();
             topLoaders = new ConcurrentHashMap<>();
+            if (builder.isTopLoaderHiddenClasses() && HiddenClassDefiner.isSupported()) {
+                topHiddenClasses = new ConcurrentHashMap<>();
+                topHiddenClassQueue = new ReferenceQueue<>();
+                hiddenClassDefiner = new HiddenClassDefiner(this);
+            }
         } else {
             topLoadMode = null;
             topCodeCache = null;
@@ -150,8 +259,24 @@ public class LayeredClassLoader extends SourceClassLoader {
         
     @Override
     protected Class<?> loadClass(final String name, boolean resolve) throws ClassNotFoundException {
+        final int negativeLookupCacheSize = builder.getNegativeLookupCacheSize();
+        if (negativeLookupCacheSize > 0 && negativeLookupCache.contains(name)) {
+            throw new StacklessClassNotFoundException(name);
+        }
         // can only be done statically...
-        final Class<?> clazz = staticTopLoader.loadClass(name);
+        final Class<?> clazz;
+        try {
+            clazz = staticTopLoader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            if (negativeLookupCacheSize > 0) {
+                // bounded, simply start over if full
+                if (negativeLookupCache.size() >= negativeLookupCacheSize) {
+                    negativeLookupCache.clear();
+                }
+                negativeLookupCache.add(name);
+            }
+            throw e;
+        }
         if (resolve) {
             resolveClass(clazz);
         }
@@ -199,6 +324,10 @@ public class LayeredClassLoader extends SourceClassLoader {
         }
 
         // load from top code cache
+        final Class<?> hiddenClass = getTopHiddenClass(source);
+        if (hiddenClass != null) {
+            return hiddenClass;
+        }
         return getTopLoader(source).loadMainClass(source);
     }
 
@@ -244,14 +373,123 @@ public class LayeredClassLoader extends SourceClassLoader {
         }
 
         // load from top code cache
+        final Class<?> hiddenClass = getTopHiddenClass(source);
+        if (hiddenClass != null && name.equals(topCodeCache.getUpToDateCode(source).getMainClassName())) {
+            return hiddenClass;
+        }
         return getTopLoader(source).loadClass(source, name);
     }
 
+    /**
+     * gets the names of the variables that the main class of the given source
+     * accesses in its binding, from the same code that {@link #loadMainClass(Source)}
+     * would load the main class from (compiling it, if necessary).
+     *
+     * @param source source
+     *
+     * @return variable names, empty if unknown
+     * @throws CompileException if compilation was necessary and failed
+     * @throws LoadException if the source was not found
+     *
+     * @since 3.2
+     */
+    @Override
+    public List<String> getVariableNames(final Source source) {
+        if (isWithTopCodeCache) {
+            final BytecodeClassLoader staticLoader = findBytecodeClassLoaderBySource(source);
+            if (staticLoader == null || (topLoadMode != LoadMode.PARENT_FIRST &&
+                    staticLoader.getCode().getLastModifiedAtCompileTime(source) != source.getLastModified())) {
+                return topCodeCache.getUpToDateCode(source).getVariableNames(source);
+            }
+        }
+        return super.getVariableNames(source);
+    }
+
+    /**
+     * gets whether {@link #loadMainClass(Source)} would have to compile the given source,
+     * i.e. whether it would be loaded from the top code cache and no up-to-date code
+     * is cached for it there.
+     *
+     * @param source source
+     *
+     * @return whether compiling would be needed
+     *
+     * @since 3.2
+     */
+    @Override
+    public boolean isCompileNeeded(final Source source) {
+        if (!isWithTopCodeCache) {
+            return false;
+        }
+        final BytecodeClassLoader staticLoader = findBytecodeClassLoaderBySource(source);
+        if (staticLoader != null && (topLoadMode == LoadMode.PARENT_FIRST ||
+                staticLoader.getCode().getLastModifiedAtCompileTime(source) == source.getLastModified())) {
+            return false;
+        }
+        return topCodeCache.isCompileNeeded(source);
+    }
+
+    // hidden class if on and if the code of the source consists of a single class that can be defined as
+    // a hidden class, null otherwise
+    private Class<?> getTopHiddenClass(final Source source) {
+        if (topHiddenClasses == null) {
+            return null;
+        }
+        removeClearedTopHiddenClasses();
+        final SingleSourceCode code = topCodeCache.getUpToDateCode(source);
+        TopHiddenClass topHiddenClass = topHiddenClasses.get(source);
+        Class<?> clazz = topHiddenClass == null ? null : topHiddenClass.get();
+        if (topHiddenClass == null || !topHiddenClass.isFor(code) || (topHiddenClass.isHidden && clazz == null)) {
+            synchronized (topHiddenClasses) {
+                topHiddenClass = topHiddenClasses.get(source);
+                clazz = topHiddenClass == null ? null : topHiddenClass.get();
+                if (topHiddenClass == null || !topHiddenClass.isFor(code) ||
+                        (topHiddenClass.isHidden && clazz == null)) {
+                    clazz = code.getClassNameSet().size() == 1 ?
+                            hiddenClassDefiner.defineClass(code.getBytecode(code.getMainClassName())) : null;
+                    topHiddenClasses.put(source, new TopHiddenClass(source, code, clazz, topHiddenClassQueue));
+                }
+            }
+        }
+        return clazz;
+    }
+
+    // removes entries whose hidden class has been garbage collected under memory pressure
+    private void removeClearedTopHiddenClasses() {
+        TopHiddenClass topHiddenClass;
+        while ((topHiddenClass = (TopHiddenClass)topHiddenClassQueue.poll()) != null) {
+            topHiddenClasses.remove(topHiddenClass.source, topHiddenClass);
+        }
+    }
+
+    // the hidden class is only softly referenced, so that it can be unloaded under memory pressure,
+    // and the code only weakly, the entry is replaced as soon as the top code cache has different code
+    private static class TopHiddenClass extends SoftReference<Class<?>> {
+        private final Source source;
+        private final WeakReference<SingleSourceCode> codeRef;
+        private final boolean isHidden;
+
+        TopHiddenClass(final Source source, final SingleSourceCode code, final Class<?> clazz,
+                final ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            this.source = source;
+            codeRef = new WeakReference<>(code);
+            isHidden = clazz != null;
+        }
+
+        boolean isFor(final SingleSourceCode code) {
+            return codeRef.get() == code;
+        }
+    }
+
     private BytecodeClassLoader getTopLoader(final Source source) {
         final SingleSourceCode code = topCodeCache.getUpToDateCode(source);
         BytecodeClassLoader topLoader = topLoaders.get(source);
-        if (topLoader == null || ((SingleSourceCode)topLoader.getCode()).getLastModifiedAtCompileTime()
+        if (topLoader == null || topLoader.getCode().getLastModifiedAtCompileTime(source)
                 != code.getLastModifiedAtCompileTime()) {
+            if (builder.getTopLoaderBucketSize() > 0) {
+                return getTopLoaderFromBucket(source, code);
+            }
             topLoader = new BytecodeClassLoader(this, topLoadMode, code);
             topLoaders.put(source, topLoader);
             classLoaderQueue.add(new WeakReference<>(topLoader));
@@ -259,6 +497,55 @@ public class LayeredClassLoader extends SourceClassLoader {
         return topLoader;
     }
 
+    private synchronized BytecodeClassLoader getTopLoaderFromBucket(final Source source, final SingleSourceCode code) {
+        // already placed by another thread in the meantime?
+        BytecodeClassLoader topLoader = topLoaders.get(source);
+        if (topLoader != null && topLoader.getCode().getLastModifiedAtCompileTime(source)
+                == code.getLastModifiedAtCompileTime()) {
+            return topLoader;
+        }
+
+        addToOpenBucket(source, code);
+
+        // previous bucket of the source, retire it if too many of its classes are stale
+        if (topLoader != null && topLoader != openBucketLoader) {
+            ((BucketCode)topLoader.getCode()).markStale(source);
+            retireBucketIfStale(topLoader);
+        }
+        retireBucketIfStale(openBucketLoader);
+
+        // open bucket retired because the source had replaced code in it?
+        topLoader = topLoaders.get(source);
+        if (topLoader == null) {
+            topLoader = addToOpenBucket(source, code);
+        }
+        return topLoader;
+    }
+
+    // adds to the open bucket or, if not possible, to a newly opened bucket
+    private BytecodeClassLoader addToOpenBucket(final Source source, final SingleSourceCode code) {
+        if (openBucketLoader == null || !((BucketCode)openBucketLoader.getCode()).canAdd(code)) {
+            final BucketCode bucketCode = new BucketCode(code.getSourcesName(), builder.getTopLoaderBucketSize());
+            openBucketLoader = new BytecodeClassLoader(this, topLoadMode, bucketCode);
+            classLoaderQueue.add(new WeakReference<>(openBucketLoader));
+        }
+        ((BucketCode)openBucketLoader.getCode()).add(code);
+        topLoaders.put(source, openBucketLoader);
+        return openBucketLoader;
+    }
+
+    // live sources of a retired bucket are added again to the open bucket when next loaded
+    private void retireBucketIfStale(final BytecodeClassLoader bucketLoader) {
+        final BucketCode bucketCode = (BucketCode)bucketLoader.getCode();
+        if (bucketCode.isStaleRatioReached(builder.getTopLoaderBucketMaxStaleRatio())) {
+            bucketCode.retire();
+            if (bucketLoader == openBucketLoader) {
+                openBucketLoader = null;
+            }
+            topLoaders.values().removeIf(loader -> loader == bucketLoader);
+        }
+    }
+
     /**
      * tries to find the bytecode class loader that can load classes that were created
      * by compiling the given source.
@@ -323,8 +610,122 @@ public class LayeredClassLoader extends SourceClassLoader {
                 }
             }
         } while (ref != null);
+        if (hiddenClassDefiner != null) {
+            hiddenClassDefiner.releaseClasses(releaser);
+        }
+    }
+
+    /**
+     * releases metadata for all classes ever loaded using this class loader,
+     * like {@link #releaseClasses(ClassReleaser)}, except for classes of code layers
+     * whose class loaders are still shared with other layered class loaders,
+     * i.e. class loaders that have been reused (see {@link Builder#buildFromCodeLayersReusing(LayeredClassLoader)})
+     * or shared by clones (see {@link #cloneWithSharedCodeLayerLoaders()}).
+     * <p>
+     * Class loaders of code layers are reference counted, their classes are released
+     * once the last layered class loader using them has released its unshared classes.
+     * <p>
+     * Allows to release classes of a layered class loader that is no longer used,
+     * without affecting other layered class loaders that are still in use.
+     *
+     * @param releaser class releaser
+     *
+     * @since 3.2
+     */
+    public void releaseUnsharedClasses(final ClassReleaser releaser) {
+        WeakReference<BytecodeClassLoader> ref;
+        do {
+            ref = classLoaderQueue.poll();
+            if (ref != null) {
+                final BytecodeClassLoader loader = ref.get();
+                // top loaders are never shared, so released right away
+                if (loader != null && loader.release()) {
+                    loader.releaseClasses(releaser);
+                }
+            }
+        } while (ref != null);
+        BytecodeClassLoader sharedLoader;
+        while ((sharedLoader = sharedCodeLayerLoaderQueue.poll()) != null) {
+            if (sharedLoader.release()) {
+                sharedLoader.releaseClasses(releaser);
+            }
+        }
+        if (hiddenClassDefiner != null) {
+            hiddenClassDefiner.releaseClasses(releaser);
+        }
     }
     
+    /**
+     * releases metadata for all classes ever loaded using this class loader asynchronously,
+     * in a single batch with {@link ClassReleaser#releaseAll(java.util.Collection)}.
+     * <p>
+     * Classes to release are collected in the calling thread, which is fast
+     * even for many classes, so returns essentially immediately.
+     *
+     * @param releaser class releaser
+     *
+     * @return future that completes once all classes have been released
+     *
+     * @since 3.2
+     */
+    @Override
+    public CompletableFuture<Void> releaseClassesAsync(final ClassReleaser releaser) {
+        final List<Class<?>> classes = new ArrayList<>();
+        WeakReference<BytecodeClassLoader> ref;
+        while ((ref = classLoaderQueue.poll()) != null) {
+            final BytecodeClassLoader loader = ref.get();
+            if (loader != null) {
+                loader.drainClasses(classes);
+            }
+        }
+        if (hiddenClassDefiner != null) {
+            hiddenClassDefiner.drainClasses(classes);
+        }
+        return releaser.releaseAll(classes);
+    }
+
+    /**
+     * warms up the class loaders of the code layers, i.e. defines all classes
+     * in all code layers, in parallel using the given executor.
+     * <p>
+     * Code layers with class loaders reused from a previous layered class loader
+     * are skipped (see {@link Builder#buildFromCodeLayersReusing(LayeredClassLoader)}).
+     * <p>
+     * Classes are defined but not initialized. Classes that fail to be defined
+     * are skipped, so that any errors only occur when the class is actually
+     * needed, like without warming up.
+     *
+     * @param executor executor for defining classes
+     * @param isWithMetaClasses whether to also create the Groovy MetaClass
+     *                          of each class that is a {@link GroovyObject}
+     *
+     * @return future that completes when all classes have been defined
+     * @throws NullPointerException if the executor is null
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Void> warmUp(final Executor executor, final boolean isWithMetaClasses) {
+        requireNonNull(executor, "Executor is null.");
+        final List<CompletableFuture<Void>> futures = new LinkedList<>();
+        final List<BytecodeClassLoader> layerLoaders = getCodeLayerLoaders();
+        // classes in reused layers have typically already been defined
+        for (BytecodeClassLoader bytecodeLoader : layerLoaders.subList(
+                Math.min(reusedCodeLayerCount, layerLoaders.size()), layerLoaders.size())) {
+            for (String name : bytecodeLoader.getCode().getClassNameSet()) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        final Class<?> clazz = bytecodeLoader.loadClassFromBytecode(name);
+                        if (isWithMetaClasses && clazz != null && GroovyObject.class.isAssignableFrom(clazz)) {
+                            GroovySystem.getMetaClassRegistry().getMetaClass(clazz);
+                        }
+                    } catch (Throwable ignore) {
+                    }
+                }, executor));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
     /**
      * creates a clone with the same code layers
      * and a separate top code cache
@@ -344,6 +745,43 @@ public class LayeredClassLoader extends SourceClassLoader {
         return detachedClone;
     }
     
+    /**
+     * creates a clone with the same code layers, which shares the class loaders
+     * for the code layers with this class loader, and with shared top code cache.
+     * <p>
+     * Classes in code layers are thus only defined once for this class loader
+     * and all clones created with this method, only classes from the top code cache
+     * are loaded by separate class loaders. Creating such a clone is cheap.
+     * <p>
+     * Note that releasing classes of the clone only releases classes from the
+     * top code cache, classes in code layers are only released when releasing
+     * classes of the class loader that created the code layer class loaders,
+     * or, with {@link #releaseUnsharedClasses(ClassReleaser)}, once the last
+     * layered class loader using them has released its unshared classes.
+     *
+     * @return clone
+     *
+     * @since 3.2
+     */
+    public LayeredClassLoader cloneWithSharedCodeLayerLoaders() {
+        return new LayeredClassLoader(this, false);
+    }
+
+    /**
+     * creates a clone with the same code layers, which shares the class loaders
+     * for the code layers with this class loader, and with a separate top code cache
+     * (initially with the same cached bytecode).
+     * <p>
+     * See {@link #cloneWithSharedCodeLayerLoaders()} for details.
+     *
+     * @return clone
+     *
+     * @since 3.2
+     */
+    public LayeredClassLoader cloneWithSharedCodeLayerLoadersAndSeparateTopCodeCache() {
+        return new LayeredClassLoader(this, true);
+    }
+
     /**
      * gets the code layers.
      *
@@ -351,6 +789,7 @@ public class LayeredClassLoader extends SourceClassLoader {
      * 
      * @since 1.0
      */
+    @Override
     public List<Code> getCodeLayers() {
         return codeLayers;
     }
@@ -376,6 +815,35 @@ public class LayeredClassLoader extends SourceClassLoader {
     public TopCodeCache getTopCodeCache() {
         return topCodeCache;
     }
+
+    /**
+     * gets the number of code layers (from the bottom) whose class loaders
+     * have been reused from a previous layered class loader, resp. are shared
+     * with another layered class loader.
+     *
+     * @return number of code layers with reused class loaders
+     *
+     * @since 3.2
+     */
+    public int getReusedCodeLayerCount() {
+        return reusedCodeLayerCount;
+    }
+
+    // package scope for unit tests
+    int getNegativeLookupCacheEntryCount() {
+        return negativeLookupCache.size();
+    }
+
+    // package scope for unit tests
+    int getTopHiddenClassCount() {
+        return topHiddenClasses == null ? 0 :
+                (int)topHiddenClasses.values().stream().filter(hidden -> hidden.get() != null).count();
+    }
+
+    // package scope for unit tests
+    int getTopLoaderCount() {
+        return topLoaders == null ? 0 : (int)topLoaders.values().stream().distinct().count();
+    }
     
     
     /**
@@ -387,6 +855,13 @@ public class LayeredClassLoader extends SourceClassLoader {
      * @author Made in Switzerland.
      */
     public static class Builder {
+
+        /**
+         * default maximum ratio of stale classes in a top loader bucket.
+         *
+         * @since 3.2
+         */
+        public static final double DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO = 0.5;
         
         private boolean isCommitted;
         
@@ -399,6 +874,14 @@ public class LayeredClassLoader extends SourceClassLoader {
         private boolean isWithTopCodeCache;
         private LoadMode topLoadMode;
         private TopCodeCache topCodeCache;
+
+        private int negativeLookupCacheSize;
+
+        private int topLoaderBucketSize;
+        private double topLoaderBucketMaxStaleRatio = -1;
+        private boolean isTopLoaderHiddenClasses;
+        private CompileScheduler compileScheduler;
+        private SharedCodeRegistry sharedCodeRegistry;
         
         /**
          * constructor.
@@ -540,6 +1023,139 @@ public class LayeredClassLoader extends SourceClassLoader {
             return this;
         }
         
+        /**
+         * sets the maximum number of names of classes that were not found when loading
+         * classes by name (neither in code layers nor in the parent class loader) to cache,
+         * default is 0 (no caching).
+         * <p>
+         * Code layers do not change during the lifetime of a layered class loader,
+         * so such classes are then not searched again, unless the cache was full and
+         * had been cleared. Only use if the parent class loader does not get new
+         * classes later on either.
+         *
+         * @param negativeLookupCacheSize maximum number of names of classes not found to cache
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setNegativeLookupCacheSize(final int negativeLookupCacheSize) {
+            check();
+            this.negativeLookupCacheSize = negativeLookupCacheSize;
+            return this;
+        }
+
+        /**
+         * sets the maximum number of classes per top loader bucket,
+         * default is 0 (no buckets, one class loader per source in the top code cache).
+         * <p>
+         * If set, classes of sources from the top code cache are loaded by a bounded
+         * number of shared class loaders ("buckets") instead of one class loader per source,
+         * which reduces class loader count and metaspace per source. Code of a source
+         * is added to the current bucket if the bucket is not full and has no class with
+         * the same name, else to a new bucket. Note that classes of sources in the same
+         * bucket are visible to each other by name.
+         * <p>
+         * Classes of replaced code of a source remain in their bucket as stale classes;
+         * a bucket is retired once the ratio of its stale classes reaches the maximum stale
+         * ratio and its sources are then added to the current bucket when next loaded.
+         *
+         * @param topLoaderBucketSize maximum number of classes per top loader bucket
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setTopLoaderBucketSize(final int topLoaderBucketSize) {
+            check();
+            this.topLoaderBucketSize = topLoaderBucketSize;
+            return this;
+        }
+
+        /**
+         * sets the maximum ratio of stale classes in a top loader bucket before the bucket
+         * is retired, default is {@link #DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO}.
+         * <p>
+         * Only relevant if top loader buckets are on, see {@link #setTopLoaderBucketSize(int)}.
+         *
+         * @param topLoaderBucketMaxStaleRatio maximum ratio of stale classes in a top loader bucket
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setTopLoaderBucketMaxStaleRatio(final double topLoaderBucketMaxStaleRatio) {
+            check();
+            this.topLoaderBucketMaxStaleRatio = topLoaderBucketMaxStaleRatio;
+            return this;
+        }
+
+        /**
+         * sets whether to define classes of sources from the top code cache as hidden classes
+         * where possible, default is false.
+         * <p>
+         * Hidden classes can be unloaded individually once unreachable, without
+         * the need for one class loader per source. Only possible with Java 15 or later
+         * and Groovy 4 or later, and only for sources that compile to a single class that
+         * does not refer to its own type in method or field descriptors (in practice scripts
+         * without dynamic calls on the script itself, e.g. expressions with only static calls);
+         * other sources are loaded as if not set. Note that the name of a hidden class
+         * has a suffix (like "Script1/0x0000000800c01000") and that it cannot be found by name.
+         *
+         * @param isTopLoaderHiddenClasses whether to define classes from the top code cache as hidden classes
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setTopLoaderHiddenClasses(final boolean isTopLoaderHiddenClasses) {
+            check();
+            this.isTopLoaderHiddenClasses = isTopLoaderHiddenClasses;
+            return this;
+        }
+
+        /**
+         * sets the compile scheduler for compiling sources layers,
+         * default is none (compile without admission control).
+         * <p>
+         * Sources layers are compiled with priority {@link CompileScheduler.Priority#BACKGROUND};
+         * to also limit compiles of the top code cache, set the same scheduler there, see
+         * {@link DefaultTopCodeCache.Builder#setCompileScheduler(CompileScheduler)}.
+         *
+         * @param compileScheduler compile scheduler
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setCompileScheduler(final CompileScheduler compileScheduler) {
+            check();
+            this.compileScheduler = compileScheduler;
+            return this;
+        }
+
+        /**
+         * sets the shared code registry for compiling sources layers,
+         * default is none (compile independently of other class loaders).
+         * <p>
+         * If set, the code of each sources layer is obtained from the registry, compiling
+         * only if not already registered. Code layers are not released in the registry by
+         * the class loader, the caller is responsible for calling
+         * {@link SharedCodeRegistry#release(Code)} for each code layer once
+         * no longer needed (engines do this when code layers are replaced or when closed).
+         *
+         * @param sharedCodeRegistry shared code registry
+         *
+         * @return this, for chaining calls
+         *
+         * @since 3.2
+         */
+        public Builder setSharedCodeRegistry(final SharedCodeRegistry sharedCodeRegistry) {
+            check();
+            this.sharedCodeRegistry = sharedCodeRegistry;
+            return this;
+        }
+        
         /**
          * gets the parent class loader.
          *
@@ -616,6 +1232,72 @@ public class LayeredClassLoader extends SourceClassLoader {
         public LoadMode getTopLoadMode() {
             return topLoadMode;
         }
+
+        /**
+         * gets the maximum number of names of classes that were not found to cache.
+         *
+         * @return maximum number of names of classes not found to cache
+         *
+         * @since 3.2
+         */
+        public int getNegativeLookupCacheSize() {
+            return negativeLookupCacheSize;
+        }
+
+        /**
+         * gets the maximum number of classes per top loader bucket.
+         *
+         * @return maximum number of classes per top loader bucket
+         *
+         * @since 3.2
+         */
+        public int getTopLoaderBucketSize() {
+            return topLoaderBucketSize;
+        }
+
+        /**
+         * gets the maximum ratio of stale classes in a top loader bucket.
+         *
+         * @return maximum ratio of stale classes in a top loader bucket
+         *
+         * @since 3.2
+         */
+        public double getTopLoaderBucketMaxStaleRatio() {
+            return topLoaderBucketMaxStaleRatio;
+        }
+
+        /**
+         * gets whether to define classes of sources from the top code cache as hidden classes where possible.
+         *
+         * @return whether to define classes from the top code cache as hidden classes
+         *
+         * @since 3.2
+         */
+        public boolean isTopLoaderHiddenClasses() {
+            return isTopLoaderHiddenClasses;
+        }
+
+        /**
+         * gets the compile scheduler for compiling sources layers.
+         *
+         * @return compile scheduler, null if none
+         *
+         * @since 3.2
+         */
+        public CompileScheduler getCompileScheduler() {
+            return compileScheduler;
+        }
+
+        /**
+         * gets the shared code registry for compiling sources layers.
+         *
+         * @return shared code registry, null if none
+         *
+         * @since 3.2
+         */
+        public SharedCodeRegistry getSharedCodeRegistry() {
+            return sharedCodeRegistry;
+        }
         
         private Builder commit() {
             if (!isCommitted) {
@@ -634,6 +1316,9 @@ public class LayeredClassLoader extends SourceClassLoader {
                 if (topLoadMode == null) {
                     topLoadMode = LoadMode.PARENT_FIRST;
                 }
+                if (topLoaderBucketMaxStaleRatio < 0) {
+                    topLoaderBucketMaxStaleRatio = DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO;
+                }
                 isCommitted = true;
             }
             return this;
@@ -652,6 +1337,30 @@ public class LayeredClassLoader extends SourceClassLoader {
             return new LayeredClassLoader(this);
         }
         
+        /**
+         * builds a new instance of {@link LayeredClassLoader}
+         * based on already compiled code layers, reusing the class loaders
+         * of the given layered class loader for the longest prefix of code layers
+         * that are unchanged (same {@link Code} instance or same content,
+         * see {@link CodeUtil#isSameContent(Code, Code)}).
+         * <p>
+         * Classes in reused code layers are thus not defined again and keep
+         * their static state. Class loaders can only be reused if the parent
+         * class loader and load mode are the same.
+         *
+         * @param reusedFrom layered class loader to reuse class loaders from
+         *
+         * @return new instance
+         * @throws NullPointerException if the given layered class loader is null
+         *
+         * @since 3.2
+         */
+        public LayeredClassLoader buildFromCodeLayersReusing(final LayeredClassLoader reusedFrom) {
+            requireNonNull(reusedFrom, "Layered class loader is null.");
+            commit();
+            return new LayeredClassLoader(this, reusedFrom);
+        }
+
         /**
          * builds a new instance of {@link LayeredClassLoader}
          * based on sources to compile to code layers.
@@ -0,0 +1,421 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.load;
+
+import ch.grengine.code.Code;
+import ch.grengine.code.CompilerFactory;
+import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
+import ch.grengine.except.CompileException;
+import ch.grengine.source.Source;
+import ch.grengine.source.SourceUtil;
+import ch.grengine.source.TextSource;
+import ch.grengine.sources.Sources;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Registry of compiled code that can be shared by several top code caches
+ * and layered class loaders, typically of several engines in the same JVM.
+ * <p>
+ * Code is registered under a key made of a fingerprint of the sources (sources name,
+ * source IDs and last modified, plus the text of text sources), a fingerprint of the
+ * compiler configuration, and the identity of the parent class loader the sources
+ * are compiled against. If code is already registered under the same key, it is reused
+ * instead of compiling again; concurrent requests for the same key compile only once.
+ * <p>
+ * The compiler configuration of a {@link DefaultGroovyCompilerFactory} is compared
+ * by its settings, with compilation customizers compared by identity, so factories
+ * only share code if they use the same customizer instances; any other compiler factory
+ * is compared by identity. Parent class loaders that are layered class loaders or
+ * bytecode class loaders are compared by their own parent, load mode and the identity
+ * of their code layers, so that code compiled on top of shared code layers is shared, too;
+ * any other parent class loader is compared by identity.
+ * <p>
+ * Registered code is reference counted: each time code is obtained from the registry
+ * with {@link #acquire(Sources, ClassLoader, Supplier)} or {@link #retain(Code)} its count
+ * is incremented, each {@link #release(Code)} decrements it, and code is removed from
+ * the registry once its count drops to zero. Only compiled code is shared, classes are
+ * still defined separately by each class loader.
+ * <p>
+ * See {@link DefaultTopCodeCache.Builder#setSharedCodeRegistry(SharedCodeRegistry)},
+ * {@link LayeredClassLoader.Builder#setSharedCodeRegistry(SharedCodeRegistry)}
+ * and {@link ch.grengine.engine.LayeredEngine.Builder#setSharedCodeRegistry(SharedCodeRegistry)}.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class SharedCodeRegistry {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Key,Entry> entriesByKey = new HashMap<>();
+    private final Map<Code,Entry> entriesByCode = new IdentityHashMap<>();
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * constructor.
+     *
+     * @since 3.2
+     */
+    public SharedCodeRegistry() {
+    }
+
+    /**
+     * gets the code for the given sources compiled against the given parent class loader,
+     * compiling it with the given compile function if not already registered,
+     * and increments its reference count.
+     *
+     * @param sources sources
+     * @param parent parent class loader the sources are compiled against
+     * @param compile function that compiles the sources if no code is registered
+     *
+     * @return code
+     * @throws CompileException if compilation failed
+     * @throws NullPointerException if any of the arguments is null
+     *
+     * @since 3.2
+     */
+    public Code acquire(final Sources sources, final ClassLoader parent, final Supplier<Code> compile) {
+        requireNonNull(sources, "Sources are null.");
+        requireNonNull(parent, "Parent class loader is null.");
+        requireNonNull(compile, "Compile function is null.");
+        final Key key = new Key(getSourcesFingerprint(sources),
+                getCompilerConfigKey(sources.getCompilerFactory()), getParentKey(parent));
+
+        final Entry entry;
+        final boolean isCompiling;
+        lock.lock();
+        try {
+            final Entry existingEntry = entriesByKey.get(key);
+            if (existingEntry != null) {
+                entry = existingEntry;
+                entry.refCount++;
+                isCompiling = false;
+                hitCount++;
+            } else {
+                entry = new Entry(key);
+                entriesByKey.put(key, entry);
+                isCompiling = true;
+                missCount++;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!isCompiling) {
+            try {
+                return entry.future.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw e;
+            }
+        }
+
+        final Code code;
+        try {
+            code = requireNonNull(compile.get(), "Compiled code is null.");
+        } catch (RuntimeException | Error e) {
+            lock.lock();
+            try {
+                entriesByKey.remove(key, entry);
+            } finally {
+                lock.unlock();
+            }
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+        lock.lock();
+        try {
+            entriesByCode.put(code, entry);
+        } finally {
+            lock.unlock();
+        }
+        entry.future.complete(code);
+        return code;
+    }
+
+    /**
+     * increments the reference count of the given code, if registered.
+     *
+     * @param code code
+     *
+     * @return true if the code is registered
+     * @throws NullPointerException if code is null
+     *
+     * @since 3.2
+     */
+    public boolean retain(final Code code) {
+        requireNonNull(code, "Code is null.");
+        lock.lock();
+        try {
+            final Entry entry = entriesByCode.get(code);
+            if (entry == null) {
+                return false;
+            }
+            entry.refCount++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * decrements the reference count of the given code, if registered,
+     * and removes the code from the registry if the count drops to zero.
+     *
+     * @param code code
+     *
+     * @return true if the code was registered
+     * @throws NullPointerException if code is null
+     *
+     * @since 3.2
+     */
+    public boolean release(final Code code) {
+        requireNonNull(code, "Code is null.");
+        lock.lock();
+        try {
+            final Entry entry = entriesByCode.get(code);
+            if (entry == null) {
+                return false;
+            }
+            if (--entry.refCount == 0) {
+                entriesByCode.remove(code);
+                entriesByKey.remove(entry.key, entry);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the reference count of the given code.
+     *
+     * @param code code
+     *
+     * @return reference count, 0 if not registered
+     * @throws NullPointerException if code is null
+     *
+     * @since 3.2
+     */
+    public int getRefCount(final Code code) {
+        requireNonNull(code, "Code is null.");
+        lock.lock();
+        try {
+            final Entry entry = entriesByCode.get(code);
+            return (entry == null) ? 0 : entry.refCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the number of registered codes.
+     *
+     * @return number of registered codes
+     *
+     * @since 3.2
+     */
+    public int getCodeCount() {
+        lock.lock();
+        try {
+            return entriesByCode.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the number of times registered code was reused instead of compiling.
+     *
+     * @return number of hits
+     *
+     * @since 3.2
+     */
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gets the number of times code was compiled because it was not registered.
+     *
+     * @return number of misses
+     *
+     * @since 3.2
+     */
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return missCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // package scope for unit tests
+    static String getSourcesFingerprint(final Sources sources) {
+        final StringBuilder sb = new StringBuilder(sources.getName());
+        sources.getSourceSet().stream()
+                .sorted((s1, s2) -> s1.getId().compareTo(s2.getId()))
+                .forEach(source -> appendSourceFingerprint(sb, source));
+        return SourceUtil.md5(sb.toString());
+    }
+
+    private static void appendSourceFingerprint(final StringBuilder sb, final Source source) {
+        sb.append('\n').append(source.getId()).append('\n').append(source.getLastModified());
+        if (source instanceof TextSource) {
+            sb.append('\n').append(SourceUtil.md5(((TextSource)source).getText()));
+        }
+    }
+
+    // package scope for unit tests
+    static Object getCompilerConfigKey(final CompilerFactory compilerFactory) {
+        if (compilerFactory == null || compilerFactory.getClass() != DefaultGroovyCompilerFactory.class) {
+            return new IdentityKey(compilerFactory);
+        }
+        final DefaultGroovyCompilerFactory factory = (DefaultGroovyCompilerFactory)compilerFactory;
+        final CompilerConfiguration config = factory.getCompilerConfiguration();
+        final List<Object> compilationCustomizers = config.getCompilationCustomizers().stream()
+                .map(IdentityKey::new)
+                .collect(Collectors.toList());
+        // collections are copied, so that later changes to the configuration do not change the key
+        return Arrays.asList(
+                config.getTargetBytecode(),
+                config.getSourceEncoding(),
+                config.getScriptBaseClass(),
+                config.getDefaultScriptExtension(),
+                new HashSet<>(config.getScriptExtensions()),
+                new ArrayList<>(config.getClasspath()),
+                new HashMap<>(config.getOptimizationOptions()),
+                copyOrNull(config.getJointCompilationOptions()),
+                copyOrNull(config.getDisabledGlobalASTTransformations()),
+                config.getParameters(),
+                config.getDebug(),
+                config.getWarningLevel(),
+                config.getTolerance(),
+                compilationCustomizers,
+                factory.getCompileBudget().toString());
+    }
+
+    private static Object copyOrNull(final Map<String,Object> map) {
+        return (map == null) ? null : new HashMap<>(map);
+    }
+
+    private static Object copyOrNull(final Set<String> set) {
+        return (set == null) ? null : new HashSet<>(set);
+    }
+
+    // package scope for unit tests
+    static Object getParentKey(final ClassLoader parent) {
+        if (parent instanceof LayeredClassLoader) {
+            final LayeredClassLoader layeredClassLoader = (LayeredClassLoader)parent;
+            return Arrays.asList(getParentKey(layeredClassLoader.getBuilder().getParent()),
+                    layeredClassLoader.getLoadMode(), toIdentityKeys(layeredClassLoader.getCodeLayers()));
+        } else if (parent instanceof BytecodeClassLoader) {
+            final BytecodeClassLoader bytecodeClassLoader = (BytecodeClassLoader)parent;
+            return Arrays.asList(getParentKey(bytecodeClassLoader.getParent()),
+                    bytecodeClassLoader.getLoadMode(),
+                    toIdentityKeys(Collections.singletonList(bytecodeClassLoader.getCode())));
+        }
+        return new IdentityKey(parent);
+    }
+
+    private static List<IdentityKey> toIdentityKeys(final List<Code> codes) {
+        return codes.stream().map(IdentityKey::new).collect(Collectors.toList());
+    }
+
+    // compares the wrapped object by identity (also works for null)
+    private static class IdentityKey {
+        private final Object object;
+        private IdentityKey(final Object object) {
+            this.object = object;
+        }
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof IdentityKey && ((IdentityKey)obj).object == object;
+        }
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+    }
+
+    private static class Key {
+        private final String sourcesFingerprint;
+        private final Object compilerConfigKey;
+        private final Object parentKey;
+        private Key(final String sourcesFingerprint, final Object compilerConfigKey, final Object parentKey) {
+            this.sourcesFingerprint = sourcesFingerprint;
+            this.compilerConfigKey = compilerConfigKey;
+            this.parentKey = parentKey;
+        }
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)obj;
+            return sourcesFingerprint.equals(key.sourcesFingerprint) &&
+                    compilerConfigKey.equals(key.compilerConfigKey) &&
+                    parentKey.equals(key.parentKey);
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hash(sourcesFingerprint, compilerConfigKey, parentKey);
+        }
+    }
+
+    private static class Entry {
+        private final Key key;
+        private final CompletableFuture<Code> future = new CompletableFuture<>();
+        private int refCount = 1;
+        private Entry(final Key key) {
+            this.key = key;
+        }
+    }
+
+}
@@ -20,6 +20,10 @@ import ch.grengine.except.CompileException;
 import ch.grengine.except.LoadException;
 import ch.grengine.source.Source;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 
 /**
  * Abstract class loader that can load the main and other classes of a source.
@@ -30,6 +34,10 @@ import ch.grengine.source.Source;
  * @author Made in Switzerland.
  */
 public abstract class SourceClassLoader extends ClassLoader implements Cloneable {
+
+    static {
+        registerAsParallelCapable();
+    }
     
     /**
      * constructor from parent class loader.
@@ -95,6 +103,46 @@ public abstract class SourceClassLoader extends ClassLoader implements Cloneable
      * @since 1.0
      */
     public abstract LoadMode getLoadMode();
+
+    /**
+     * gets the names of the variables that the main class of the given source
+     * accesses in its binding, as determined when compiling the source.
+     * <p>
+     * The default implementation gets them from the code of the bytecode class loader
+     * found with {@link #findBytecodeClassLoaderBySource(Source)}.
+     *
+     * @param source source
+     *
+     * @return variable names, empty if unknown
+     * @throws CompileException if compilation was necessary and failed
+     * @throws LoadException if the source was not found
+     *
+     * @see ch.grengine.code.Code#getVariableNames(Source)
+     *
+     * @since 3.2
+     */
+    public List<String> getVariableNames(final Source source) {
+        final BytecodeClassLoader loader = findBytecodeClassLoaderBySource(source);
+        if (loader == null) {
+            throw new LoadException("Source not found: " + source);
+        }
+        return loader.getCode().getVariableNames(source);
+    }
+    
+    /**
+     * gets whether {@link #loadMainClass(Source)} would have to compile the given source.
+     * <p>
+     * The default implementation returns false, i.e. classes are only loaded from bytecode.
+     *
+     * @param source source
+     *
+     * @return whether compiling would be needed
+     *
+     * @since 3.2
+     */
+    public boolean isCompileNeeded(final Source source) {
+        return false;
+    }
     
     /**
      * creates a clone with identical behavior, typically sharing the same bytecode.
@@ -122,4 +170,22 @@ public abstract class SourceClassLoader extends ClassLoader implements Cloneable
      */
     public abstract void releaseClasses(ClassReleaser releaser);
 
+    /**
+     * release metadata for all classed ever loaded by this class loader asynchronously,
+     * like {@link #releaseClasses(ClassReleaser)}, but returning immediately.
+     * <p>
+     * The default implementation calls {@link #releaseClasses(ClassReleaser)} on the
+     * dedicated class release thread, subclasses typically collect the classes to
+     * release in the calling thread and release them with {@link ClassReleaser#releaseAll(Collection)}.
+     *
+     * @param releaser class releaser
+     *
+     * @return future that completes once all classes have been released
+     *
+     * @since 3.2
+     */
+    public CompletableFuture<Void> releaseClassesAsync(final ClassReleaser releaser) {
+        return CompletableFuture.runAsync(() -> releaseClasses(releaser), ClassReleaseExecutor.getExecutor());
+    }
+
 }
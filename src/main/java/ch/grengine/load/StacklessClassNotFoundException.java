@@ -0,0 +1,50 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+
+/**
+ * {@link ClassNotFoundException} without stack trace, for classes that are
+ * not found internally, typically while searching class loaders in turn,
+ * so that such misses are cheap.
+ *
+ * @since 3.2
+ *
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+class StacklessClassNotFoundException extends ClassNotFoundException {
+
+    private static final long serialVersionUID = 4130985046620471139L;
+
+    /**
+     * constructor from class name.
+     *
+     * @param name class name
+     *
+     * @since 3.2
+     */
+    StacklessClassNotFoundException(final String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
@@ -54,6 +54,37 @@ public interface TopCodeCache {
      * @since 1.0
      */
     SingleSourceCode getUpToDateCode(Source source);
+
+    /**
+     * gets whether {@link #getUpToDateCode(Source)} would have to compile the given source,
+     * i.e. whether no up-to-date code is cached for it.
+     * <p>
+     * The default implementation returns true, i.e. assumes compiling is needed.
+     *
+     * @param source source
+     *
+     * @return whether compiling would be needed
+     * @throws NullPointerException if source is null
+     *
+     * @since 3.2
+     */
+    default boolean isCompileNeeded(Source source) {
+        return true;
+    }
+
+    /**
+     * requests to abort all compiles currently running in this cache,
+     * see {@link ch.grengine.code.CompilerFactory#cancelAll()}.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @return whether cancelling is supported by this cache
+     *
+     * @since 3.2
+     */
+    default boolean cancelCompiles() {
+        return false;
+    }
     
     /**
      * sets the parent class loader and clears the cache.
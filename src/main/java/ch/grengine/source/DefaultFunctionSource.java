@@ -0,0 +1,141 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.source;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Text-based script source whose main class implements a given functional interface,
+ * default implementation of the {@link FunctionSource} interface.
+ * <p>
+ * The source ID is {@literal "/groovy/script/Function<hash>"}, where the hash is
+ * calculated like for {@link DefaultTextSource}, but from the script text together
+ * with the name of the functional interface and the parameter names, so the name
+ * of the compiled script class will normally be {@literal "Function<hash>"}.
+ * <p>
+ * The method {@link #getLastModified()} always returns 0.
+ * 
+ * @since 3.2
+ * 
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public class DefaultFunctionSource extends BaseSource implements FunctionSource {
+
+    private final String text;
+    private final Class<?> functionInterface;
+    private final Method functionMethod;
+    private final List<String> parameterNames;
+
+    /**
+     * constructor from script text, functional interface and parameter names.
+     *
+     * @param text script text
+     * @param functionInterface functional interface, must be an interface with
+     *                          exactly one abstract method
+     * @param parameterNames names under which the parameters of the function method
+     *                       are available in the script, one per parameter
+     *
+     * @throws NullPointerException if any of the arguments is null
+     * @throws IllegalArgumentException if the functional interface is not an interface
+     *     with exactly one abstract method or if the number of parameter names does not
+     *     match the number of parameters of that method
+     * 
+     * @since 3.2
+     */
+    public DefaultFunctionSource(final String text, final Class<?> functionInterface,
+            final String... parameterNames) {
+        requireNonNull(text, "Text is null.");
+        requireNonNull(functionInterface, "Function interface is null.");
+        requireNonNull(parameterNames, "Parameter names are null.");
+        functionMethod = getFunctionMethod(functionInterface);
+        if (parameterNames.length != functionMethod.getParameterCount()) {
+            throw new IllegalArgumentException("Got " + parameterNames.length + " parameter names for method '" +
+                    functionMethod.getName() + "' with " + functionMethod.getParameterCount() + " parameters.");
+        }
+        for (String parameterName : parameterNames) {
+            requireNonNull(parameterName, "Parameter name is null.");
+        }
+        this.text = text;
+        this.functionInterface = functionInterface;
+        this.parameterNames = Collections.unmodifiableList(Arrays.asList(parameterNames.clone()));
+        id = "/groovy/script/Function" + SourceUtil.md5(text + "\n" + functionInterface.getName() +
+                "\n" + String.join(",", this.parameterNames));
+    }
+
+    // gets the single abstract method, not counting public methods of Object
+    private static Method getFunctionMethod(final Class<?> functionInterface) {
+        if (!functionInterface.isInterface()) {
+            throw new IllegalArgumentException("Not an interface: " + functionInterface.getName());
+        }
+        final List<Method> methods = Arrays.stream(functionInterface.getMethods())
+                .filter(m -> Modifier.isAbstract(m.getModifiers()))
+                .filter(m -> !isPublicObjectMethod(m))
+                .collect(Collectors.toList());
+        if (methods.size() != 1) {
+            throw new IllegalArgumentException("Interface " + functionInterface.getName() + " has " +
+                    methods.size() + " abstract methods, must have exactly one.");
+        }
+        return methods.get(0);
+    }
+
+    private static boolean isPublicObjectMethod(final Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[ID=" + getId() +
+                ", functionInterface=" + functionInterface.getName() +
+                ", parameterNames=" + parameterNames +
+                ", text='" + SourceUtil.getTextStartNoLineBreaks(getText(), 200) + "']";
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public Class<?> getFunctionInterface() {
+        return functionInterface;
+    }
+
+    @Override
+    public Method getFunctionMethod() {
+        return functionMethod;
+    }
+
+    @Override
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.util.Objects.requireNonNull;
 
@@ -222,6 +223,8 @@ public class DefaultSourceFactory implements SourceFactory {
 
     
     class ContentTrackingUrlSource extends DefaultUrlSource {
+
+        private final ReentrantLock lock = new ReentrantLock();
         
         private ContentTrackingUrlSource(URL url) {
             super(url);
@@ -247,7 +250,8 @@ public class DefaultSourceFactory implements SourceFactory {
                 }
             }
 
-            synchronized(this) {
+            lock.lock();
+            try {
                 // prevent multiple updates
                 info = urlContentTrackingMap.get(this);
                 if (info != null) {
@@ -266,6 +270,8 @@ public class DefaultSourceFactory implements SourceFactory {
                     urlContentTrackingMap.put(this, new TrackingInfo(now, now, textHashNew));
                     return now;
                 }
+            } finally {
+                lock.unlock();
             }
         }
         
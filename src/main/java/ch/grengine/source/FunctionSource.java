@@ -0,0 +1,67 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.source;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+
+/**
+ * Interface for a text-based script source whose main class implements
+ * a given functional interface.
+ * <p>
+ * When compiled, the script body becomes the implementation of the single
+ * abstract method of the interface, with the method parameters available
+ * in the script under the given parameter names, so that the script can be
+ * invoked by a direct interface call instead of via a {@link groovy.lang.Binding}.
+ * 
+ * @since 3.2
+ * 
+ * @author Alain Stalder
+ * @author Made in Switzerland.
+ */
+public interface FunctionSource extends TextSource {
+
+    /**
+     * gets the functional interface implemented by the main class of the script.
+     *
+     * @return functional interface
+     *
+     * @since 3.2
+     */
+    Class<?> getFunctionInterface();
+
+    /**
+     * gets the single abstract method of the functional interface.
+     *
+     * @return function method
+     *
+     * @since 3.2
+     */
+    Method getFunctionMethod();
+
+    /**
+     * gets the names under which the parameters of the function method
+     * are available in the script.
+     *
+     * @return parameter names, one per parameter of the function method
+     *
+     * @since 3.2
+     */
+    List<String> getParameterNames();
+
+}
@@ -21,6 +21,7 @@ import ch.grengine.code.CompilerFactory;
 import ch.grengine.source.SourceSetState;
 
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -37,6 +38,7 @@ public abstract class BaseSources implements Sources {
     private CompilerFactory compilerFactory;
     private long latencyMs;
     private volatile SourceSetState state;
+    private final ReentrantLock lock = new ReentrantLock();
 
     /**
      * constructor.
@@ -82,7 +84,8 @@ public abstract class BaseSources implements Sources {
             return stateNow.getSourceSet();
         }
         
-        synchronized(this) {
+        lock.lock();
+        try {
             // prevent multiple updates
             stateNow = state;
             diff = System.currentTimeMillis() - stateNow.getLastChecked();
@@ -91,6 +94,8 @@ public abstract class BaseSources implements Sources {
             }
             state = stateNow.update(getSourceSetNew());
             return state.getSourceSet();
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -0,0 +1,73 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class AsyncExecutorsTest {
+
+    @Test
+    void testDefaultRunExecutor() throws Exception {
+
+        // when
+
+        final Executor executor = AsyncExecutors.getDefaultRunExecutor();
+
+        // then
+
+        assertThat(AsyncExecutors.getDefaultRunExecutor(), sameInstance(executor));
+        if (AsyncExecutors.isVirtualThreadPerTaskExecutorAvailable()) {
+            assertThat(executor, not(sameInstance(ForkJoinPool.commonPool())));
+            final Object isVirtual = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, executor).get();
+            assertThat(isVirtual, is(true));
+        } else {
+            assertThat(executor, sameInstance(ForkJoinPool.commonPool()));
+        }
+    }
+
+    @Test
+    void testDefaultCompileExecutor() throws Exception {
+
+        // when
+
+        final Executor executor = AsyncExecutors.getDefaultCompileExecutor();
+        final Thread thread = CompletableFuture.supplyAsync(Thread::currentThread, executor).get();
+
+        // then
+
+        assertThat(AsyncExecutors.getDefaultCompileExecutor(), sameInstance(executor));
+        assertThat(thread.getName().startsWith(AsyncExecutors.COMPILE_THREAD_NAME_PREFIX), is(true));
+        assertThat(thread.isDaemon(), is(true));
+    }
+
+}
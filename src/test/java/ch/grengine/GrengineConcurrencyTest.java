@@ -27,17 +27,31 @@ import ch.grengine.source.Source;
 import ch.grengine.sources.FixedSetSources;
 import ch.grengine.sources.Sources;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
 
 class GrengineConcurrencyTest {
 
+    private static final int VIRTUAL_THREAD_COUNT = 100_000;
+    private static final int SOURCE_CHANGE_COUNT = 50;
+
     private final EngineConcurrencyTestFrame frame = new EngineConcurrencyTestFrame();
 
     private static class GrengineConcurrencyTestContext implements ConcurrencyTestContext {
@@ -112,4 +126,74 @@ class GrengineConcurrencyTest {
                 new GrengineConcurrencyTestContext(engine));
     }
 
+    @Test
+    void testVirtualThreadsWhileChangingSources() throws Exception {
+
+        // given (Java 21 or later)
+
+        final ExecutorService executor = newVirtualThreadPerTaskExecutorOrNull();
+        assumeTrue(executor != null, "Virtual threads not available.");
+
+        final MockTextSource layerSource = new MockTextSource("class Counter { static int get() { 0 } }");
+        final Sources sources = new FixedSetSources.Builder(SourceUtil.sourceArrayToSourceSet(layerSource))
+                .setLatencyMs(5)
+                .setName("changing")
+                .build();
+        final Grengine gren = new Grengine.Builder()
+                .setSourcesLayers(sources)
+                .setLatencyMs(5)
+                .build();
+        final MockTextSource topSource = new MockTextSource("Counter.get() + x");
+        final Thread updater = new Thread(() -> {
+            for (int i = 1; i <= SOURCE_CHANGE_COUNT; i++) {
+                layerSource.setText("class Counter { static int get() { " + i + " } }");
+                layerSource.setLastModified(i);
+                topSource.setText("Counter.get() + x + 0 * " + i);
+                topSource.setLastModified(i);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        // when
+
+        updater.start();
+        final AtomicInteger errorCount = new AtomicInteger();
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < VIRTUAL_THREAD_COUNT; i++) {
+                final int x = i % 7;
+                futures.add(executor.submit(() -> {
+                    final Object result = gren.run(topSource, gren.binding("x", x));
+                    if (!(result instanceof Integer) || (Integer)result < x) {
+                        errorCount.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            updater.interrupt();
+            updater.join();
+            executor.shutdown();
+        }
+
+        // then
+
+        assertThat(errorCount.get(), is(0));
+        assertThat(gren.getLastUpdateException(), is(nullValue()));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutorOrNull() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
 }
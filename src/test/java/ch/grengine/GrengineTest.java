@@ -20,6 +20,7 @@ import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
 import ch.grengine.engine.Engine;
 import ch.grengine.engine.LayeredEngine;
 import ch.grengine.engine.Loader;
+import ch.grengine.except.CompileAbortedException;
 import ch.grengine.except.CompileException;
 import ch.grengine.except.CreateException;
 import ch.grengine.except.GrengineException;
@@ -54,22 +55,36 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyShell;
 import groovy.lang.Script;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
 import org.junit.jupiter.api.Test;
 
+import static ch.grengine.TestUtil.toRuntimeException;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 class GrengineTest {
@@ -119,6 +134,13 @@ class GrengineTest {
         assertThat(gren.getBuilder().getSourcesLayers().size(), is(0));
 
         assertThat(gren.getBuilder().getLatencyMs(), is(Grengine.Builder.DEFAULT_LATENCY_MS));
+
+        assertThat(gren.getRunExecutor(), is(AsyncExecutors.getDefaultRunExecutor()));
+        assertThat(gren.getRunExecutor(), is(gren.getBuilder().getRunExecutor()));
+        assertThat(gren.getCompileExecutor(), is(AsyncExecutors.getDefaultCompileExecutor()));
+        assertThat(gren.getCompileExecutor(), is(gren.getBuilder().getCompileExecutor()));
+        assertThat(gren.isScriptReuse(), is(false));
+        assertThat(gren.getBuilder().isScriptReuse(), is(false));
     }
 
     @Test
@@ -131,6 +153,8 @@ class GrengineTest {
         final SourceFactory sourceFactory = new DefaultSourceFactory();
         final List<Sources> sourcesLayers = new LinkedList<>();
         final UpdateExceptionNotifier notifier = new MockUpdateExceptionNotifier(null);
+        final Executor runExecutor = Runnable::run;
+        final Executor compileExecutor = Runnable::run;
 
         // when
 
@@ -141,6 +165,9 @@ class GrengineTest {
                 .setSourcesLayers(sourcesLayers)
                 .setUpdateExceptionNotifier(notifier)
                 .setLatencyMs(99)
+                .setRunExecutor(runExecutor)
+                .setCompileExecutor(compileExecutor)
+                .setScriptReuse(true)
                 .build();
 
         // then
@@ -153,6 +180,10 @@ class GrengineTest {
         assertThat(gren.getBuilder().getSourcesLayers(), is(sourcesLayers));
         assertThat(gren.getBuilder().getUpdateExceptionNotifier(), is(notifier));
         assertThat(gren.getBuilder().getLatencyMs(), is(99L));
+        assertThat(gren.getRunExecutor(), is(runExecutor));
+        assertThat(gren.getCompileExecutor(), is(compileExecutor));
+        assertThat(gren.isScriptReuse(), is(true));
+        assertThat(gren.getBuilder().isScriptReuse(), is(true));
     }
 
     @Test
@@ -1829,5 +1860,430 @@ class GrengineTest {
                 "Cause: ch.grengine.except.ClassNameConflictException: Found 1 class name conflict(s)"), is(true));
     }
 
-}
+    public interface IntFunction2 {
+        int apply(int x, int y);
+    }
+
+    public interface Greeter {
+        String greet(String name) throws Exception;
+        @Override
+        boolean equals(Object obj);
+    }
+
+    @Test
+    void testCreateFunction() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+
+        // when
+
+        final IntFunction2 f = gren.createFunction(IntFunction2.class, "x * 10 + y", "x", "y");
+        final IntFunction2 f2 = gren.createFunction(IntFunction2.class, "x * 10 + y", "x", "y");
+        final IntFunction2 fSwapped = gren.createFunction(IntFunction2.class, "x * 10 + y", "y", "x");
+
+        // then
+
+        assertThat(f.apply(3, 4), is(34));
+        assertThat(f.apply(5, 6), is(56));
+        assertThat(f instanceof Script, is(true));
+        assertThat(f2.getClass(), is(f.getClass()));
+        assertThat(fSwapped.getClass(), not(f.getClass()));
+        assertThat(fSwapped.apply(3, 4), is(43));
+        assertThat(((Script)f).run(), is(nullValue()));
+
+        // when
+
+        final Loader loader = gren.newAttachedLoader();
+        final Greeter greeter = gren.createFunction(loader, Greeter.class,
+                "import java.util.concurrent.atomic.AtomicInteger\n" +
+                        "def count = new AtomicInteger(2)\n" +
+                        "prefix + name + count.incrementAndGet()", "name");
+        ((Script)greeter).getBinding().setVariable("prefix", "Hello ");
+
+        // then
+
+        assertThat(greeter.greet("Alice"), is("Hello Alice3"));
+        assertThat(greeter.getClass().getClassLoader(), not(f.getClass().getClassLoader()));
+    }
+
+    @Test
+    void testCreateFunctionIllegalArguments() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+
+        // when/then
+
+        TestUtil.assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> gren.createFunction(String.class, "x", "x"),
+                "Not an interface: java.lang.String");
+        TestUtil.assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> gren.createFunction(IntFunction2.class, "x", "x"),
+                "Got 1 parameter names for method 'apply' with 2 parameters.");
+        TestUtil.assertThrowsMessageIs(NullPointerException.class,
+                () -> gren.createFunction(IntFunction2.class, "x", "x", null),
+                "Parameter name is null.");
+    }
+
+    @Test
+    void testCreateFunctionNoScriptBody() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+
+        // when/then
+
+        TestUtil.assertThrowsMessageStartsWith(CompileException.class,
+                () -> gren.createFunction(IntFunction2.class, "class NoScriptBody {}", "x", "y"),
+                "No script body to implement function interface " + IntFunction2.class.getName() +
+                        " for source DefaultFunctionSource[ID=");
+    }
+
+    @Test
+    void testSlotLayout() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final String text = "def sum = a + b\nout << sum\nsum";
+
+        // when
+
+        final SlotLayout layout = gren.slotLayout(text);
+        final SlotBinding binding = layout.newBinding();
+        final Script script = gren.create(text);
+        script.setBinding(binding);
+        final StringBuilder out = new StringBuilder();
+        binding.set(layout.indexOf("out"), out);
+
+        // then
+
+        assertThat(layout.getNames(), is(Arrays.asList("a", "b", "out")));
+        for (int i = 0; i < 3; i++) {
+            binding.set(layout.indexOf("a"), i);
+            binding.set(layout.indexOf("b"), 10);
+            assertThat(script.run(), is(10 + i));
+        }
+        assertThat(out.toString(), is("101112"));
+        assertThat(gren.slotLayout(gren.source("1")).size(), is(0));
+        assertThat(gren.slotLayout(gren.newAttachedLoader(), text).getNames(), is(layout.getNames()));
+    }
+
+    @Test
+    void testRunWithScriptReuse() {
+
+        // given
+
+        final String text = "@groovy.transform.Field int count = 0\ncount++\nreturn x + ':' + count";
+        final MockTextSource source = new MockTextSource(text);
+        final Grengine gren = new Grengine.Builder()
+                .setScriptReuse(true)
+                .build();
+
+        // when/then
+
+        assertThat(gren.run(source, gren.binding("x", "a")), is("a:1"));
+        assertThat(gren.run(source, gren.binding("x", "b")), is("b:2"));
+        assertThat(gren.run(gren.getLoader(), source, Collections.singletonMap("x", "c")), is("c:3"));
+
+        // when (recompiled, same main class name, new class)
+
+        source.setText(text.replace("':'", "'='"));
+        source.setLastModified(1);
+
+        // then (cached instance replaced)
+
+        assertThat(gren.run(source, gren.binding("x", "d")), is("d=1"));
+        assertThat(gren.run(source, gren.binding("x", "e")), is("e=2"));
+        assertThat(gren.getScriptReuseCache().size(), is(1));
+    }
+
+    @Test
+    void testRunWithScriptReuseClearedOnLayerUpdateAndClose() throws Exception {
+
+        // given
+
+        final MockTextSource layerSource = new MockTextSource("return 0");
+        final Sources sources = new FixedSetSources.Builder(SourceUtil.sourceArrayToSourceSet(layerSource))
+                .setLatencyMs(0)
+                .build();
+        final Grengine gren = new Grengine.Builder()
+                .setSourcesLayers(sources)
+                .setLatencyMs(0)
+                .setScriptReuse(true)
+                .build();
+        final Source source = gren.source("@groovy.transform.Field int count = 0\ncount++\nreturn count");
+
+        // when/then
+
+        assertThat(gren.run(source), is(1));
+        assertThat(gren.run(source), is(2));
+
+        // when (code layers updated)
+
+        layerSource.setText("return 1");
+        layerSource.setLastModified(1);
+        Thread.sleep(30);
+
+        // then (new instance)
+
+        assertThat(gren.run(source), is(1));
+        assertThat(gren.run(source), is(2));
+        assertThat(gren.getScriptReuseCache().size(), is(1));
+
+        // when
+
+        gren.close();
+
+        // then
+
+        assertThat(gren.getScriptReuseCache().size(), is(0));
+    }
+
+    @Test
+    void testRunWithoutScriptReuse() {
+
+        // given
+
+        final Source source = new MockTextSource("@groovy.transform.Field int count = 0\ncount++\nreturn count");
+        final Grengine gren = new Grengine();
+
+        // when/then
+
+        assertThat(gren.run(source), is(1));
+        assertThat(gren.run(source), is(1));
+        assertThat(gren.getScriptReuseCache().size(), is(0));
+    }
 
+    @Test
+    void testRunAsync() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("Thread.currentThread().name + ':' + x");
+
+        // when
+
+        final CompletableFuture<Object> f1 = gren.runAsync("return 5");
+        final CompletableFuture<Object> f2 = gren.runAsync(source, gren.binding("x", 2));
+
+        // then
+
+        assertThat(f1.get(), is(5));
+        assertThat(((String)f2.get()).endsWith(":2"), is(true));
+        assertThat(((String)f2.get()).startsWith(AsyncExecutors.COMPILE_THREAD_NAME_PREFIX), is(false));
+    }
+
+    @Test
+    void testRunAsyncExecutors() throws Exception {
+
+        // given
+
+        final AtomicInteger runCount = new AtomicInteger();
+        final AtomicInteger compileCount = new AtomicInteger();
+        final List<String> compileThreadNames = Collections.synchronizedList(new LinkedList<>());
+        final Grengine gren = new Grengine.Builder()
+                .setRunExecutor(r -> {
+                    runCount.incrementAndGet();
+                    new Thread(r, "run-thread").start();
+                })
+                .setCompileExecutor(r -> {
+                    compileCount.incrementAndGet();
+                    new Thread(() -> {
+                        compileThreadNames.add(Thread.currentThread().getName());
+                        r.run();
+                    }, "compile-thread").start();
+                })
+                .build();
+        final Map<String,Object> bindingMap = new HashMap<>();
+        bindingMap.put("x", 3);
+        final Loader loader = gren.newAttachedLoader();
+
+        // when
+
+        final Object result1 = gren.runAsync("Thread.currentThread().name + x", bindingMap).get();
+        final Object result2 = gren.runAsync(loader, gren.source("Thread.currentThread().name")).get();
+
+        // then (checked and run with the run executor, compiled with the compile executor)
+
+        assertThat(result1, is("run-thread3"));
+        assertThat(result2, is("run-thread"));
+        assertThat(runCount.get(), is(4));
+        assertThat(compileCount.get(), is(2));
+        assertThat(compileThreadNames, is(Arrays.asList("compile-thread", "compile-thread")));
+
+        // when (already compiled)
+
+        final Object result3 = gren.runAsync(loader, gren.source("Thread.currentThread().name")).get();
+
+        // then (only the run executor is used)
+
+        assertThat(result3, is("run-thread"));
+        assertThat(runCount.get(), is(5));
+        assertThat(compileCount.get(), is(2));
+    }
+
+    @Test
+    void testRunAsyncExceptions() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+
+        // when
+
+        final CompletableFuture<Object> fCompile = gren.runAsync("&%&%");
+        final CompletableFuture<Object> fRun = gren.runAsync("throw new IllegalStateException('boom')");
+
+        // then
+
+        final ExecutionException eCompile = assertThrows(ExecutionException.class, fCompile::get);
+        assertThat(eCompile.getCause(), instanceOf(CompileException.class));
+        final CompletionException eRun = assertThrows(CompletionException.class, fRun::join);
+        assertThat(eRun.getCause(), instanceOf(IllegalStateException.class));
+        assertThat(eRun.getCause().getMessage(), is("boom"));
+    }
+
+    @Test
+    void testEvaluateAll() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("x * 2");
+        final List<Map<String,Object>> bindingMaps = new LinkedList<>();
+        for (int i = 0; i < 1000; i++) {
+            final Map<String,Object> bindingMap = new HashMap<>();
+            bindingMap.put("x", i);
+            bindingMaps.add(bindingMap);
+        }
+
+        // when
+
+        final List<Object> results = gren.evaluateAll(source, bindingMaps);
+
+        // then
+
+        assertThat(results.size(), is(1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(results.get(i), is(i * 2));
+        }
+
+        // when
+
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final Loader loader = gren.newAttachedLoader();
+        final Iterable<Map<String,Object>> iterable = bindingMaps::iterator;
+        final List<Object> resultsPool = gren.evaluateAll(loader, source, iterable, pool);
+        final List<Object> resultsLoader = gren.evaluateAll(loader, source, bindingMaps);
+        pool.shutdown();
+
+        // then
+
+        assertThat(resultsPool, is(results));
+        assertThat(resultsLoader, is(results));
+        assertThat(gren.evaluateAll(source, Collections.emptyList()).size(), is(0));
+    }
+
+    @Test
+    void testEvaluateAllReusesScriptInstances() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("System.identityHashCode(this)");
+        final List<Map<String,Object>> bindingMaps = Collections.nCopies(1000, Collections.emptyMap());
+        final ForkJoinPool pool = new ForkJoinPool(2);
+
+        // when
+
+        final List<Object> results = gren.evaluateAll(gren.getLoader(), source, bindingMaps, pool);
+        pool.shutdown();
+
+        // then (at most four ranges per worker)
+
+        assertThat(new HashSet<>(results).size() <= 8, is(true));
+    }
+
+    @Test
+    void testEvaluateAllScriptThrows() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("if (x == 500) throw new IllegalStateException('x: ' + x); x");
+        final List<Map<String,Object>> bindingMaps = new LinkedList<>();
+        for (int i = 0; i < 1000; i++) {
+            bindingMaps.add(Collections.singletonMap("x", i));
+        }
+
+        // when/then
+
+        TestUtil.assertThrowsMessageIs(IllegalStateException.class,
+                () -> gren.evaluateAll(source, bindingMaps),
+                "x: 500");
+    }
+
+    @Test
+    void testEvaluateAllIllegalArguments() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("1");
+
+        // when/then
+
+        TestUtil.assertThrowsMessageIs(NullPointerException.class,
+                () -> gren.evaluateAll(source, null),
+                "Binding maps are null.");
+        TestUtil.assertThrowsMessageIs(NullPointerException.class,
+                () -> gren.evaluateAll(gren.getLoader(), source, Collections.emptyList(), null),
+                "Pool is null.");
+        TestUtil.assertThrowsMessageStartsWith(CompileException.class,
+                () -> gren.evaluateAll(gren.source("&%&%"), Collections.emptyList()),
+                "Compile failed");
+    }
+
+    @Test
+    void testCancelCompiles() throws Exception {
+
+        // given (compiling waits in the middle until the test has cancelled it)
+
+        final CountDownLatch compiling = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new CompilationCustomizer(CompilePhase.SEMANTIC_ANALYSIS) {
+            @Override
+            public void call(final SourceUnit source, final GeneratorContext context, final ClassNode classNode) {
+                if (compiling.getCount() > 0) {
+                    compiling.countDown();
+                    toRuntimeException(cancelled::await);
+                }
+            }
+        });
+        final Grengine gren = new Grengine(config);
+        final CompletableFuture<Object> future = CompletableFuture.supplyAsync(() -> gren.run("return 1"));
+        compiling.await();
+
+        // when (from another thread)
+
+        final boolean isSupported = gren.cancelCompiles();
+        cancelled.countDown();
+
+        // then
+
+        assertThat(isSupported, is(true));
+        final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(CompileAbortedException.class));
+        assertThat(((CompileAbortedException)e.getCause()).getReason(),
+                is(CompileAbortedException.Reason.CANCELLED));
+        assertThat(gren.run("return 1"), is(1));
+    }
+
+}
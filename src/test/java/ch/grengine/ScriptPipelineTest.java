@@ -0,0 +1,408 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.engine.Loader;
+import ch.grengine.except.GrengineException;
+import ch.grengine.source.MockTextSource;
+import ch.grengine.source.Source;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.assertThrowsMessageStartsWith;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class ScriptPipelineTest {
+
+    @Test
+    void testConstructDefaults() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("record");
+        final ScriptPipeline.Builder builder = new ScriptPipeline.Builder(gren).addStage(source);
+
+        // when
+
+        final ScriptPipeline pipeline = builder.build();
+
+        // then
+
+        assertThat(pipeline.getBuilder(), is(builder));
+        assertThat(builder.getGrengine(), is(gren));
+        assertThat(builder.getStageSources(), is(Arrays.asList(source)));
+        assertThat(builder.getStageWorkerCounts(), is(Arrays.asList(1)));
+        assertThat(builder.getLoader(), is(gren.getLoader()));
+        assertThat(builder.getQueueCapacity(), is(ScriptPipeline.Builder.DEFAULT_QUEUE_CAPACITY));
+        assertThat(builder.getBatchSize(), is(ScriptPipeline.Builder.DEFAULT_BATCH_SIZE));
+        assertThat(builder.getRecordVariableName(), is(ScriptPipeline.Builder.DEFAULT_RECORD_VARIABLE_NAME));
+        assertThat(pipeline.toString(), is("ScriptPipeline[stages=1, queueCapacity=16, batchSize=100]"));
+    }
+
+    @Test
+    void testConstructAllDefined() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source1 = gren.source("record");
+        final Source source2 = gren.source("rec");
+        final Loader loader = gren.newAttachedLoader();
+
+        // when
+
+        final ScriptPipeline.Builder builder = new ScriptPipeline.Builder(gren)
+                .addStage(source1, 3)
+                .addStage(source2)
+                .setLoader(loader)
+                .setQueueCapacity(5)
+                .setBatchSize(7)
+                .setRecordVariableName("rec");
+        builder.build();
+
+        // then
+
+        assertThat(builder.getStageSources(), is(Arrays.asList(source1, source2)));
+        assertThat(builder.getStageWorkerCounts(), is(Arrays.asList(3, 1)));
+        assertThat(builder.getLoader(), is(loader));
+        assertThat(builder.getQueueCapacity(), is(5));
+        assertThat(builder.getBatchSize(), is(7));
+        assertThat(builder.getRecordVariableName(), is("rec"));
+    }
+
+    @Test
+    void testConstructIllegalArguments() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline.Builder builder = new ScriptPipeline.Builder(gren);
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new ScriptPipeline.Builder(null),
+                "Grengine is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> builder.addStage(null),
+                "Source is null.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.addStage(gren.source("record"), 0),
+                "Worker count is less than one.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                builder::build,
+                "No stages.");
+    }
+
+    @Test
+    void testModifyBuilderAfterUse() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline.Builder builder = new ScriptPipeline.Builder(gren).addStage(gren.source("record"));
+        builder.build();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setBatchSize(3),
+                "Builder already used.");
+    }
+
+    @Test
+    void testFilterEnrichRoute() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("record % 2 == 0 ? record : null"), 2)
+                .addStage(gren.source("record * 10"), 3)
+                .addStage(gren.source("(record % 4 == 0 ? 'a:' : 'b:') + record"))
+                .setBatchSize(7)
+                .setQueueCapacity(2)
+                .build();
+        final List<Integer> records = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+
+        // when
+
+        final Set<Object> results = new HashSet<>();
+        try (ScriptPipeline.Output output = pipeline.start(records.iterator())) {
+            output.forEachRemaining(results::add);
+        }
+
+        // then
+
+        final Set<Object> expected = records.stream()
+                .filter(r -> r % 2 == 0)
+                .map(r -> r * 10)
+                .map(r -> (r % 4 == 0 ? "a:" : "b:") + r)
+                .collect(Collectors.toSet());
+        assertThat(results, is(expected));
+    }
+
+    @Test
+    void testSingleWorkersKeepOrder() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("r + 1"))
+                .addStage(gren.source("r * 2"))
+                .setRecordVariableName("r")
+                .setBatchSize(3)
+                .build();
+
+        // when
+
+        final ScriptPipeline.Output output = pipeline.start(Arrays.asList(1, 2, 3, 4, 5, 6, 7).iterator());
+        final List<Object> results = new ArrayList<>();
+        output.forEachRemaining(results::add);
+
+        // then
+
+        assertThat(results, is(Arrays.asList(4, 6, 8, 10, 12, 14, 16)));
+        assertThat(output.hasNext(), is(false));
+        assertThrowsMessageIs(NoSuchElementException.class, output::next, "No more records.");
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("record"))
+                .addStage(gren.source("record"))
+                .setBatchSize(10)
+                .setQueueCapacity(2)
+                .build();
+        final AtomicInteger readCount = new AtomicInteger();
+        final Iterator<Object> records = new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+            @Override
+            public Object next() {
+                return readCount.incrementAndGet();
+            }
+        };
+
+        // when (not consuming output)
+
+        try (ScriptPipeline.Output output = pipeline.start(records)) {
+            Thread.sleep(500);
+            final int readCountBefore = readCount.get();
+            Thread.sleep(200);
+
+            // then (3 queues with 2 batches each, plus one batch per thread)
+
+            assertThat(readCount.get(), is(readCountBefore));
+            assertThat(readCount.get() <= (3 * 2 + 3) * 10, is(true));
+
+            // when (consuming some output)
+
+            for (int i = 1; i <= 100; i++) {
+                assertThat(output.next(), is(i));
+            }
+
+            // then
+
+            Thread.sleep(200);
+            assertThat(readCount.get() > readCountBefore, is(true));
+        }
+    }
+
+    @Test
+    void testPicksUpRecompiledScript() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final MockTextSource source = new MockTextSource("'v1'");
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(source)
+                .setBatchSize(1)
+                .setQueueCapacity(1)
+                .build();
+        final Iterator<Object> records = new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+            @Override
+            public Object next() {
+                return "record";
+            }
+        };
+
+        // when
+
+        try (ScriptPipeline.Output output = pipeline.start(records)) {
+            assertThat(output.next(), is("v1"));
+            source.setText("'v2'");
+            source.setLastModified(1);
+
+            // then
+
+            boolean isV2 = false;
+            for (int i = 0; i < 1000 && !isV2; i++) {
+                isV2 = "v2".equals(output.next());
+            }
+            assertThat(isV2, is(true));
+            assertThat(output.next(), is("v2"));
+        }
+    }
+
+    @Test
+    void testStageFails() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Source source = gren.source("if (record == 5) throw new IllegalStateException('five'); record");
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("record"))
+                .addStage(source, 2)
+                .setBatchSize(2)
+                .build();
+        final Iterator<Integer> records = IntStream.range(0, 100).iterator();
+
+        // when
+
+        final ScriptPipeline.Output output = pipeline.start(records);
+
+        // then
+
+        final GrengineException e = assertThrows(GrengineException.class,
+                () -> output.forEachRemaining(record -> { }));
+        assertThat(e.getMessage().startsWith("Script pipeline failed in stage 1 for source " + source + "."), is(true));
+        assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        assertThat(e.getCause().getMessage(), is("five"));
+        assertThrowsMessageStartsWith(GrengineException.class, output::hasNext, "Script pipeline failed");
+    }
+
+    @Test
+    void testReadingRecordsFails() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("record"))
+                .build();
+        final Iterator<Object> records = new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+            @Override
+            public Object next() {
+                throw new IllegalStateException("cannot read");
+            }
+        };
+
+        // when
+
+        final ScriptPipeline.Output output = pipeline.start(records);
+
+        // then
+
+        assertThrowsMessageStartsWith(GrengineException.class, output::hasNext,
+                "Script pipeline failed reading records.");
+    }
+
+    @Test
+    void testClose() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("record"), 3)
+                .build();
+        final Iterator<Object> records = new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+            @Override
+            public Object next() {
+                return 1;
+            }
+        };
+        final ScriptPipeline.Output output = pipeline.start(records);
+        assertThat(output.next(), is(1));
+
+        // when
+
+        output.close();
+
+        // then
+
+        assertThat(output.hasNext(), is(false));
+        for (int i = 0; i < 100 && countPipelineThreads() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(countPipelineThreads(), is(0L));
+    }
+
+    @Test
+    void testStartRecordsNull() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptPipeline pipeline = new ScriptPipeline.Builder(gren)
+                .addStage(gren.source("record"))
+                .build();
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> pipeline.start(null),
+                "Records are null.");
+    }
+
+    private static long countPipelineThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("grengine-pipeline-"))
+                .count();
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import ch.grengine.engine.Loader;
+import ch.grengine.source.Source;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import groovy.lang.Binding;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class ScriptReuseCacheTest {
+
+    private static final String COUNTING_TEXT = "@groovy.transform.Field int count = 0\ncount++\nreturn x + ':' + count";
+
+    @Test
+    void testRunReusesInstance() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source(COUNTING_TEXT);
+        final Class<?> clazz = gren.loadMainClass(loader, source);
+
+        // when/then
+
+        assertThat(cache.run(loader, source, clazz, gren.binding("x", "a")), is("a:1"));
+        assertThat(cache.run(loader, source, clazz, gren.binding("x", "b")), is("b:2"));
+        assertThat(cache.run(loader, source, clazz, gren.binding("x", "c")), is("c:3"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    void testRunResetsBinding() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source("y = x; return x");
+        final Class<?> clazz = gren.loadMainClass(loader, source);
+        final Binding binding = gren.binding("x", 1);
+
+        // when
+
+        final Object result = cache.run(loader, source, clazz, binding);
+
+        // then
+
+        assertThat(result, is(1));
+        assertThat(binding.getVariable("y"), is(1));
+        assertThat(cache.getScript(loader, source).getBinding(), is(not(binding)));
+        assertThat(cache.getScript(loader, source).getBinding().getVariables().isEmpty(), is(true));
+    }
+
+    @Test
+    void testRunEvictsInstanceWhenClassChanges() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source(COUNTING_TEXT);
+        final Class<?> clazz1 = gren.loadMainClass(gren.newDetachedLoader(), source);
+        final Class<?> clazz2 = gren.loadMainClass(gren.newDetachedLoader(), source);
+        assertThat(clazz1.getName(), is(clazz2.getName()));
+        assertThat(clazz1 == clazz2, is(false));
+
+        // when/then (e.g. recompiled)
+
+        assertThat(cache.run(loader, source, clazz1, gren.binding("x", "a")), is("a:1"));
+        assertThat(cache.run(loader, source, clazz1, gren.binding("x", "b")), is("b:2"));
+        assertThat(cache.run(loader, source, clazz2, gren.binding("x", "c")), is("c:1"));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getScript(loader, source), instanceOf(clazz2));
+    }
+
+    @Test
+    void testRunSameClassNameInDifferentLoaders() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Source source = gren.source(COUNTING_TEXT);
+        final Loader loader1 = gren.newDetachedLoader();
+        final Loader loader2 = gren.newDetachedLoader();
+        final Class<?> clazz1 = gren.loadMainClass(loader1, source);
+        final Class<?> clazz2 = gren.loadMainClass(loader2, source);
+
+        // when/then (no eviction when alternating)
+
+        assertThat(cache.run(loader1, source, clazz1, gren.binding("x", "a")), is("a:1"));
+        assertThat(cache.run(loader2, source, clazz2, gren.binding("x", "b")), is("b:1"));
+        assertThat(cache.run(loader1, source, clazz1, gren.binding("x", "c")), is("c:2"));
+        assertThat(cache.run(loader2, source, clazz2, gren.binding("x", "d")), is("d:2"));
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    void testClear() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source(COUNTING_TEXT);
+        final Class<?> clazz = gren.loadMainClass(loader, source);
+        final AtomicInteger otherSize = new AtomicInteger(-1);
+        final Object lock = new Object();
+        cache.run(loader, source, clazz, gren.binding("x", "a"));
+        final Thread thread;
+        synchronized (lock) {
+            thread = new Thread(() -> {
+                cache.run(loader, source, clazz, gren.binding("x", "b"));
+                synchronized (lock) {
+                    otherSize.set(cache.size());
+                }
+            });
+            thread.start();
+            while (thread.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(1);
+            }
+
+            // when
+
+            cache.clear();
+        }
+        thread.join();
+
+        // then (cleared for all threads)
+
+        assertThat(cache.size(), is(0));
+        assertThat(otherSize.get(), is(0));
+        assertThat(cache.run(loader, source, clazz, gren.binding("x", "c")), is("c:1"));
+    }
+
+    @Test
+    void testRunNestedUsesNewInstance() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source("@groovy.transform.Field int count = 0\ncount++\n" +
+                "def inner = depth > 0 ? recurse.apply(new Binding(depth: depth - 1, recurse: recurse)) : null\n" +
+                "return [count, inner]");
+        final Class<?> clazz = gren.loadMainClass(loader, source);
+        final Function<Binding,Object> recurse = binding -> cache.run(loader, source, clazz, binding);
+
+        // when
+
+        final Object result1 = cache.run(loader, source, clazz, gren.binding("depth", 1, "recurse", recurse));
+        final Object result2 = cache.run(loader, source, clazz, gren.binding("depth", 0, "recurse", recurse));
+
+        // then
+
+        assertThat(result1, is(Arrays.asList(1, Arrays.asList(1, null))));
+        assertThat(result2, is(Arrays.asList(2, null)));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    void testRunScriptThrows() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source("@groovy.transform.Field int count = 0\ncount++\n" +
+                "if (fail) throw new IllegalStateException('fail'); return count");
+        final Class<?> clazz = gren.loadMainClass(loader, source);
+
+        // when
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> cache.run(loader, source, clazz, gren.binding("fail", true)),
+                "fail");
+
+        // then (instance still cached, binding reset)
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getScript(loader, source).getBinding().getVariables().isEmpty(), is(true));
+        assertThat(cache.run(loader, source, clazz, gren.binding("fail", false)), is(2));
+    }
+
+    @Test
+    void testMaxScriptsPerThread() {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source first = gren.source("return 0");
+
+        // when
+
+        cache.run(loader, first, gren.loadMainClass(loader, first), new Binding());
+        for (int i = 1; i <= ScriptReuseCache.MAX_SCRIPTS_PER_THREAD; i++) {
+            final Source source = gren.source("return " + i);
+            cache.run(loader, source, gren.loadMainClass(loader, source), new Binding());
+        }
+
+        // then (least recently run evicted)
+
+        assertThat(cache.size(), is(ScriptReuseCache.MAX_SCRIPTS_PER_THREAD));
+        assertThat(cache.getScript(loader, first), is(nullValue()));
+    }
+
+    @Test
+    void testInstancesPerThread() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final ScriptReuseCache cache = new ScriptReuseCache(gren);
+        final Loader loader = gren.getLoader();
+        final Source source = gren.source(COUNTING_TEXT);
+        final Class<?> clazz = gren.loadMainClass(loader, source);
+        final AtomicInteger otherSize = new AtomicInteger(-1);
+        cache.run(loader, source, clazz, gren.binding("x", "a"));
+
+        // when
+
+        final Thread thread = new Thread(() -> {
+            otherSize.set(cache.size());
+            cache.run(loader, source, clazz, gren.binding("x", "b"));
+            cache.run(loader, source, clazz, gren.binding("x", "c"));
+        });
+        thread.start();
+        thread.join();
+
+        // then
+
+        assertThat(otherSize.get(), is(0));
+        assertThat(cache.run(loader, source, clazz, gren.binding("x", "d")), is("d:2"));
+    }
+
+}
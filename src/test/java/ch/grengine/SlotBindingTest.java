@@ -0,0 +1,240 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import groovy.lang.GroovyShell;
+import groovy.lang.MissingPropertyException;
+import groovy.lang.Script;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class SlotBindingTest {
+
+    @Test
+    void testConstructFromLayout() {
+
+        // given
+
+        final SlotLayout layout = new SlotLayout(Arrays.asList("a", "b"));
+
+        // when
+
+        final SlotBinding binding = new SlotBinding(layout);
+
+        // then
+
+        assertThat(binding.getLayout(), is(layout));
+        assertThat(binding.getValues().length, is(2));
+        assertThat(binding.get(0), is(nullValue()));
+        assertThat(binding.get(1), is(nullValue()));
+        assertThat(binding.hasVariable("a"), is(true));
+        assertThat(binding.getVariable("a"), is(nullValue()));
+    }
+
+    @Test
+    void testConstructFromLayoutAndValues() {
+
+        // given
+
+        final SlotLayout layout = new SlotLayout(Arrays.asList("a", "b"));
+        final Object[] values = { 1, "two" };
+
+        // when
+
+        final SlotBinding binding = new SlotBinding(layout, values);
+
+        // then
+
+        assertThat(binding.getValues() == values, is(true));
+        assertThat(binding.getVariable("a"), is(1));
+        assertThat(binding.getVariable("b"), is("two"));
+
+        // when
+
+        values[0] = 11;
+
+        // then
+
+        assertThat(binding.getVariable("a"), is(11));
+    }
+
+    @Test
+    void testConstructIllegalArguments() {
+
+        // given
+
+        final SlotLayout layout = new SlotLayout(Arrays.asList("a", "b"));
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new SlotBinding(null),
+                "Slot layout is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new SlotBinding(null, new Object[0]),
+                "Slot layout is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new SlotBinding(layout, null),
+                "Values are null.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> new SlotBinding(layout, new Object[3]),
+                "Got 3 values for 2 slots.");
+    }
+
+    @Test
+    void testSetValues() {
+
+        // given
+
+        final SlotBinding binding = new SlotLayout(Arrays.asList("a", "b")).newBinding();
+        final Object[] values = { 1, 2 };
+
+        // when
+
+        binding.setValues(values);
+
+        // then
+
+        assertThat(binding.getValues() == values, is(true));
+        assertThat(binding.getVariable("b"), is(2));
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> binding.setValues(null),
+                "Values are null.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> binding.setValues(new Object[1]),
+                "Got 1 values for 2 slots.");
+    }
+
+    @Test
+    void testGetSetByIndex() {
+
+        // given
+
+        final SlotBinding binding = new SlotLayout(Arrays.asList("a", "b")).newBinding();
+
+        // when
+
+        binding.set(1, "x");
+
+        // then
+
+        assertThat(binding.get(1), is("x"));
+        assertThat(binding.getVariable("b"), is("x"));
+        assertThat(binding.getValues()[1], is("x"));
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> binding.get(2));
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> binding.set(-1, "y"));
+    }
+
+    @Test
+    void testSlotAndExtraVariables() {
+
+        // given
+
+        final SlotBinding binding = new SlotLayout(Arrays.asList("a", "b")).newBinding();
+
+        // when
+
+        binding.setVariable("a", 1);
+        binding.setVariable("extra", 2);
+
+        // then
+
+        assertThat(binding.get(0), is(1));
+        assertThat(binding.getVariable("a"), is(1));
+        assertThat(binding.getVariable("extra"), is(2));
+        assertThat(binding.hasVariable("extra"), is(true));
+        assertThat(binding.hasVariable("other"), is(false));
+        assertThrows(MissingPropertyException.class, () -> binding.getVariable("other"));
+
+        // when
+
+        binding.removeVariable("a");
+        binding.removeVariable("extra");
+
+        // then
+
+        assertThat(binding.get(0), is(nullValue()));
+        assertThat(binding.hasVariable("a"), is(true));
+        assertThat(binding.hasVariable("extra"), is(false));
+    }
+
+    @Test
+    void testGetVariables() {
+
+        // given
+
+        final SlotBinding binding = new SlotLayout(Arrays.asList("a", "b")).newBinding();
+        binding.set(0, 1);
+        binding.setVariable("extra", 3);
+
+        // when
+
+        final Map<String,Object> variables = binding.getVariables();
+
+        // then
+
+        final Map<String,Object> expected = new LinkedHashMap<>();
+        expected.put("a", 1);
+        expected.put("b", null);
+        expected.put("extra", 3);
+        assertThat(variables, is(expected));
+
+        // when
+
+        variables.put("a", 11);
+
+        // then
+
+        assertThat(binding.get(0), is(1));
+    }
+
+    @Test
+    void testRunScript() {
+
+        // given
+
+        final Script script = new GroovyShell().parse("c = a + b; d = c * 2; a");
+        final SlotBinding binding = new SlotLayout(Arrays.asList("a", "b", "c")).newBinding();
+        script.setBinding(binding);
+
+        // when
+
+        binding.set(0, 3);
+        binding.set(1, 4);
+        final Object result = script.run();
+
+        // then
+
+        assertThat(result, is(3));
+        assertThat(binding.get(2), is(7));
+        assertThat(binding.getVariable("d"), is(14));
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class SlotLayoutTest {
+
+    @Test
+    void testConstructPlusGetters() {
+
+        // given
+
+        final List<String> names = Arrays.asList("a", "bb", "c");
+
+        // when
+
+        final SlotLayout layout = new SlotLayout(names);
+
+        // then
+
+        assertThat(layout.size(), is(3));
+        assertThat(layout.getNames(), is(names));
+        assertThat(layout.indexOf("a"), is(0));
+        assertThat(layout.indexOf("bb"), is(1));
+        assertThat(layout.indexOf(new String(new char[] { 'b', 'b' })), is(1));
+        assertThat(layout.indexOf("c"), is(2));
+        assertThat(layout.indexOf("d"), is(-1));
+        assertThat(layout.toString(), is("SlotLayout[names=[a, bb, c]]"));
+    }
+
+    @Test
+    void testConstructEmpty() {
+
+        // when
+
+        final SlotLayout layout = new SlotLayout(Collections.emptyList());
+
+        // then
+
+        assertThat(layout.size(), is(0));
+        assertThat(layout.getNames(), is(Collections.emptyList()));
+        assertThat(layout.indexOf("a"), is(-1));
+        assertThat(layout.newBinding().getValues().length, is(0));
+    }
+
+    @Test
+    void testConstructNamesCopied() {
+
+        // given
+
+        final String[] names = { "a", "b" };
+
+        // when
+
+        final SlotLayout layout = new SlotLayout(Arrays.asList(names));
+        names[0] = "x";
+
+        // then
+
+        assertThat(layout.getNames(), is(Arrays.asList("a", "b")));
+        assertThat(layout.indexOf("x"), is(-1));
+    }
+
+    @Test
+    void testConstructNamesNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new SlotLayout(null),
+                "Variable names are null.");
+    }
+
+    @Test
+    void testConstructNameNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new SlotLayout(Arrays.asList("a", null)),
+                "Variable name is null.");
+    }
+
+    @Test
+    void testConstructDuplicateName() {
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> new SlotLayout(Arrays.asList("a", "b", "a")),
+                "Duplicate variable name: a");
+    }
+
+    @Test
+    void testGetNamesUnmodifiable() {
+
+        // given
+
+        final SlotLayout layout = new SlotLayout(Arrays.asList("a", "b"));
+
+        // when/then
+
+        assertThrowsMessageIs(UnsupportedOperationException.class,
+                () -> layout.getNames().set(0, "x"),
+                null);
+    }
+
+}
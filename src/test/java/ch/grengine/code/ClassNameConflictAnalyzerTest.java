@@ -25,6 +25,8 @@ import ch.grengine.sources.Sources;
 import ch.grengine.sources.SourcesUtil;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -173,6 +175,50 @@ public class ClassNameConflictAnalyzerTest {
         assertThat(codeLayers.get(2), CoreMatchers.is(fileList.get(0)));
     }
     
+    @Test
+    void testFilterSameClassNames() {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final List<Code> codeLayers = getTestCodeLayers();
+        final Map<String,List<Code>> allClassNamesMap = ClassNameConflictAnalyzer.getAllClassNamesMap(codeLayers);
+
+        // when
+
+        final Map<String,List<Code>> inMultiple =
+                ClassNameConflictAnalyzer.filterSameClassNamesInMultipleCodeLayers(allClassNamesMap);
+        final Map<String,List<Code>> inParent =
+                ClassNameConflictAnalyzer.filterSameClassNamesInParent(new ClassNameIndex(parent), allClassNamesMap);
+
+        // then
+
+        assertThat(inMultiple, is(ClassNameConflictAnalyzer.getSameClassNamesInMultipleCodeLayersMap(codeLayers)));
+        assertThat(inParent,
+                is(ClassNameConflictAnalyzer.getSameClassNamesInParentAndCodeLayersMap(parent, codeLayers)));
+        assertThat(inParent.keySet(), is(Collections.singleton("java.io.File")));
+    }
+
+    @Test
+    void testFilterSameClassNamesNull() {
+
+        // given
+
+        final ClassNameIndex index = new ClassNameIndex(Thread.currentThread().getContextClassLoader());
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> ClassNameConflictAnalyzer.filterSameClassNamesInMultipleCodeLayers(null),
+                "All class names map is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> ClassNameConflictAnalyzer.filterSameClassNamesInParent(null, new HashMap<>()),
+                "Class name index is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> ClassNameConflictAnalyzer.filterSameClassNamesInParent(index, null),
+                "All class names map is null.");
+    }
+
     @Test
     void testDetermineClassOriginsWithDuplicateInParentParentNull() {
 
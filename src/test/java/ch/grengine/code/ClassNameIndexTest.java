@@ -0,0 +1,156 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.load.LayeredClassLoader;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.SourceUtil;
+import ch.grengine.sources.SourcesUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.createTestDir;
+import static ch.grengine.TestUtil.setFileText;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class ClassNameIndexTest {
+
+    @Test
+    void testContainsClass() {
+
+        // given
+
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        // when
+
+        final ClassNameIndex index = new ClassNameIndex(classLoader);
+
+        // then
+
+        assertThat(index.getClassLoader(), is(classLoader));
+        assertThat(index.containsClass("java.io.File"), is(true));
+        assertThat(index.containsClass("java.util.Map$Entry"), is(true));
+        assertThat(index.containsClass(Test.class.getName()), is(true));
+        assertThat(index.containsClass(ClassNameIndexTest.class.getName()), is(true));
+        assertThat(index.containsClass("NoSuchClass"), is(false));
+        assertThat(index.containsClass("NoSuchClass"), is(false));
+        assertThat(index.getIndexedClassCount() > 0, is(true));
+        assertThat(index.toString(), is("ClassNameIndex[classLoader=" + classLoader + "]"));
+    }
+
+    @Test
+    void testBuildIndex() throws Exception {
+
+        // given
+
+        final File dir = createTestDir();
+        final File classesDir = new File(dir, "classes");
+        setFileText(new File(classesDir, "a/b/C.class"), "not really a class");
+        setFileText(new File(classesDir, "a/b/package-info.class"), "not really a class");
+        setFileText(new File(classesDir, "a/b/D.txt"), "not a class");
+        final File jar = new File(dir, "test.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("x/Y.class"));
+            out.putNextEntry(new JarEntry("x/Y$Inner.class"));
+            out.putNextEntry(new JarEntry("META-INF/versions/9/x/Z.class"));
+            out.putNextEntry(new JarEntry("module-info.class"));
+        }
+        final URLClassLoader classLoader = new URLClassLoader(
+                new URL[] { classesDir.toURI().toURL(), jar.toURI().toURL(), new URL("http://localhost/") }, null);
+
+        // when
+
+        final Set<String> classNames = ClassNameIndex.buildIndex(classLoader);
+
+        // then
+
+        assertThat(classNames.size(), is(3));
+        assertThat(classNames.contains("a.b.C"), is(true));
+        assertThat(classNames.contains("x.Y"), is(true));
+        assertThat(classNames.contains("x.Y$Inner"), is(true));
+
+        // when
+
+        final ClassNameIndex index = new ClassNameIndex(classLoader);
+
+        // then
+
+        assertThat(index.containsClass("a.b.C"), is(true));
+        assertThat(index.containsClass("x.Y$Inner"), is(true));
+        assertThat(index.containsClass("x.Z"), is(false));
+        assertThat(index.containsClass("java.lang.String"), is(true));
+        assertThat(index.getIndexedClassCount(), is(3));
+    }
+
+    @Test
+    void testContainsClassFromClassLoaderWithoutResources() {
+
+        // given
+
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer {}")), "test"));
+        final LayeredClassLoader classLoader = new LayeredClassLoader.Builder().setCodeLayers(code).buildFromCodeLayers();
+
+        // when
+
+        final ClassNameIndex index = new ClassNameIndex(classLoader);
+
+        // then
+
+        assertThat(index.containsClass("Layer"), is(true));
+        assertThat(index.containsClass("java.io.File"), is(true));
+        assertThat(index.containsClass("NoSuchClass"), is(false));
+    }
+
+    @Test
+    void testConstructClassLoaderNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new ClassNameIndex(null),
+                "Class loader is null.");
+    }
+
+    @Test
+    void testContainsClassClassNameNull() {
+
+        // given
+
+        final ClassNameIndex index = new ClassNameIndex(Thread.currentThread().getContextClassLoader());
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> index.containsClass(null),
+                "Class name is null.");
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code;
+
+import ch.grengine.source.MockSource;
+import ch.grengine.source.Source;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.createTestDir;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class CodeArchiveTest {
+
+    static Code createCode() {
+        final MockSource m1 = new MockSource("id1");
+        final MockSource m2 = new MockSource("id2");
+        final Map<Source,CompiledSourceInfo> infoMap = new HashMap<>();
+        infoMap.put(m1, new CompiledSourceInfo(m1, "Main1", new HashSet<>(Arrays.asList("Main1", "Main1$Sub")), 11,
+                Arrays.asList("y", "x")));
+        infoMap.put(m2, new CompiledSourceInfo(m2, "Main2", new HashSet<>(Arrays.asList("Main2")), 22));
+        final Map<String,Bytecode> bytecodeMap = new HashMap<>();
+        bytecodeMap.put("Main1", new Bytecode("Main1", new byte[] { 1, 2, 3 }));
+        bytecodeMap.put("Main1$Sub", new Bytecode("Main1$Sub", new byte[] { 4, 5 }));
+        bytecodeMap.put("Main2", new Bytecode("Main2", new byte[] { 6 }));
+        return new DefaultCode("sourcesName", infoMap, bytecodeMap);
+    }
+
+    @Test
+    void testWriteToStream() throws Exception {
+
+        // given
+
+        final Code code = createCode();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+
+        CodeArchive.write(code, out);
+
+        // then
+
+        final byte[] bytes = out.toByteArray();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertThat(in.readInt(), is(CodeArchive.MAGIC));
+        assertThat(in.readInt(), is(CodeArchive.VERSION));
+        final int indexLength = in.readInt();
+        assertThat(bytes.length, is(CodeArchive.HEADER_LENGTH + indexLength + 6));
+        // data sorted by class name
+        assertThat(Arrays.copyOfRange(bytes, bytes.length - 6, bytes.length), is(new byte[] { 1, 2, 3, 4, 5, 6 }));
+    }
+
+    @Test
+    void testWriteIsDeterministic() throws Exception {
+
+        // given
+
+        final ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        final ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+
+        // when
+
+        CodeArchive.write(createCode(), out1);
+        CodeArchive.write(createCode(), out2);
+
+        // then
+
+        assertThat(out1.toByteArray(), is(out2.toByteArray()));
+    }
+
+    @Test
+    void testWriteToFile() throws Exception {
+
+        // given
+
+        final File file = new File(createTestDir(), "code.grc");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodeArchive.write(createCode(), out);
+
+        // when
+
+        CodeArchive.write(createCode(), file);
+
+        // then
+
+        assertThat(Files.readAllBytes(file.toPath()), is(out.toByteArray()));
+    }
+
+    @Test
+    void testWriteMissingBytecode() {
+
+        // given
+
+        final MockSource m1 = new MockSource("id1");
+        final Map<Source,CompiledSourceInfo> infoMap = new HashMap<>();
+        infoMap.put(m1, new CompiledSourceInfo(m1, "Main1", new HashSet<>(Arrays.asList("Main1")), 11));
+        final Code code = new DefaultCode("sourcesName", infoMap, new HashMap<>()) {
+            @Override
+            public Set<String> getClassNameSet() {
+                return new HashSet<>(Arrays.asList("Main1"));
+            }
+        };
+
+        // when/then
+
+        assertThrowsMessageIs(IOException.class,
+                () -> CodeArchive.write(code, new ByteArrayOutputStream()),
+                "No bytecode for class Main1 in code " + code + ".");
+    }
+
+    @Test
+    void testWriteCodeNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeArchive.write(null, new ByteArrayOutputStream()),
+                "Code is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeArchive.write(null, new File("x")),
+                "Code is null.");
+    }
+
+    @Test
+    void testWriteOutNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeArchive.write(createCode(), (OutputStream)null),
+                "Output stream is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeArchive.write(createCode(), (File)null),
+                "File is null.");
+    }
+
+}
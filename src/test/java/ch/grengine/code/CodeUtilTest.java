@@ -0,0 +1,118 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.source.SourceUtil;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class CodeUtilTest {
+
+    @Test
+    void testIsSameContent() {
+
+        // given
+
+        final Source s1 = new DefaultTextSource("class Class1 { def get() { return 1 } }");
+        final Source s2 = new DefaultTextSource("class Class1 { def get() { return 2 } }");
+        final Sources sources1 = SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "test");
+        final Sources sources1OtherName = SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "other");
+        final Sources sources2 = SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s2), "test");
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+
+        // when
+
+        final Code code1 = compiler.compile(sources1);
+        final Code code1Again = compiler.compile(sources1);
+        final Code code1OtherName = compiler.compile(sources1OtherName);
+        final Code code2 = compiler.compile(sources2);
+
+        // then
+
+        assertThat(CodeUtil.isSameContent(code1, code1), is(true));
+        assertThat(CodeUtil.isSameContent(code1, code1Again), is(true));
+        assertThat(CodeUtil.isSameContent(code1Again, code1), is(true));
+        assertThat(CodeUtil.isSameContent(code1, code1OtherName), is(false));
+        assertThat(CodeUtil.isSameContent(code1, code2), is(false));
+        assertThat(CodeUtil.isSameContent(code1, new LeanCode(code1)), is(true));
+    }
+
+    @Test
+    void testIsSameContentCodeNull() {
+
+        // given
+
+        final Code code = CodeArchiveTest.createCode();
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeUtil.isSameContent(null, code),
+                "Code 1 is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeUtil.isSameContent(code, null),
+                "Code 2 is null.");
+    }
+
+    @Test
+    void testGetReferencedClassNames() {
+
+        // given
+
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource(
+                        "class Other {}; class Generic<T> {}; class Listed {}; class Element {}\n" +
+                        "class Ref { Other other; Generic<Listed> generic; Element[] elements\n" +
+                        "  static get() { new Other() } }")), "layer"));
+
+        // when
+
+        final Set<String> classNames = CodeUtil.getReferencedClassNames(
+                code.getBytecode("Ref").getBytes());
+
+        // then
+
+        assertThat(classNames.containsAll(Arrays.asList(
+                "Ref", "Other", "Generic", "Listed", "Element", "java.lang.Object")), is(true));
+        assertThat(classNames.contains("get"), is(false));
+        assertThat(CodeUtil.getReferencedClassNames(new byte[0]).isEmpty(), is(true));
+    }
+
+    @Test
+    void testGetReferencedClassNamesBytesNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> CodeUtil.getReferencedClassNames(null),
+                "Bytes are null.");
+    }
+
+}
@@ -0,0 +1,444 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code;
+
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.except.CompileException;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class CompileSchedulerTest {
+
+    @Test
+    void testConstructDefaults() {
+
+        // given
+
+        final CompileScheduler.Builder builder = new CompileScheduler.Builder();
+
+        // when
+
+        final CompileScheduler scheduler = builder.build();
+
+        // then
+
+        assertThat(scheduler.getBuilder(), is(builder));
+        assertThat(builder.getMaxConcurrentCompiles(), is(Runtime.getRuntime().availableProcessors()));
+        assertThat(builder.getMaxQueueWaitMs(), is(-1L));
+        assertThat(scheduler.getActiveCount(), is(0));
+        assertThat(scheduler.getQueueDepth(CompileScheduler.Priority.INTERACTIVE), is(0));
+        assertThat(scheduler.getQueueDepth(CompileScheduler.Priority.BACKGROUND), is(0));
+        assertThat(scheduler.getAdmittedCount(), is(0L));
+        assertThat(scheduler.getRejectedCount(), is(0L));
+        assertThat(scheduler.getTotalWaitNanos(), is(0L));
+        assertThat(scheduler.getMaxWaitNanos(), is(0L));
+    }
+
+    @Test
+    void testConstructAllDefined() {
+
+        // given
+
+        final CompileScheduler.Builder builder = new CompileScheduler.Builder();
+
+        // when
+
+        final CompileScheduler scheduler = builder
+                .setMaxConcurrentCompiles(3)
+                .setMaxQueueWaitMs(500)
+                .build();
+
+        // then
+
+        assertThat(scheduler.getBuilder(), is(builder));
+        assertThat(builder.getMaxConcurrentCompiles(), is(3));
+        assertThat(builder.getMaxQueueWaitMs(), is(500L));
+    }
+
+    @Test
+    void testConstructFromNoArgConstructor() {
+
+        // when
+
+        final CompileScheduler scheduler = new CompileScheduler();
+
+        // then
+
+        assertThat(scheduler.getBuilder().getMaxConcurrentCompiles(), is(Runtime.getRuntime().availableProcessors()));
+        assertThat(scheduler.getBuilder().getMaxQueueWaitMs(), is(-1L));
+    }
+
+    @Test
+    void testBuilderIllegalArguments() {
+
+        // given
+
+        final CompileScheduler.Builder builder = new CompileScheduler.Builder();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setMaxConcurrentCompiles(0),
+                "Max concurrent compiles is less than one.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setMaxQueueWaitMs(-1),
+                "Max queue wait ms is negative.");
+    }
+
+    @Test
+    void testModifyBuilderAfterUse() {
+
+        // given
+
+        final CompileScheduler.Builder builder = new CompileScheduler.Builder();
+        builder.build();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setMaxConcurrentCompiles(1),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setMaxQueueWaitMs(0),
+                "Builder already used.");
+    }
+
+    @Test
+    void testCompile() {
+
+        // given
+
+        final CompileScheduler scheduler = new CompileScheduler();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+
+        // when
+
+        final Code code = scheduler.compile(new DefaultGroovyCompiler(), sources,
+                CompileScheduler.Priority.INTERACTIVE);
+
+        // then
+
+        assertThat(code.isForSource(sources.getSourceSet().iterator().next()), is(true));
+        assertThat(scheduler.getActiveCount(), is(0));
+        assertThat(scheduler.getAdmittedCount(), is(1L));
+        assertThat(scheduler.getRejectedCount(), is(0L));
+    }
+
+    @Test
+    void testCompileArgumentsNull() {
+
+        // given
+
+        final CompileScheduler scheduler = new CompileScheduler();
+        final Compiler compiler = new DefaultGroovyCompiler();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> scheduler.compile(null, sources, CompileScheduler.Priority.INTERACTIVE),
+                "Compiler is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> scheduler.compile(compiler, null, CompileScheduler.Priority.INTERACTIVE),
+                "Sources are null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> scheduler.compile(compiler, sources, null),
+                "Priority is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> scheduler.getQueueDepth(null),
+                "Priority is null.");
+    }
+
+    @Test
+    void testCompileFailsReleasesAdmission() {
+
+        // given
+
+        final CompileScheduler scheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(1)
+                .build();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("%%)("));
+
+        // when/then
+
+        assertThrows(CompileException.class,
+                () -> scheduler.compile(new DefaultGroovyCompiler(), sources, CompileScheduler.Priority.INTERACTIVE));
+        assertThat(scheduler.getActiveCount(), is(0));
+        assertThat(scheduler.compile(new DefaultGroovyCompiler(),
+                SourcesUtil.sourceToSources(new DefaultTextSource("return 2")),
+                CompileScheduler.Priority.INTERACTIVE).getSourceSet().size(), is(1));
+    }
+
+    @Test
+    void testMaxConcurrentCompiles() throws Exception {
+
+        // given
+
+        final int maxConcurrentCompiles = 2;
+        final CompileScheduler scheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(maxConcurrentCompiles)
+                .build();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Compiler compiler = sources -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(20);
+            running.decrementAndGet();
+            return null;
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            final CompileScheduler.Priority priority = (i % 2 == 0) ?
+                    CompileScheduler.Priority.INTERACTIVE : CompileScheduler.Priority.BACKGROUND;
+            futures.add(executor.submit(() -> {
+                start.await();
+                return scheduler.compile(compiler, newSources(), priority);
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        // then
+
+        assertThat(maxRunning.get(), is(maxConcurrentCompiles));
+        assertThat(scheduler.getAdmittedCount(), is(16L));
+        assertThat(scheduler.getActiveCount(), is(0));
+        assertThat(scheduler.getMaxWaitNanos() > 0, is(true));
+        assertThat(scheduler.getTotalWaitNanos() >= scheduler.getMaxWaitNanos(), is(true));
+        executor.shutdown();
+    }
+
+    @Test
+    void testInteractiveBeforeBackground() throws Exception {
+
+        // given (one compile is running, then background and interactive compiles are queued)
+
+        final CompileScheduler scheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(1)
+                .build();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        final Future<?> blocking = executor.submit(() -> scheduler.compile(sources -> {
+            running.countDown();
+            await(done);
+            return null;
+        }, newSources(), CompileScheduler.Priority.BACKGROUND));
+        running.await();
+
+        final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+        futures.add(submit(executor, scheduler, CompileScheduler.Priority.BACKGROUND, "b1", order));
+        waitForQueueDepth(scheduler, CompileScheduler.Priority.BACKGROUND, 1);
+        futures.add(submit(executor, scheduler, CompileScheduler.Priority.BACKGROUND, "b2", order));
+        waitForQueueDepth(scheduler, CompileScheduler.Priority.BACKGROUND, 2);
+        futures.add(submit(executor, scheduler, CompileScheduler.Priority.INTERACTIVE, "i1", order));
+        waitForQueueDepth(scheduler, CompileScheduler.Priority.INTERACTIVE, 1);
+        futures.add(submit(executor, scheduler, CompileScheduler.Priority.INTERACTIVE, "i2", order));
+        waitForQueueDepth(scheduler, CompileScheduler.Priority.INTERACTIVE, 2);
+
+        // when
+
+        done.countDown();
+        blocking.get();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        // then
+
+        assertThat(order.toString(), is("[i1, i2, b1, b2]"));
+        assertThat(scheduler.getQueueDepth(CompileScheduler.Priority.INTERACTIVE), is(0));
+        assertThat(scheduler.getQueueDepth(CompileScheduler.Priority.BACKGROUND), is(0));
+        executor.shutdown();
+    }
+
+    @Test
+    void testMaxQueueWaitExceeded() throws Exception {
+
+        // given
+
+        final CompileScheduler scheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(1)
+                .setMaxQueueWaitMs(50)
+                .build();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<?> blocking = executor.submit(() -> scheduler.compile(sources -> {
+            running.countDown();
+            await(done);
+            return null;
+        }, newSources(), CompileScheduler.Priority.BACKGROUND));
+        running.await();
+        final Sources sources = newSources();
+
+        // when/then
+
+        final long startNanos = System.nanoTime();
+        assertThrowsMessageIs(CompileException.class,
+                () -> scheduler.compile(new DefaultGroovyCompiler(), sources, CompileScheduler.Priority.INTERACTIVE),
+                "Compile of sources " + sources + " not admitted within 50 ms.");
+        assertThat(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(50), is(true));
+        assertThat(scheduler.getRejectedCount(), is(1L));
+        assertThat(scheduler.getAdmittedCount(), is(1L));
+        assertThat(scheduler.getQueueDepth(CompileScheduler.Priority.INTERACTIVE), is(0));
+
+        done.countDown();
+        blocking.get();
+        executor.shutdown();
+    }
+
+    @Test
+    void testMaxQueueWaitZeroFailsFast() throws Exception {
+
+        // given
+
+        final CompileScheduler scheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(1)
+                .setMaxQueueWaitMs(0)
+                .build();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<?> blocking = executor.submit(() -> scheduler.compile(sources -> {
+            running.countDown();
+            await(done);
+            return null;
+        }, newSources(), CompileScheduler.Priority.INTERACTIVE));
+        running.await();
+        final Sources sources = newSources();
+
+        // when/then
+
+        assertThrowsMessageIs(CompileException.class,
+                () -> scheduler.compile(new DefaultGroovyCompiler(), sources, CompileScheduler.Priority.BACKGROUND),
+                "Compile of sources " + sources + " not admitted within 0 ms.");
+
+        done.countDown();
+        blocking.get();
+        executor.shutdown();
+    }
+
+    @Test
+    void testInterruptedWhileWaiting() throws Exception {
+
+        // given
+
+        final CompileScheduler scheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(1)
+                .build();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Future<?> blocking = executor.submit(() -> scheduler.compile(sources -> {
+            running.countDown();
+            await(done);
+            return null;
+        }, newSources(), CompileScheduler.Priority.INTERACTIVE));
+        running.await();
+        final Sources sources = newSources();
+        final AtomicReference<Thread> waitingThread = new AtomicReference<>();
+        final Future<Boolean> waiting = executor.submit(() -> {
+            waitingThread.set(Thread.currentThread());
+            try {
+                scheduler.compile(new DefaultGroovyCompiler(), sources, CompileScheduler.Priority.INTERACTIVE);
+                return false;
+            } catch (CompileException e) {
+                return e.getMessage().startsWith("Compile of sources " + sources +
+                        " interrupted while waiting for admission.") && Thread.currentThread().isInterrupted();
+            }
+        });
+        waitForQueueDepth(scheduler, CompileScheduler.Priority.INTERACTIVE, 1);
+
+        // when
+
+        waitingThread.get().interrupt();
+
+        // then
+
+        assertThat(waiting.get(), is(true));
+        assertThat(scheduler.getRejectedCount(), is(1L));
+        assertThat(scheduler.getQueueDepth(CompileScheduler.Priority.INTERACTIVE), is(0));
+        done.countDown();
+        blocking.get();
+        assertThat(scheduler.getAdmittedCount(), is(1L));
+        executor.shutdown();
+    }
+
+    private static Future<?> submit(final ExecutorService executor, final CompileScheduler scheduler,
+            final CompileScheduler.Priority priority, final String name, final List<String> order) {
+        return executor.submit(() -> scheduler.compile(sources -> {
+            order.add(name);
+            return null;
+        }, newSources(), priority));
+    }
+
+    private static void waitForQueueDepth(final CompileScheduler scheduler, final CompileScheduler.Priority priority,
+            final int depth) {
+        while (scheduler.getQueueDepth(priority) < depth) {
+            sleep(5);
+        }
+    }
+
+    private static Sources newSources() {
+        return SourcesUtil.sourceToSources(new DefaultTextSource("return 0"));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(final long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
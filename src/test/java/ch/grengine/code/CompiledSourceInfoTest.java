@@ -19,7 +19,10 @@ package ch.grengine.code;
 import ch.grengine.source.Source;
 import ch.grengine.source.MockSource;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.jupiter.api.Test;
@@ -52,6 +55,7 @@ class CompiledSourceInfoTest {
         assertThat(info.getMainClassName(), is(name));
         assertThat(info.getClassNames(), is(names));
         assertThat(info.getLastModifiedAtCompileTime(), is(55L));
+        assertThat(info.getVariableNames(), is(Collections.emptyList()));
         assertThat(info.toString().startsWith("CompiledSourceInfo[source=MockSource[ID='id1', lastModified=0], " +
                 "mainClassName=MainClassName, classNames=" + names + ", lastModifiedAtCompileTime="), is(true));
     }
@@ -91,4 +95,33 @@ class CompiledSourceInfoTest {
                 "Class names are null.");
     }
 
+    @Test
+    void testConstructWithVariableNames() {
+
+        // given
+
+        final Source m1 = new MockSource("id1");
+        final List<String> variableNames = Arrays.asList("x", "y");
+
+        // when
+
+        final CompiledSourceInfo info = new CompiledSourceInfo(m1, "Main", new HashSet<>(), 0, variableNames);
+
+        // then
+
+        assertThat(info.getVariableNames(), is(variableNames));
+        assertThat(info.toString().endsWith(", variableNames=[x, y]]"), is(true));
+    }
+
+    @Test
+    void testConstructVariableNamesNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new CompiledSourceInfo(new MockSource("id1"), "",
+                        new HashSet<>(), 0, null),
+                "Variable names are null.");
+    }
+
 }
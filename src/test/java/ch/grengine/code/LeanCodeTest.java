@@ -0,0 +1,230 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code;
+
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.load.BytecodeClassLoader;
+import ch.grengine.load.LoadMode;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.MockSource;
+import ch.grengine.source.Source;
+import ch.grengine.source.SourceUtil;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import groovy.lang.Script;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class LeanCodeTest {
+
+    @Test
+    void testConstructPlusGetters() {
+
+        // given
+
+        final Code code = CodeArchiveTest.createCode();
+        final Source m1 = new MockSource("id1");
+        final Source notPartOfCode = new MockSource("id3");
+
+        // when
+
+        final LeanCode leanCode = new LeanCode(code);
+
+        // then
+
+        assertThat(leanCode.getSourcesName(), is("sourcesName"));
+        assertThat(leanCode.getSourceSet(), is(code.getSourceSet()));
+        assertThat(leanCode.getClassNameSet(), is(code.getClassNameSet()));
+        assertThat(leanCode.isForSource(m1), is(true));
+        assertThat(leanCode.isForSource(notPartOfCode), is(false));
+        assertThat(leanCode.getMainClassName(m1), is("Main1"));
+        assertThat(leanCode.getClassNames(m1), is(new HashSet<>(Arrays.asList("Main1", "Main1$Sub"))));
+        assertThat(leanCode.getLastModifiedAtCompileTime(m1), is(11L));
+        assertThat(leanCode.getVariableNames(m1), is(Arrays.asList("y", "x")));
+        assertThat(leanCode.getBytecode("Main1").getClassName(), is("Main1"));
+        assertThat(leanCode.getBytecode("Main1").getBytes(), is(new byte[] { 1, 2, 3 }));
+        assertThat(leanCode.getBytecode("SomeOtherClassName"), is(nullValue()));
+        assertThat(leanCode.getLoaderCount(), is(0));
+        assertThat(leanCode.getSpilledClassCount(), is(0));
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> leanCode.getMainClassName(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> leanCode.getClassNames(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> leanCode.getLastModifiedAtCompileTime(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> leanCode.getVariableNames(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+
+        assertThat(leanCode.toString(), is("LeanCode[sourcesName='sourcesName', sources:2, classes:3, spilled:0]"));
+    }
+
+    @Test
+    void testSpillAfterAllLoadersDefined() throws Exception {
+
+        // given
+
+        final Source s1 = new DefaultTextSource("return 'one'");
+        final Code code = new DefaultGroovyCompiler().compile(
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "test"));
+        final String name = code.getMainClassName(s1);
+        final LeanCode leanCode = new LeanCode(code);
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final BytecodeClassLoader loader1 = new BytecodeClassLoader(parent, LoadMode.CURRENT_FIRST, leanCode);
+        final BytecodeClassLoader loader2 = new BytecodeClassLoader(parent, LoadMode.CURRENT_FIRST, leanCode);
+
+        // when
+
+        loader1.loadMainClass(s1);
+
+        // then
+
+        assertThat(leanCode.getLoaderCount(), is(2));
+        assertThat(leanCode.getSpilledClassCount(), is(0));
+
+        // when
+
+        loader2.loadMainClass(s1);
+
+        // then
+
+        assertThat(leanCode.getSpilledClassCount(), is(1));
+        assertThat(leanCode.toString(), is("LeanCode[sourcesName='test', sources:1, classes:1, spilled:1]"));
+        assertThat(leanCode.getBytecode(name).getBytes(), is(code.getBytecode(name).getBytes()));
+
+        // when
+
+        final BytecodeClassLoader loader3 = new BytecodeClassLoader(parent, LoadMode.CURRENT_FIRST, leanCode);
+        final Class<?> clazz = loader3.loadMainClass(s1);
+
+        // then
+
+        assertThat(((Script)clazz.getConstructor().newInstance()).run(), is("one"));
+        assertThat(leanCode.getLoaderCount(), is(3));
+        assertThat(leanCode.getSpilledClassCount(), is(1));
+    }
+
+    @Test
+    void testClassDefinedUnknownClass() {
+
+        // given
+
+        final LeanCode leanCode = new LeanCode(CodeArchiveTest.createCode());
+
+        // when
+
+        leanCode.classDefined("SomeOtherClassName");
+
+        // then
+
+        assertThat(leanCode.getSpilledClassCount(), is(0));
+    }
+
+    @Test
+    void testDeflateInflate() {
+
+        // given
+
+        final byte[] bytes = new byte[10000];
+        new Random(1).nextBytes(bytes);
+        Arrays.fill(bytes, 5000, 10000, (byte)7);
+
+        // when
+
+        final byte[] deflated = LeanCode.deflate(bytes);
+
+        // then
+
+        assertThat(deflated.length < bytes.length, is(true));
+        assertThat(LeanCode.inflate(deflated, bytes.length), is(bytes));
+        assertThat(LeanCode.inflate(LeanCode.deflate(new byte[0]), 0), is(new byte[0]));
+    }
+
+    @Test
+    void testInflateTruncated() {
+
+        // given
+
+        final byte[] bytes = new byte[10000];
+        new Random(1).nextBytes(bytes);
+        final byte[] deflated = LeanCode.deflate(bytes);
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> LeanCode.inflate(Arrays.copyOf(deflated, deflated.length / 2), bytes.length),
+                "Could not inflate bytecode.");
+    }
+
+    @Test
+    void testConstructCodeNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new LeanCode(null),
+                "Code is null.");
+    }
+
+    @Test
+    void testConstructMissingBytecode() {
+
+        // given
+
+        final MockSource m1 = new MockSource("id1");
+        final Map<Source,CompiledSourceInfo> infoMap = new HashMap<>();
+        infoMap.put(m1, new CompiledSourceInfo(m1, "Main1", new HashSet<>(Arrays.asList("Main1")), 11));
+        final Code code = new DefaultCode("sourcesName", infoMap, new HashMap<>()) {
+            @Override
+            public Set<String> getClassNameSet() {
+                return new HashSet<>(Arrays.asList("Main1"));
+            }
+        };
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> new LeanCode(code),
+                "No bytecode for class Main1 in code " + code + ".");
+    }
+
+    @Test
+    void testRegisterLoaderNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new LeanCode(CodeArchiveTest.createCode()).registerLoader(null),
+                "Class loader is null.");
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.code;
+
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.engine.LayeredEngine;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.sources.FixedSetSources;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import groovy.lang.Script;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.createTestDir;
+import static ch.grengine.TestUtil.setFileText;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class MappedCodeTest {
+
+    @Test
+    void testConstructPlusGetters() throws Exception {
+
+        // given
+
+        final Code code = CodeArchiveTest.createCode();
+        final File file = new File(createTestDir(), "code.grc");
+        CodeArchive.write(code, file);
+        final Source m1 = code.getSourceSet().stream().filter(s -> s.getId().equals("id1")).findFirst().get();
+        final Source m2 = code.getSourceSet().stream().filter(s -> s.getId().equals("id2")).findFirst().get();
+
+        // when
+
+        final MappedCode mappedCode = new MappedCode(file);
+
+        // then
+
+        assertThat(mappedCode.getFile(), is(file));
+        assertThat(mappedCode.getSourcesName(), is("sourcesName"));
+        assertThat(mappedCode.getSourceSet(), is(code.getSourceSet()));
+        assertThat(mappedCode.getClassNameSet(), is(code.getClassNameSet()));
+
+        assertThat(mappedCode.isForSource(m1), is(true));
+        assertThat(mappedCode.isForSource(m2), is(true));
+        assertThat(mappedCode.isForSource(new DefaultTextSource("other")), is(false));
+        assertThat(mappedCode.getMainClassName(m1), is("Main1"));
+        assertThat(mappedCode.getMainClassName(m2), is("Main2"));
+        assertThat(mappedCode.getClassNames(m1), is(new HashSet<>(Arrays.asList("Main1", "Main1$Sub"))));
+        assertThat(mappedCode.getClassNames(m2), is(new HashSet<>(Arrays.asList("Main2"))));
+        assertThat(mappedCode.getLastModifiedAtCompileTime(m1), is(11L));
+        assertThat(mappedCode.getLastModifiedAtCompileTime(m2), is(22L));
+        assertThat(mappedCode.getVariableNames(m1), is(Arrays.asList("y", "x")));
+        assertThat(mappedCode.getVariableNames(m2), is(Collections.emptyList()));
+        for (Source source : mappedCode.getSourceSet()) {
+            assertThat(source.getLastModified(), is(mappedCode.getLastModifiedAtCompileTime(source)));
+        }
+
+        assertThat(mappedCode.getBytecode("Main1").getClassName(), is("Main1"));
+        assertThat(mappedCode.getBytecode("Main1").getBytes(), is(new byte[] { 1, 2, 3 }));
+        assertThat(mappedCode.getBytecode("Main1$Sub").getBytes(), is(new byte[] { 4, 5 }));
+        assertThat(mappedCode.getBytecode("Main2").getBytes(), is(new byte[] { 6 }));
+        assertThat(mappedCode.getBytecode("Main1").getBytes(), not(sameInstance(mappedCode.getBytecode("Main1").getBytes())));
+        assertThat(mappedCode.getBytecode("SomeOtherClassName"), is(nullValue()));
+        assertThat(mappedCode.getBytecode(null), is(nullValue()));
+
+        final Source notPartOfCode = new DefaultTextSource("other");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> mappedCode.getMainClassName(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> mappedCode.getClassNames(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> mappedCode.getLastModifiedAtCompileTime(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> mappedCode.getVariableNames(notPartOfCode),
+                "Source is not for this code. Source: " + notPartOfCode);
+
+        assertThat(mappedCode.toString(), is("MappedCode[file=" + file + ", sourcesName='sourcesName', " +
+                "sources:2, classes:3]"));
+    }
+
+    @Test
+    void testCompiledCodeInEngine() throws Exception {
+
+        // given
+
+        final Source s1 = new DefaultTextSource("return new Helper().value()\n" +
+                "class Helper { def value() { 'v' + Util.x() } }");
+        final Source s2 = new DefaultTextSource("class Util { static def x() { 'x' } }", "Util");
+        final Code code = new DefaultGroovyCompiler().compile(
+                new FixedSetSources.Builder(new HashSet<>(Arrays.asList(s1, s2))).setName("layer").build());
+        final File file = new File(createTestDir(), "code.grc");
+        CodeArchive.write(code, file);
+
+        // when
+
+        final MappedCode mappedCode = new MappedCode(file);
+        final LayeredEngine engine = new LayeredEngine.Builder().build();
+        engine.setCodeLayers(Collections.singletonList(mappedCode));
+
+        // then
+
+        assertThat(mappedCode.getClassNameSet(), is(code.getClassNameSet()));
+        for (String className : code.getClassNameSet()) {
+            assertThat(mappedCode.getBytecode(className).getBytes(), is(code.getBytecode(className).getBytes()));
+        }
+        final Class<?> clazz = engine.loadMainClass(engine.getLoader(), s1);
+        assertThat(clazz.getName(), is(code.getMainClassName(s1)));
+        assertThat(((Script)clazz.getConstructor().newInstance()).run(), is("vx"));
+    }
+
+    @Test
+    void testConstructNotACodeArchive() throws Exception {
+
+        // given
+
+        final File file = new File(createTestDir(), "code.grc");
+        setFileText(file, "not a code archive");
+
+        // when/then
+
+        assertThrowsMessageIs(IOException.class,
+                () -> new MappedCode(file),
+                "Not a code archive: " + file);
+    }
+
+    @Test
+    void testConstructEmptyFile() throws Exception {
+
+        // given
+
+        final File file = new File(createTestDir(), "code.grc");
+        setFileText(file, "");
+
+        // when/then
+
+        assertThrowsMessageIs(IOException.class,
+                () -> new MappedCode(file),
+                "Not a code archive: " + file);
+    }
+
+    @Test
+    void testConstructUnsupportedVersion() throws Exception {
+
+        // given
+
+        final File file = new File(createTestDir(), "code.grc");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(CodeArchive.MAGIC);
+            out.writeInt(99);
+            out.writeInt(0);
+        }
+
+        // when/then
+
+        assertThrowsMessageIs(IOException.class,
+                () -> new MappedCode(file),
+                "Unsupported code archive version 99: " + file);
+    }
+
+    @Test
+    void testConstructCorrupt() throws Exception {
+
+        // given
+
+        final File file = new File(createTestDir(), "code.grc");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(CodeArchive.MAGIC);
+            out.writeInt(CodeArchive.VERSION);
+            out.writeInt(1000);
+        }
+
+        // when/then
+
+        assertThrowsMessageIs(IOException.class,
+                () -> new MappedCode(file),
+                "Corrupt code archive: " + file);
+    }
+
+    @Test
+    void testConstructFileNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new MappedCode(null),
+                "File is null.");
+    }
+
+    @Test
+    void testArchivedSourceIdNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new MappedCode.ArchivedSource(null, 0),
+                "ID is null.");
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class CompileBudgetTest {
+
+    @Test
+    void testConstructDefaults() {
+
+        // given
+
+        final CompileBudget.Builder builder = new CompileBudget.Builder();
+
+        // when
+
+        final CompileBudget budget = builder.build();
+
+        // then
+
+        assertThat(budget.getBuilder(), is(builder));
+        assertThat(budget.getMaxTimeMs(), is(-1L));
+        assertThat(budget.getMaxSourceSize(), is(-1L));
+        assertThat(budget.getMaxClassCount(), is(-1));
+        assertThat(budget.isUnlimited(), is(true));
+        assertThat(budget.toString(), is("CompileBudget[maxTimeMs=-1, maxSourceSize=-1, maxClassCount=-1]"));
+    }
+
+    @Test
+    void testConstructAllDefined() {
+
+        // given
+
+        final CompileBudget.Builder builder = new CompileBudget.Builder();
+
+        // when
+
+        final CompileBudget budget = builder
+                .setMaxTimeMs(1000)
+                .setMaxSourceSize(20000)
+                .setMaxClassCount(50)
+                .build();
+
+        // then
+
+        assertThat(budget.getBuilder(), is(builder));
+        assertThat(budget.getMaxTimeMs(), is(1000L));
+        assertThat(budget.getMaxSourceSize(), is(20000L));
+        assertThat(budget.getMaxClassCount(), is(50));
+        assertThat(budget.isUnlimited(), is(false));
+        assertThat(builder.getMaxTimeMs(), is(1000L));
+        assertThat(builder.getMaxSourceSize(), is(20000L));
+        assertThat(builder.getMaxClassCount(), is(50));
+        assertThat(budget.toString(), is("CompileBudget[maxTimeMs=1000, maxSourceSize=20000, maxClassCount=50]"));
+    }
+
+    @Test
+    void testUnlimited() {
+
+        // when/then
+
+        assertThat(CompileBudget.UNLIMITED.isUnlimited(), is(true));
+        assertThat(new CompileBudget.Builder().setMaxClassCount(0).build().isUnlimited(), is(false));
+    }
+
+    @Test
+    void testBuilderIllegalArguments() {
+
+        // given
+
+        final CompileBudget.Builder builder = new CompileBudget.Builder();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setMaxTimeMs(-1),
+                "Max time ms is negative.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setMaxSourceSize(-1),
+                "Max source size is negative.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setMaxClassCount(-1),
+                "Max class count is negative.");
+    }
+
+    @Test
+    void testModifyBuilderAfterUse() {
+
+        // given
+
+        final CompileBudget.Builder builder = new CompileBudget.Builder();
+        builder.build();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setMaxTimeMs(1),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setMaxSourceSize(1),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setMaxClassCount(1),
+                "Builder already used.");
+    }
+
+}
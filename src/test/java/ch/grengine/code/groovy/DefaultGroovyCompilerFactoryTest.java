@@ -16,6 +16,8 @@
 
 package ch.grengine.code.groovy;
 
+import ch.grengine.code.CompilerFactory;
+
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.hamcrest.CoreMatchers;
 import org.junit.jupiter.api.Test;
@@ -44,6 +46,7 @@ class DefaultGroovyCompilerFactoryTest {
         assertThat(cf.getBuilder(), CoreMatchers.is(builder));
         assertThat(cf.getCompilerConfiguration(), is(notNullValue()));
         assertThat(cf.getCompilerConfiguration(), is(cf.getBuilder().getCompilerConfiguration()));
+        assertThat(cf.getCompileBudget(), is(CompileBudget.UNLIMITED));
     }
     
     @Test
@@ -53,11 +56,13 @@ class DefaultGroovyCompilerFactoryTest {
 
         final DefaultGroovyCompilerFactory.Builder builder = new DefaultGroovyCompilerFactory.Builder();
         final CompilerConfiguration config = new CompilerConfiguration();
+        final CompileBudget budget = new CompileBudget.Builder().setMaxClassCount(10).build();
 
         // when
 
         final DefaultGroovyCompilerFactory cf = builder
                 .setCompilerConfiguration(config)
+                .setCompileBudget(budget)
                 .build();
 
         // then
@@ -65,6 +70,10 @@ class DefaultGroovyCompilerFactoryTest {
         assertThat(cf.getBuilder(), CoreMatchers.is(builder));
         assertThat(cf.getCompilerConfiguration(), is(config));
         assertThat(cf.getCompilerConfiguration(), is(cf.getBuilder().getCompilerConfiguration()));
+        assertThat(cf.getCompileBudget(), is(budget));
+        assertThat(cf.getCompileBudget(), is(cf.getBuilder().getCompileBudget()));
+        assertThat(((DefaultGroovyCompiler)cf.newCompiler(getClass().getClassLoader())).getCompileBudget(),
+                is(budget));
     }
     
     @Test
@@ -130,4 +139,19 @@ class DefaultGroovyCompilerFactoryTest {
                 "Compiler configuration is null.");
     }
 
+    @Test
+    void testCancelAll() {
+
+        // given
+
+        final DefaultGroovyCompilerFactory cf = new DefaultGroovyCompilerFactory();
+        cf.newCompiler(null);
+        final CompilerFactory defaultCf = parent -> null;
+
+        // when/then (no running compiles, see DefaultTopCodeCacheTest for cancelling running compiles)
+
+        assertThat(cf.cancelAll(), is(true));
+        assertThat(defaultCf.cancelAll(), is(false));
+    }
+
 }
@@ -19,13 +19,16 @@ package ch.grengine.code.groovy;
 import ch.grengine.code.DefaultCode;
 import ch.grengine.source.Source;
 import ch.grengine.source.SourceUtil;
+import ch.grengine.Grengine;
 import ch.grengine.TestUtil;
 import ch.grengine.code.Code;
 import ch.grengine.code.CompilerFactory;
 import ch.grengine.code.DefaultSingleSourceCode;
+import ch.grengine.except.CompileAbortedException;
 import ch.grengine.except.CompileException;
 import ch.grengine.load.BytecodeClassLoader;
 import ch.grengine.load.LoadMode;
+import ch.grengine.source.DefaultFunctionSource;
 import ch.grengine.source.DefaultSourceFactory;
 import ch.grengine.source.MockSource;
 import ch.grengine.source.SourceFactory;
@@ -33,18 +36,39 @@ import ch.grengine.sources.Sources;
 import ch.grengine.sources.SourcesUtil;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.lang.reflect.Method;
 import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.IntStream;
 
 import groovy.grape.Grape;
 import groovy.grape.GrapeEngine;
 import groovy.lang.GroovyClassLoader;
+import groovy.lang.Script;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.codehaus.groovy.control.customizers.ImportCustomizer;
 import org.hamcrest.CoreMatchers;
 import org.junit.jupiter.api.Test;
@@ -60,6 +84,7 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 
@@ -86,6 +111,8 @@ class DefaultGroovyCompilerTest {
         assertThat(c.getParent(), is(c.getBuilder().getParent()));
         assertThat(c.getCompilerConfiguration(), is(notNullValue()));
         assertThat(c.getCompilerConfiguration(), is(c.getBuilder().getCompilerConfiguration()));
+        assertThat(c.getCompileBudget(), is(CompileBudget.UNLIMITED));
+        assertThat(c.getCompileBudget(), is(c.getBuilder().getCompileBudget()));
     }
 
     @Test
@@ -96,8 +123,10 @@ class DefaultGroovyCompilerTest {
         final DefaultGroovyCompiler.Builder builder = new DefaultGroovyCompiler.Builder();
         final ClassLoader parent = Thread.currentThread().getContextClassLoader().getParent();
         final CompilerConfiguration config = new CompilerConfiguration();
+        final CompileBudget budget = new CompileBudget.Builder().setMaxTimeMs(1000).build();
         builder.setParent(parent);
         builder.setCompilerConfiguration(config);
+        builder.setCompileBudget(budget);
 
         // when
 
@@ -110,6 +139,8 @@ class DefaultGroovyCompilerTest {
         assertThat(c.getParent(), is(c.getBuilder().getParent()));
         assertThat(c.getCompilerConfiguration(), is(config));
         assertThat(c.getCompilerConfiguration(), is(c.getBuilder().getCompilerConfiguration()));
+        assertThat(c.getCompileBudget(), is(budget));
+        assertThat(c.getCompileBudget(), is(c.getBuilder().getCompileBudget()));
     }
 
     @Test
@@ -363,6 +394,70 @@ class DefaultGroovyCompilerTest {
         assertThat(code.getMainClassName(), is(expectedTextSourceMainClassName));
     }
 
+    @Test
+    void testCompileFunctionSource() throws Exception {
+
+        // given
+
+        final DefaultGroovyCompiler c = new DefaultGroovyCompiler();
+
+        final Source functionSource = new DefaultFunctionSource(
+                "def twice(s) { s + s }\ntwice(a) + b.toUpperCase()", BinaryOperator.class, "a", "b");
+        final Source textSource = new DefaultSourceFactory().fromText("return 1");
+        final Sources sources = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(functionSource, textSource), "function");
+
+        // when
+
+        final Code code = c.compile(sources);
+        final BytecodeClassLoader loader = new BytecodeClassLoader(
+                Thread.currentThread().getContextClassLoader(), LoadMode.PARENT_FIRST, code);
+        final Class<?> functionClass = loader.loadMainClass(functionSource);
+        final Class<?> scriptClass = loader.loadMainClass(textSource);
+
+        // then
+
+        assertThat(code.getMainClassName(functionSource).startsWith("Function"), is(true));
+        assertThat(BinaryOperator.class.isAssignableFrom(functionClass), is(true));
+        assertThat(BinaryOperator.class.isAssignableFrom(scriptClass), is(false));
+        @SuppressWarnings("unchecked")
+        final BinaryOperator<Object> function = (BinaryOperator<Object>)functionClass.getConstructor().newInstance();
+        assertThat(function.apply("ab", "c"), is("ababC"));
+        assertThat(((Script)function).run(), is(nullValue()));
+        assertThat(((Script)scriptClass.getConstructor().newInstance()).run(), is(1));
+    }
+
+    @Test
+    void testCompileVariableNames() {
+
+        // given
+
+        final DefaultGroovyCompiler c = new DefaultGroovyCompiler();
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source script = f.fromText("def a = 1\n" +
+                "def twice(v) { v * 2 * factor }\n" +
+                "y = x + a\n" +
+                "[1, 2].each { i -> total += i * x }\n" +
+                "return twice(y) + total");
+        final Source scriptNoVariables = f.fromText("def a = 1; return a");
+        final Source classOnly = f.fromText("class VariableNamesClassOnly { def m() { 1 } }");
+        final Source function = new DefaultFunctionSource("a * b + c", BinaryOperator.class, "a", "b");
+        final Sources sources = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(script, scriptNoVariables, classOnly, function), "variables");
+
+        // when
+
+        final Code code = c.compile(sources);
+
+        // then
+
+        assertThat(code.getVariableNames(script), is(Arrays.asList("y", "x", "total", "factor")));
+        assertThat(code.getVariableNames(scriptNoVariables), is(Collections.emptyList()));
+        assertThat(code.getVariableNames(classOnly), is(Collections.emptyList()));
+        assertThat(code.getVariableNames(function), is(Collections.singletonList("c")));
+    }
+
     @Test
     void testCompileSourcesNull() {
 
@@ -405,6 +500,154 @@ class DefaultGroovyCompilerTest {
         }
     }
 
+    @Test
+    void testCompileAbortedSourceSize() throws Exception {
+
+        // given
+
+        final File dir = createTestDir();
+        final File file = new File(dir, "SourceSize.groovy");
+        TestUtil.setFileText(file, "return 12345");
+        final DefaultGroovyCompiler c = new DefaultGroovyCompiler.Builder()
+                .setCompileBudget(new CompileBudget.Builder().setMaxSourceSize(10).build())
+                .build();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source smallSource = f.fromText("return 1");
+        final Source largeSource = f.fromText("return 1234");
+        final Source fileSource = f.fromFile(file);
+        final Sources sources = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(smallSource, largeSource), "sourceSize");
+        final Sources fileSources = SourcesUtil.sourceToSources(fileSource);
+
+        // when
+
+        final CompileAbortedException e = assertThrows(CompileAbortedException.class, () -> c.compile(sources));
+        final CompileAbortedException eFile = assertThrows(CompileAbortedException.class,
+                () -> c.compile(fileSources));
+
+        // then
+
+        assertThat(e.getMessage(), is("Compile aborted for sources " + sources + ". Size of source " +
+                largeSource + " is 11, max is 10."));
+        assertThat(e.getReason(), is(CompileAbortedException.Reason.SOURCE_SIZE));
+        assertThat(e.getSources(), is(sources));
+        assertThat(eFile.getReason(), is(CompileAbortedException.Reason.SOURCE_SIZE));
+        assertThat(c.compile(SourcesUtil.sourceToSources(smallSource)).isForSource(smallSource), is(true));
+    }
+
+    @Test
+    void testCompileAbortedClassCount() {
+
+        // given
+
+        final DefaultGroovyCompiler c = new DefaultGroovyCompiler.Builder()
+                .setCompileBudget(new CompileBudget.Builder().setMaxClassCount(2).build())
+                .build();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Sources twoClasses = SourcesUtil.sourceToSources(f.fromText("class Count1 {}\nreturn 1"));
+        final Sources threeClasses = SourcesUtil.sourceToSources(f.fromText("class Count2 {}\nclass Count3 {}\n" +
+                "return 1"));
+        final Sources closureClasses = SourcesUtil.sourceToSources(f.fromText("return [1, 2].collect { it * 2 }" +
+                ".collect { it + 1 }"));
+
+        // when
+
+        final CompileAbortedException e = assertThrows(CompileAbortedException.class, () -> c.compile(threeClasses));
+        final CompileAbortedException eClosures = assertThrows(CompileAbortedException.class,
+                () -> c.compile(closureClasses));
+
+        // then
+
+        assertThat(c.compile(twoClasses).getClassNameSet().size(), is(2));
+        assertThat(e.getMessage(), is("Compile aborted for sources " + threeClasses +
+                ". Number of classes is 3, max is 2."));
+        assertThat(e.getReason(), is(CompileAbortedException.Reason.CLASS_COUNT));
+        assertThat(eClosures.getReason(), is(CompileAbortedException.Reason.CLASS_COUNT));
+    }
+
+    @Test
+    void testCompileAbortedTime() {
+
+        // given (compiling takes at least 100ms because of a slow customizer)
+
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new CompilationCustomizer(CompilePhase.SEMANTIC_ANALYSIS) {
+            @Override
+            public void call(final SourceUnit source, final GeneratorContext context, final ClassNode classNode) {
+                toRuntimeException(() -> Thread.sleep(100));
+            }
+        });
+        final DefaultGroovyCompiler c = new DefaultGroovyCompiler.Builder()
+                .setCompilerConfiguration(config)
+                .setCompileBudget(new CompileBudget.Builder().setMaxTimeMs(50).build())
+                .build();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultSourceFactory().fromText("return 1"));
+
+        // when/then
+
+        final CompileAbortedException e = assertThrows(CompileAbortedException.class, () -> c.compile(sources));
+        assertThat(e.getMessage(), is("Compile aborted for sources " + sources + ". Compile time exceeded 50 ms."));
+        assertThat(e.getReason(), is(CompileAbortedException.Reason.TIME));
+    }
+
+    @Test
+    void testCancel() throws Exception {
+
+        // given (compiling waits in the middle until the test has cancelled it)
+
+        final CountDownLatch compiling = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new CompilationCustomizer(CompilePhase.SEMANTIC_ANALYSIS) {
+            @Override
+            public void call(final SourceUnit source, final GeneratorContext context, final ClassNode classNode) {
+                compiling.countDown();
+                toRuntimeException(cancelled::await);
+            }
+        });
+        final DefaultGroovyCompiler c = new DefaultGroovyCompiler(
+                Thread.currentThread().getContextClassLoader(), config);
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultSourceFactory().fromText("return 1"));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<Code> future = executor.submit(() -> c.compile(sources));
+        compiling.await();
+
+        // when
+
+        final boolean isSupported = c.cancel();
+        cancelled.countDown();
+
+        // then
+
+        assertThat(isSupported, is(true));
+        final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(CompileAbortedException.class));
+        assertThat(e.getCause().getMessage(), is("Compile aborted for sources " + sources + ". Cancelled."));
+        assertThat(((CompileAbortedException)e.getCause()).getReason(),
+                is(CompileAbortedException.Reason.CANCELLED));
+        executor.shutdown();
+
+        // when (later compiles are not affected)
+
+        final Code code = c.compile(sources);
+
+        // then
+
+        assertThat(code.getSourceSet(), is(sources.getSourceSet()));
+    }
+
+    @Test
+    void testCancelNotSupportedByDefault() {
+
+        // given
+
+        final ch.grengine.code.Compiler c = sources -> null;
+
+        // when/then
+
+        assertThat(c.cancel(), is(false));
+    }
+
     @Test
     void testCompileFailsUnknownSource() throws Exception {
 
@@ -733,6 +976,39 @@ class DefaultGroovyCompilerTest {
         }
     }
 
+    @Test
+    void testGrengineGrapeEngineWithLock() {
+
+        // given
+
+        final ReentrantLock explicitLock = new ReentrantLock();
+        final Object monitorLock = new Object();
+
+        // when
+
+        final boolean explicitLockHeld = DefaultGroovyCompiler.GrengineGrapeEngine.withLock(explicitLock,
+                explicitLock::isHeldByCurrentThread);
+        final boolean monitorLockHeld = DefaultGroovyCompiler.GrengineGrapeEngine.withLock(monitorLock,
+                () -> Thread.holdsLock(monitorLock));
+
+        // then
+
+        assertThat(explicitLockHeld, is(true));
+        assertThat(Thread.holdsLock(explicitLock), is(false));
+        assertThat(explicitLock.isLocked(), is(false));
+        assertThat(monitorLockHeld, is(true));
+        assertThat(Thread.holdsLock(monitorLock), is(false));
+
+        // when/then (unlocked also if action throws)
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> DefaultGroovyCompiler.GrengineGrapeEngine.withLock(explicitLock, () -> {
+                    throw new IllegalStateException("failed");
+                }),
+                "failed");
+        assertThat(explicitLock.isLocked(), is(false));
+    }
+
     @Test
     void testEnableGrapeSupport_differentLock() {
         try {
@@ -961,7 +1237,7 @@ class DefaultGroovyCompilerTest {
             // when/then (addResolver(args))
 
             args = getDefaultArgs();
-            args.put("root", "dummy");
+            args.put("root", new File(System.getProperty("java.io.tmpdir")).toURI().toString());
             engine.addResolver(args);
 
         } finally {
@@ -1053,4 +1329,484 @@ class DefaultGroovyCompilerTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    void testGrengineGrapeEngineGrabCached() {
+
+        // given
+
+        final RecordingGrapeEngine innerEngine = new RecordingGrapeEngine();
+        final DefaultGroovyCompiler.GrengineGrapeEngine engine = new DefaultGroovyCompiler.GrengineGrapeEngine(innerEngine);
+        final GroovyClassLoader runtimeLoader1 = new GroovyClassLoader();
+        final GroovyClassLoader runtimeLoader2 = new GroovyClassLoader();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final CompilerConfiguration config = new CompilerConfiguration();
+        final Map<String,Object> dependency1 = dependency("com.example", "one", "1.0");
+        final Map<String,Object> dependency2 = dependency("com.example", "two", "2.0");
+
+        final Object lockBefore = DefaultGroovyCompiler.GrengineGrapeEngine.lock;
+        DefaultGroovyCompiler.GrengineGrapeEngine.lock = new ReentrantLock();
+        try {
+
+            // when (first grab)
+
+            final DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader1 =
+                    new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader1, parent, config);
+            Object result = engine.grab(grabArgs(loader1), dependency1);
+
+            // then
+
+            assertThat(result, is(nullValue()));
+            assertThat(innerEngine.grabCount.get(), is(1));
+            assertThat(innerEngine.resolveCount.get(), is(1));
+            assertThat(innerEngine.lastGrabLoader, is(runtimeLoader1));
+            assertThat(Arrays.asList(loader1.getURLs()), is(innerEngine.urls(dependency1)));
+            assertThat(innerEngine.processed, is(Arrays.asList("categories one.jar", "services one.jar")));
+
+            // when (same dependency, new compile time loader, same runtime loader)
+
+            final DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader2 =
+                    new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader1, parent, config);
+            result = engine.grab(grabArgs(loader2), dependency("com.example", "one", "1.0"));
+
+            // then (no calls to inner engine, except for processing jars for the loader)
+
+            assertThat(result, is(nullValue()));
+            assertThat(innerEngine.grabCount.get(), is(1));
+            assertThat(innerEngine.resolveCount.get(), is(1));
+            assertThat(Arrays.asList(loader2.getURLs()), is(innerEngine.urls(dependency1)));
+            assertThat(innerEngine.processed.size(), is(4));
+            assertThat(innerEngine.processedLoaders.get(3), is(loader2));
+
+            // when (same dependency, other runtime loader)
+
+            final DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader3 =
+                    new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader2, parent, config);
+            engine.grab(grabArgs(loader3), dependency1);
+
+            // then (grabbed for runtime loader, resolved URIs cached)
+
+            assertThat(innerEngine.grabCount.get(), is(2));
+            assertThat(innerEngine.resolveCount.get(), is(1));
+            assertThat(innerEngine.lastGrabLoader, is(runtimeLoader2));
+            assertThat(Arrays.asList(loader3.getURLs()), is(innerEngine.urls(dependency1)));
+
+            // when (other dependency, single map)
+
+            final DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader4 =
+                    new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader1, parent, config);
+            final Map<String,Object> args = grabArgs(loader4);
+            args.putAll(dependency2);
+            engine.grab(args);
+
+            // then
+
+            assertThat(innerEngine.grabCount.get(), is(3));
+            assertThat(innerEngine.resolveCount.get(), is(2));
+            assertThat(Arrays.asList(loader4.getURLs()), is(innerEngine.urls(dependency2)));
+            assertThat(engine.grabbed.size(), is(2));
+            assertThat(engine.resolved.size(), is(2));
+
+        } finally {
+            DefaultGroovyCompiler.GrengineGrapeEngine.lock = lockBefore;
+        }
+    }
+
+    @Test
+    void testGrengineGrapeEngineGrabCachedFails() {
+
+        // given
+
+        final RecordingGrapeEngine innerEngine = new RecordingGrapeEngine();
+        final DefaultGroovyCompiler.GrengineGrapeEngine engine = new DefaultGroovyCompiler.GrengineGrapeEngine(innerEngine);
+        final GroovyClassLoader runtimeLoader = new GroovyClassLoader();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final CompilerConfiguration config = new CompilerConfiguration();
+        final Map<String,Object> dependency = dependency("com.example", "fails", "1.0");
+
+        final Object lockBefore = DefaultGroovyCompiler.GrengineGrapeEngine.lock;
+        DefaultGroovyCompiler.GrengineGrapeEngine.lock = new ReentrantLock();
+        try {
+
+            // when/then (thrown, not cached)
+
+            innerEngine.grabFailure = new IllegalStateException("unit test");
+            assertThrowsMessageIs(IllegalStateException.class,
+                    () -> engine.grab(grabArgs(new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(
+                            runtimeLoader, parent, config)), dependency),
+                    "unit test");
+            assertThrowsMessageIs(IllegalStateException.class,
+                    () -> engine.grab(grabArgs(new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(
+                            runtimeLoader, parent, config)), dependency),
+                    "unit test");
+            assertThat(innerEngine.grabCount.get(), is(2));
+            assertThat(innerEngine.resolveCount.get(), is(0));
+
+            // when/then (returned with "noExceptions", not cached)
+
+            final Map<String,Object> args = grabArgs(new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(
+                    runtimeLoader, parent, config));
+            args.put("noExceptions", true);
+            assertThat(engine.grab(args, dependency), is(innerEngine.grabFailure));
+            assertThat(innerEngine.grabCount.get(), is(3));
+
+            // when/then (succeeds, cached)
+
+            innerEngine.grabFailure = null;
+            final DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader =
+                    new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader, parent, config);
+            assertThat(engine.grab(grabArgs(loader), dependency), is(nullValue()));
+            assertThat(engine.grab(grabArgs(loader), dependency), is(nullValue()));
+            assertThat(innerEngine.grabCount.get(), is(4));
+            assertThat(innerEngine.resolveCount.get(), is(1));
+
+        } finally {
+            DefaultGroovyCompiler.GrengineGrapeEngine.lock = lockBefore;
+        }
+    }
+
+    @Test
+    void testGrengineGrapeEngineGrabCachedConcurrently() throws Exception {
+
+        // given
+
+        final RecordingGrapeEngine innerEngine = new RecordingGrapeEngine();
+        innerEngine.grabSleepMs = 100;
+        final DefaultGroovyCompiler.GrengineGrapeEngine engine = new DefaultGroovyCompiler.GrengineGrapeEngine(innerEngine);
+        final GroovyClassLoader runtimeLoader = new GroovyClassLoader();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final CompilerConfiguration config = new CompilerConfiguration();
+        final Map<String,Object> dependency = dependency("com.example", "concurrent", "1.0");
+        final int n = 20;
+
+        final Object lockBefore = DefaultGroovyCompiler.GrengineGrapeEngine.lock;
+        DefaultGroovyCompiler.GrengineGrapeEngine.lock = new ReentrantLock();
+        try {
+
+            // when
+
+            final List<DefaultGroovyCompiler.CompileTimeGroovyClassLoader> loaders = IntStream.range(0, n)
+                    .mapToObj(i -> new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader, parent, config))
+                    .collect(toList());
+            final List<Thread> threads = loaders.stream()
+                    .map(loader -> new Thread(() -> engine.grab(grabArgs(loader), dependency)))
+                    .collect(toList());
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // then
+
+            assertThat(innerEngine.grabCount.get(), is(1));
+            assertThat(innerEngine.resolveCount.get(), is(1));
+            for (DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader : loaders) {
+                assertThat(Arrays.asList(loader.getURLs()), is(innerEngine.urls(dependency)));
+            }
+
+        } finally {
+            DefaultGroovyCompiler.GrengineGrapeEngine.lock = lockBefore;
+        }
+    }
+
+    @Test
+    void testGrengineGrapeEngineGrabChangingNotCached() {
+
+        // given
+
+        final RecordingGrapeEngine innerEngine = new RecordingGrapeEngine();
+        final DefaultGroovyCompiler.GrengineGrapeEngine engine = new DefaultGroovyCompiler.GrengineGrapeEngine(innerEngine);
+        final GroovyClassLoader runtimeLoader = new GroovyClassLoader();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final CompilerConfiguration config = new CompilerConfiguration();
+        final Map<String,Object> dependency = dependency("com.example", "latest", "latest.release");
+
+        final Object lockBefore = DefaultGroovyCompiler.GrengineGrapeEngine.lock;
+        DefaultGroovyCompiler.GrengineGrapeEngine.lock = new ReentrantLock();
+        try {
+
+            // when
+
+            for (int i = 0; i < 2; i++) {
+                final DefaultGroovyCompiler.CompileTimeGroovyClassLoader loader =
+                        new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(runtimeLoader, parent, config);
+                engine.grab(grabArgs(loader), dependency);
+                assertThat(Arrays.asList(loader.getURLs()), is(innerEngine.urls(dependency)));
+            }
+
+            // then
+
+            assertThat(innerEngine.grabCount.get(), is(2));
+            assertThat(innerEngine.resolveCount.get(), is(2));
+            assertThat(engine.resolved.size(), is(0));
+
+        } finally {
+            DefaultGroovyCompiler.GrengineGrapeEngine.lock = lockBefore;
+        }
+    }
+
+    @Test
+    void testGrengineGrapeEngineIsChanging() {
+
+        // when/then
+
+        assertThat(DefaultGroovyCompiler.GrengineGrapeEngine.isChanging(
+                dependency("com.example", "one", "1.0"), dependency("com.example", "two", "2.0.1")), is(false));
+        for (String version : Arrays.asList("*", "", "latest.integration", "1.+", "[1.0,2.0)", "]1.0,2.0]",
+                "(,2.0]", "1.0-SNAPSHOT")) {
+            assertThat(version, DefaultGroovyCompiler.GrengineGrapeEngine.isChanging(
+                    dependency("com.example", "one", "1.0"), dependency("com.example", "two", version)), is(true));
+        }
+        final Map<String,Object> noVersion = dependency("com.example", "one", "1.0");
+        noVersion.remove("version");
+        assertThat(DefaultGroovyCompiler.GrengineGrapeEngine.isChanging(noVersion), is(true));
+        noVersion.put("revision", "1.0");
+        assertThat(DefaultGroovyCompiler.GrengineGrapeEngine.isChanging(noVersion), is(false));
+        final Map<String,Object> changing = dependency("com.example", "one", "1.0");
+        changing.put("changing", true);
+        assertThat(DefaultGroovyCompiler.GrengineGrapeEngine.isChanging(changing), is(true));
+    }
+
+    @Test
+    void testGrengineGrapeEngineAddResolverClearsCache() {
+
+        // given
+
+        final RecordingGrapeEngine innerEngine = new RecordingGrapeEngine();
+        final DefaultGroovyCompiler.GrengineGrapeEngine engine = new DefaultGroovyCompiler.GrengineGrapeEngine(innerEngine);
+        final GroovyClassLoader runtimeLoader = new GroovyClassLoader();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final CompilerConfiguration config = new CompilerConfiguration();
+        final Map<String,Object> dependency = dependency("com.example", "one", "1.0");
+        final Map<String,Object> resolverArgs = new HashMap<>();
+        resolverArgs.put("name", "example");
+        resolverArgs.put("root", "https://repo.example.com/");
+
+        final Object lockBefore = DefaultGroovyCompiler.GrengineGrapeEngine.lock;
+        DefaultGroovyCompiler.GrengineGrapeEngine.lock = new ReentrantLock();
+        try {
+            engine.grab(grabArgs(new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(
+                    runtimeLoader, parent, config)), dependency);
+
+            // when
+
+            engine.addResolver(resolverArgs);
+
+            // then
+
+            assertThat(innerEngine.addResolverCount.get(), is(1));
+            assertThat(engine.grabbed.size(), is(0));
+            assertThat(engine.resolved.size(), is(0));
+
+            // when
+
+            engine.grab(grabArgs(new DefaultGroovyCompiler.CompileTimeGroovyClassLoader(
+                    runtimeLoader, parent, config)), dependency);
+            engine.addResolver(new HashMap<>(resolverArgs));
+
+            // then (same resolver again, e.g. @GrabResolver at every compile, cache kept)
+
+            assertThat(innerEngine.grabCount.get(), is(2));
+            assertThat(innerEngine.resolveCount.get(), is(2));
+            assertThat(innerEngine.addResolverCount.get(), is(2));
+            assertThat(engine.resolved.size(), is(1));
+
+        } finally {
+            DefaultGroovyCompiler.GrengineGrapeEngine.lock = lockBefore;
+        }
+    }
+
+    @Test
+    void testGrengineGrapeEngineGrabKey() {
+
+        // given
+
+        final Map<String,Object> args = new HashMap<>();
+        args.put("calleeDepth", 5);
+        args.put("classLoader", new GroovyClassLoader());
+        args.put("refObject", new Object());
+        args.put("noExceptions", true);
+        final Map<String,Object> dependency1 = dependency("com.example", "one", "1.0");
+        final Map<String,Object> dependency2 = dependency("com.example", "two", "2.0");
+        dependency2.put("classifier", "jdk8");
+
+        // when
+
+        final String key = DefaultGroovyCompiler.GrengineGrapeEngine.grabKey(args, dependency1, dependency2);
+
+        // then
+
+        assertThat(key, is("{noExceptions=true}[{group=com.example, module=one, version=1.0}, " +
+                "{classifier=jdk8, group=com.example, module=two, version=2.0}]"));
+    }
+
+    @Test
+    void testGrabFromLocalRepository() throws Exception {
+
+        // given
+
+        final File repoDir = new File(createTestDir(), "repo");
+        final String className = "ch.grengine.grapetest.Hello";
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final Source source = new DefaultSourceFactory().fromText(
+                "package ch.grengine.grapetest\nclass Hello { static String hello() { 'hello from jar' } }");
+        final Code code = compiler.compile(SourcesUtil.sourceToSources(source));
+        final File moduleDir = new File(repoDir, "ch/grengine/grapetest/hello/1.0");
+        assertThat(moduleDir.mkdirs(), is(true));
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(moduleDir, "hello-1.0.jar")))) {
+            out.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"));
+            out.write(code.getBytecode(className).getBytes());
+            out.closeEntry();
+        }
+        TestUtil.setFileText(new File(moduleDir, "hello-1.0.pom"),
+                "<project><modelVersion>4.0.0</modelVersion><groupId>ch.grengine.grapetest</groupId>" +
+                "<artifactId>hello</artifactId><version>1.0</version></project>");
+        final String grabs = "@GrabResolver(name='grengine-local', root='" + repoDir.toURI() + "')\n" +
+                "@Grab('ch.grengine.grapetest:hello:1.0')\n" +
+                "import ch.grengine.grapetest.Hello\n";
+
+        try {
+            DefaultGroovyCompiler.enableGrapeSupport();
+            final Grengine gren = Grengine.Grape.newGrengine();
+            final DefaultGroovyCompiler.GrengineGrapeEngine engine =
+                    (DefaultGroovyCompiler.GrengineGrapeEngine)Grape.getInstance();
+
+            // when (compile scripts with same grab concurrently)
+
+            final Object[] results = new Object[10];
+            final List<Thread> threads = IntStream.range(0, results.length)
+                    .mapToObj(i -> new Thread(() -> results[i] = gren.run(grabs + "return Hello.hello() + " + i)))
+                    .collect(toList());
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // then (one grab key for the runtime loader)
+
+            for (int i = 0; i < results.length; i++) {
+                assertThat(results[i], is("hello from jar" + i));
+            }
+            assertThat(gren.run(grabs + "return Hello.hello()"), is("hello from jar"));
+            assertThat(engine.resolved.size(), is(1));
+            assertThat(engine.grabbed.size(), is(1));
+            assertThat(engine.grabbed.values().iterator().next().size(), is(1));
+        } finally {
+            DefaultGroovyCompiler.disableGrapeSupport();
+        }
+    }
+
+    private static Map<String,Object> grabArgs(final ClassLoader loader) {
+        final Map<String,Object> args = new HashMap<>();
+        args.put("classLoader", loader);
+        return args;
+    }
+
+    private static Map<String,Object> dependency(final String group, final String module, final String version) {
+        final Map<String,Object> dependency = new HashMap<>();
+        dependency.put("group", group);
+        dependency.put("module", module);
+        dependency.put("version", version);
+        return dependency;
+    }
+
+    // records calls to grab and resolve, resolves to one (non-existing) jar per module
+    private static class RecordingGrapeEngine implements GrapeEngine {
+
+        final AtomicInteger grabCount = new AtomicInteger();
+        final AtomicInteger resolveCount = new AtomicInteger();
+        final AtomicInteger addResolverCount = new AtomicInteger();
+        final List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        final List<ClassLoader> processedLoaders = Collections.synchronizedList(new ArrayList<>());
+        volatile Object lastGrabLoader;
+        volatile RuntimeException grabFailure;
+        volatile long grabSleepMs;
+
+        List<URL> urls(final Map<String,Object> dependency) {
+            try {
+                return Collections.singletonList(new URL("file:/repo/" + dependency.get("module") + ".jar"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Object grab(final String endorsedModule) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Object grab(final Map args) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Object grab(final Map args, final Map... dependencies) {
+            grabCount.incrementAndGet();
+            lastGrabLoader = args.get("classLoader");
+            if (grabSleepMs > 0) {
+                try {
+                    Thread.sleep(grabSleepMs);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (grabFailure != null) {
+                if (Boolean.TRUE.equals(args.get("noExceptions"))) {
+                    return grabFailure;
+                }
+                throw grabFailure;
+            }
+            return null;
+        }
+
+        @Override
+        public Map<String, Map<String, List<String>>> enumerateGrapes() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        public URI[] resolve(final Map args, final Map... dependencies) {
+            resolveCount.incrementAndGet();
+            try {
+                return new URI[] { urls((Map<String,Object>)dependencies[0]).get(0).toURI() };
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public URI[] resolve(final Map args, final List depsInfo, final Map... dependencies) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Map[] listDependencies(final ClassLoader classLoader) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addResolver(final Map<String, Object> args) {
+            addResolverCount.incrementAndGet();
+        }
+
+        // like GrapeIvy, private
+        @SuppressWarnings("unused")
+        private void processCategoryMethods(final ClassLoader loader, final File file) {
+            processed.add("categories " + file.getName());
+            processedLoaders.add(loader);
+        }
+
+        // like GrapeIvy
+        public void processOtherServices(final ClassLoader loader, final File file) {
+            processed.add("services " + file.getName());
+            processedLoaders.add(loader);
+        }
+
+    }
+
+}
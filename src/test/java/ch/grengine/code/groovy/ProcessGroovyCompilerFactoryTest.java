@@ -0,0 +1,290 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.except.CompileException;
+import ch.grengine.source.DefaultSourceFactory;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class ProcessGroovyCompilerFactoryTest {
+
+    @Test
+    void testConstructDefaults() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory.Builder builder = new ProcessGroovyCompilerFactory.Builder();
+
+        // when
+
+        final ProcessGroovyCompilerFactory cf = builder.build();
+
+        // then
+
+        assertThat(cf.getBuilder(), is(builder));
+        final String javaCommand = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        assertThat(builder.getJavaCommand(), is(javaCommand));
+        assertThat(builder.getClassPath(), is(System.getProperty("java.class.path")));
+        assertThat(builder.getJvmArgs(), is(Collections.emptyList()));
+        assertThat(builder.getWorkerCount(), is(ProcessGroovyCompilerFactory.Builder.DEFAULT_WORKER_COUNT));
+        assertThat(builder.getMaxCompilesPerWorker(),
+                is(ProcessGroovyCompilerFactory.Builder.DEFAULT_MAX_COMPILES_PER_WORKER));
+        assertThat(builder.getCompilerConfiguration(), is(notNullValue()));
+        assertThat(builder.getCompileTimeoutMs(), is(ProcessGroovyCompilerFactory.Builder.DEFAULT_COMPILE_TIMEOUT_MS));
+        assertThat(cf.getCommand(), is(Arrays.asList(javaCommand, "-cp", System.getProperty("java.class.path"),
+                ProcessGroovyCompilerWorker.class.getName())));
+        assertThat(cf.startedWorkerCount.get(), is(0));
+    }
+
+    @Test
+    void testConstructAllDefined() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory.Builder builder = new ProcessGroovyCompilerFactory.Builder();
+        final CompilerConfiguration config = new CompilerConfiguration();
+
+        // when
+
+        final ProcessGroovyCompilerFactory cf = builder
+                .setCompilerConfiguration(config)
+                .setCompileTimeoutMs(0)
+                .setJavaCommand("myjava")
+                .setClassPath("a.jar")
+                .setJvmArgs(Arrays.asList("-Xmx64m", "-Xss1m"))
+                .setWorkerCount(3)
+                .setMaxCompilesPerWorker(7)
+                .build();
+
+        // then
+
+        assertThat(cf.getBuilder(), is(builder));
+        assertThat(builder.getJavaCommand(), is("myjava"));
+        assertThat(builder.getClassPath(), is("a.jar"));
+        assertThat(builder.getJvmArgs(), is(Arrays.asList("-Xmx64m", "-Xss1m")));
+        assertThat(builder.getWorkerCount(), is(3));
+        assertThat(builder.getMaxCompilesPerWorker(), is(7));
+        assertThat(builder.getCompilerConfiguration(), is(config));
+        assertThat(builder.getCompileTimeoutMs(), is(0L));
+        assertThat(cf.getCommand(), is(Arrays.asList("myjava", "-Xmx64m", "-Xss1m", "-cp", "a.jar",
+                ProcessGroovyCompilerWorker.class.getName())));
+    }
+
+    @Test
+    void testConstructFromNoArgConstructor() {
+
+        // when
+
+        final ProcessGroovyCompilerFactory cf = new ProcessGroovyCompilerFactory();
+
+        // then
+
+        assertThat(cf.getBuilder().getWorkerCount(), is(ProcessGroovyCompilerFactory.Builder.DEFAULT_WORKER_COUNT));
+    }
+
+    @Test
+    void testBuilderIllegalArguments() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory.Builder builder = new ProcessGroovyCompilerFactory.Builder();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setWorkerCount(0),
+                "Worker count is less than one.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setMaxCompilesPerWorker(0),
+                "Max compiles per worker is less than one.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setCompileTimeoutMs(-1),
+                "Compile timeout is negative.");
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new ImportCustomizer());
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> builder.setCompilerConfiguration(config),
+                "Compilation customizers are not supported.");
+    }
+
+    @Test
+    void testModifyBuilderAfterUse() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory.Builder builder = new ProcessGroovyCompilerFactory.Builder();
+        builder.build();
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setJavaCommand("java"),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setClassPath("a.jar"),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setJvmArgs(Collections.emptyList()),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setWorkerCount(1),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setMaxCompilesPerWorker(1),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setCompilerConfiguration(new CompilerConfiguration()),
+                "Builder already used.");
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> builder.setCompileTimeoutMs(1),
+                "Builder already used.");
+    }
+
+    @Test
+    void testNewCompiler() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory cf = new ProcessGroovyCompilerFactory();
+
+        // when
+
+        final ProcessGroovyCompiler c = (ProcessGroovyCompiler)cf.newCompiler(getClass().getClassLoader());
+
+        // then
+
+        assertThat(c, instanceOf(ProcessGroovyCompiler.class));
+        assertThat(c.getFactory(), is(cf));
+        assertThat(cf.startedWorkerCount.get(), is(0));
+    }
+
+    @Test
+    void testWorkersReusedAndReplaced() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory cf = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(1)
+                .setMaxCompilesPerWorker(2)
+                .build();
+        final DefaultSourceFactory f = new DefaultSourceFactory();
+
+        try {
+
+            // when
+
+            for (int i = 0; i < 5; i++) {
+                final Sources sources = SourcesUtil.sourceToSources(f.fromText("return " + i));
+                cf.newCompiler(null).compile(sources);
+            }
+
+            // then
+
+            assertThat(cf.startedWorkerCount.get(), is(3));
+
+        } finally {
+            cf.close();
+        }
+    }
+
+    @Test
+    void testWorkerStartupTimesOut() throws Exception {
+
+        // given (a java command whose process never answers)
+
+        final ProcessGroovyCompilerFactory cf = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(1)
+                .setJvmArgs(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                        NeverAnswering.class.getName()))
+                .setCompileTimeoutMs(1000)
+                .build();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultSourceFactory().fromText("return 1"));
+
+        try {
+
+            // when/then
+
+            assertThrowsMessageIs(IOException.class,
+                    cf::acquireWorker,
+                    "Compiler worker did not start within 1000 ms.");
+            assertThrowsMessageIs(CompileException.class,
+                    () -> cf.newCompiler(null).compile(sources),
+                    "Compile failed for sources " + sources + " in compiler worker. " +
+                    "Cause: java.io.IOException: Compiler worker did not start within 1000 ms.");
+            assertThat(cf.startedWorkerCount.get(), is(3));
+            assertThrowsMessageIs(IOException.class,
+                    cf::acquireWorker,
+                    "Compiler worker did not start within 1000 ms.");
+
+        } finally {
+            cf.close();
+        }
+    }
+
+    // main class of a worker process that never answers
+    static class NeverAnswering {
+        public static void main(final String[] args) throws InterruptedException {
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    void testClose() throws Exception {
+
+        // given
+
+        final ProcessGroovyCompilerFactory cf = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(2)
+                .build();
+        final ProcessGroovyCompilerFactory.Worker idleWorker = cf.acquireWorker();
+        final ProcessGroovyCompilerFactory.Worker busyWorker = cf.acquireWorker();
+        cf.releaseWorker(idleWorker);
+
+        // when
+
+        cf.close();
+
+        // then
+
+        assertThat(idleWorker.getProcess().waitFor(), is(0));
+        assertThat(busyWorker.getProcess().isAlive(), is(true));
+        cf.releaseWorker(busyWorker);
+        assertThat(busyWorker.getProcess().waitFor(), is(0));
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultSourceFactory().fromText("return 1"));
+        assertThrowsMessageIs(IllegalStateException.class,
+                () -> cf.newCompiler(null).compile(sources),
+                "Compiler factory is closed.");
+    }
+
+}
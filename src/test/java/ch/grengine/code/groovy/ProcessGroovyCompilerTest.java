@@ -0,0 +1,488 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.code.groovy;
+
+import ch.grengine.Grengine;
+import ch.grengine.code.Code;
+import ch.grengine.code.Compiler;
+import ch.grengine.code.DefaultCode;
+import ch.grengine.code.DefaultSingleSourceCode;
+import ch.grengine.except.CompileAbortedException;
+import ch.grengine.except.CompileException;
+import ch.grengine.load.BytecodeClassLoader;
+import ch.grengine.load.LoadMode;
+import ch.grengine.source.DefaultFunctionSource;
+import ch.grengine.source.DefaultSourceFactory;
+import ch.grengine.source.MockSource;
+import ch.grengine.source.Source;
+import ch.grengine.source.SourceFactory;
+import ch.grengine.source.SourceUtil;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+
+import groovy.lang.Script;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.assertThrowsMessageStartsWith;
+import static ch.grengine.TestUtil.createTestDir;
+import static ch.grengine.TestUtil.setFileText;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class ProcessGroovyCompilerTest {
+
+    private static ProcessGroovyCompilerFactory factory;
+
+    @BeforeAll
+    static void startFactory() {
+        factory = new ProcessGroovyCompilerFactory();
+    }
+
+    @AfterAll
+    static void closeFactory() {
+        factory.close();
+    }
+
+    @Test
+    void testConstruct() {
+
+        // when
+
+        final ProcessGroovyCompiler c = (ProcessGroovyCompiler)factory.newCompiler(null);
+
+        // then
+
+        assertThat(c.getFactory(), is(factory));
+    }
+
+    @Test
+    void testConstructFactoryNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new ProcessGroovyCompiler(null),
+                "Factory is null.");
+    }
+
+    @Test
+    void testCompileSameAsInProcess() throws Exception {
+
+        // given
+
+        final File dir = createTestDir();
+        final File file = new File(dir, "ProcessFileScript.groovy");
+        setFileText(file, "class ProcessFileClass { def get() { 'file' } }\nreturn new ProcessFileClass().get()");
+        final File urlFile = new File(dir, "ProcessUrlScript.groovy");
+        setFileText(urlFile, "return 'url'");
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source textSource = f.fromText("package proc\ndef x = 5\nreturn x * y");
+        final Source fileSource = f.fromFile(file);
+        final Source urlSource = f.fromUrl(urlFile.toURI().toURL());
+        final Sources sources = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(textSource, fileSource, urlSource), "process");
+
+        // when
+
+        final Code code = factory.newCompiler(null).compile(sources);
+        final Code expectedCode = new DefaultGroovyCompiler().compile(sources);
+
+        // then
+
+        assertThat(code, instanceOf(DefaultCode.class));
+        assertThat(code.getSourcesName(), is("process"));
+        assertThat(code.getSourceSet(), is(sources.getSourceSet()));
+        for (Source source : sources.getSourceSet()) {
+            assertThat(code.getMainClassName(source), is(expectedCode.getMainClassName(source)));
+            assertThat(code.getClassNames(source), is(expectedCode.getClassNames(source)));
+            assertThat(code.getVariableNames(source), is(expectedCode.getVariableNames(source)));
+            assertThat(code.getLastModifiedAtCompileTime(source), is(source.getLastModified()));
+        }
+        assertThat(code.getClassNameSet(), is(expectedCode.getClassNameSet()));
+        assertThat(code.getVariableNames(textSource), is(Collections.singletonList("y")));
+
+        final BytecodeClassLoader loader = new BytecodeClassLoader(
+                Thread.currentThread().getContextClassLoader(), LoadMode.PARENT_FIRST, code);
+        final Script script = (Script)loader.loadMainClass(fileSource).getConstructor().newInstance();
+        assertThat(script.run(), is("file"));
+    }
+
+    @Test
+    void testCompileSingleSource() {
+
+        // given
+
+        final Source source = new DefaultSourceFactory().fromText("return 2");
+        final Sources sources = SourcesUtil.sourceToSources(source);
+
+        // when
+
+        final Code code = factory.newCompiler(null).compile(sources);
+
+        // then
+
+        assertThat(code, instanceOf(DefaultSingleSourceCode.class));
+        assertThat(((DefaultSingleSourceCode)code).getMainClassName(),
+                is(((DefaultSingleSourceCode)new DefaultGroovyCompiler().compile(sources)).getMainClassName()));
+    }
+
+    @Test
+    void testCompileFunctionSource() throws Exception {
+
+        // given
+
+        final Source functionSource = new DefaultFunctionSource(
+                "def twice(s) { s + s }\ntwice(a) + b.toUpperCase()", BinaryOperator.class, "a", "b");
+        final Sources sources = SourcesUtil.sourceToSources(functionSource);
+
+        // when
+
+        final Code code = factory.newCompiler(null).compile(sources);
+        final BytecodeClassLoader loader = new BytecodeClassLoader(
+                Thread.currentThread().getContextClassLoader(), LoadMode.PARENT_FIRST, code);
+        final Class<?> functionClass = loader.loadMainClass(functionSource);
+
+        // then
+
+        assertThat(BinaryOperator.class.isAssignableFrom(functionClass), is(true));
+        @SuppressWarnings("unchecked")
+        final BinaryOperator<Object> function = (BinaryOperator<Object>)functionClass.getConstructor().newInstance();
+        assertThat(function.apply("ab", "c"), is("ababC"));
+    }
+
+    @Test
+    void testCompileFailsSyntaxWrong() {
+
+        // given
+
+        final Source source = new DefaultSourceFactory().fromText("%%)(");
+        final Sources sources = SourcesUtil.sourceToSources(source);
+        final int startedWorkerCount = factory.startedWorkerCount.get();
+
+        // when
+
+        assertThrowsMessageStartsWith(CompileException.class,
+                () -> factory.newCompiler(null).compile(sources),
+                "Compile failed for sources " + sources + ". Cause: ");
+
+        // then
+
+        // worker is still used after compile errors
+        factory.newCompiler(null).compile(SourcesUtil.sourceToSources(
+                new DefaultSourceFactory().fromText("return 3")));
+        assertThat(factory.startedWorkerCount.get() - startedWorkerCount <= 1, is(true));
+    }
+
+    @Test
+    void testCompileFailsUnknownSource() {
+
+        // given
+
+        final Source source = new MockSource("mock");
+        final Sources sources = SourcesUtil.sourceToSources(source);
+
+        // when/then
+
+        assertThrowsMessageIs(CompileException.class,
+                () -> factory.newCompiler(null).compile(sources),
+                "Don't know how to compile source " + source + ".");
+    }
+
+    @Test
+    void testCompileSourcesNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> factory.newCompiler(null).compile(null),
+                "Sources are null.");
+    }
+
+    @Test
+    void testCompileRetriesIfWorkerDied() throws Exception {
+
+        // given
+
+        final ProcessGroovyCompilerFactory f = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(1)
+                .build();
+        try {
+            final ProcessGroovyCompilerFactory.Worker worker = f.acquireWorker();
+            f.releaseWorker(worker);
+            worker.getProcess().destroy();
+            worker.getProcess().waitFor();
+            final Source source = new DefaultSourceFactory().fromText("return 4");
+
+            // when
+
+            final Code code = f.newCompiler(null).compile(SourcesUtil.sourceToSources(source));
+
+            // then
+
+            assertThat(code.isForSource(source), is(true));
+            assertThat(f.startedWorkerCount.get(), is(2));
+        } finally {
+            f.close();
+        }
+    }
+
+    @Test
+    void testCompileFailsIfWorkerCannotStart() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory f = new ProcessGroovyCompilerFactory.Builder()
+                .setJavaCommand("java-does-not-exist")
+                .build();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultSourceFactory().fromText("return 5"));
+
+        // when/then
+
+        assertThrowsMessageStartsWith(CompileException.class,
+                () -> f.newCompiler(null).compile(sources),
+                "Compile failed for sources " + sources + " in compiler worker. Cause: ");
+        assertThat(f.startedWorkerCount.get(), is(2));
+        f.close();
+    }
+
+    @Test
+    void testCompileWithGrengine() {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source utilSource = f.fromText("class ProcessUtil { static def twice(x) { 2 * x } }");
+        final Source scriptSource = f.fromText("return ProcessUtil.twice(x)");
+        final Grengine gren = new Grengine.Builder()
+                .setSourcesLayers(SourcesUtil.sourceSetToSources(
+                        SourceUtil.sourceArrayToSourceSet(utilSource, scriptSource), "grengine", factory))
+                .build();
+
+        // when
+
+        final Object result = gren.run(scriptSource, gren.binding("x", 21));
+
+        // then
+
+        assertThat(result, is(42));
+        assertThat(gren.getLastUpdateException(), is(nullValue()));
+    }
+
+    @Test
+    void testCompileWithParentCodeLayers() {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source utilSource = f.fromText("class ProcessLayerUtil { static def twice(x) { 2 * x } }");
+        final Source scriptSource = f.fromText("return ProcessLayerUtil.twice(x)");
+        final Grengine gren = new Grengine.Builder()
+                .setSourcesLayers(
+                        SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(utilSource), "util", factory),
+                        SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(scriptSource), "script",
+                                factory))
+                .build();
+
+        // when
+
+        final Object result = gren.run(scriptSource, gren.binding("x", 21));
+
+        // then
+
+        assertThat(result, is(42));
+        assertThat(gren.getLastUpdateException(), is(nullValue()));
+    }
+
+    @Test
+    void testCompileLoadsCodeLayerClassesWithParent() throws Exception {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Code layerCode = new DefaultGroovyCompiler().compile(SourcesUtil.sourceToSources(
+                f.fromText("class ProcessParent1 { def value() { 1 } }\nclass ProcessParent2 {}")));
+        final BytecodeClassLoader layerLoader = new BytecodeClassLoader(
+                Thread.currentThread().getContextClassLoader(), LoadMode.CURRENT_FIRST, layerCode);
+        final Set<String> loadedClassNames = ConcurrentHashMap.newKeySet();
+        final ClassLoader recordingLoader = new ClassLoader(layerLoader) {
+            @Override
+            protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+                loadedClassNames.add(name);
+                return super.loadClass(name, resolve);
+            }
+        };
+        final ProcessGroovyCompiler c = (ProcessGroovyCompiler)factory.newCompiler(recordingLoader);
+
+        // when
+
+        final Code code1 = c.compile(SourcesUtil.sourceToSources(f.fromText("return new ProcessParent1().value()")));
+        // code layer only sent once to a worker
+        final Code code2 = c.compile(SourcesUtil.sourceToSources(f.fromText("return new ProcessParent1().value() + 1")));
+
+        // then
+
+        assertThat(c.getParent(), is(recordingLoader));
+        assertThat(loadedClassNames.contains("ProcessParent1"), is(true));
+        assertThat(loadedClassNames.contains("ProcessParent2"), is(false));
+        final Script script1 = (Script)new BytecodeClassLoader(recordingLoader, LoadMode.CURRENT_FIRST, code1)
+                .loadMainClass(code1.getSourceSet().iterator().next()).getConstructor().newInstance();
+        assertThat(script1.run(), is(1));
+        final Script script2 = (Script)new BytecodeClassLoader(recordingLoader, LoadMode.CURRENT_FIRST, code2)
+                .loadMainClass(code2.getSourceSet().iterator().next()).getConstructor().newInstance();
+        assertThat(script2.run(), is(2));
+    }
+
+    @Test
+    void testCompileWithCompilerConfiguration() throws Exception {
+
+        // given
+
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.setParameters(true);
+        final ProcessGroovyCompilerFactory f = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(1)
+                .setCompilerConfiguration(config)
+                .build();
+        final Source source = new DefaultSourceFactory().fromText("class ProcessParams { def m(int abc) {} }");
+
+        try {
+
+            // when
+
+            final Code code = f.newCompiler(null).compile(SourcesUtil.sourceToSources(source));
+
+            // then
+
+            final Class<?> clazz = new BytecodeClassLoader(Thread.currentThread().getContextClassLoader(),
+                    LoadMode.CURRENT_FIRST, code).loadClass("ProcessParams");
+            assertThat(clazz.getDeclaredMethod("m", int.class).getParameters()[0].getName(), is("abc"));
+        } finally {
+            f.close();
+        }
+    }
+
+    @Test
+    void testCompileTimesOut() {
+
+        // given
+
+        final ProcessGroovyCompilerFactory f = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(1)
+                .setCompileTimeoutMs(5000)
+                .build();
+        final SourceFactory sf = new DefaultSourceFactory();
+        final Sources slowSources = SourcesUtil.sourceToSources(sf.fromText(
+                "@groovy.transform.ASTTest(value={ Thread.sleep(60000) })\nclass ProcessSlow {}"));
+        final Source source = sf.fromText("return 6");
+
+        try {
+
+            // when/then
+
+            assertThrowsMessageStartsWith(CompileException.class,
+                    () -> f.newCompiler(null).compile(slowSources),
+                    "Compile failed for sources " + slowSources + ". Timed out after 5000 ms in compiler worker.");
+            final Code code = f.newCompiler(null).compile(SourcesUtil.sourceToSources(source));
+            assertThat(code.isForSource(source), is(true));
+            assertThat(f.startedWorkerCount.get(), is(2));
+        } finally {
+            f.close();
+        }
+    }
+
+    @Test
+    void testCancel() throws Exception {
+
+        // given
+
+        final ProcessGroovyCompilerFactory f = new ProcessGroovyCompilerFactory.Builder()
+                .setWorkerCount(2)
+                .build();
+        final SourceFactory sf = new DefaultSourceFactory();
+        final Sources slowSources1 = SourcesUtil.sourceToSources(sf.fromText(
+                "@groovy.transform.ASTTest(value={ Thread.sleep(60000) })\nclass ProcessSlow1 {}"));
+        final Sources slowSources2 = SourcesUtil.sourceToSources(sf.fromText(
+                "@groovy.transform.ASTTest(value={ Thread.sleep(60000) })\nclass ProcessSlow2 {}"));
+        final Compiler c = f.newCompiler(null);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+
+            // when (compiler cancelled from another thread, repeatedly until its worker was busy)
+
+            final Future<Code> future1 = executor.submit(() -> c.compile(slowSources1));
+            while (!future1.isDone()) {
+                assertThat(c.cancel(), is(true));
+                Thread.sleep(50);
+            }
+
+            // then
+
+            ExecutionException e = assertThrows(ExecutionException.class, future1::get);
+            assertThat(e.getCause(), instanceOf(CompileAbortedException.class));
+            assertThat(e.getCause().getMessage(), is("Compile aborted for sources " + slowSources1 + ". Cancelled."));
+            assertThat(((CompileAbortedException)e.getCause()).getReason(),
+                    is(CompileAbortedException.Reason.CANCELLED));
+
+            // when (all compiles of the factory cancelled)
+
+            final Future<Code> future2 = executor.submit(() -> f.newCompiler(null).compile(slowSources2));
+            while (!future2.isDone()) {
+                assertThat(f.cancelAll(), is(true));
+                Thread.sleep(50);
+            }
+
+            // then
+
+            e = assertThrows(ExecutionException.class, future2::get);
+            assertThat(((CompileAbortedException)e.getCause()).getReason(),
+                    is(CompileAbortedException.Reason.CANCELLED));
+
+            // when (later compiles are not affected)
+
+            final Source source = sf.fromText("return 7");
+            final Code code = c.compile(SourcesUtil.sourceToSources(source));
+
+            // then
+
+            assertThat(code.isForSource(source), is(true));
+        } finally {
+            executor.shutdown();
+            f.close();
+        }
+    }
+
+}
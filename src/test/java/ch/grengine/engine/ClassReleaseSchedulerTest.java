@@ -0,0 +1,180 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.engine;
+
+import ch.grengine.load.LayeredClassLoader;
+import ch.grengine.load.RecordingClassReleaser;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class ClassReleaseSchedulerTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private static LayeredClassLoader newLayeredClassLoader() {
+        final List<Sources> sourcesLayers = Collections.singletonList(
+                SourcesUtil.sourceToSources(new DefaultTextSource("class Released {}")));
+        return new LayeredClassLoader.Builder()
+                .setSourcesLayers(sourcesLayers)
+                .buildFromSourcesLayers();
+    }
+
+    // runs GC while waiting, for phantom references to be enqueued
+    private static boolean waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            System.gc();
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    void testConstructClassReleaserNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new ClassReleaseScheduler(null, 0),
+                "Class releaser is null.");
+    }
+
+    @Test
+    void testReplaced() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        final ClassReleaseScheduler scheduler = new ClassReleaseScheduler(releaser, 0);
+        final EngineId engineId = new EngineId();
+        final LayeredClassLoader previousClassLoader = newLayeredClassLoader();
+        final LayeredClassLoader classLoader = newLayeredClassLoader();
+        final Loader loader = new Loader(engineId, 0, true, releaser, previousClassLoader);
+        scheduler.register(loader, previousClassLoader);
+        final Class<?> previousClazz = previousClassLoader.loadClass("Released");
+        final Class<?> clazz = classLoader.loadClass("Released");
+
+        // when
+
+        loader.setSourceClassLoader(engineId, classLoader);
+        scheduler.replaced(loader, previousClassLoader, classLoader);
+
+        // then
+
+        assertThat(waitFor(() -> scheduler.getReleaseCount() == 1), is(true));
+        assertThat(scheduler.getPendingReleaseCount(), is(0));
+        assertThat(releaser.classes.contains(previousClazz), is(true));
+        assertThat(releaser.classes.contains(clazz), is(false));
+
+        // when (same class loader, nothing to release)
+
+        scheduler.replaced(loader, classLoader, classLoader);
+
+        // then
+
+        assertThat(scheduler.getPendingReleaseCount(), is(0));
+        assertThat(scheduler.getReleaseCount(), is(1L));
+    }
+
+    @Test
+    void testReplacedWithDelay() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        final ClassReleaseScheduler scheduler = new ClassReleaseScheduler(releaser, 200);
+        final LayeredClassLoader previousClassLoader = newLayeredClassLoader();
+        final Loader loader = new Loader(new EngineId(), 0, true, releaser, previousClassLoader);
+        scheduler.register(loader, previousClassLoader);
+
+        // when
+
+        scheduler.replaced(loader, previousClassLoader, newLayeredClassLoader());
+
+        // then
+
+        assertThat(scheduler.getPendingReleaseCount(), is(1));
+        assertThat(waitFor(() -> scheduler.getReleaseCount() == 1), is(true));
+        assertThat(scheduler.getPendingReleaseCount(), is(0));
+    }
+
+    @Test
+    void testUnreachable() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        final ClassReleaseScheduler scheduler = new ClassReleaseScheduler(releaser, 0);
+        final LayeredClassLoader classLoader = newLayeredClassLoader();
+        final Class<?> clazz = classLoader.loadClass("Released");
+
+        // when
+
+        registerUnreachableLoader(scheduler, classLoader);
+
+        // then
+
+        assertThat(waitFor(() -> scheduler.getReleaseCount() == 1), is(true));
+        assertThat(releaser.classes.contains(clazz), is(true));
+    }
+
+    // loader is unreachable after returning
+    private static void registerUnreachableLoader(final ClassReleaseScheduler scheduler,
+            final LayeredClassLoader classLoader) {
+        final Loader loader = new Loader(new EngineId(), 0, false, classLoader);
+        scheduler.register(loader, classLoader);
+    }
+
+    @Test
+    void testSharedCodeLayersNotReleased() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        final ClassReleaseScheduler scheduler = new ClassReleaseScheduler(releaser, 0);
+        final LayeredClassLoader previousClassLoader = newLayeredClassLoader();
+        final LayeredClassLoader sharedClone = previousClassLoader.cloneWithSharedCodeLayerLoaders();
+        final Loader loader = new Loader(new EngineId(), 0, true, releaser, previousClassLoader);
+        scheduler.register(loader, previousClassLoader);
+        final Class<?> clazz = sharedClone.loadClass("Released");
+
+        // when
+
+        scheduler.replaced(loader, previousClassLoader, sharedClone);
+
+        // then
+
+        assertThat(waitFor(() -> scheduler.getReleaseCount() == 1), is(true));
+        assertThat(releaser.classes.contains(clazz), is(false));
+    }
+
+}
@@ -27,13 +27,20 @@ import ch.grengine.source.Source;
 import ch.grengine.source.SourceUtil;
 import ch.grengine.TestUtil;
 import ch.grengine.code.Code;
+import ch.grengine.code.CompileScheduler;
+import ch.grengine.code.LeanCode;
+import ch.grengine.load.BytecodeClassLoader;
 import ch.grengine.load.ClassReleaser;
+import ch.grengine.load.LayeredClassLoader;
 import ch.grengine.load.LoadMode;
+import ch.grengine.load.SharedCodeRegistry;
 import ch.grengine.load.RecordingClassReleaser;
 import ch.grengine.load.TopCodeCacheFactory;
 import ch.grengine.source.DefaultTextSource;
 import ch.grengine.source.MockFile;
+import ch.grengine.source.MockTextSource;
 import ch.grengine.source.SourceFactory;
+import ch.grengine.sources.FixedSetSources;
 import ch.grengine.sources.Sources;
 import ch.grengine.sources.SourcesUtil;
 
@@ -42,6 +49,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -54,8 +62,10 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 
@@ -83,6 +93,21 @@ class LayeredEngineTest {
         assertThat(engine.getBuilder().getClassReleaser(), instanceOf(DefaultClassReleaser.class));
         assertThat(engine.getBuilder().isAllowSameClassNamesInMultipleCodeLayers(), is(true));
         assertThat(engine.getBuilder().isAllowSameClassNamesInParentAndCodeLayers(), is(true));
+        assertThat(engine.getBuilder().isMemoryLean(), is(false));
+        assertThat(engine.getBuilder().getLoaderIsolation(), is(LoaderIsolation.CODE_LAYERS_AND_TOP_CODE_CACHE));
+        assertThat(engine.getBuilder().isReuseUnchangedCodeLayers(), is(false));
+        assertThat(engine.getBuilder().getNegativeLookupCacheSize(), is(0));
+        assertThat(engine.getBuilder().getTopLoaderBucketSize(), is(0));
+        assertThat(engine.getBuilder().getTopLoaderBucketMaxStaleRatio(),
+                is(LayeredClassLoader.Builder.DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO));
+        assertThat(engine.getBuilder().isTopLoaderHiddenClasses(), is(false));
+        assertThat(engine.getBuilder().getCompileScheduler(), is(nullValue()));
+        assertThat(engine.getBuilder().isAutoReleaseClasses(), is(false));
+        assertThat(engine.getBuilder().getAutoReleaseDelayMs(),
+                is(LayeredEngine.Builder.DEFAULT_AUTO_RELEASE_DELAY_MS));
+        assertThat(engine.getBuilder().getWarmUpThreads(), is(0));
+        assertThat(engine.getBuilder().getWarmUpTimeoutMs(), is(LayeredEngine.Builder.DEFAULT_WARM_UP_TIMEOUT_MS));
+        assertThat(engine.getBuilder().isWarmUpMetaClasses(), is(true));
     }
 
     @Test
@@ -94,6 +119,7 @@ class LayeredEngineTest {
         final ClassLoader parent = Thread.currentThread().getContextClassLoader().getParent();
         final TopCodeCacheFactory topCodeCacheFactory = new DefaultTopCodeCacheFactory();
         final ClassReleaser releaser = new RecordingClassReleaser();
+        final CompileScheduler compileScheduler = new CompileScheduler();
 
         // when
 
@@ -106,6 +132,19 @@ class LayeredEngineTest {
                 .setClassReleaser(releaser)
                 .setAllowSameClassNamesInMultipleCodeLayers(false)
                 .setAllowSameClassNamesInParentAndCodeLayers(false)
+                .setMemoryLean(true)
+                .setLoaderIsolation(LoaderIsolation.TOP_CODE_CACHE_ONLY)
+                .setReuseUnchangedCodeLayers(true)
+                .setNegativeLookupCacheSize(1000)
+                .setTopLoaderBucketSize(500)
+                .setTopLoaderBucketMaxStaleRatio(0.75)
+                .setTopLoaderHiddenClasses(true)
+                .setCompileScheduler(compileScheduler)
+                .setAutoReleaseClasses(true)
+                .setAutoReleaseDelayMs(1234)
+                .setWarmUpThreads(3)
+                .setWarmUpTimeoutMs(1234)
+                .setWarmUpMetaClasses(false)
                 .build();
 
         // then
@@ -119,6 +158,19 @@ class LayeredEngineTest {
         assertThat(engine.getBuilder().getClassReleaser(), is(releaser));
         assertThat(engine.getBuilder().isAllowSameClassNamesInMultipleCodeLayers(), is(false));
         assertThat(engine.getBuilder().isAllowSameClassNamesInParentAndCodeLayers(), is(false));
+        assertThat(engine.getBuilder().isMemoryLean(), is(true));
+        assertThat(engine.getBuilder().getLoaderIsolation(), is(LoaderIsolation.TOP_CODE_CACHE_ONLY));
+        assertThat(engine.getBuilder().isReuseUnchangedCodeLayers(), is(true));
+        assertThat(engine.getBuilder().getNegativeLookupCacheSize(), is(1000));
+        assertThat(engine.getBuilder().getTopLoaderBucketSize(), is(500));
+        assertThat(engine.getBuilder().getTopLoaderBucketMaxStaleRatio(), is(0.75));
+        assertThat(engine.getBuilder().isTopLoaderHiddenClasses(), is(true));
+        assertThat(engine.getBuilder().getCompileScheduler(), is(compileScheduler));
+        assertThat(engine.getBuilder().isAutoReleaseClasses(), is(true));
+        assertThat(engine.getBuilder().getAutoReleaseDelayMs(), is(1234L));
+        assertThat(engine.getBuilder().getWarmUpThreads(), is(3));
+        assertThat(engine.getBuilder().getWarmUpTimeoutMs(), is(1234L));
+        assertThat(engine.getBuilder().isWarmUpMetaClasses(), is(false));
     }
 
     @Test
@@ -136,6 +188,87 @@ class LayeredEngineTest {
                 "Builder already used.");
     }
 
+    @Test
+    void testCompileScheduler() throws Exception {
+
+        // given
+
+        final CompileScheduler compileScheduler = new CompileScheduler();
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setCompileScheduler(compileScheduler)
+                .build();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source layerSource = f.fromText("class ScheduledLayer { static int get() { 5 } }");
+        final Source topSource = f.fromText("return ScheduledLayer.get()");
+
+        // when
+
+        engine.setCodeLayersBySource(Collections.singletonList(SourcesUtil.sourceToSources(layerSource)));
+        final Loader loader = engine.newAttachedLoader();
+        final Class<?> clazz = engine.loadMainClass(loader, topSource);
+
+        // then
+
+        assertThat(((Script)clazz.getConstructor().newInstance()).run(), is(5));
+        assertThat(compileScheduler.getAdmittedCount(), is(2L));
+        assertThat(((DefaultTopCodeCacheFactory)engine.getBuilder().getTopCodeCacheFactory()).getCompileScheduler(),
+                is(compileScheduler));
+    }
+
+    @Test
+    void testSharedCodeRegistry() throws Exception {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final LayeredEngine engine1 = new LayeredEngine.Builder()
+                .setSharedCodeRegistry(registry)
+                .build();
+        final LayeredEngine engine2 = new LayeredEngine.Builder()
+                .setSharedCodeRegistry(registry)
+                .build();
+        final SourceFactory f = new DefaultSourceFactory();
+        final String layerText = "class SharedLayer { static int get() { 6 } }";
+        final Source topSource = f.fromText("return SharedLayer.get()");
+
+        // when
+
+        engine1.setCodeLayersBySource(Collections.singletonList(SourcesUtil.sourceToSources(f.fromText(layerText))));
+        engine2.setCodeLayersBySource(Collections.singletonList(SourcesUtil.sourceToSources(f.fromText(layerText))));
+        final Class<?> clazz1 = engine1.loadMainClass(engine1.getLoader(), topSource);
+        final Class<?> clazz2 = engine2.loadMainClass(engine2.getLoader(), topSource);
+
+        // then
+
+        assertThat(((Script)clazz1.getConstructor().newInstance()).run(), is(6));
+        assertThat(((Script)clazz2.getConstructor().newInstance()).run(), is(6));
+        assertThat(clazz1, not(sameInstance(clazz2)));
+        assertThat(registry.getMissCount(), is(2L));
+        assertThat(registry.getHitCount(), is(2L));
+        assertThat(registry.getCodeCount(), is(2));
+        assertThat(engine1.getBuilder().getSharedCodeRegistry(), is(registry));
+        assertThat(((DefaultTopCodeCacheFactory)engine1.getBuilder().getTopCodeCacheFactory())
+                .getSharedCodeRegistry(), is(registry));
+
+        // when
+
+        engine1.setCodeLayersBySource(Collections.singletonList(
+                SourcesUtil.sourceToSources(f.fromText("class OtherLayer {}"))));
+
+        // then (old layer still referenced by engine 2, top code of engine 1 released when parent changed)
+
+        assertThat(registry.getCodeCount(), is(3));
+
+        // when
+
+        engine1.close();
+        engine2.close();
+
+        // then
+
+        assertThat(registry.getCodeCount(), is(0));
+    }
+
     @Test
     void testClose() throws Exception {
 
@@ -843,6 +976,469 @@ class LayeredEngineTest {
         assertThat(script22.run(), is(2202));
     }
 
+    @Test
+    void testMemoryLean() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setMemoryLean(true)
+                .build();
+        final Source s1 = new DefaultTextSource("return 'one'");
+        final Source s2 = new DefaultTextSource("return 'two'");
+        final Set<Source> sourceSet = SourceUtil.sourceArrayToSourceSet(s1, s2);
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(sourceSet, "test"));
+        final Loader attachedLoader = engine.newAttachedLoader();
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+        final Class<?> clazz = engine.loadMainClass(engine.getLoader(), s1);
+
+        // then
+
+        final Code leanCode = ((BytecodeClassLoader)clazz.getClassLoader()).getCode();
+        assertThat(leanCode, instanceOf(LeanCode.class));
+        assertThat(leanCode.getClassNameSet(), is(code.getClassNameSet()));
+        assertThat(((LeanCode)leanCode).getLoaderCount(), is(2));
+        assertThat(((LeanCode)leanCode).getSpilledClassCount(), is(0));
+
+        // when
+
+        final Class<?> clazzAttached = engine.loadMainClass(attachedLoader, s1);
+
+        // then
+
+        assertThat(clazzAttached, is(not(sameInstance(clazz))));
+        assertThat(((LeanCode)leanCode).getSpilledClassCount(), is(1));
+
+        // when
+
+        final Loader detachedLoader = engine.newDetachedLoader();
+        final Class<?> clazzDetached = engine.loadMainClass(detachedLoader, s1);
+
+        // then
+
+        assertThat(((Script)clazzDetached.getConstructor().newInstance()).run(), is("one"));
+        assertThat(((Script)engine.loadMainClass(detachedLoader, s2).getConstructor().newInstance()).run(),
+                is("two"));
+    }
+
+    @Test
+    void testLoaderIsolationTopCodeCacheOnly() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setLoaderIsolation(LoaderIsolation.TOP_CODE_CACHE_ONLY)
+                .build();
+        final Source s1 = new DefaultTextSource("class Layer { static int n = 0 }; return ++Layer.n");
+        final Source s2 = new DefaultTextSource("return ++Layer.n");
+        final Code code = new DefaultGroovyCompiler().compile(
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "test"));
+        final Loader attachedLoaderBefore = engine.newAttachedLoader();
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+        final Loader attachedLoaderAfter = engine.newAttachedLoader();
+        final Loader detachedLoader = engine.newDetachedLoader();
+
+        // then
+
+        final Class<?> layerClass = engine.loadClass(engine.getLoader(), "Layer");
+        assertThat(engine.loadClass(attachedLoaderBefore, "Layer"), is(sameInstance(layerClass)));
+        assertThat(engine.loadClass(attachedLoaderAfter, "Layer"), is(sameInstance(layerClass)));
+        assertThat(engine.loadClass(detachedLoader, "Layer"), is(sameInstance(layerClass)));
+
+        final Class<?> topClass = engine.loadMainClass(engine.getLoader(), s2);
+        assertThat(engine.loadMainClass(attachedLoaderBefore, s2), is(not(sameInstance(topClass))));
+        assertThat(engine.loadMainClass(attachedLoaderAfter, s2), is(not(sameInstance(topClass))));
+        assertThat(engine.loadMainClass(detachedLoader, s2), is(not(sameInstance(topClass))));
+
+        // static state of layer classes is shared
+        assertThat(((Script)engine.loadMainClass(engine.getLoader(), s1).getConstructor().newInstance()).run(),
+                is(1));
+        assertThat(((Script)engine.loadMainClass(attachedLoaderAfter, s1).getConstructor().newInstance()).run(),
+                is(2));
+        assertThat(((Script)engine.loadMainClass(detachedLoader, s2).getConstructor().newInstance()).run(),
+                is(3));
+    }
+
+    @Test
+    void testLoaderIsolationDefault() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder().build();
+        final Source s1 = new DefaultTextSource("class Layer {}");
+        final Code code = new DefaultGroovyCompiler().compile(
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "test"));
+        final Loader attachedLoaderBefore = engine.newAttachedLoader();
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+        final Loader attachedLoaderAfter = engine.newAttachedLoader();
+        final Loader detachedLoader = engine.newDetachedLoader();
+
+        // then
+
+        final Class<?> layerClass = engine.loadClass(engine.getLoader(), "Layer");
+        assertThat(engine.loadClass(attachedLoaderBefore, "Layer"), is(not(sameInstance(layerClass))));
+        assertThat(engine.loadClass(attachedLoaderAfter, "Layer"), is(not(sameInstance(layerClass))));
+        assertThat(engine.loadClass(detachedLoader, "Layer"), is(not(sameInstance(layerClass))));
+    }
+
+    @Test
+    void testWarmUp() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setClassReleaser(releaser)
+                .setWarmUpThreads(4)
+                .build();
+        final Source s1 = new DefaultTextSource("class Layer { static class Inner {} }");
+        final Source s2 = new DefaultTextSource("return 'script'");
+        final Code code = new DefaultGroovyCompiler().compile(
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1, s2), "test"));
+        final Loader attachedLoader = engine.newAttachedLoader();
+
+        assertThat(engine.getLastWarmUpDurationMs(), is(-1L));
+        assertThat(engine.isLastWarmUpTimedOut(), is(false));
+        assertThat(engine.getWarmUpCount(), is(0));
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+
+        // then
+
+        assertThat(engine.getLastWarmUpDurationMs() >= 0, is(true));
+        assertThat(engine.isLastWarmUpTimedOut(), is(false));
+        assertThat(engine.getWarmUpCount(), is(1));
+        assertThat(((Script)engine.loadMainClass(attachedLoader, s2).getConstructor().newInstance()).run(),
+                is("script"));
+
+        // when
+
+        engine.close();
+
+        // then (all classes had been defined in both loaders, without having been explicitly loaded)
+
+        assertThat(releaser.countClassesWithName("Layer"), is(2));
+        assertThat(releaser.countClassesWithName("Layer$Inner"), is(2));
+        assertThat(releaser.countClassesWithName(code.getMainClassName(s2)), is(2));
+    }
+
+    @Test
+    void testWarmUpTimeout() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setWarmUpThreads(1)
+                .setWarmUpTimeoutMs(0)
+                .setWarmUpMetaClasses(false)
+                .build();
+        final Set<Source> sourceSet = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            sourceSet.add(new DefaultTextSource("class Class" + i + " {}"));
+        }
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(sourceSet, "test"));
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+
+        // then (code layers set anyway)
+
+        assertThat(engine.isLastWarmUpTimedOut(), is(true));
+        assertThat(engine.getWarmUpCount(), is(1));
+        assertThat(engine.loadClass(engine.getLoader(), "Class99").getName(), is("Class99"));
+    }
+
+    @Test
+    void testWarmUpSharedCodeLayerLoaders() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setWarmUpThreads(2)
+                .setLoaderIsolation(LoaderIsolation.TOP_CODE_CACHE_ONLY)
+                .build();
+        final Source s1 = new DefaultTextSource("class Layer {}");
+        final Code code = new DefaultGroovyCompiler().compile(
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "test"));
+        final Loader attachedLoader = engine.newAttachedLoader();
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+
+        // then
+
+        assertThat(engine.getWarmUpCount(), is(1));
+        assertThat(engine.loadClass(attachedLoader, "Layer"),
+                is(sameInstance(engine.loadClass(engine.getLoader(), "Layer"))));
+    }
+
+    @Test
+    void testReuseUnchangedCodeLayers() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setReuseUnchangedCodeLayers(true)
+                .build();
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final Sources sources1 = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer1 { static int n = 0 }")), "l1");
+        final Sources sources2 = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer2 { static int n = 0 }")), "l2");
+        final Sources sources2Changed = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer2 { static int n = 2 }")), "l2");
+        final Code code1 = compiler.compile(sources1);
+        final Loader attachedLoader = engine.newAttachedLoader();
+        engine.setCodeLayers(Arrays.asList(code1, compiler.compile(sources2)));
+        final Class<?> layer1 = engine.loadClass(engine.getLoader(), "Layer1");
+        final Class<?> layer2 = engine.loadClass(engine.getLoader(), "Layer2");
+        final Class<?> layer1Attached = engine.loadClass(attachedLoader, "Layer1");
+
+        // when (same code instance in first layer, recompiled same code in second layer)
+
+        engine.setCodeLayers(Arrays.asList(code1, compiler.compile(sources2)));
+
+        // then
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(sameInstance(layer1)));
+        assertThat(engine.loadClass(engine.getLoader(), "Layer2"), is(sameInstance(layer2)));
+        assertThat(engine.loadClass(attachedLoader, "Layer1"), is(sameInstance(layer1Attached)));
+
+        // when (second layer changed)
+
+        engine.setCodeLayers(Arrays.asList(code1, compiler.compile(sources2Changed)));
+
+        // then
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(sameInstance(layer1)));
+        assertThat(engine.loadClass(engine.getLoader(), "Layer2"), is(not(sameInstance(layer2))));
+        assertThat(engine.loadClass(attachedLoader, "Layer1"), is(sameInstance(layer1Attached)));
+    }
+
+    @Test
+    void testReuseUnchangedCodeLayersNotConfigured() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder().build();
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer1 {}")), "l1"));
+        engine.setCodeLayers(Collections.singletonList(code));
+        final Class<?> layer1 = engine.loadClass(engine.getLoader(), "Layer1");
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+
+        // then
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(not(sameInstance(layer1))));
+    }
+
+    @Test
+    void testReuseUnchangedCodeLayersMemoryLean() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setReuseUnchangedCodeLayers(true)
+                .setMemoryLean(true)
+                .build();
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer1 {}")), "l1"));
+        engine.setCodeLayers(Collections.singletonList(code));
+        final Class<?> layer1 = engine.loadClass(engine.getLoader(), "Layer1");
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(code));
+
+        // then
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(sameInstance(layer1)));
+    }
+
+    @Test
+    void testReuseUnchangedCodeLayersBySource() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setReuseUnchangedCodeLayers(true)
+                .build();
+        final MockTextSource s1 = new MockTextSource("class Layer1 { static def get() { 1 } }");
+        final MockTextSource s2 = new MockTextSource("class Layer2 { static def get() { Layer1.get() + 1 } }");
+        final Sources sources1 = new FixedSetSources.Builder(SourceUtil.sourceArrayToSourceSet(s1))
+                .setName("l1").setLatencyMs(0).build();
+        final Sources sources2 = new FixedSetSources.Builder(SourceUtil.sourceArrayToSourceSet(s2))
+                .setName("l2").setLatencyMs(0).build();
+        final List<Sources> sourcesLayers = Arrays.asList(sources1, sources2);
+        engine.setCodeLayersBySource(sourcesLayers);
+        final Class<?> layer1 = engine.loadClass(engine.getLoader(), "Layer1");
+        final Class<?> layer2 = engine.loadClass(engine.getLoader(), "Layer2");
+
+        // when (text changed, but not last modified, so would only be visible if recompiled)
+
+        s1.setText("class Layer1 { static def get() { 100 } }");
+        s2.setText("class Layer2 { static def get() { Layer1.get() + 100 } }");
+        engine.setCodeLayersBySource(sourcesLayers);
+
+        // then (nothing recompiled)
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(sameInstance(layer1)));
+        assertThat(engine.loadClass(engine.getLoader(), "Layer2"), is(sameInstance(layer2)));
+        assertThat(layer2.getMethod("get").invoke(null), is(2));
+
+        // when (second layer changed)
+
+        s1.setText("class Layer1 { static def get() { 1 } }");
+        s2.setText("class Layer2 { static def get() { Layer1.get() + 2 } }");
+        s2.setLastModified(1);
+        engine.setCodeLayersBySource(sourcesLayers);
+
+        // then (only second layer recompiled)
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(sameInstance(layer1)));
+        assertThat(engine.loadClass(engine.getLoader(), "Layer2").getMethod("get").invoke(null), is(3));
+
+        // when (first layer changed)
+
+        s1.setText("class Layer1 { static def get() { 10 } }");
+        s1.setLastModified(1);
+        engine.setCodeLayersBySource(sourcesLayers);
+
+        // then (both layers recompiled)
+
+        assertThat(engine.loadClass(engine.getLoader(), "Layer1"), is(not(sameInstance(layer1))));
+        assertThat(engine.loadClass(engine.getLoader(), "Layer2").getMethod("get").invoke(null), is(12));
+    }
+
+    @Test
+    void testNegativeLookupCache() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setNegativeLookupCacheSize(10)
+                .build();
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class Layer {}")), "test"));
+        engine.setCodeLayers(Collections.singletonList(code));
+        final Loader attachedLoader = engine.newAttachedLoader();
+
+        // when/then
+
+        for (Loader l : Arrays.asList(engine.getLoader(), attachedLoader, engine.newDetachedLoader())) {
+            assertThrowsMessageIs(LoadException.class,
+                    () -> engine.loadClass(l, "NoSuchClass"),
+                    "Could not load class 'NoSuchClass'. Cause: java.lang.ClassNotFoundException: NoSuchClass");
+            // now from cache
+            final LoadException e = assertThrows(LoadException.class, () -> engine.loadClass(l, "NoSuchClass"));
+            assertThat(e.getCause(), instanceOf(ClassNotFoundException.class));
+            assertThat(e.getCause().getStackTrace().length, is(0));
+            assertThat(engine.loadClass(l, "Layer").getName(), is("Layer"));
+        }
+    }
+
+    @Test
+    void testTopLoaderBuckets() throws Exception {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setTopLoaderBucketSize(100)
+                .build();
+        final Source s1 = new DefaultTextSource("return 1");
+        final Source s2 = new DefaultTextSource("return 2");
+
+        // when
+
+        final Class<?> clazz1 = engine.loadMainClass(engine.getLoader(), s1);
+        final Class<?> clazz2 = engine.loadMainClass(engine.getLoader(), s2);
+
+        // then
+
+        assertThat(clazz2.getClassLoader(), is(sameInstance(clazz1.getClassLoader())));
+        assertThat(((Script)clazz2.getConstructor().newInstance()).run(), is(2));
+
+        // when
+
+        final Loader attachedLoader = engine.newAttachedLoader();
+        final Class<?> clazz1Attached = engine.loadMainClass(attachedLoader, s1);
+
+        // then (top code cache shared, but separate bucket loaders)
+
+        assertThat(clazz1Attached, is(not(sameInstance(clazz1))));
+        assertThat(engine.loadMainClass(attachedLoader, s2).getClassLoader(),
+                is(sameInstance(clazz1Attached.getClassLoader())));
+    }
+
+    @Test
+    void testAutoReleaseClasses() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        final LayeredEngine engine = new LayeredEngine.Builder()
+                .setClassReleaser(releaser)
+                .setAutoReleaseClasses(true)
+                .setAutoReleaseDelayMs(0)
+                .build();
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final Sources sources = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(new DefaultTextSource("class AutoRelease {}")), "test");
+        engine.setCodeLayers(Collections.singletonList(compiler.compile(sources)));
+        final Loader attachedLoader = engine.newAttachedLoader();
+        final Class<?> clazz = engine.loadClass(engine.getLoader(), "AutoRelease");
+        final Class<?> attachedClazz = engine.loadClass(attachedLoader, "AutoRelease");
+
+        // when
+
+        engine.setCodeLayers(Collections.singletonList(compiler.compile(sources)));
+
+        // then (both replaced class loaders released, plus the initial one replaced when first set)
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (engine.getClassReleaseCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(engine.getClassReleaseCount(), is(3L));
+        assertThat(engine.getPendingClassReleaseCount(), is(0));
+        assertThat(releaser.classes.contains(clazz), is(true));
+        assertThat(releaser.classes.contains(attachedClazz), is(true));
+        assertThat(engine.loadClass(engine.getLoader(), "AutoRelease"), is(not(sameInstance(clazz))));
+    }
+
+    @Test
+    void testAutoReleaseClassesOff() {
+
+        // given
+
+        final LayeredEngine engine = new LayeredEngine.Builder().build();
+
+        // when
+
+        engine.setCodeLayers(Collections.emptyList());
+
+        // then
+
+        assertThat(engine.getClassReleaseCount(), is(0L));
+        assertThat(engine.getPendingClassReleaseCount(), is(0));
+    }
+
     @Test
     void testSetCodeLayersNull() {
 
@@ -32,6 +32,8 @@ import ch.grengine.sources.SourcesUtil;
 
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.jupiter.api.Test;
 
@@ -160,7 +162,7 @@ class LoaderTest {
 
         // when
 
-        loader.close();
+        loader.closeAsync().get();
 
         // then
 
@@ -172,6 +174,53 @@ class LoaderTest {
         assertThat(releaser.countClassesWithName("Class2$Class3"), is(1));
     }
     
+    @Test
+    void testCloseAsyncReturnsBeforeClassesReleased() throws Exception {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source s1 = f.fromText("class Class1 {}");
+        final Sources sources = SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1), "test");
+        final Code code = new DefaultGroovyCompiler().compile(sources);
+        final BytecodeClassLoader classLoader = new BytecodeClassLoader(parent, LoadMode.CURRENT_FIRST, code);
+
+        final EngineId engineId = new EngineId();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final RecordingClassReleaser releaser = new RecordingClassReleaser() {
+            @Override
+            public void release(final Class<?> clazz) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.release(clazz);
+            }
+        };
+        final Loader loader = new Loader(engineId, 1, true, releaser, classLoader);
+        final Class<?> clazz1 = loader.getSourceClassLoader(engineId).loadClass("Class1");
+
+        // when
+
+        final CompletableFuture<Void> future = loader.closeAsync();
+
+        // then (still blocked in releaser)
+
+        assertThat(future.isDone(), is(false));
+
+        // when
+
+        latch.countDown();
+        future.get();
+
+        // then
+
+        assertThat(releaser.classes.contains(clazz1), is(true));
+        assertThat(releaser.classes.size(), is(1));
+    }
+
     @Test
     void testEquals() {
 
@@ -0,0 +1,138 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.code.SingleSourceCode;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.source.DefaultSourceFactory;
+import ch.grengine.source.Source;
+import ch.grengine.source.SourceFactory;
+import ch.grengine.sources.SourcesUtil;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class BucketCodeTest {
+
+    private static SingleSourceCode compile(final Source source) {
+        return (SingleSourceCode)new DefaultGroovyCompiler().compile(SourcesUtil.sourceToSources(source));
+    }
+
+    @Test
+    void testAddAndGet() {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source s1 = f.fromText("class Bucket1 {}");
+        final Source s2 = f.fromText("class Bucket2 { static class Inner {} }");
+        final SingleSourceCode code1 = compile(s1);
+        final SingleSourceCode code2 = compile(s2);
+        final BucketCode bucketCode = new BucketCode("bucket", 10);
+
+        // when
+
+        bucketCode.add(code1);
+        bucketCode.add(code2);
+
+        // then
+
+        assertThat(bucketCode.getSourcesName(), is("bucket"));
+        assertThat(bucketCode.isForSource(s1), is(true));
+        assertThat(bucketCode.isForSource(s2), is(true));
+        assertThat(bucketCode.getSourceSet().size(), is(2));
+        assertThat(bucketCode.getMainClassName(s2), is("Bucket2"));
+        assertThat(bucketCode.getClassNames(s2), is(code2.getClassNames()));
+        assertThat(bucketCode.getLastModifiedAtCompileTime(s1), is(code1.getLastModifiedAtCompileTime()));
+        assertThat(bucketCode.getBytecode("Bucket2$Inner"), is(sameInstance(code2.getBytecode("Bucket2$Inner"))));
+        assertThat(bucketCode.getClassNameSet().size(), is(3));
+        assertThat(bucketCode.getClassCount(), is(3));
+        assertThat(bucketCode.getStaleClassCount(), is(0));
+        assertThat(bucketCode.toString(), is("BucketCode[sourcesName='bucket', sources:2, classes:3, staleClasses:0]"));
+    }
+
+    @Test
+    void testGetForSourceNotInBucket() {
+
+        // given
+
+        final Source source = new DefaultSourceFactory().fromText("class NotInBucket {}");
+        final BucketCode bucketCode = new BucketCode("bucket", 10);
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> bucketCode.getMainClassName(source),
+                "Source is not for this code. Source: " + source);
+    }
+
+    @Test
+    void testCanAdd() {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final SingleSourceCode code1 = compile(f.fromText("class CanAdd1 {}"));
+        final SingleSourceCode code1Changed = compile(f.fromText("class CanAdd1 { int x }"));
+        final SingleSourceCode code2 = compile(f.fromText("class CanAdd2 { static class Inner {} }"));
+        final SingleSourceCode code3 = compile(f.fromText("class CanAdd3 {}"));
+        final BucketCode bucketCode = new BucketCode("bucket", 2);
+
+        // when/then
+
+        assertThat(bucketCode.canAdd(code2), is(true));
+        bucketCode.add(code1);
+        assertThat(bucketCode.canAdd(code1Changed), is(false));
+        assertThat(bucketCode.canAdd(code2), is(false));
+        assertThat(bucketCode.canAdd(code3), is(true));
+        bucketCode.retire();
+        assertThat(bucketCode.isRetired(), is(true));
+        assertThat(bucketCode.canAdd(code3), is(false));
+    }
+
+    @Test
+    void testStale() {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source s1 = f.fromText("class Stale1 {}");
+        final Source s2 = f.fromText("class Stale2 {}");
+        final BucketCode bucketCode = new BucketCode("bucket", 10);
+        bucketCode.add(compile(s1));
+        bucketCode.add(compile(s2));
+
+        // when
+
+        bucketCode.markStale(s1);
+        bucketCode.markStale(s1);
+
+        // then
+
+        assertThat(bucketCode.getStaleClassCount(), is(1));
+        assertThat(bucketCode.isForSource(s1), is(true));
+        assertThat(bucketCode.isStaleRatioReached(0.5), is(true));
+        assertThat(bucketCode.isStaleRatioReached(0.6), is(false));
+        assertThat(new BucketCode("empty", 10).isStaleRatioReached(0), is(false));
+    }
+
+}
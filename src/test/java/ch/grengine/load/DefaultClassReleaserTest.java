@@ -18,11 +18,19 @@ package ch.grengine.load;
 
 import ch.grengine.Grengine;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import groovy.lang.MetaClass;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import org.junit.jupiter.api.Test;
 
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
 import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -66,4 +74,75 @@ class DefaultClassReleaserTest {
         assertThat(metaClass1, not(sameInstance(metaClass2)));
     }
 
+    @Test
+    void testGlobalClassValueRemoveAvailable() {
+
+        // Groovy versions supported by this version of Grengine all have ClassInfo#globalClassValue
+
+        assertThat(DefaultClassReleaser.isGlobalClassValueRemoveAvailable(), is(true));
+    }
+
+    @Test
+    void testReleaseAll() throws Exception {
+
+        // given
+
+        final Grengine gren = new Grengine();
+        final Class<?> clazz1 = gren.load("class Class1 {}");
+        final Class<?> clazz2 = gren.load("class Class2 {}");
+        final MetaClass metaClass1 = InvokerHelper.metaRegistry.getMetaClass(clazz1);
+        final MetaClass metaClass2 = InvokerHelper.metaRegistry.getMetaClass(clazz2);
+        final List<Class<?>> classes = new ArrayList<>(Arrays.asList(clazz1, clazz2));
+
+        // when
+
+        final CompletableFuture<Void> future = DefaultClassReleaser.getInstance().releaseAll(classes);
+        classes.clear();
+        future.get();
+
+        // then
+
+        assertThat(InvokerHelper.metaRegistry.getMetaClass(clazz1), not(sameInstance(metaClass1)));
+        assertThat(InvokerHelper.metaRegistry.getMetaClass(clazz2), not(sameInstance(metaClass2)));
+    }
+
+    @Test
+    void testReleaseAllEmpty() {
+
+        // when
+
+        final CompletableFuture<Void> future = DefaultClassReleaser.getInstance().releaseAll(Collections.emptyList());
+
+        // then
+
+        assertThat(future.isDone(), is(true));
+    }
+
+    @Test
+    void testReleaseAllIgnoresExceptions() throws Exception {
+
+        // given
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        releaser.throwAfterReleasing = true;
+
+        // when
+
+        releaser.releaseAll(Arrays.asList(String.class, Integer.class)).get();
+
+        // then
+
+        assertThat(releaser.classes.size(), is(2));
+    }
+
+    @Test
+    void testReleaseAllClassesNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> DefaultClassReleaser.getInstance().releaseAll(null),
+                "Classes are null.");
+    }
+
 }
@@ -16,6 +16,7 @@
 
 package ch.grengine.load;
 
+import ch.grengine.code.CompileScheduler;
 import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
 import ch.grengine.code.CompilerFactory;
 
@@ -25,6 +26,7 @@ import static ch.grengine.TestUtil.assertThrowsMessageIs;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 
@@ -37,18 +39,23 @@ class DefaultTopCodeCacheFactoryTest {
 
         final CompilerFactory compilerFactory = new DefaultGroovyCompilerFactory();
         final ClassLoader parent = Thread.currentThread().getContextClassLoader().getParent();
+        final CompileScheduler compileScheduler = new CompileScheduler();
         final DefaultTopCodeCacheFactory.Builder builder = new DefaultTopCodeCacheFactory.Builder();
 
         // when
 
         final DefaultTopCodeCacheFactory cf = builder
                 .setCompilerFactory(compilerFactory)
+                .setKeepUnaffectedCodeOnParentChange(true)
+                .setCompileScheduler(compileScheduler)
                 .build();
 
         // then
 
         assertThat(cf.getBuilder(), is(builder));
         assertThat(cf.getCompilerFactory(), is(compilerFactory));
+        assertThat(cf.isKeepUnaffectedCodeOnParentChange(), is(true));
+        assertThat(cf.getCompileScheduler(), is(compileScheduler));
 
         // when
         
@@ -58,6 +65,8 @@ class DefaultTopCodeCacheFactoryTest {
 
         assertThat(c.getParent(), is(parent));
         assertThat(c.getCompilerFactory(), is(compilerFactory));
+        assertThat(c.isKeepUnaffectedCodeOnParentChange(), is(true));
+        assertThat(c.getCompileScheduler(), is(compileScheduler));
     }
 
     @Test
@@ -69,8 +78,10 @@ class DefaultTopCodeCacheFactoryTest {
 
         // then
 
+        assertThat(cf.getCompileScheduler(), is(nullValue()));
         assertThat(cf.getCompilerFactory(), is(notNullValue()));
         assertThat(cf.getCompilerFactory(), instanceOf(DefaultGroovyCompilerFactory.class));
+        assertThat(cf.isKeepUnaffectedCodeOnParentChange(), is(false));
     }
     
     @Test
@@ -16,18 +16,49 @@
 
 package ch.grengine.load;
 
+import ch.grengine.code.Code;
+import ch.grengine.code.CompileScheduler;
+import ch.grengine.code.SingleSourceCode;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
 import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
 import ch.grengine.code.CompilerFactory;
-
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.source.Source;
+import ch.grengine.source.SourceUtil;
+import ch.grengine.except.CompileAbortedException;
+import ch.grengine.except.CompileException;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import groovy.lang.Script;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.hamcrest.CoreMatchers;
 import org.junit.jupiter.api.Test;
 
 import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.toRuntimeException;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 class DefaultTopCodeCacheTest {
@@ -39,12 +70,15 @@ class DefaultTopCodeCacheTest {
         
         final CompilerFactory compilerFactory = new DefaultGroovyCompilerFactory();
         final ClassLoader parent = Thread.currentThread().getContextClassLoader().getParent();
+        final CompileScheduler compileScheduler = new CompileScheduler();
         final DefaultTopCodeCache.Builder builder = new DefaultTopCodeCache.Builder(parent);
 
         // when
 
         final DefaultTopCodeCache c1 = builder
                 .setCompilerFactory(compilerFactory)
+                .setKeepUnaffectedCodeOnParentChange(true)
+                .setCompileScheduler(compileScheduler)
                 .build();
 
         // then
@@ -52,6 +86,10 @@ class DefaultTopCodeCacheTest {
         assertThat(c1.getBuilder(), CoreMatchers.is(builder));
         assertThat(c1.getCompilerFactory(), is(compilerFactory));
         assertThat(c1.getParent(), is(parent));
+        assertThat(c1.isKeepUnaffectedCodeOnParentChange(), is(true));
+        assertThat(builder.isKeepUnaffectedCodeOnParentChange(), is(true));
+        assertThat(c1.getCompileScheduler(), is(compileScheduler));
+        assertThat(builder.getCompileScheduler(), is(compileScheduler));
 
         // when
         
@@ -70,6 +108,8 @@ class DefaultTopCodeCacheTest {
 
         assertThat(c2.getCompilerFactory(), is(compilerFactory));
         assertThat(c2.getParent(), is(parentNew));
+        assertThat(c2.isKeepUnaffectedCodeOnParentChange(), is(true));
+        assertThat(c2.getCompileScheduler(), is(compileScheduler));
 
         // when
 
@@ -80,6 +120,8 @@ class DefaultTopCodeCacheTest {
         assertThat(c3.getParent(), is(nullValue()));
         assertThat(c3.getCompilerFactory(), is(notNullValue()));
         assertThat(c3.getCompilerFactory(), instanceOf(DefaultGroovyCompilerFactory.class));
+        assertThat(c3.isKeepUnaffectedCodeOnParentChange(), is(false));
+        assertThat(c3.getCompileScheduler(), is(nullValue()));
 
         // when
 
@@ -120,6 +162,423 @@ class DefaultTopCodeCacheTest {
                 "Parent class loader is null.");
     }
     
+    @Test
+    void testCancelCompiles() throws Exception {
+
+        // given (compiling waits in the middle until the test has cancelled it)
+
+        final CountDownLatch compiling = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new CompilationCustomizer(CompilePhase.SEMANTIC_ANALYSIS) {
+            @Override
+            public void call(final SourceUnit source, final GeneratorContext context, final ClassNode classNode) {
+                if (compiling.getCount() > 0) {
+                    compiling.countDown();
+                    toRuntimeException(cancelled::await);
+                }
+            }
+        });
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(Thread.currentThread().getContextClassLoader())
+                .setCompilerFactory(new DefaultGroovyCompilerFactory(config))
+                .build();
+        final Source s = new DefaultTextSource("return 1");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<SingleSourceCode> future = executor.submit(() -> c.getUpToDateCode(s));
+        compiling.await();
+
+        // when (from another thread)
+
+        final boolean isSupported = c.cancelCompiles();
+        cancelled.countDown();
+
+        // then
+
+        assertThat(isSupported, is(true));
+        final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(CompileAbortedException.class));
+        assertThat(((CompileAbortedException)e.getCause()).getReason(),
+                is(CompileAbortedException.Reason.CANCELLED));
+        executor.shutdown();
+
+        // when (later compiles are not affected)
+
+        final SingleSourceCode code = c.getUpToDateCode(s);
+
+        // then
+
+        assertThat(code.isForSource(s), is(true));
+    }
+
+    @Test
+    void testKeepUnaffectedCodeOnParentChange() throws Exception {
+
+        // given
+
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(null)
+                .setKeepUnaffectedCodeOnParentChange(true)
+                .build();
+        final Source sNoDependency = new DefaultTextSource("return 'no dependency'");
+        final Source sLayer1 = new DefaultTextSource("return new Layer1().get()");
+        final Source sLayer2 = new DefaultTextSource("return new Layer2().get()");
+        final Source sSub = new DefaultTextSource("return new Sub().get()");
+        final Source sMissing = new DefaultTextSource("return Missing.get()");
+        c.setParent(newLayeredClassLoader(
+                "class Layer1 { def get() { 1 } }",
+                "class Layer2 { def get() { 2 } }",
+                "class Base { def get() { 'base' } }; class Sub extends Base {}"));
+        final SingleSourceCode codeNoDependency = c.getUpToDateCode(sNoDependency);
+        final SingleSourceCode codeLayer1 = c.getUpToDateCode(sLayer1);
+        final SingleSourceCode codeLayer2 = c.getUpToDateCode(sLayer2);
+        final SingleSourceCode codeSub = c.getUpToDateCode(sSub);
+        final SingleSourceCode codeMissing = c.getUpToDateCode(sMissing);
+
+        // when (Layer2 and Base changed, Missing added)
+
+        c.setParent(newLayeredClassLoader(
+                "class Layer1 { def get() { 1 } }",
+                "class Layer2 { def get() { 22 } }",
+                "class Base { def get() { 'new base' } }; class Sub extends Base {}",
+                "class Missing { static get() { 'found' } }"));
+
+        // then
+
+        assertThat(c.getUpToDateCode(sNoDependency), is(sameInstance(codeNoDependency)));
+        assertThat(c.getUpToDateCode(sLayer1), is(sameInstance(codeLayer1)));
+        assertThat(c.getUpToDateCode(sLayer2), is(not(sameInstance(codeLayer2))));
+        assertThat(c.getUpToDateCode(sSub), is(not(sameInstance(codeSub))));
+        assertThat(c.getUpToDateCode(sMissing), is(not(sameInstance(codeMissing))));
+        assertThat(run(c, sMissing), is("found"));
+
+        // when (different base parent)
+
+        final ClassLoader otherParent = new LayeredClassLoader.Builder()
+                .setParent(Thread.currentThread().getContextClassLoader().getParent())
+                .buildFromCodeLayers();
+        c.setParent(otherParent);
+
+        // then
+
+        assertThat(c.getUpToDateCode(sNoDependency), is(not(sameInstance(codeNoDependency))));
+    }
+
+    @Test
+    void testKeepUnaffectedCodeOnParentChangeReferencedByLayerClass() throws Exception {
+
+        // given
+
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(null)
+                .setKeepUnaffectedCodeOnParentChange(true)
+                .build();
+        final Source s = new DefaultTextSource("return Ref.get()");
+        c.setParent(newLayeredClassLoaderFromSources(
+                "class Helper { static get() { 1 } }",
+                "class Ref { static get() { Helper.get() } }"));
+        final SingleSourceCode code = c.getUpToDateCode(s);
+
+        // when (only Helper changed, Ref bytecode unchanged)
+
+        c.setParent(newLayeredClassLoaderFromSources(
+                "class Helper { static get() { 11 } }",
+                "class Ref { static get() { Helper.get() } }"));
+
+        // then
+
+        assertThat(c.getUpToDateCode(s), is(not(sameInstance(code))));
+        assertThat(run(c, s), is(11));
+    }
+
+    @Test
+    void testKeepUnaffectedCodeOnParentChangeWithSharedCodeRegistry() throws Exception {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final DefaultTopCodeCache c1 = new DefaultTopCodeCache.Builder(null)
+                .setKeepUnaffectedCodeOnParentChange(true)
+                .setSharedCodeRegistry(registry)
+                .build();
+        final DefaultTopCodeCache c2 = new DefaultTopCodeCache.Builder(null)
+                .setKeepUnaffectedCodeOnParentChange(true)
+                .setSharedCodeRegistry(registry)
+                .build();
+        final Source s = new DefaultTextSource("return new Layer2().get()");
+        final ClassLoader parent = newLayeredClassLoader(
+                "class Layer1 { def get() { 1 } }",
+                "class Layer2 { def get() { 2 } }");
+        c1.setParent(parent);
+        c2.setParent(parent);
+        final SingleSourceCode code1 = c1.getUpToDateCode(s);
+        final SingleSourceCode code2 = c2.getUpToDateCode(s);
+
+        // when (Layer2 changed)
+
+        final ClassLoader parentNew = newLayeredClassLoader(
+                "class Layer1 { def get() { 1 } }",
+                "class Layer2 { def get() { 22 } }");
+        c1.setParent(parentNew);
+        c2.setParent(parentNew);
+
+        // then
+
+        assertThat(code2, is(sameInstance(code1)));
+        assertThat(registry.getHitCount(), is(1L));
+        assertThat(c1.getUpToDateCode(s), is(not(sameInstance(code1))));
+        assertThat(c2.getUpToDateCode(s), is(not(sameInstance(code2))));
+        assertThat(run(c2, s), is(22));
+    }
+
+    @Test
+    void testNotKeepUnaffectedCodeOnParentChange() {
+
+        // given
+
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(null).build();
+        final Source s = new DefaultTextSource("return 'no dependency'");
+        c.setParent(newLayeredClassLoader("class Layer1 {}"));
+        final SingleSourceCode code = c.getUpToDateCode(s);
+
+        // when
+
+        c.setParent(newLayeredClassLoader("class Layer1 {}"));
+
+        // then
+
+        assertThat(c.getUpToDateCode(s), is(not(sameInstance(code))));
+    }
+
+    @Test
+    void testGetUpToDateCodeConcurrentSameSource() throws Exception {
+
+        // given
+
+        final AtomicInteger compileCount = new AtomicInteger();
+        final CompilerFactory compilerFactory = parent -> sources -> {
+            compileCount.incrementAndGet();
+            sleep(100);
+            return new DefaultGroovyCompilerFactory().newCompiler(parent).compile(sources);
+        };
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(null)
+                .setCompilerFactory(compilerFactory)
+                .build();
+        final Source s = new DefaultTextSource("return 'same'");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+
+        final List<Future<SingleSourceCode>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> c.getUpToDateCode(s)));
+        }
+        final SingleSourceCode code = futures.get(0).get();
+
+        // then
+
+        for (Future<SingleSourceCode> future : futures) {
+            assertThat(future.get(), is(sameInstance(code)));
+        }
+        assertThat(compileCount.get(), is(1));
+        executor.shutdown();
+    }
+
+    @Test
+    void testGetUpToDateCodeConcurrentDifferentSources() throws Exception {
+
+        // given (compiling each source waits until the other one is being compiled)
+
+        final CountDownLatch compilingBoth = new CountDownLatch(2);
+        final CompilerFactory compilerFactory = parent -> sources -> {
+            compilingBoth.countDown();
+            try {
+                if (!compilingBoth.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Sources not compiled concurrently.");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new DefaultGroovyCompilerFactory().newCompiler(parent).compile(sources);
+        };
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(Thread.currentThread().getContextClassLoader())
+                .setCompilerFactory(compilerFactory)
+                .build();
+        final Source s1 = new DefaultTextSource("return 1");
+        final Source s2 = new DefaultTextSource("return 2");
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // when
+
+        final Future<SingleSourceCode> f1 = executor.submit(() -> c.getUpToDateCode(s1));
+        final Future<SingleSourceCode> f2 = executor.submit(() -> c.getUpToDateCode(s2));
+
+        // then
+
+        assertThat(run(c, s1), is(1));
+        assertThat(run(c, s2), is(2));
+        assertThat(c.getUpToDateCode(s1), is(sameInstance(f1.get())));
+        assertThat(c.getUpToDateCode(s2), is(sameInstance(f2.get())));
+        executor.shutdown();
+    }
+
+    @Test
+    void testGetUpToDateCodeConcurrentCompileException() throws Exception {
+
+        // given
+
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(null).build();
+        final Source s = new DefaultTextSource("&%&%");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // when
+
+        final List<Future<SingleSourceCode>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> c.getUpToDateCode(s)));
+        }
+
+        // then
+
+        for (Future<SingleSourceCode> future : futures) {
+            final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+            assertThat(e.getCause(), instanceOf(CompileException.class));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testGetUpToDateCodeWithCompileScheduler() throws Exception {
+
+        // given (a compile is running, so that cache misses have to wait for admission)
+
+        final CompileScheduler compileScheduler = new CompileScheduler.Builder()
+                .setMaxConcurrentCompiles(1)
+                .build();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Future<?> blocking = executor.submit(() -> compileScheduler.compile(sources -> {
+            running.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }, SourcesUtil.sourceToSources(new DefaultTextSource("return 0")), CompileScheduler.Priority.BACKGROUND));
+        running.await();
+        final DefaultTopCodeCache c = new DefaultTopCodeCache.Builder(null)
+                .setCompileScheduler(compileScheduler)
+                .build();
+        final Source s = new DefaultTextSource("return 'scheduled'");
+
+        // when
+
+        final Future<SingleSourceCode> future = executor.submit(() -> c.getUpToDateCode(s));
+        while (compileScheduler.getQueueDepth(CompileScheduler.Priority.INTERACTIVE) == 0) {
+            sleep(10);
+        }
+        done.countDown();
+
+        // then
+
+        assertThat(future.get().isForSource(s), is(true));
+        blocking.get();
+        assertThat(compileScheduler.getAdmittedCount(), is(2L));
+        assertThat(compileScheduler.getQueueDepth(CompileScheduler.Priority.INTERACTIVE), is(0));
+        executor.shutdown();
+    }
+
+    private static void sleep(final long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static LayeredClassLoader newLayeredClassLoader(final String... layerTexts) {
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final LayeredClassLoader.Builder builder = new LayeredClassLoader.Builder();
+        final Code[] codeLayers = new Code[layerTexts.length];
+        for (int i = 0; i < layerTexts.length; i++) {
+            codeLayers[i] = compiler.compile(SourcesUtil.sourceSetToSources(
+                    SourceUtil.sourceArrayToSourceSet(new DefaultTextSource(layerTexts[i])), "layer" + i));
+        }
+        return builder.setCodeLayers(codeLayers).buildFromCodeLayers();
+    }
+
+    private static LayeredClassLoader newLayeredClassLoaderFromSources(final String... sourceTexts) {
+        final Source[] sources = new Source[sourceTexts.length];
+        for (int i = 0; i < sourceTexts.length; i++) {
+            sources[i] = new DefaultTextSource(sourceTexts[i]);
+        }
+        final Code code = new DefaultGroovyCompiler().compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(sources), "layer"));
+        return new LayeredClassLoader.Builder().setCodeLayers(code).buildFromCodeLayers();
+    }
+
+    private static Object run(final TopCodeCache c, final Source source) throws Exception {
+        final BytecodeClassLoader loader = new BytecodeClassLoader(c.getParent(), LoadMode.CURRENT_FIRST,
+                c.getUpToDateCode(source));
+        return ((Script)loader.loadClass(c.getUpToDateCode(source).getMainClassName()).getConstructor()
+                .newInstance()).run();
+    }
+
+
+    @Test
+    void testSharedCodeRegistry() {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final DefaultTopCodeCache.Builder builder = new DefaultTopCodeCache.Builder(parent)
+                .setSharedCodeRegistry(registry);
+        final DefaultTopCodeCache c1 = builder.build();
+        final DefaultTopCodeCache c2 = new DefaultTopCodeCache.Builder(parent)
+                .setSharedCodeRegistry(registry)
+                .build();
+        final Source source = new DefaultTextSource("return 1");
+
+        // when
+
+        final SingleSourceCode code1 = c1.getUpToDateCode(source);
+        final SingleSourceCode code2 = c2.getUpToDateCode(source);
+
+        // then
+
+        assertThat(code2, sameInstance(code1));
+        assertThat(registry.getRefCount(code1), is(2));
+        assertThat(c1.getSharedCodeRegistry(), is(registry));
+        assertThat(builder.getSharedCodeRegistry(), is(registry));
+
+        // when
+
+        final DefaultTopCodeCache c3 = c1.clone();
+
+        // then
+
+        assertThat(c3.getSharedCodeRegistry(), nullValue());
+        assertThat(c3.getUpToDateCode(source), sameInstance(code1));
+        assertThat(registry.getRefCount(code1), is(2));
+
+        // when
+
+        c1.setParent(parent);
+
+        // then
+
+        assertThat(registry.getRefCount(code1), is(1));
+
+        // when
+
+        c2.clear();
+
+        // then
+
+        assertThat(registry.getRefCount(code1), is(0));
+        assertThat(registry.getCodeCount(), is(0));
+    }
+    
     // most functionality is tested in LayeredClassLoaderTest
 
 }
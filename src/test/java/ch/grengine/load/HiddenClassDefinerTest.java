@@ -0,0 +1,100 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.load;
+
+import ch.grengine.code.Bytecode;
+import ch.grengine.code.DefaultCode;
+import ch.grengine.code.SingleSourceCode;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.source.DefaultSourceFactory;
+import ch.grengine.sources.SourcesUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class HiddenClassDefinerTest {
+
+    @Test
+    void testConstructParentNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new HiddenClassDefiner(null),
+                "Parent class loader is null.");
+    }
+
+    @Test
+    void testCreateHostClassBytes() throws Exception {
+
+        // given
+
+        final byte[] bytes = HiddenClassDefiner.createHostClassBytes("ch.grengine.test.$Host");
+        final BytecodeClassLoader loader = new BytecodeClassLoader(Thread.currentThread().getContextClassLoader(),
+                LoadMode.PARENT_FIRST, new DefaultCode("test", new HashMap<>(), new HashMap<>()));
+
+        // when
+
+        final Class<?> hostClass = loader.defineClass("ch.grengine.test.$Host", bytes);
+        final MethodHandles.Lookup lookup = (MethodHandles.Lookup)hostClass.getMethod("lookup").invoke(null);
+
+        // then
+
+        assertThat(lookup.lookupClass() == hostClass, is(true));
+        assertThat((lookup.lookupModes() & MethodHandles.Lookup.PRIVATE) != 0, is(true));
+    }
+
+    @Test
+    void testDefineClass() throws Exception {
+
+        // given
+
+        final SingleSourceCode code = (SingleSourceCode)new DefaultGroovyCompiler().compile(
+                SourcesUtil.sourceToSources(new DefaultSourceFactory().fromText("return 1")));
+        final Bytecode bytecode = code.getBytecode(code.getMainClassName());
+        final HiddenClassDefiner definer = new HiddenClassDefiner(Thread.currentThread().getContextClassLoader());
+
+        // when
+
+        final Class<?> clazz1 = definer.defineClass(bytecode);
+        final Class<?> clazz2 = definer.defineClass(bytecode);
+
+        // then
+
+        if (HiddenClassDefiner.isSupported()) {
+            assertThat(clazz1, is(notNullValue()));
+            assertThat(clazz1.getName().startsWith(code.getMainClassName() + "/"), is(true));
+            assertThat(clazz1 == clazz2, is(false));
+            final RecordingClassReleaser releaser = new RecordingClassReleaser();
+            definer.releaseClasses(releaser);
+            assertThat(releaser.classes.size(), is(2));
+        } else {
+            assertThat(clazz1, is(nullValue()));
+            assertThat(clazz2, is(nullValue()));
+        }
+    }
+
+}
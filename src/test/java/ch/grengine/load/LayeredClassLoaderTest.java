@@ -18,22 +18,32 @@ package ch.grengine.load;
 
 import ch.grengine.code.groovy.DefaultGroovyCompiler;
 import ch.grengine.source.DefaultSourceFactory;
+import ch.grengine.source.MockTextSource;
 import ch.grengine.source.Source;
 import ch.grengine.source.SourceUtil;
 import ch.grengine.sources.Sources;
 import ch.grengine.sources.SourcesUtil;
 import ch.grengine.code.Code;
+import ch.grengine.code.CompileScheduler;
 import ch.grengine.source.SourceFactory;
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import groovy.lang.Script;
 import org.hamcrest.CoreMatchers;
 import org.junit.jupiter.api.Test;
 
 import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -41,6 +51,7 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 
 class LayeredClassLoaderTest {
@@ -71,6 +82,11 @@ class LayeredClassLoaderTest {
         assertThat(loader1.getBuilder().isWithTopCodeCache(), is(false));
         assertThat(loader1.getBuilder().getTopLoadMode(), is(LoadMode.PARENT_FIRST));
         assertThat(loader1.getBuilder().getTopCodeCache(), is(nullValue()));
+        assertThat(loader1.getBuilder().getNegativeLookupCacheSize(), is(0));
+        assertThat(loader1.getBuilder().getTopLoaderBucketSize(), is(0));
+        assertThat(loader1.getBuilder().getTopLoaderBucketMaxStaleRatio(),
+                is(LayeredClassLoader.Builder.DEFAULT_TOP_LOADER_BUCKET_MAX_STALE_RATIO));
+        assertThat(loader1.getBuilder().isTopLoaderHiddenClasses(), is(false));
 
         // when (extra: constructor with explicitly from code layers)
 
@@ -103,6 +119,10 @@ class LayeredClassLoaderTest {
                 .setCodeLayers(codeLayers)
                 .setWithTopCodeCache(true, topCodeCache)
                 .setTopLoadMode(LoadMode.CURRENT_FIRST)
+                .setNegativeLookupCacheSize(100)
+                .setTopLoaderBucketSize(200)
+                .setTopLoaderBucketMaxStaleRatio(0.25)
+                .setTopLoaderHiddenClasses(true)
                 .buildFromCodeLayers();
 
         // then
@@ -120,6 +140,10 @@ class LayeredClassLoaderTest {
         assertThat(loader.getBuilder().isWithTopCodeCache(), is(true));
         assertThat(loader.getBuilder().getTopLoadMode(), is(LoadMode.CURRENT_FIRST));
         assertThat(loader.getBuilder().getTopCodeCache(), is(loader.getTopCodeCache()));
+        assertThat(loader.getBuilder().getNegativeLookupCacheSize(), is(100));
+        assertThat(loader.getBuilder().getTopLoaderBucketSize(), is(200));
+        assertThat(loader.getBuilder().getTopLoaderBucketMaxStaleRatio(), is(0.25));
+        assertThat(loader.getBuilder().isTopLoaderHiddenClasses(), is(true));
     }
 
     @Test
@@ -148,6 +172,7 @@ class LayeredClassLoaderTest {
         assertThat(loader.getBuilder().isWithTopCodeCache(), is(false));
         assertThat(loader.getBuilder().getTopLoadMode(), is(LoadMode.PARENT_FIRST));
         assertThat(loader.getBuilder().getTopCodeCache(), is(nullValue()));
+        assertThat(loader.getBuilder().getCompileScheduler(), is(nullValue()));
     }
 
     @Test
@@ -159,6 +184,7 @@ class LayeredClassLoaderTest {
         final ClassLoader parent = Thread.currentThread().getContextClassLoader().getParent();
         final List<Sources> sourcesLayers = getTestSourcesLayers();
         final TopCodeCache topCodeCache = new DefaultTopCodeCache.Builder(parent).build();
+        final CompileScheduler compileScheduler = new CompileScheduler();
 
         // when
 
@@ -168,6 +194,7 @@ class LayeredClassLoaderTest {
                 .setSourcesLayers(sourcesLayers)
                 .setWithTopCodeCache(true, topCodeCache)
                 .setTopLoadMode(LoadMode.CURRENT_FIRST)
+                .setCompileScheduler(compileScheduler)
                 .buildFromSourcesLayers();
 
         // then
@@ -185,6 +212,8 @@ class LayeredClassLoaderTest {
         assertThat(loader.getBuilder().isWithTopCodeCache(), is(true));
         assertThat(loader.getBuilder().getTopLoadMode(), is(LoadMode.CURRENT_FIRST));
         assertThat(loader.getBuilder().getTopCodeCache(), is(loader.getTopCodeCache()));
+        assertThat(loader.getBuilder().getCompileScheduler(), is(compileScheduler));
+        assertThat(compileScheduler.getAdmittedCount(), is((long)sourcesLayers.size()));
     }
     
     @Test
@@ -339,6 +368,90 @@ class LayeredClassLoaderTest {
         assertThat(clone.getTopCodeCache(), instanceOf(DefaultTopCodeCache.class));
     }
 
+    @Test
+    void testCloneWithSharedCodeLayerLoaders() throws Exception {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final TopCodeCache topCodeCache = new DefaultTopCodeCache.Builder(parent).build();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(getTestSourcesLayers())
+                .setWithTopCodeCache(true, topCodeCache)
+                .buildFromSourcesLayers();
+        final Source s = new DefaultSourceFactory().fromText("return 'top'");
+
+        // when
+
+        final LayeredClassLoader clone = loader.cloneWithSharedCodeLayerLoaders();
+
+        // then
+
+        assertThat(clone.getBuilder(), is(loader.getBuilder()));
+        assertThat(clone.getCodeLayers(), is(loader.getCodeLayers()));
+        assertThat(clone.getLoadMode(), is(loader.getLoadMode()));
+        assertThat(clone.getTopCodeCache(), is(topCodeCache));
+        assertThat(clone.loadClass("Twice"), is(sameInstance(loader.loadClass("Twice"))));
+        assertThat(clone.loadClass("Twice$Inner2"), is(sameInstance(loader.loadClass("Twice$Inner2"))));
+        assertThat(clone.loadMainClass(s), is(not(sameInstance(loader.loadMainClass(s)))));
+
+        // when
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        clone.releaseClasses(releaser);
+
+        // then
+
+        assertThat(releaser.classes.size(), is(1));
+        assertThat(releaser.classes.contains(clone.loadMainClass(s)), is(true));
+    }
+
+    @Test
+    void testCloneWithSharedCodeLayerLoadersAndSeparateTopCodeCache() throws Exception {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final TopCodeCache topCodeCache = new DefaultTopCodeCache.Builder(parent).build();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(getTestSourcesLayers())
+                .setWithTopCodeCache(true, topCodeCache)
+                .buildFromSourcesLayers();
+
+        // when
+
+        final LayeredClassLoader clone = loader.cloneWithSharedCodeLayerLoadersAndSeparateTopCodeCache();
+
+        // then
+
+        assertThat(clone.getCodeLayers(), is(loader.getCodeLayers()));
+        assertThat(clone.getTopCodeCache(), is(notNullValue()));
+        assertThat(clone.getTopCodeCache(), is(not(sameInstance(topCodeCache))));
+        assertThat(clone.loadClass("Twice"), is(sameInstance(loader.loadClass("Twice"))));
+    }
+
+    @Test
+    void testCloneWithSharedCodeLayerLoaders_NoTopCodeCache() throws Exception {
+
+        // given
+
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(getTestSourcesLayers())
+                .buildFromSourcesLayers();
+
+        // when
+
+        final LayeredClassLoader clone = loader.cloneWithSharedCodeLayerLoaders();
+        final LayeredClassLoader cloneSeparate = loader.cloneWithSharedCodeLayerLoadersAndSeparateTopCodeCache();
+
+        // then
+
+        assertThat(clone.getTopCodeCache(), is(nullValue()));
+        assertThat(cloneSeparate.getTopCodeCache(), is(nullValue()));
+        assertThat(clone.loadClass("Twice"), is(sameInstance(loader.loadClass("Twice"))));
+        assertThat(cloneSeparate.loadClass("Twice"), is(sameInstance(loader.loadClass("Twice"))));
+    }
+
     @Test
     void testReleaseClasses() throws Exception {
 
@@ -388,6 +501,624 @@ class LayeredClassLoaderTest {
         assertThat(releaser.countClassesWithName("Class2$Class3"), is(1));
         assertThat(releaser.countClassesWithName("Class4"), is(2));
     }
+
+
+    @Test
+    void testBuildFromCodeLayersReusing() throws Exception {
+
+        // given
+
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Sources sources1 = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Class1 {}")), "test1");
+        final Sources sources2 = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Class2 {}")), "test2");
+        final Sources sources3 = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Class3 {}")), "test3");
+        final Sources sources3Changed = SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Class3 { int x }")), "test3");
+        final Code code1 = compiler.compile(sources1);
+        final Code code2 = compiler.compile(sources2);
+        final Code code3 = compiler.compile(sources3);
+        final LayeredClassLoader previous = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1, code2, code3)
+                .buildFromCodeLayers();
+
+        // when
+
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1, compiler.compile(sources2), compiler.compile(sources3Changed))
+                .buildFromCodeLayersReusing(previous);
+
+        // then
+
+        assertThat(previous.getReusedCodeLayerCount(), is(0));
+        assertThat(loader.getReusedCodeLayerCount(), is(2));
+        assertThat(loader.loadClass("Class1"), is(sameInstance(previous.loadClass("Class1"))));
+        assertThat(loader.loadClass("Class2"), is(sameInstance(previous.loadClass("Class2"))));
+        assertThat(loader.loadClass("Class3"), is(not(sameInstance(previous.loadClass("Class3")))));
+
+        // when
+
+        final LayeredClassLoader loaderChangedBelow = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1, compiler.compile(sources3Changed), code2)
+                .buildFromCodeLayersReusing(previous);
+
+        // then
+
+        assertThat(loaderChangedBelow.getReusedCodeLayerCount(), is(1));
+        assertThat(loaderChangedBelow.loadClass("Class1"), is(sameInstance(previous.loadClass("Class1"))));
+        assertThat(loaderChangedBelow.loadClass("Class2"), is(not(sameInstance(previous.loadClass("Class2")))));
+
+        // when
+
+        final LayeredClassLoader loaderOtherLoadMode = new LayeredClassLoader.Builder()
+                .setLoadMode(LoadMode.PARENT_FIRST)
+                .setCodeLayers(code1, code2, code3)
+                .buildFromCodeLayersReusing(previous);
+
+        // then
+
+        assertThat(loaderOtherLoadMode.getReusedCodeLayerCount(), is(0));
+        assertThat(loaderOtherLoadMode.loadClass("Class1"), is(not(sameInstance(previous.loadClass("Class1")))));
+    }
+
+    @Test
+    void testBuildFromCodeLayersReusingNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new LayeredClassLoader.Builder().buildFromCodeLayersReusing(null),
+                "Layered class loader is null.");
+    }
+
+    @Test
+    void testReleaseUnsharedClasses() throws Exception {
+
+        // given
+
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Code code1 = compiler.compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Unshared1 {}")), "test1"));
+        final Code code2 = compiler.compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Unshared2 {}")), "test2"));
+        final Code code3 = compiler.compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Unshared3 {}")), "test3"));
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader previous = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1, code2)
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .buildFromCodeLayers();
+        final Class<?> clazz1 = previous.loadClass("Unshared1");
+        final Class<?> clazz2 = previous.loadClass("Unshared2");
+        final Class<?> topClazz = previous.loadMainClass(f.fromText("class UnsharedTop {}"));
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1, code3)
+                .buildFromCodeLayersReusing(previous);
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+
+        // when
+
+        previous.releaseUnsharedClasses(releaser);
+
+        // then
+
+        assertThat(loader.loadClass("Unshared1"), is(sameInstance(clazz1)));
+        assertThat(releaser.classes.contains(clazz1), is(false));
+        assertThat(releaser.classes.contains(clazz2), is(true));
+        assertThat(releaser.classes.contains(topClazz), is(true));
+
+        // when
+
+        final RecordingClassReleaser cloneReleaser = new RecordingClassReleaser();
+        final LayeredClassLoader clone = loader.cloneWithSharedCodeLayerLoaders();
+        final Class<?> clazz3 = clone.loadClass("Unshared3");
+        loader.releaseUnsharedClasses(cloneReleaser);
+
+        // then
+
+        assertThat(cloneReleaser.classes.contains(clazz1), is(false));
+        assertThat(cloneReleaser.classes.contains(clazz3), is(false));
+
+        // when (last user of the code layer loaders)
+
+        final RecordingClassReleaser lastReleaser = new RecordingClassReleaser();
+        clone.releaseUnsharedClasses(lastReleaser);
+
+        // then
+
+        assertThat(lastReleaser.classes.contains(clazz1), is(true));
+        assertThat(lastReleaser.classes.contains(clazz3), is(true));
+    }
+
+    @Test
+    void testReleaseUnsharedClassesReferenceCount() throws Exception {
+
+        // given
+
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Code code1 = compiler.compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Counted1 {}")), "test1"));
+        final LayeredClassLoader loader1 = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1)
+                .buildFromCodeLayers();
+        final Class<?> clazz1 = loader1.loadClass("Counted1");
+        final BytecodeClassLoader layerLoader = (BytecodeClassLoader)clazz1.getClassLoader();
+        final LayeredClassLoader loader2 = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1)
+                .buildFromCodeLayersReusing(loader1);
+        final LayeredClassLoader clone = loader2.cloneWithSharedCodeLayerLoaders();
+
+        // then
+
+        assertThat(layerLoader.getReferenceCount(), is(3));
+
+        // when (released in any order)
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        loader2.releaseUnsharedClasses(releaser);
+        loader1.releaseUnsharedClasses(releaser);
+        // released only once per layered class loader
+        loader1.releaseUnsharedClasses(releaser);
+
+        // then
+
+        assertThat(layerLoader.getReferenceCount(), is(1));
+        assertThat(releaser.classes.contains(clazz1), is(false));
+
+        // when
+
+        clone.releaseUnsharedClasses(releaser);
+
+        // then
+
+        assertThat(layerLoader.getReferenceCount(), is(0));
+        assertThat(releaser.classes.contains(clazz1), is(true));
+    }
+
+    @Test
+    void testReleaseClassesAsync() throws Exception {
+
+        // given
+
+        final DefaultGroovyCompiler compiler = new DefaultGroovyCompiler();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Code code1 = compiler.compile(SourcesUtil.sourceSetToSources(
+                SourceUtil.sourceArrayToSourceSet(f.fromText("class Async1 {}")), "test1"));
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setCodeLayers(code1)
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .buildFromCodeLayers();
+        final Class<?> clazz1 = loader.loadClass("Async1");
+        final Class<?> topClazz = loader.loadMainClass(f.fromText("class AsyncTop {}"));
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final RecordingClassReleaser releaser = new RecordingClassReleaser() {
+            @Override
+            public void release(final Class<?> clazz) {
+                threadNames.add(Thread.currentThread().getName());
+                super.release(clazz);
+            }
+        };
+
+        // when
+
+        loader.releaseClassesAsync(releaser).get();
+
+        // then
+
+        assertThat(releaser.classes.contains(clazz1), is(true));
+        assertThat(releaser.classes.contains(topClazz), is(true));
+        assertThat(releaser.classes.size(), is(2));
+        assertThat(threadNames, is(Collections.singleton(ClassReleaseExecutor.THREAD_NAME)));
+
+        // when (nothing left to release)
+
+        final CompletableFuture<Void> future = loader.releaseClassesAsync(releaser);
+
+        // then
+
+        assertThat(future.isDone(), is(true));
+        assertThat(releaser.classes.size(), is(2));
+    }
+
+    @Test
+    void testNegativeLookupCache() throws Exception {
+
+        // given
+
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(getTestSourcesLayers())
+                .setNegativeLookupCacheSize(2)
+                .buildFromSourcesLayers();
+
+        // when
+
+        final ClassNotFoundException e1 = assertThrows(ClassNotFoundException.class,
+                () -> loader.loadClass("NoSuchClass1"));
+
+        // then
+
+        assertThat(e1.getMessage(), is("NoSuchClass1"));
+        assertThat(loader.getNegativeLookupCacheEntryCount(), is(1));
+
+        // when
+
+        final ClassNotFoundException e2 = assertThrows(ClassNotFoundException.class,
+                () -> loader.loadClass("NoSuchClass1"));
+
+        // then
+
+        assertThat(e2, instanceOf(StacklessClassNotFoundException.class));
+        assertThat(e2.getMessage(), is("NoSuchClass1"));
+        assertThat(e2.getStackTrace().length, is(0));
+        assertThat(loader.getNegativeLookupCacheEntryCount(), is(1));
+
+        // when
+
+        assertThrows(ClassNotFoundException.class, () -> loader.loadClass("NoSuchClass2"));
+        assertThrows(ClassNotFoundException.class, () -> loader.loadClass("NoSuchClass3"));
+
+        // then (cleared when full)
+
+        assertThat(loader.getNegativeLookupCacheEntryCount(), is(1));
+        assertThat(loader.loadClass("Twice").getName(), is("Twice"));
+        assertThat(loader.loadClass("java.io.File").getName(), is("java.io.File"));
+        assertThat(loader.getNegativeLookupCacheEntryCount(), is(1));
+    }
+
+    @Test
+    void testNegativeLookupCacheNotConfigured() {
+
+        // given
+
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(getTestSourcesLayers())
+                .buildFromSourcesLayers();
+
+        // when
+
+        assertThrows(ClassNotFoundException.class, () -> loader.loadClass("NoSuchClass1"));
+        final ClassNotFoundException e = assertThrows(ClassNotFoundException.class,
+                () -> loader.loadClass("NoSuchClass1"));
+
+        // then
+
+        assertThat(e, not(instanceOf(StacklessClassNotFoundException.class)));
+        assertThat(loader.getNegativeLookupCacheEntryCount(), is(0));
+    }
+
+    @Test
+    void testTopLoaderBuckets() {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .setTopLoaderBucketSize(2)
+                .buildFromCodeLayers();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source s1 = f.fromText("class Bucket1 {}");
+        final Source s2 = f.fromText("class Bucket2 {}");
+        final Source s3 = f.fromText("class Bucket3 {}");
+
+        // when
+
+        final Class<?> clazz1 = loader.loadMainClass(s1);
+        final Class<?> clazz2 = loader.loadMainClass(s2);
+
+        // then
+
+        assertThat(clazz2.getClassLoader(), is(sameInstance(clazz1.getClassLoader())));
+        assertThat(loader.getTopLoaderCount(), is(1));
+
+        // when
+
+        final Class<?> clazz3 = loader.loadMainClass(s3);
+
+        // then (bucket full)
+
+        assertThat(clazz3.getClassLoader(), is(not(sameInstance(clazz1.getClassLoader()))));
+        assertThat(loader.getTopLoaderCount(), is(2));
+        assertThat(loader.loadMainClass(s1), is(sameInstance(clazz1)));
+        assertThat(loader.loadClass(s2, "Bucket2"), is(sameInstance(clazz2)));
+    }
+
+    @Test
+    void testTopLoaderBucketsRetireStale() {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .setTopLoaderBucketSize(10)
+                .buildFromCodeLayers();
+        final MockTextSource s1 = new MockTextSource("class Retire1 {}");
+        final MockTextSource s2 = new MockTextSource("class Retire2 {}");
+        final Class<?> clazz1 = loader.loadMainClass(s1);
+        final Class<?> clazz2 = loader.loadMainClass(s2);
+
+        // when (replaced code without class name conflicts, 1 of 3 classes stale)
+
+        s1.setText("class Retire1b {}");
+        s1.setLastModified(1);
+        final Class<?> clazz1b = loader.loadMainClass(s1);
+
+        // then
+
+        assertThat(clazz1b.getName(), is("Retire1b"));
+        assertThat(clazz1b.getClassLoader(), is(sameInstance(clazz1.getClassLoader())));
+        assertThat(loader.getTopLoaderCount(), is(1));
+        assertThat(loader.loadMainClass(s2), is(sameInstance(clazz2)));
+
+        // when (2 of 4 classes stale, so bucket is retired)
+
+        s1.setText("class Retire1c {}");
+        s1.setLastModified(2);
+        final Class<?> clazz1c = loader.loadMainClass(s1);
+        final Class<?> clazz2Again = loader.loadMainClass(s2);
+
+        // then
+
+        assertThat(clazz1c.getName(), is("Retire1c"));
+        assertThat(clazz1c.getClassLoader(), is(not(sameInstance(clazz1.getClassLoader()))));
+        assertThat(clazz2Again.getName(), is("Retire2"));
+        assertThat(clazz2Again, is(not(sameInstance(clazz2))));
+        assertThat(clazz2Again.getClassLoader(), is(sameInstance(clazz1c.getClassLoader())));
+        assertThat(loader.getTopLoaderCount(), is(1));
+
+        // when (class name conflict, so new bucket, previous bucket then also retired)
+
+        s2.setText("class Retire2 { int x }");
+        s2.setLastModified(3);
+        final Class<?> clazz2Changed = loader.loadMainClass(s2);
+
+        // then
+
+        assertThat(clazz2Changed.getName(), is("Retire2"));
+        assertThat(clazz2Changed.getClassLoader(), is(not(sameInstance(clazz2Again.getClassLoader()))));
+        assertThat(loader.getTopLoaderCount(), is(1));
+        assertThat(loader.loadMainClass(s1).getClassLoader(), is(sameInstance(clazz2Changed.getClassLoader())));
+    }
+
+    @Test
+    void testTopLoaderHiddenClasses() throws Exception {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .setTopLoaderHiddenClasses(true)
+                .buildFromCodeLayers();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source s1 = f.fromText("return Math.max(1, 2)");
+        final Source s2 = f.fromText("class Other {}; return 3");
+        final boolean isSupported = HiddenClassDefiner.isSupported();
+
+        // when
+
+        final Class<?> clazz1 = loader.loadMainClass(s1);
+        final Class<?> clazz2 = loader.loadMainClass(s2);
+
+        // then (hidden class only if supported, never for multiple classes)
+
+        assertThat(((Script)clazz1.getConstructor().newInstance()).run(), is(2));
+        assertThat(((Script)clazz2.getConstructor().newInstance()).run(), is(3));
+        assertThat(clazz1.getName().contains("/"), is(isSupported));
+        assertThat(clazz1.getClassLoader() instanceof BytecodeClassLoader, is(!isSupported));
+        assertThat(clazz2.getClassLoader() instanceof BytecodeClassLoader, is(true));
+        assertThat(loader.getTopHiddenClassCount(), is(isSupported ? 1 : 0));
+        assertThat(loader.loadMainClass(s1), is(sameInstance(clazz1)));
+        assertThat(loader.loadClass(s1, loader.getTopCodeCache().getUpToDateCode(s1).getMainClassName()),
+                is(sameInstance(clazz1)));
+
+        // when
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        loader.releaseClasses(releaser);
+
+        // then
+
+        assertThat(releaser.classes.contains(clazz1), is(true));
+        assertThat(releaser.classes.contains(clazz2), is(true));
+    }
+
+    @Test
+    void testTopLoaderHiddenClassesUnload() throws Exception {
+
+        // given (Java 15 or later)
+
+        assumeTrue(HiddenClassDefiner.isSupported(), "Hidden classes not available.");
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .setTopLoaderHiddenClasses(true)
+                .buildFromCodeLayers();
+        final MockTextSource s = new MockTextSource("return 1");
+        final WeakReference<Class<?>> clazzRef = new WeakReference<>(loader.loadMainClass(s));
+
+        // when (code changed)
+
+        s.setText("return 2");
+        s.setLastModified(1);
+        final WeakReference<Class<?>> clazzRefChanged = new WeakReference<>(loader.loadMainClass(s));
+
+        // then (replaced, old hidden class can be unloaded)
+
+        assertThat(clazzRefChanged.get(), is(not(sameInstance(clazzRef.get()))));
+        assertThat(loader.getTopHiddenClassCount(), is(1));
+        assertThat(waitForCleared(clazzRef), is(true));
+
+        // when (memory pressure)
+
+        allocateUntilOutOfMemory();
+
+        // then (unloaded while the loader remains reachable, defined again when loaded again)
+
+        assertThat(waitForCleared(clazzRefChanged), is(true));
+        assertThat(loader.getTopHiddenClassCount(), is(0));
+        final Class<?> clazz = loader.loadMainClass(s);
+        assertThat(((Script)clazz.getConstructor().newInstance()).run(), is(2));
+        assertThat(loader.getTopHiddenClassCount(), is(1));
+        assertThat(loader.loadMainClass(s), is(sameInstance(clazz)));
+    }
+
+    // soft references are guaranteed to be cleared before an OutOfMemoryError is thrown
+    private static void allocateUntilOutOfMemory() {
+        final List<byte[]> chunks = new LinkedList<>();
+        try {
+            while (true) {
+                chunks.add(new byte[64 * 1024 * 1024]);
+            }
+        } catch (OutOfMemoryError e) {
+            chunks.clear();
+        }
+    }
+
+    private static boolean waitForCleared(final WeakReference<?> ref) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (ref.get() != null) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            System.gc();
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    void testTopLoaderBucketsReleaseClasses() {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .setTopLoaderBucketSize(10)
+                .buildFromCodeLayers();
+        final SourceFactory f = new DefaultSourceFactory();
+        final Class<?> clazz1 = loader.loadMainClass(f.fromText("class Release1 {}"));
+        final Class<?> clazz2 = loader.loadMainClass(f.fromText("class Release2 {}"));
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+
+        // when
+
+        loader.releaseClasses(releaser);
+
+        // then
+
+        assertThat(releaser.classes.contains(clazz1), is(true));
+        assertThat(releaser.classes.contains(clazz2), is(true));
+        assertThat(releaser.classes.size(), is(2));
+    }
+
+    @Test
+    void testWarmUp() throws Exception {
+
+        // given
+
+        final SourceFactory f = new DefaultSourceFactory();
+        final Source s1 = f.fromText("class Class1 { static { throw new RuntimeException('init') } }");
+        final Source s2 = f.fromText("class Class2 { static class Class3 {} }");
+        final Source s3 = f.fromText("class Class4 {}");
+        final List<Sources> sourcesLayers = Arrays.asList(
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s1, s2), "test1"),
+                SourcesUtil.sourceSetToSources(SourceUtil.sourceArrayToSourceSet(s3), "test2"));
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(sourcesLayers)
+                .buildFromSourcesLayers();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+
+            // when
+
+            loader.warmUp(executor, true).get();
+
+            // then
+
+            final RecordingClassReleaser releaser = new RecordingClassReleaser();
+            loader.releaseClasses(releaser);
+            assertThat(releaser.classes.size(), is(4));
+            assertThat(releaser.countClassesWithName("Class1"), is(1));
+            assertThat(releaser.countClassesWithName("Class2"), is(1));
+            assertThat(releaser.countClassesWithName("Class2$Class3"), is(1));
+            assertThat(releaser.countClassesWithName("Class4"), is(1));
+            // defined but not initialized
+            assertThat(loader.loadClass("Class1").getName(), is("Class1"));
+            assertThat(loader.loadClass("Class4"), is(sameInstance(loader.loadClass("Class4"))));
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testWarmUpNoCodeLayers() throws Exception {
+
+        // given
+
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder().buildFromCodeLayers();
+
+        // when
+
+        loader.warmUp(Runnable::run, false).get();
+
+        // then
+
+        final RecordingClassReleaser releaser = new RecordingClassReleaser();
+        loader.releaseClasses(releaser);
+        assertThat(releaser.classes.size(), is(0));
+    }
+
+    @Test
+    void testIsCompileNeeded() {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final List<Sources> sourcesLayers = getTestSourcesLayers();
+        final Source layerSource = sourcesLayers.get(0).getSourceSet().iterator().next();
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder()
+                .setSourcesLayers(sourcesLayers)
+                .setWithTopCodeCache(true, new DefaultTopCodeCache.Builder(parent).build())
+                .buildFromSourcesLayers();
+        final LayeredClassLoader loaderNoTopCodeCache = new LayeredClassLoader.Builder()
+                .setCodeLayers(getTestCodeLayers(parent))
+                .buildFromCodeLayers();
+        final Source topSource = new DefaultSourceFactory().fromText("return 1");
+
+        // when/then
+
+        assertThat(loader.isCompileNeeded(layerSource), is(false));
+        assertThat(loader.isCompileNeeded(topSource), is(true));
+        loader.loadMainClass(topSource);
+        assertThat(loader.isCompileNeeded(topSource), is(false));
+        assertThat(loaderNoTopCodeCache.isCompileNeeded(topSource), is(false));
+    }
+
+    @Test
+    void testWarmUpExecutorNull() {
+
+        // given
+
+        final LayeredClassLoader loader = new LayeredClassLoader.Builder().buildFromCodeLayers();
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> loader.warmUp(null, false),
+                "Executor is null.");
+    }
     
     
     private static List<Sources> getTestSourcesLayers() {
@@ -0,0 +1,337 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package ch.grengine.load;
+
+import ch.grengine.code.Code;
+import ch.grengine.code.groovy.DefaultGroovyCompiler;
+import ch.grengine.code.groovy.DefaultGroovyCompilerFactory;
+import ch.grengine.except.CompileException;
+import ch.grengine.source.DefaultTextSource;
+import ch.grengine.sources.Sources;
+import ch.grengine.sources.SourcesUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static ch.grengine.TestUtil.toRuntimeException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class SharedCodeRegistryTest {
+
+    private static Code compile(final Sources sources, final ClassLoader parent, final AtomicInteger compileCount) {
+        compileCount.incrementAndGet();
+        return new DefaultGroovyCompiler.Builder().setParent(parent).build().compile(sources);
+    }
+
+    @Test
+    void testAcquireRetainRelease() {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+        final AtomicInteger compileCount = new AtomicInteger();
+
+        // when
+
+        final Code code1 = registry.acquire(sources, parent, () -> compile(sources, parent, compileCount));
+        final Code code2 = registry.acquire(sources, parent, () -> compile(sources, parent, compileCount));
+
+        // then
+
+        assertThat(code2, sameInstance(code1));
+        assertThat(compileCount.get(), is(1));
+        assertThat(registry.getRefCount(code1), is(2));
+        assertThat(registry.getCodeCount(), is(1));
+        assertThat(registry.getHitCount(), is(1L));
+        assertThat(registry.getMissCount(), is(1L));
+
+        // when
+
+        final boolean isRetained = registry.retain(code1);
+
+        // then
+
+        assertThat(isRetained, is(true));
+        assertThat(registry.getRefCount(code1), is(3));
+
+        // when
+
+        registry.release(code1);
+        registry.release(code1);
+
+        // then
+
+        assertThat(registry.getRefCount(code1), is(1));
+        assertThat(registry.getCodeCount(), is(1));
+
+        // when
+
+        final boolean isReleased = registry.release(code1);
+
+        // then
+
+        assertThat(isReleased, is(true));
+        assertThat(registry.getRefCount(code1), is(0));
+        assertThat(registry.getCodeCount(), is(0));
+        assertThat(registry.retain(code1), is(false));
+        assertThat(registry.release(code1), is(false));
+
+        // when
+
+        final Code code3 = registry.acquire(sources, parent, () -> compile(sources, parent, compileCount));
+
+        // then
+
+        assertThat(code3, not(sameInstance(code1)));
+        assertThat(compileCount.get(), is(2));
+        assertThat(registry.getMissCount(), is(2L));
+    }
+
+    @Test
+    void testAcquireDifferentKeys() {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final ClassLoader otherParent = new ClassLoader(parent) {};
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+        final Sources sameSources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+        final Sources otherTextSources = SourcesUtil.sourceToSources(new DefaultTextSource("return 2"));
+        final CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilationCustomizers(new ImportCustomizer().addImports("java.util.Date"));
+        final Sources otherConfigSources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"),
+                new DefaultGroovyCompilerFactory(config));
+        final AtomicInteger compileCount = new AtomicInteger();
+
+        // when
+
+        final Code code = registry.acquire(sources, parent, () -> compile(sources, parent, compileCount));
+        final Code codeSame = registry.acquire(sameSources, parent,
+                () -> compile(sameSources, parent, compileCount));
+        final Code codeOtherParent = registry.acquire(sources, otherParent,
+                () -> compile(sources, otherParent, compileCount));
+        final Code codeOtherText = registry.acquire(otherTextSources, parent,
+                () -> compile(otherTextSources, parent, compileCount));
+        final Code codeOtherConfig = registry.acquire(otherConfigSources, parent,
+                () -> compile(otherConfigSources, parent, compileCount));
+
+        // then
+
+        assertThat(codeSame, sameInstance(code));
+        assertThat(codeOtherParent, not(sameInstance(code)));
+        assertThat(codeOtherText, not(sameInstance(code)));
+        assertThat(codeOtherConfig, not(sameInstance(code)));
+        assertThat(compileCount.get(), is(4));
+        assertThat(registry.getCodeCount(), is(4));
+    }
+
+    @Test
+    void testGetCompilerConfigKey() {
+
+        // given
+
+        final ImportCustomizer customizer = new ImportCustomizer().addImports("java.util.Date");
+        final CompilerConfiguration config1 = new CompilerConfiguration();
+        config1.addCompilationCustomizers(customizer);
+        final CompilerConfiguration config2 = new CompilerConfiguration();
+        config2.addCompilationCustomizers(customizer);
+        final CompilerConfiguration config3 = new CompilerConfiguration();
+        config3.addCompilationCustomizers(new ImportCustomizer().addImports("java.util.Date"));
+        final DefaultGroovyCompilerFactory otherFactory = new DefaultGroovyCompilerFactory() {};
+
+        // when
+
+        final Object key1 = SharedCodeRegistry.getCompilerConfigKey(new DefaultGroovyCompilerFactory(config1));
+        final Object key2 = SharedCodeRegistry.getCompilerConfigKey(new DefaultGroovyCompilerFactory(config2));
+        final Object key3 = SharedCodeRegistry.getCompilerConfigKey(new DefaultGroovyCompilerFactory(config3));
+
+        // then
+
+        assertThat(key1, is(key2));
+        assertThat(key1.hashCode(), is(key2.hashCode()));
+        assertThat(key1, not(key3));
+        assertThat(SharedCodeRegistry.getCompilerConfigKey(new DefaultGroovyCompilerFactory()),
+                is(SharedCodeRegistry.getCompilerConfigKey(new DefaultGroovyCompilerFactory())));
+        assertThat(SharedCodeRegistry.getCompilerConfigKey(otherFactory),
+                is(SharedCodeRegistry.getCompilerConfigKey(otherFactory)));
+        assertThat(SharedCodeRegistry.getCompilerConfigKey(otherFactory),
+                not(SharedCodeRegistry.getCompilerConfigKey(new DefaultGroovyCompilerFactory() {})));
+    }
+
+    @Test
+    void testGetParentKey() {
+
+        // given
+
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("class Layer {}"));
+        final Code code = new DefaultGroovyCompiler.Builder().setParent(parent).build().compile(sources);
+        final Code otherCode = new DefaultGroovyCompiler.Builder().setParent(parent).build().compile(sources);
+
+        // when
+
+        final LayeredClassLoader loader1 = new LayeredClassLoader.Builder()
+                .setParent(parent)
+                .setCodeLayers(code)
+                .buildFromCodeLayers();
+        final LayeredClassLoader loader2 = new LayeredClassLoader.Builder()
+                .setParent(parent)
+                .setCodeLayers(code)
+                .buildFromCodeLayers();
+        final LayeredClassLoader loader3 = new LayeredClassLoader.Builder()
+                .setParent(parent)
+                .setCodeLayers(otherCode)
+                .buildFromCodeLayers();
+        final BytecodeClassLoader bytecodeLoader1 = new BytecodeClassLoader(parent, LoadMode.CURRENT_FIRST, code);
+        final BytecodeClassLoader bytecodeLoader2 = new BytecodeClassLoader(parent, LoadMode.CURRENT_FIRST, code);
+
+        // then
+
+        assertThat(SharedCodeRegistry.getParentKey(loader1), is(SharedCodeRegistry.getParentKey(loader2)));
+        assertThat(SharedCodeRegistry.getParentKey(loader1), not(SharedCodeRegistry.getParentKey(loader3)));
+        assertThat(SharedCodeRegistry.getParentKey(bytecodeLoader1),
+                is(SharedCodeRegistry.getParentKey(bytecodeLoader2)));
+        assertThat(SharedCodeRegistry.getParentKey(parent), is(SharedCodeRegistry.getParentKey(parent)));
+        assertThat(SharedCodeRegistry.getParentKey(parent),
+                not(SharedCodeRegistry.getParentKey(new ClassLoader(parent) {})));
+    }
+
+    @Test
+    void testGetSourcesFingerprint() {
+
+        // given
+
+        final Sources sources1 = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+        final Sources sources2 = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+        final Sources sources3 = SourcesUtil.sourceToSources(new DefaultTextSource("return 2"));
+
+        // then
+
+        assertThat(SharedCodeRegistry.getSourcesFingerprint(sources1),
+                is(SharedCodeRegistry.getSourcesFingerprint(sources2)));
+        assertThat(SharedCodeRegistry.getSourcesFingerprint(sources1),
+                not(SharedCodeRegistry.getSourcesFingerprint(sources3)));
+    }
+
+    @Test
+    void testAcquireConcurrentCompilesOnce() throws Exception {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+        final AtomicInteger compileCount = new AtomicInteger();
+        final CountDownLatch compiling = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // when
+
+        final Future<Code> first = executor.submit(() -> registry.acquire(sources, parent, () -> {
+            compiling.countDown();
+            toRuntimeException(done::await);
+            return compile(sources, parent, compileCount);
+        }));
+        compiling.await();
+        final Future<Code> second = executor.submit(() ->
+                registry.acquire(sources, parent, () -> compile(sources, parent, compileCount)));
+        while (registry.getHitCount() == 0) {
+            Thread.sleep(1);
+        }
+        done.countDown();
+
+        // then
+
+        assertThat(second.get(10, TimeUnit.SECONDS), sameInstance(first.get(10, TimeUnit.SECONDS)));
+        assertThat(compileCount.get(), is(1));
+        assertThat(registry.getRefCount(first.get()), is(2));
+        executor.shutdown();
+    }
+
+    @Test
+    void testAcquireCompileFails() {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return #"));
+        final AtomicInteger compileCount = new AtomicInteger();
+
+        // when/then
+
+        assertThrows(CompileException.class,
+                () -> registry.acquire(sources, parent, () -> compile(sources, parent, compileCount)));
+        assertThrows(CompileException.class,
+                () -> registry.acquire(sources, parent, () -> compile(sources, parent, compileCount)));
+        assertThat(compileCount.get(), is(2));
+        assertThat(registry.getCodeCount(), is(0));
+    }
+
+    @Test
+    void testNull() {
+
+        // given
+
+        final SharedCodeRegistry registry = new SharedCodeRegistry();
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final Sources sources = SourcesUtil.sourceToSources(new DefaultTextSource("return 1"));
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.acquire(null, parent, () -> null),
+                "Sources are null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.acquire(sources, null, () -> null),
+                "Parent class loader is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.acquire(sources, parent, null),
+                "Compile function is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.acquire(sources, parent, () -> null),
+                "Compiled code is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.retain(null),
+                "Code is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.release(null),
+                "Code is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> registry.getRefCount(null),
+                "Code is null.");
+        assertThat(registry.getCodeCount(), is(0));
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+   Copyright 2014-now by Alain Stalder. Made in Switzerland.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       https://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package ch.grengine.source;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import static ch.grengine.TestUtil.assertThrowsMessageIs;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+
+class DefaultFunctionSourceTest {
+
+    @Test
+    void testConstructPlusGetters() throws Exception {
+
+        // given
+
+        final String text = "x + y";
+
+        // when
+
+        final FunctionSource s = new DefaultFunctionSource(text, BiFunction.class, "x", "y");
+
+        // then
+
+        assertThat(s.getId(), is("/groovy/script/Function" +
+                SourceUtil.md5(text + "\n" + BiFunction.class.getName() + "\nx,y")));
+        assertThat(s.getLastModified(), is(0L));
+        assertThat(s.getText(), is(text));
+        assertThat(s.getFunctionInterface(), is(BiFunction.class));
+        assertThat(s.getFunctionMethod(), is(BiFunction.class.getMethod("apply", Object.class, Object.class)));
+        assertThat(s.getParameterNames(), is(Arrays.asList("x", "y")));
+        System.out.println(s);
+        assertThat(s.toString(), is("DefaultFunctionSource[ID=" + s.getId() +
+                ", functionInterface=java.util.function.BiFunction, parameterNames=[x, y], text='x + y']"));
+    }
+
+    @Test
+    void testIdDependsOnInterfaceAndParameterNames() {
+
+        // when
+
+        final Source s1 = new DefaultFunctionSource("x", BiFunction.class, "x", "y");
+        final Source s2 = new DefaultFunctionSource("x", BiFunction.class, "y", "x");
+        final Source s3 = new DefaultFunctionSource("x", Comparator.class, "x", "y");
+        final Source s4 = new DefaultFunctionSource("x", BiFunction.class, "x", "y");
+
+        // then
+
+        assertThat(s1, not(s2));
+        assertThat(s1, not(s3));
+        assertThat(s1, is(s4));
+    }
+
+    @Test
+    void testObjectMethodsAreNotFunctionMethods() throws Exception {
+
+        // when
+
+        final FunctionSource s = new DefaultFunctionSource("0", Comparator.class, "a", "b");
+
+        // then
+
+        assertThat(s.getFunctionMethod(), is(Comparator.class.getMethod("compare", Object.class, Object.class)));
+    }
+
+    @Test
+    void testConstructWithArgumentsNull() {
+
+        // when/then
+
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new DefaultFunctionSource(null, Supplier.class),
+                "Text is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new DefaultFunctionSource("1", null),
+                "Function interface is null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new DefaultFunctionSource("1", Supplier.class, (String[])null),
+                "Parameter names are null.");
+        assertThrowsMessageIs(NullPointerException.class,
+                () -> new DefaultFunctionSource("1", BiFunction.class, "x", null),
+                "Parameter name is null.");
+    }
+
+    @Test
+    void testConstructWithInvalidInterface() {
+
+        // when/then
+
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> new DefaultFunctionSource("1", Object.class),
+                "Not an interface: java.lang.Object");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> new DefaultFunctionSource("1", Source.class),
+                "Interface ch.grengine.source.Source has 2 abstract methods, must have exactly one.");
+        assertThrowsMessageIs(IllegalArgumentException.class,
+                () -> new DefaultFunctionSource("1", BiFunction.class, "x"),
+                "Got 1 parameter names for method 'apply' with 2 parameters.");
+    }
+
+}